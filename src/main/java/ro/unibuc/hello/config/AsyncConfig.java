@@ -0,0 +1,42 @@
+package ro.unibuc.hello.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Streamed responses (the CSV export and the NDJSON listing) are written from their own pool, under a timeout
+// long enough for the largest export. Left to the defaults they'd run on a shared executor and be cut off by
+// the container's 30s async timeout, which leaves the client a truncated body behind a 200.
+// Long polls on /events set their own timeout per request and don't use the pool.
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    private final long timeoutMillis;
+    private final int threads;
+
+    public AsyncConfig(@Value("${rent.download.timeout-ms:21600000}") long timeoutMillis,
+                       @Value("${rent.download.threads:8}") int threads) {
+        this.timeoutMillis = timeoutMillis;
+        this.threads = threads;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor downloadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("download-");
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        // Downloads past the pool wait for a thread rather than failing, their timeout runs while they wait
+        executor.setQueueCapacity(threads * 16);
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(timeoutMillis);
+        configurer.setTaskExecutor(downloadExecutor());
+    }
+}
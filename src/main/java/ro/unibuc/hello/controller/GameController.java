@@ -1,6 +1,8 @@
 package ro.unibuc.hello.controller;
 
 import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.dto.GameRentalStats;
+import ro.unibuc.hello.service.GameRentalCounters;
 import ro.unibuc.hello.service.GameService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -19,10 +21,12 @@ import io.micrometer.core.annotation.Timed;
 public class GameController {
 
     private final GameService gameService;
+    private final GameRentalCounters gameRentalCounters;
 
     @Autowired
-    public GameController(GameService gameService) {
+    public GameController(GameService gameService, GameRentalCounters gameRentalCounters) {
         this.gameService = gameService;
+        this.gameRentalCounters = gameRentalCounters;
     }
 
     @GetMapping("/slow")
@@ -77,6 +81,13 @@ public class GameController {
         return new ResponseEntity<>(game, HttpStatus.OK);
     }
 
+    @GetMapping("/{id}/rental-stats")
+    public ResponseEntity<GameRentalStats> getRentalStats(@PathVariable String id) {
+        // 404 for unknown games instead of all-zero stats
+        gameService.getGameById(id);
+        return new ResponseEntity<>(gameRentalCounters.getStats(id), HttpStatus.OK);
+    }
+
     @PostMapping
     @Timed(value = "games.create", description = "Time taken to create a new game")
     @Counted(value = "games.create.count", description = "Number of times createGame method has been invoked")
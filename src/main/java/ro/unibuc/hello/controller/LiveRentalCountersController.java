@@ -0,0 +1,25 @@
+package ro.unibuc.hello.controller;
+
+import ro.unibuc.hello.dto.LiveRentalCounts;
+import ro.unibuc.hello.service.LiveRentalCounters;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+// Active rentals right now, per game, platform and genre, as kept by the rents change stream
+@RestController
+@RequestMapping("/manage/live-counters")
+public class LiveRentalCountersController {
+
+    private final LiveRentalCounters liveRentalCounters;
+
+    @Autowired
+    public LiveRentalCountersController(LiveRentalCounters liveRentalCounters) {
+        this.liveRentalCounters = liveRentalCounters;
+    }
+
+    @GetMapping
+    public ResponseEntity<LiveRentalCounts> getCounts() {
+        return ResponseEntity.ok(liveRentalCounters.getCounts());
+    }
+}
@@ -1,31 +1,152 @@
 package ro.unibuc.hello.controller;
 
+import ro.unibuc.hello.data.ReconcileRun;
 import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.BillingReport;
 import ro.unibuc.hello.dto.LateRent;
+import ro.unibuc.hello.dto.RentListItem;
+import ro.unibuc.hello.service.GameService;
+import ro.unibuc.hello.service.InventoryReconciler;
+import ro.unibuc.hello.service.LateFeeBilling;
 import ro.unibuc.hello.service.ManageRentService;
+import ro.unibuc.hello.service.ReferenceCache;
+import ro.unibuc.hello.service.RentCsvExport;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/manage")
 public class ManageRentController {
+    private static final String EXPAND_GAME = "game";
+    private static final String EXPAND_NAMES = "names";
+    private static final String VIEW_COMPACT = "compact";
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String CSV = "text/csv";
+
     private final ManageRentService manageRentService;
+    private final GameService gameService;
+    private final LateFeeBilling lateFeeBilling;
+    private final InventoryReconciler inventoryReconciler;
+    private final ObjectMapper objectMapper;
+    private final ReferenceCache referenceCache;
+    private final RentCsvExport rentCsvExport;
 
     @Autowired
-    public ManageRentController(ManageRentService manageRentService) {
+    public ManageRentController(ManageRentService manageRentService, GameService gameService,
+                                LateFeeBilling lateFeeBilling, InventoryReconciler inventoryReconciler,
+                                ObjectMapper objectMapper, ReferenceCache referenceCache,
+                                RentCsvExport rentCsvExport) {
         this.manageRentService = manageRentService;
+        this.gameService = gameService;
+        this.lateFeeBilling = lateFeeBilling;
+        this.inventoryReconciler = inventoryReconciler;
+        this.objectMapper = objectMapper;
+        this.referenceCache = referenceCache;
+        this.rentCsvExport = rentCsvExport;
     }
 
     @GetMapping("/rented")
-    public ResponseEntity<List<Rent>> getAllActiveRents() {
-        return ResponseEntity.ok(manageRentService.getAllActiveRents());
+    public ResponseEntity<List<?>> getAllActiveRents(@RequestParam(required = false) String expand,
+                                                     @RequestParam(required = false) String view) {
+        if (VIEW_COMPACT.equals(view)) {
+            List<RentListItem> items = manageRentService.getAllActiveRentItems();
+            return ResponseEntity.ok(expand(items, expand, RentListItem::getUserId, RentListItem::getGameId));
+        }
+        List<Rent> rents = manageRentService.getAllActiveRents();
+        return ResponseEntity.ok(expand(rents, expand, Rent::getUserId, Rent::getGameId));
+    }
+
+    // format=ndjson streams the active rents one per line straight from the cursor, so memory stays flat
+    // however many there are. Pages continue with after=<id of the last rent> and a limit. Selected by the
+    // parameter rather than the Accept header, so clients sending */* or no Accept still get the JSON list.
+    @GetMapping(value = "/rented", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamActiveRents(@RequestParam(required = false) String after,
+                                                                   @RequestParam(defaultValue = "0") int limit) {
+        StreamingResponseBody body = out -> writeLines(manageRentService.streamActiveRents(after, limit), out);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    // CSV of every rent with a rentDate in [from, to), archived ones included; status is active, returned or all.
+    // Streamed from the cursor like the NDJSON listing, so the download starts right away whatever its size.
+    @GetMapping(value = "/rents.csv", produces = CSV)
+    public ResponseEntity<StreamingResponseBody> exportRents(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "all") String status) {
+        // Checked before streaming, once the body has started an error can't become a 400 any more
+        RentCsvExport.Status rentStatus = RentCsvExport.Status.parse(status);
+        if (from != null && to != null && !to.isAfter(from)) {
+            throw new IllegalStateException("to must be after from");
+        }
+        StreamingResponseBody body = out -> rentCsvExport.write(from, to, rentStatus, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(CSV))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"rents.csv\"")
+                .body(body);
     }
 
     @GetMapping("/late")
-    public ResponseEntity<List<LateRent>> getLateRenters() {
-        return ResponseEntity.ok(manageRentService.getLateRents());
+    public ResponseEntity<List<?>> getLateRenters(@RequestParam(required = false) String expand) {
+        List<LateRent> lateRents = manageRentService.getLateRents();
+        return ResponseEntity.ok(expand(lateRents, expand, LateRent::getUserId, LateRent::getGameId));
+    }
+
+    // Runs late-fee billing now; dryRun=true reports the fees without writing invoices
+    @PostMapping("/billing/run")
+    public ResponseEntity<BillingReport> runBilling(@RequestParam(defaultValue = "false") boolean dryRun) {
+        return ResponseEntity.ok(lateFeeBilling.run(dryRun));
+    }
+
+    // Starts checking the per-game counters against the active rents; dryRun=true only reports the differences.
+    // A run outlasts any request, the report is read from the returned location once the run is COMPLETED.
+    @PostMapping("/reconcile")
+    public ResponseEntity<ReconcileRun> reconcile(@RequestParam(defaultValue = "false") boolean dryRun) {
+        ReconcileRun run = inventoryReconciler.start(dryRun);
+        return ResponseEntity.accepted()
+                .location(URI.create("/manage/reconcile/" + run.getId()))
+                .body(run);
+    }
+
+    @GetMapping("/reconcile/{id}")
+    public ResponseEntity<ReconcileRun> getReconcileRun(@PathVariable String id) {
+        return ResponseEntity.ok(inventoryReconciler.getRun(id));
+    }
+
+    // expand=game embeds the whole game, expand=names adds the username, game name and platform
+    private <T> List<?> expand(List<T> items, String expand, Function<T, String> userIdOf,
+                               Function<T, String> gameIdOf) {
+        if (EXPAND_GAME.equals(expand)) {
+            return gameService.expandGames(items, gameIdOf);
+        }
+        if (EXPAND_NAMES.equals(expand)) {
+            return referenceCache.enrich(items, userIdOf, gameIdOf);
+        }
+        return items;
+    }
+
+    private void writeLines(Stream<?> values, OutputStream out) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        try (values) {
+            for (Object value : (Iterable<?>) values::iterator) {
+                buffered.write(objectMapper.writeValueAsBytes(value));
+                buffered.write('\n');
+            }
+        }
+        buffered.flush();
     }
 }
@@ -2,30 +2,45 @@ package ro.unibuc.hello.controller;
 
 import jakarta.validation.Valid;
 import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.UserRentSummary;
+import ro.unibuc.hello.dto.ExtendRentRequest;
+import ro.unibuc.hello.dto.RentListItem;
 import ro.unibuc.hello.dto.RentRequest;
+import ro.unibuc.hello.service.GameService;
+import ro.unibuc.hello.service.IdempotencyService;
 import ro.unibuc.hello.service.RentService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.security.Principal;
 import java.util.List;
 
 @RestController
 @RequestMapping("/rent")
 public class RentController {
 
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String EXPAND_GAME = "game";
+    // view=compact returns only the list fields, read from a covering index
+    private static final String VIEW_COMPACT = "compact";
+
     private final RentService rentService;
+    private final IdempotencyService idempotencyService;
+    private final GameService gameService;
 
     @Autowired
-    public RentController(RentService rentService) {
+    public RentController(RentService rentService, IdempotencyService idempotencyService, GameService gameService) {
         this.rentService = rentService;
+        this.idempotencyService = idempotencyService;
+        this.gameService = gameService;
     }
 
     @GetMapping
-    public ResponseEntity<List<Rent>> getAllRents() {
+    public ResponseEntity<List<?>> getAllRents(@RequestParam(required = false) String expand) {
         List<Rent> rents = rentService.getAllRents();
-        return new ResponseEntity<>(rents, HttpStatus.OK);
+        return new ResponseEntity<>(expand(rents, expand), HttpStatus.OK);
     }
 
     @GetMapping("/{id}")
@@ -35,26 +50,103 @@ public class RentController {
     }
 
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Rent>> getRentsByUserId(@PathVariable String userId) {
-        List<Rent> rents = rentService.getRentsByUserId(userId);
-        return new ResponseEntity<>(rents, HttpStatus.OK);
+    public ResponseEntity<List<?>> getRentsByUserId(@PathVariable String userId,
+                                                    @RequestParam(required = false) Integer page,
+                                                    @RequestParam(defaultValue = "20") int size,
+                                                    @RequestParam(required = false) String expand,
+                                                    @RequestParam(required = false) String view) {
+        if (compact(view, page)) {
+            List<RentListItem> items = rentService.getRentItemsByUserId(userId);
+            return new ResponseEntity<>(expandItems(items, expand), HttpStatus.OK);
+        }
+        List<Rent> rents = page == null
+                ? rentService.getRentsByUserId(userId)
+                : rentService.getRentsByUserId(userId, page, size);
+        return new ResponseEntity<>(expand(rents, expand), HttpStatus.OK);
+    }
+
+    @GetMapping("/user/{userId}/summary")
+    public ResponseEntity<UserRentSummary> getUserSummary(@PathVariable String userId) {
+        UserRentSummary summary = rentService.getUserSummary(userId);
+        return new ResponseEntity<>(summary, HttpStatus.OK);
     }
 
     @GetMapping("/game/{gameId}")
-    public ResponseEntity<List<Rent>> getRentsByGameId(@PathVariable String gameId) {
-        List<Rent> rents = rentService.getRentsByGameId(gameId);
-        return new ResponseEntity<>(rents, HttpStatus.OK);
+    public ResponseEntity<List<?>> getRentsByGameId(@PathVariable String gameId,
+                                                    @RequestParam(required = false) Integer page,
+                                                    @RequestParam(defaultValue = "20") int size,
+                                                    @RequestParam(required = false) String expand,
+                                                    @RequestParam(required = false) String view) {
+        if (compact(view, page)) {
+            List<RentListItem> items = rentService.getRentItemsByGameId(gameId);
+            return new ResponseEntity<>(expandItems(items, expand), HttpStatus.OK);
+        }
+        List<Rent> rents = page == null
+                ? rentService.getRentsByGameId(gameId)
+                : rentService.getRentsByGameId(gameId, page, size);
+        return new ResponseEntity<>(expand(rents, expand), HttpStatus.OK);
+    }
+
+    // The compact rows aren't paged, so a paged compact request is refused rather than answered with full rents
+    private static boolean compact(String view, Integer page) {
+        if (!VIEW_COMPACT.equals(view)) {
+            return false;
+        }
+        if (page != null) {
+            throw new IllegalStateException("view=compact can't be combined with page");
+        }
+        return true;
+    }
+
+    // expand=game embeds each rent's game, resolved for the whole list in one query
+    private List<?> expand(List<Rent> rents, String expand) {
+        return EXPAND_GAME.equals(expand) ? gameService.expandGames(rents, Rent::getGameId) : rents;
+    }
+
+    private List<?> expandItems(List<RentListItem> items, String expand) {
+        return EXPAND_GAME.equals(expand) ? gameService.expandGames(items, RentListItem::getGameId) : items;
     }
 
     @PostMapping
-    public ResponseEntity<Rent> rentGame(@Valid @RequestBody RentRequest request) {
-        Rent rent = rentService.rentGame(request.getUserId(), request.getGameId(), request.getRentDays());
-        return new ResponseEntity<>(rent, HttpStatus.CREATED);
+    public ResponseEntity<Rent> rentGame(@Valid @RequestBody RentRequest request,
+                                         @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                         Principal principal) {
+        return idempotencyService.execute(idempotencyKey, "rent", caller(principal), request, Rent.class, () -> {
+            Rent rent = rentService.rentGame(request.getUserId(), request.getGameId(), request.getRentDays());
+            return new ResponseEntity<>(rent, HttpStatus.CREATED);
+        });
     }
 
     @PostMapping("/return")
-    public ResponseEntity<Rent> returnGame(@Valid @RequestBody RentRequest request) {
-        Rent rent = rentService.returnGame(request.getUserId(), request.getGameId());
-        return new ResponseEntity<>(rent, HttpStatus.OK);
+    public ResponseEntity<Rent> returnGame(@Valid @RequestBody RentRequest request,
+                                           @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                           Principal principal) {
+        return idempotencyService.execute(idempotencyKey, "return", caller(principal), request, Rent.class, () -> {
+            Rent rent = rentService.returnGame(request.getUserId(), request.getGameId());
+            return new ResponseEntity<>(rent, HttpStatus.OK);
+        });
+    }
+
+    // Takes the customer off the game's waitlist, 404 if they weren't waiting
+    @DeleteMapping("/waitlist/{gameId}/user/{userId}")
+    public ResponseEntity<Void> leaveWaitlist(@PathVariable String gameId, @PathVariable String userId) {
+        rentService.leaveWaitlist(userId, gameId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @PutMapping("/{id}/extend")
+    public ResponseEntity<Rent> extendRent(@PathVariable String id, @Valid @RequestBody ExtendRentRequest request,
+                                           @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                           Principal principal) {
+        // Extending adds days, so a retried request needs the key to not add them twice
+        String scope = "extend:" + id;
+        return idempotencyService.execute(idempotencyKey, scope, caller(principal), request, Rent.class, () -> {
+            Rent rent = rentService.extendRent(id, request.getDays());
+            return new ResponseEntity<>(rent, HttpStatus.OK);
+        });
+    }
+
+    private static String caller(Principal principal) {
+        return principal == null ? null : principal.getName();
     }
-}
\ No newline at end of file
+}
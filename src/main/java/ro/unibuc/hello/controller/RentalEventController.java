@@ -0,0 +1,28 @@
+package ro.unibuc.hello.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import ro.unibuc.hello.dto.RentalEventFeedEntry;
+import ro.unibuc.hello.service.RentalEventFeed;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/events/rentals")
+public class RentalEventController {
+    private final RentalEventFeed rentalEventFeed;
+
+    @Autowired
+    public RentalEventController(RentalEventFeed rentalEventFeed) {
+        this.rentalEventFeed = rentalEventFeed;
+    }
+
+    // Long poll: answers right away when there are events after the cursor, otherwise waits up to timeoutMs
+    @GetMapping
+    public DeferredResult<List<RentalEventFeedEntry>> poll(@RequestParam(defaultValue = "0") long after,
+                                                           @RequestParam(defaultValue = "100") int limit,
+                                                           @RequestParam(defaultValue = "25000") long timeoutMs) {
+        return rentalEventFeed.poll(after, limit, timeoutMs);
+    }
+}
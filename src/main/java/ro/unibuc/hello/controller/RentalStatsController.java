@@ -0,0 +1,51 @@
+package ro.unibuc.hello.controller;
+
+import ro.unibuc.hello.dto.GameRentalCount;
+import ro.unibuc.hello.dto.GenrePlatformCount;
+import ro.unibuc.hello.dto.RentalDurationStats;
+import ro.unibuc.hello.dto.RentalStats;
+import ro.unibuc.hello.service.RentalStatsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+// Rental analytics for the management dashboards, period is week, month, year or all.
+// Answers come from a cache refreshed in the background and may be a few minutes old, see computedAt.
+@RestController
+@RequestMapping("/manage/stats")
+public class RentalStatsController {
+
+    private final RentalStatsService rentalStatsService;
+
+    @Autowired
+    public RentalStatsController(RentalStatsService rentalStatsService) {
+        this.rentalStatsService = rentalStatsService;
+    }
+
+    @GetMapping
+    public ResponseEntity<RentalStats> getStats(@RequestParam(defaultValue = "month") String period) {
+        return ResponseEntity.ok(stats(period));
+    }
+
+    @GetMapping("/top-games")
+    public ResponseEntity<List<GameRentalCount>> getTopGames(@RequestParam(defaultValue = "month") String period) {
+        return ResponseEntity.ok(stats(period).getTopGames());
+    }
+
+    @GetMapping("/genres")
+    public ResponseEntity<List<GenrePlatformCount>> getRentalsByGenreAndPlatform(
+            @RequestParam(defaultValue = "month") String period) {
+        return ResponseEntity.ok(stats(period).getByGenreAndPlatform());
+    }
+
+    @GetMapping("/duration")
+    public ResponseEntity<RentalDurationStats> getDuration(@RequestParam(defaultValue = "month") String period) {
+        return ResponseEntity.ok(stats(period).getDuration());
+    }
+
+    private RentalStats stats(String period) {
+        return rentalStatsService.getStats(RentalStatsService.Period.parse(period));
+    }
+}
@@ -0,0 +1,55 @@
+package ro.unibuc.hello.controller;
+
+import jakarta.validation.Valid;
+import ro.unibuc.hello.data.Reservation;
+import ro.unibuc.hello.dto.GameAvailability;
+import ro.unibuc.hello.dto.ReservationRequest;
+import ro.unibuc.hello.service.ReservationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RestController
+@RequestMapping("/reservations")
+public class ReservationController {
+
+    private final ReservationService reservationService;
+
+    @Autowired
+    public ReservationController(ReservationService reservationService) {
+        this.reservationService = reservationService;
+    }
+
+    @PostMapping
+    public ResponseEntity<Reservation> reserve(@Valid @RequestBody ReservationRequest request) {
+        Reservation reservation = reservationService.reserve(request.getUserId(), request.getGameId(),
+                request.getStartDate(), request.getEndDate());
+        return new ResponseEntity<>(reservation, HttpStatus.CREATED);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancel(@PathVariable String id) {
+        reservationService.cancel(id);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<List<Reservation>> getReservationsByUserId(@PathVariable String userId) {
+        List<Reservation> reservations = reservationService.getReservationsByUserId(userId);
+        return new ResponseEntity<>(reservations, HttpStatus.OK);
+    }
+
+    @GetMapping("/availability/{gameId}")
+    public ResponseEntity<GameAvailability> getAvailability(
+            @PathVariable String gameId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end) {
+        GameAvailability availability = reservationService.getAvailability(gameId, start, end);
+        return new ResponseEntity<>(availability, HttpStatus.OK);
+    }
+}
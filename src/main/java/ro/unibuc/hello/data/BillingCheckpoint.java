@@ -0,0 +1,102 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Progress of one partition of a billing run, written after every batch of invoices
+@Document(collection = "billing_checkpoints")
+public class BillingCheckpoint {
+
+    // runId:partition
+    @Id
+    private String id;
+
+    private String runId;
+
+    private int partition;
+
+    // Last rent billed, the partition resumes after it
+    private String lastRentId;
+
+    private long scanned;
+
+    private long invoiced;
+
+    private long amountCents;
+
+    private boolean done;
+
+    // Default constructor
+    public BillingCheckpoint() {
+    }
+
+    public BillingCheckpoint(String runId, int partition) {
+        this.id = runId + ":" + partition;
+        this.runId = runId;
+        this.partition = partition;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public void setPartition(int partition) {
+        this.partition = partition;
+    }
+
+    public String getLastRentId() {
+        return lastRentId;
+    }
+
+    public void setLastRentId(String lastRentId) {
+        this.lastRentId = lastRentId;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    public void setScanned(long scanned) {
+        this.scanned = scanned;
+    }
+
+    public long getInvoiced() {
+        return invoiced;
+    }
+
+    public void setInvoiced(long invoiced) {
+        this.invoiced = invoiced;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public void setAmountCents(long amountCents) {
+        this.amountCents = amountCents;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
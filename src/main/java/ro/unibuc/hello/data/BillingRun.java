@@ -0,0 +1,90 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// One late-fee billing run. The partition bounds are stored so a resumed run cuts exactly the same _id ranges.
+@Document(collection = "billing_runs")
+public class BillingRun {
+
+    @Id
+    private String id;
+
+    // Fees are computed up to this instant
+    private LocalDateTime asOf;
+
+    // Rents returned before this were billed by an earlier run, null on the first run
+    private LocalDateTime since;
+
+    private List<Object> bounds = new ArrayList<>();
+
+    private boolean completed;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime completedAt;
+
+    // Default constructor
+    public BillingRun() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public LocalDateTime getAsOf() {
+        return asOf;
+    }
+
+    public void setAsOf(LocalDateTime asOf) {
+        this.asOf = asOf;
+    }
+
+    public LocalDateTime getSince() {
+        return since;
+    }
+
+    public void setSince(LocalDateTime since) {
+        this.since = since;
+    }
+
+    public List<Object> getBounds() {
+        return bounds;
+    }
+
+    public void setBounds(List<Object> bounds) {
+        this.bounds = bounds;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+}
@@ -0,0 +1,112 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Version of one game's booking calendar, shared by every instance. Each booking moves the version with a
+// compare-and-set and leaves a hold for its range until the rent, extension or reservation is stored, so an
+// instance loading the calendar in between still counts it.
+@Document(collection = "reservation_calendars")
+public class CalendarState {
+
+    // The gameId
+    @Id
+    private String id;
+
+    private long version;
+
+    private List<Hold> holds = new ArrayList<>();
+
+    // Default constructor
+    public CalendarState() {
+    }
+
+    public CalendarState(String id, long version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public List<Hold> getHolds() {
+        return holds;
+    }
+
+    public void setHolds(List<Hold> holds) {
+        this.holds = holds;
+    }
+
+    // A range booked in the calendar whose rent or reservation isn't stored yet, ignored after `until`
+    public static class Hold {
+
+        // Id of the rent or reservation the range belongs to
+        private String bookingId;
+
+        private LocalDateTime start;
+
+        private LocalDateTime end;
+
+        private LocalDateTime until;
+
+        // Default constructor
+        public Hold() {
+        }
+
+        public Hold(String bookingId, LocalDateTime start, LocalDateTime end, LocalDateTime until) {
+            this.bookingId = bookingId;
+            this.start = start;
+            this.end = end;
+            this.until = until;
+        }
+
+        public String getBookingId() {
+            return bookingId;
+        }
+
+        public void setBookingId(String bookingId) {
+            this.bookingId = bookingId;
+        }
+
+        public LocalDateTime getStart() {
+            return start;
+        }
+
+        public void setStart(LocalDateTime start) {
+            this.start = start;
+        }
+
+        public LocalDateTime getEnd() {
+            return end;
+        }
+
+        public void setEnd(LocalDateTime end) {
+            this.end = end;
+        }
+
+        public LocalDateTime getUntil() {
+            return until;
+        }
+
+        public void setUntil(LocalDateTime until) {
+            this.until = until;
+        }
+    }
+}
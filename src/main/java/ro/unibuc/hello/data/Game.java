@@ -4,6 +4,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
 
 @Document(collection = "games")
 public class Game {
@@ -23,6 +24,13 @@ public class Game {
     @NotNull(message = "Release year is required")
     private Integer releasedYear;
 
+    // Number of physical copies owned; null means the title is not inventory-tracked
+    @PositiveOrZero(message = "Copies can't be negative")
+    private Integer copies;
+
+    // Free copies, only changed through conditional $inc updates in GameRepository
+    private Integer available;
+
     // Default constructor
     public Game() {
     }
@@ -76,6 +84,22 @@ public class Game {
         this.releasedYear = releasedYear;
     }
 
+    public Integer getCopies() {
+        return copies;
+    }
+
+    public void setCopies(Integer copies) {
+        this.copies = copies;
+    }
+
+    public Integer getAvailable() {
+        return available;
+    }
+
+    public void setAvailable(Integer available) {
+        this.available = available;
+    }
+
     @Override
     public String toString() {
         return "Game{" +
@@ -84,6 +108,8 @@ public class Game {
                 ", platform='" + platform + '\'' +
                 ", genre='" + genre + '\'' +
                 ", releasedYear=" + releasedYear +
+                ", copies=" + copies +
+                ", available=" + available +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One of N sub-documents holding a game's rental counters. The game's totals are the sum over its shards,
+// spreading the $inc traffic of a hot title over several documents.
+@Document(collection = "game_counters")
+public class GameCounterShard {
+
+    // gameId:shard
+    @Id
+    private String id;
+
+    private String gameId;
+
+    private int shard;
+
+    private long totalRentals;
+
+    private long activeRentals;
+
+    // Ids of the last flushes applied to this shard, a flush sent again after an unknown outcome is skipped
+    private List<String> flushes = new ArrayList<>();
+
+    // Default constructor
+    public GameCounterShard() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public void setShard(int shard) {
+        this.shard = shard;
+    }
+
+    public long getTotalRentals() {
+        return totalRentals;
+    }
+
+    public void setTotalRentals(long totalRentals) {
+        this.totalRentals = totalRentals;
+    }
+
+    public long getActiveRentals() {
+        return activeRentals;
+    }
+
+    public void setActiveRentals(long activeRentals) {
+        this.activeRentals = activeRentals;
+    }
+
+    public List<String> getFlushes() {
+        return flushes;
+    }
+
+    public void setFlushes(List<String> flushes) {
+        this.flushes = flushes;
+    }
+}
@@ -1,9 +1,25 @@
 package ro.unibuc.hello.data;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface GameRepository extends MongoRepository<Game, String> {
     // Spring Data JPA provides basic CRUD operations
     // You can add custom query methods here if needed
-}
\ No newline at end of file
+
+    @Query("{ '_id' : ?0 }")
+    @Update("{ '$set' : { 'name' : ?1, 'platform' : ?2, 'genre' : ?3, 'releasedYear' : ?4 } }")
+    long updateDetails(String id, String name, String platform, String genre, Integer releasedYear);
+
+    // Takes one free copy in a single conditional update, returns 0 when the title is sold out
+    @Query("{ '_id' : ?0, 'available' : { '$gt' : 0 } }")
+    @Update("{ '$inc' : { 'available' : -1 } }")
+    long takeCopy(String id);
+
+    // Gives a copy back, never above the number of copies owned
+    @Query("{ '_id' : ?0, '$expr' : { '$lt' : [ '$available', '$copies' ] } }")
+    @Update("{ '$inc' : { 'available' : 1 } }")
+    long releaseCopy(String id);
+}
@@ -0,0 +1,111 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+// Response stored for an Idempotency-Key, removed by the TTL index on createdAt. Inserted PENDING before
+// the request runs, the unique key makes sure only one instance runs it, and COMPLETED with the response after.
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+
+    public static final String PENDING = "PENDING";
+    public static final String COMPLETED = "COMPLETED";
+
+    @Id
+    private String key;
+
+    // Records stored before there were pending ones have none, they are all completed
+    private String state;
+
+    // The attempt running the request while pending, only it may complete or drop the record
+    private String owner;
+
+    // SHA-256 of the request body, a reused key must come with the same body
+    private String requestHash;
+
+    private int status;
+
+    // Serialized JSON body of the original response
+    private String body;
+
+    private LocalDateTime createdAt;
+
+    // Default constructor
+    public IdempotencyRecord() {
+    }
+
+    public IdempotencyRecord(String key, String requestHash, String owner, LocalDateTime createdAt) {
+        this.key = key;
+        this.state = PENDING;
+        this.owner = owner;
+        this.requestHash = requestHash;
+        this.createdAt = createdAt;
+    }
+
+    public IdempotencyRecord(String key, String requestHash, int status, String body, LocalDateTime createdAt) {
+        this.key = key;
+        this.state = COMPLETED;
+        this.requestHash = requestHash;
+        this.status = status;
+        this.body = body;
+        this.createdAt = createdAt;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public void setRequestHash(String requestHash) {
+        this.requestHash = requestHash;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
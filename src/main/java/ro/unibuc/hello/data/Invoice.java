@@ -0,0 +1,120 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+// Late fee owed for one rent. Each billing run rewrites it with the fee as of that run, until the rent
+// is returned and the amount becomes final.
+@Document(collection = "invoices")
+public class Invoice {
+
+    // The rent's id, so billing a rent again updates its invoice instead of adding one
+    @Id
+    private String id;
+
+    private String userId;
+
+    private String gameId;
+
+    private LocalDateTime dueDate;
+
+    // The return date, or the run's cut-off for rents still out
+    private LocalDateTime billedUntil;
+
+    private long lateDays;
+
+    private long amountCents;
+
+    // Set once the rent is returned, the fee can't grow any more
+    private boolean finalAmount;
+
+    private String runId;
+
+    private LocalDateTime updatedAt;
+
+    // Default constructor
+    public Invoice() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public LocalDateTime getDueDate() {
+        return dueDate;
+    }
+
+    public void setDueDate(LocalDateTime dueDate) {
+        this.dueDate = dueDate;
+    }
+
+    public LocalDateTime getBilledUntil() {
+        return billedUntil;
+    }
+
+    public void setBilledUntil(LocalDateTime billedUntil) {
+        this.billedUntil = billedUntil;
+    }
+
+    public long getLateDays() {
+        return lateDays;
+    }
+
+    public void setLateDays(long lateDays) {
+        this.lateDays = lateDays;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public void setAmountCents(long amountCents) {
+        this.amountCents = amountCents;
+    }
+
+    public boolean isFinalAmount() {
+        return finalAmount;
+    }
+
+    public void setFinalAmount(boolean finalAmount) {
+        this.finalAmount = finalAmount;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,47 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+// A job that must run on one instance at a time, held by `owner` until `expiresAt` unless renewed
+@Document(collection = "leases")
+public class Lease {
+
+    // The job's name
+    @Id
+    private String id;
+
+    private String owner;
+
+    private LocalDateTime expiresAt;
+
+    // Default constructor
+    public Lease() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
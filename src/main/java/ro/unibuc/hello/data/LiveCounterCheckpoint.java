@@ -0,0 +1,68 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+// The live rental counters as of a change stream position, so a restart resumes the stream
+// right after the last event the counts include
+@Document(collection = "live_counter_checkpoints")
+public class LiveCounterCheckpoint {
+
+    @Id
+    private String id;
+
+    // Change stream resume token as extended JSON
+    private String resumeToken;
+
+    // Active rents per gameId
+    private Map<String, Long> games = new HashMap<>();
+
+    private LocalDateTime savedAt;
+
+    // Default constructor
+    public LiveCounterCheckpoint() {
+    }
+
+    public LiveCounterCheckpoint(String id, String resumeToken, Map<String, Long> games, LocalDateTime savedAt) {
+        this.id = id;
+        this.resumeToken = resumeToken;
+        this.games = games;
+        this.savedAt = savedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    public Map<String, Long> getGames() {
+        return games;
+    }
+
+    public void setGames(Map<String, Long> games) {
+        this.games = games;
+    }
+
+    public LocalDateTime getSavedAt() {
+        return savedAt;
+    }
+
+    public void setSavedAt(LocalDateTime savedAt) {
+        this.savedAt = savedAt;
+    }
+}
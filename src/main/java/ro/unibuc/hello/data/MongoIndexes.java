@@ -0,0 +1,196 @@
+package ro.unibuc.hello.data;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.CreateCollectionOptions;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// Automatic index creation is off in Spring Data MongoDB, so the indexes the queries rely on are created here.
+// They are made once every bean exists, before the scheduled jobs, the ApplicationReadyEvent loaders and the
+// web server start: the queries hint these indexes by name, and a hint on a missing index fails the query.
+@Component
+public class MongoIndexes implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoIndexes.class);
+
+    private static final int NAMESPACE_EXISTS = 48;
+    public static final String ACTIVE_PAIR_INDEX = "userId_gameId_active";
+
+    private final MongoTemplate mongoTemplate;
+    private final long idempotencyTtlHours;
+
+    @Autowired
+    public MongoIndexes(MongoTemplate mongoTemplate, @Value("${idempotency.ttl-hours:24}") long idempotencyTtlHours) {
+        this.mongoTemplate = mongoTemplate;
+        this.idempotencyTtlHours = idempotencyTtlHours;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ensureIndexes();
+    }
+
+    public void ensureIndexes() {
+        IndexOperations rents = mongoTemplate.indexOps(Rent.class);
+
+        // Lets the archiver find its next batch without scanning active rents
+        rents.ensureIndex(new Index()
+                .on("returnDate", Sort.Direction.ASC)
+                .named("returnDate_returned")
+                .partial(PartialIndexFilter.of(Criteria.where("isReturned").is(true))));
+
+        ensureHistoryIndexes(rents);
+
+        // Active rents listing and the late-rent range scan on dueDate, both covered. Only active rents
+        // are indexed, so it stays small no matter how much history piles up.
+        rents.ensureIndex(new Index()
+                .on("isReturned", Sort.Direction.ASC)
+                .on("dueDate", Sort.Direction.ASC)
+                .on("userId", Sort.Direction.ASC)
+                .on("gameId", Sort.Direction.ASC)
+                .on("rentDate", Sort.Direction.ASC)
+                .named(RentRepositoryCustomImpl.ACTIVE_LIST_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("isReturned").is(false))));
+        dropIfPresent(rents, "dueDate_active");
+
+        // Full active rents in _id order, for listing and paging them without reading the returned history
+        rents.ensureIndex(new Index()
+                .on("isReturned", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named(RentRepositoryCustomImpl.ACTIVE_ID_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("isReturned").is(false))));
+
+        // At most one active rent per user and game, the last line of defence behind the checks in RentService
+        try {
+            rents.ensureIndex(new Index()
+                    .on("userId", Sort.Direction.ASC)
+                    .on("gameId", Sort.Direction.ASC)
+                    .named(ACTIVE_PAIR_INDEX)
+                    .unique()
+                    .partial(PartialIndexFilter.of(Criteria.where("isReturned").is(false))));
+        } catch (DataAccessException e) {
+            // Existing duplicates have to be cleaned up by hand, that shouldn't keep the app from starting.
+            // The active rent filter checks for the index and stays off without it.
+            logger.warn("Could not create the unique active rent index", e);
+        }
+
+        ensureArchive();
+
+        // History reads hit buckets by user and month, game history and reads by id look inside the arrays
+        IndexOperations buckets = mongoTemplate.indexOps(RentBucket.class);
+        buckets.ensureIndex(new Index().on("userId", Sort.Direction.ASC).on("month", Sort.Direction.DESC));
+        buckets.ensureIndex(new Index().on("rents.gameId", Sort.Direction.ASC));
+        buckets.ensureIndex(new Index().on("rents._id", Sort.Direction.ASC));
+
+        // The relay only ever reads unpublished events, oldest first
+        mongoTemplate.indexOps(RentalEvent.class).ensureIndex(new Index()
+                .on("published", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("published_pending")
+                .partial(PartialIndexFilter.of(Criteria.where("published").is(false))));
+        // Every instance's feed reads published events by their feed position
+        mongoTemplate.indexOps(RentalEvent.class).ensureIndex(new Index()
+                .on("seq", Sort.Direction.ASC)
+                .unique()
+                .partial(PartialIndexFilter.of(Criteria.where("seq").exists(true))));
+
+        // One entry per customer and game; each game's waiters are claimed and counted in sequence order
+        IndexOperations waitlist = mongoTemplate.indexOps(WaitlistEntry.class);
+        waitlist.ensureIndex(new Index().on("gameId", Sort.Direction.ASC).on("userId", Sort.Direction.ASC).unique());
+        waitlist.ensureIndex(new Index().on("gameId", Sort.Direction.ASC).on("seq", Sort.Direction.ASC));
+        dropIfPresent(waitlist, "enqueuedAt_1");
+
+        // A game's calendar loads the bookings that haven't ended, customers list their own
+        IndexOperations reservations = mongoTemplate.indexOps(Reservation.class);
+        reservations.ensureIndex(new Index().on("gameId", Sort.Direction.ASC).on("endDate", Sort.Direction.ASC));
+        reservations.ensureIndex(new Index().on("userId", Sort.Direction.ASC).on("startDate", Sort.Direction.ASC));
+
+        // Billing looks up the latest run on start, finance reads invoices per customer
+        mongoTemplate.indexOps(BillingRun.class).ensureIndex(new Index()
+                .on("completed", Sort.Direction.ASC)
+                .on("asOf", Sort.Direction.DESC));
+        mongoTemplate.indexOps(Invoice.class).ensureIndex(new Index().on("userId", Sort.Direction.ASC));
+
+        // Reconciliation reports are only polled shortly after the run
+        mongoTemplate.indexOps(ReconcileRun.class).ensureIndex(new Index()
+                .on("startedAt", Sort.Direction.ASC)
+                .expire(Duration.ofDays(30)));
+
+        // Reads sum every shard of one game
+        mongoTemplate.indexOps(GameCounterShard.class).ensureIndex(new Index().on("gameId", Sort.Direction.ASC));
+
+        // Stored responses for Idempotency-Key replays expire on their own
+        mongoTemplate.indexOps(IdempotencyRecord.class).ensureIndex(new Index()
+                .on("createdAt", Sort.Direction.ASC)
+                .expire(Duration.ofHours(idempotencyTtlHours)));
+    }
+
+    // Whether Mongo itself stops a second active rent of the same game by the same user
+    public static boolean hasActivePairIndex(MongoTemplate mongoTemplate) {
+        return mongoTemplate.indexOps(Rent.class).getIndexInfo().stream()
+                .anyMatch(index -> index.getName().equals(ACTIVE_PAIR_INDEX) && index.isUnique());
+    }
+
+    // Indexes made redundant by a wider one with the same prefix only cost writes
+    private void dropIfPresent(IndexOperations indexOperations, String name) {
+        boolean present = indexOperations.getIndexInfo().stream().anyMatch(index -> index.getName().equals(name));
+        if (present) {
+            indexOperations.dropIndex(name);
+        }
+    }
+
+    private void ensureArchive() {
+        if (!mongoTemplate.collectionExists(RentArchiveRepository.COLLECTION)) {
+            // Archived rents are rarely read, so trade some CPU for a smaller footprint on disk
+            Document storageEngine = new Document("wiredTiger", new Document("configString", "block_compressor=zstd"));
+            try {
+                mongoTemplate.getDb().createCollection(RentArchiveRepository.COLLECTION,
+                        new CreateCollectionOptions().storageEngineOptions(storageEngine));
+            } catch (MongoCommandException e) {
+                // Another instance created it first
+                if (e.getErrorCode() != NAMESPACE_EXISTS) {
+                    throw e;
+                }
+            }
+        }
+
+        ensureHistoryIndexes(mongoTemplate.indexOps(RentArchiveRepository.COLLECTION));
+    }
+
+    // History by user or game. The trailing keys let the list projections be answered from the index
+    // alone, and the (userId, rentDate) / (gameId, rentDate) prefixes still serve the paged queries.
+    private void ensureHistoryIndexes(IndexOperations indexOperations) {
+        indexOperations.ensureIndex(new Index()
+                .on("userId", Sort.Direction.ASC)
+                .on("rentDate", Sort.Direction.DESC)
+                .on("gameId", Sort.Direction.ASC)
+                .on("isReturned", Sort.Direction.ASC)
+                .on("dueDate", Sort.Direction.ASC)
+                .on("returnDate", Sort.Direction.ASC)
+                .named(RentRepositoryCustomImpl.USER_LIST_INDEX));
+        indexOperations.ensureIndex(new Index()
+                .on("gameId", Sort.Direction.ASC)
+                .on("rentDate", Sort.Direction.DESC)
+                .on("userId", Sort.Direction.ASC)
+                .on("isReturned", Sort.Direction.ASC)
+                .on("dueDate", Sort.Direction.ASC)
+                .on("returnDate", Sort.Direction.ASC)
+                .named(RentRepositoryCustomImpl.GAME_LIST_INDEX));
+        dropIfPresent(indexOperations, "userId_1_rentDate_-1");
+        dropIfPresent(indexOperations, "gameId_1_rentDate_-1");
+    }
+}
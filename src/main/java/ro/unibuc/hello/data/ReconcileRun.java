@@ -0,0 +1,100 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import ro.unibuc.hello.dto.ReconcileReport;
+
+import java.time.LocalDateTime;
+
+// One on-demand reconciliation. Started by POST /manage/reconcile, read back by id from any instance
+// while it runs and after it is done.
+@Document(collection = "reconcile_runs")
+public class ReconcileRun {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    private String id;
+
+    private boolean dryRun;
+
+    private String status;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime completedAt;
+
+    // Set once the run completed
+    private ReconcileReport report;
+
+    // Set when the run failed
+    private String error;
+
+    // Default constructor
+    public ReconcileRun() {
+    }
+
+    public ReconcileRun(boolean dryRun, LocalDateTime startedAt) {
+        this.dryRun = dryRun;
+        this.status = RUNNING;
+        this.startedAt = startedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public ReconcileReport getReport() {
+        return report;
+    }
+
+    public void setReport(ReconcileReport report) {
+        this.report = report;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
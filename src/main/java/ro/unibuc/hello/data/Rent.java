@@ -29,6 +29,13 @@ public class Rent {
     @Positive(message = "Rent days is required")
     private int rentDays;
 
+    // rentDate + rentDays, stored so late rents can be found with an index range scan
+    private LocalDateTime dueDate;
+
+    // Bumped by every conditional update (extend, return) so a stale read can't overwrite a newer change.
+    // Not @Version: plain saves must not fail, only the compare-and-set updates check it.
+    private long version;
+
     // Default constructor
     public Rent() {
     }
@@ -40,6 +47,7 @@ public class Rent {
         this.rentDate = LocalDateTime.now();
         this.isReturned = false;
         this.rentDays = rentDays;
+        this.dueDate = computeDueDate();
     }
 
     // Getters and Setters
@@ -73,6 +81,7 @@ public class Rent {
 
     public void setRentDate(LocalDateTime rentDate) {
         this.rentDate = rentDate;
+        this.dueDate = computeDueDate();
     }
 
     public LocalDateTime getReturnDate() {
@@ -91,7 +100,30 @@ public class Rent {
         isReturned = returned;
     }
     public int getRentDays(){return rentDays;}
-    public void setRentDays(int rentDays){this.rentDays = rentDays;}
+    public void setRentDays(int rentDays){
+        this.rentDays = rentDays;
+        this.dueDate = computeDueDate();
+    }
+
+    public LocalDateTime getDueDate() {
+        return dueDate;
+    }
+
+    public void setDueDate(LocalDateTime dueDate) {
+        this.dueDate = dueDate;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    private LocalDateTime computeDueDate() {
+        return rentDate == null ? null : rentDate.plusDays(rentDays);
+    }
 
     @Override
     public String toString() {
@@ -103,6 +135,8 @@ public class Rent {
                 ", returnDate=" + returnDate +
                 ", isReturned=" + isReturned +
                 ", rentDays=" + rentDays +
+                ", dueDate=" + dueDate +
+                ", version=" + version +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import ro.unibuc.hello.dto.RentListItem;
+
+import java.util.List;
+import java.util.Optional;
+
+// Read access to rents moved out of the hot collection by RentArchiver
+@Repository
+public class RentArchiveRepository {
+
+    public static final String COLLECTION = "rents_archive";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public RentArchiveRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public Optional<Rent> findById(String id) {
+        return Optional.ofNullable(mongoTemplate.findById(id, Rent.class, COLLECTION));
+    }
+
+    public List<Rent> findAll() {
+        return mongoTemplate.findAll(Rent.class, COLLECTION);
+    }
+
+    public List<Rent> findByUserId(String userId) {
+        return mongoTemplate.find(byField("userId", userId), Rent.class, COLLECTION);
+    }
+
+    public List<Rent> findByGameId(String gameId) {
+        return mongoTemplate.find(byField("gameId", gameId), Rent.class, COLLECTION);
+    }
+
+    public List<Rent> findByUserId(String userId, long skip, int limit) {
+        return mongoTemplate.find(byField("userId", userId).skip(skip).limit(limit), Rent.class, COLLECTION);
+    }
+
+    public List<Rent> findByGameId(String gameId, long skip, int limit) {
+        return mongoTemplate.find(byField("gameId", gameId).skip(skip).limit(limit), Rent.class, COLLECTION);
+    }
+
+    // Same covered projections as the hot collection, the archive carries the same list indexes
+    public List<RentListItem> findListItemsByUserId(String userId) {
+        return mongoTemplate.find(RentRepositoryCustomImpl.userListQuery(userId), RentListItem.class, COLLECTION);
+    }
+
+    public List<RentListItem> findListItemsByGameId(String gameId) {
+        return mongoTemplate.find(RentRepositoryCustomImpl.gameListQuery(gameId), RentListItem.class, COLLECTION);
+    }
+
+    private Query byField(String field, String value) {
+        return new Query(Criteria.where(field).is(value)).with(Sort.by(Sort.Direction.DESC, "rentDate"));
+    }
+}
@@ -0,0 +1,69 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Returned rents of one user in one month, packed into a fixed-size array so a history read
+// touches a handful of documents instead of one per rent
+@Document(collection = "rent_buckets")
+public class RentBucket {
+
+    @Id
+    private String id;
+
+    private String userId;
+
+    // yyyy-MM of the rentDate of every rent in the bucket
+    private String month;
+
+    private int count;
+
+    private List<Rent> rents = new ArrayList<>();
+
+    // Default constructor
+    public RentBucket() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getMonth() {
+        return month;
+    }
+
+    public void setMonth(String month) {
+        this.month = month;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public List<Rent> getRents() {
+        return rents;
+    }
+
+    public void setRents(List<Rent> rents) {
+        this.rents = rents;
+    }
+}
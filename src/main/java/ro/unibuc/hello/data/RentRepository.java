@@ -1,12 +1,27 @@
 package ro.unibuc.hello.data;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
-public interface RentRepository extends MongoRepository<Rent, String> {
-    List<Rent> findByUserId(String userId);
-    List<Rent> findByGameId(String gameId);
+public interface RentRepository extends MongoRepository<Rent, String>, RentRepositoryCustom {
+    // findByUserId, findByGameId and the paged history queries come from RentRepositoryCustom,
+    // they also read rents compacted into rent_buckets
     List<Rent> findByUserIdAndGameIdAndIsReturnedFalse(String userId, String gameId);
-}
\ No newline at end of file
+
+    // Flips an active rent to returned, returns 0 if another request already returned it
+    @Query("{ '_id' : ?0, 'isReturned' : false }")
+    @Update("{ '$set' : { 'isReturned' : true, 'returnDate' : ?1 }, '$inc' : { 'version' : 1 } }")
+    long markReturned(String id, LocalDateTime returnDate);
+
+    // Compare-and-set extension: only applies if the rent is still active and unchanged since it was read,
+    // returns 0 otherwise. Rents stored before the version field existed count as version 0.
+    @Query("{ '_id' : ?0, 'isReturned' : false, '$expr' : { '$eq' : [ { '$ifNull' : [ '$version', 0 ] }, ?1 ] } }")
+    @Update("{ '$set' : { 'rentDays' : ?2, 'dueDate' : ?3 }, '$inc' : { 'version' : 1 } }")
+    long extend(String id, long version, int rentDays, LocalDateTime dueDate);
+}
@@ -0,0 +1,35 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.domain.Pageable;
+import ro.unibuc.hello.dto.RentListItem;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// History queries that read both the individual rent documents and the compacted rent_buckets,
+// so callers of RentRepository don't need to know which layout a rent is stored in
+public interface RentRepositoryCustom {
+    // findById and findAll only see the individual documents, these read the compacted ones
+    Optional<Rent> findCompactedById(String id);
+    List<Rent> findAllCompacted();
+
+    List<Rent> findByUserId(String userId);
+    List<Rent> findByGameId(String gameId);
+    List<Rent> findByUserIdOrderByRentDateDesc(String userId, Pageable pageable);
+    List<Rent> findByGameIdOrderByRentDateDesc(String gameId, Pageable pageable);
+    long countByUserId(String userId);
+    long countByGameId(String gameId);
+
+    // Covered projections: answered from an index without fetching the rent documents
+    List<RentListItem> findListItemsByUserId(String userId);
+    List<RentListItem> findListItemsByGameId(String gameId);
+    List<RentListItem> findActiveListItems();
+    List<RentListItem> findActiveListItemsDueBefore(LocalDateTime now);
+
+    // Active rents in _id order from the partial active index, never reading returned ones.
+    // afterId continues a previous page, a limit of 0 means all of them.
+    List<Rent> findActive();
+    Stream<Rent> streamActive(String afterId, int limit);
+}
@@ -0,0 +1,258 @@
+package ro.unibuc.hello.data;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import ro.unibuc.hello.dto.RentListItem;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+public class RentRepositoryCustomImpl implements RentRepositoryCustom {
+
+    public static final String USER_LIST_INDEX = "userId_history_covered";
+    public static final String GAME_LIST_INDEX = "gameId_history_covered";
+    public static final String ACTIVE_LIST_INDEX = "active_covered";
+    public static final String ACTIVE_ID_INDEX = "active_id";
+
+    private static final String COLLECTION = "rents";
+    private static final String BUCKETS = "rent_buckets";
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final String[] HISTORY_FIELDS =
+            {"userId", "gameId", "isReturned", "rentDate", "dueDate", "returnDate"};
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public RentRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Optional<Rent> findCompactedById(String id) {
+        // Mapped through RentBucket so the id is converted the way it was stored
+        RentBucket bucket = mongoTemplate.findOne(new Query(Criteria.where("rents.id").is(id)), RentBucket.class);
+        if (bucket == null) {
+            return Optional.empty();
+        }
+        return bucket.getRents().stream().filter(rent -> id.equals(rent.getId())).findFirst();
+    }
+
+    @Override
+    public List<Rent> findAllCompacted() {
+        return mongoTemplate.aggregate(newAggregation(unwind("rents"), replaceRoot("rents")), BUCKETS, Rent.class)
+                .getMappedResults();
+    }
+
+    @Override
+    public List<Rent> findByUserId(String userId) {
+        List<Rent> rents = new ArrayList<>(mongoTemplate.find(byField("userId", userId), Rent.class));
+        rents.addAll(bucketRents("userId", userId, null, 0));
+        return rents;
+    }
+
+    @Override
+    public List<Rent> findByGameId(String gameId) {
+        List<Rent> rents = new ArrayList<>(mongoTemplate.find(byField("gameId", gameId), Rent.class));
+        rents.addAll(bucketRents("rents.gameId", gameId, null, 0));
+        return rents;
+    }
+
+    @Override
+    public List<Rent> findByUserIdOrderByRentDateDesc(String userId, Pageable pageable) {
+        return page("userId", userId, pageable);
+    }
+
+    @Override
+    public List<Rent> findByGameIdOrderByRentDateDesc(String gameId, Pageable pageable) {
+        return page("gameId", gameId, pageable);
+    }
+
+    @Override
+    public long countByUserId(String userId) {
+        return mongoTemplate.count(byField("userId", userId), Rent.class) + bucketCount("userId", userId);
+    }
+
+    @Override
+    public long countByGameId(String gameId) {
+        return mongoTemplate.count(byField("gameId", gameId), Rent.class) + bucketCount("rents.gameId", gameId);
+    }
+
+    @Override
+    public List<RentListItem> findListItemsByUserId(String userId) {
+        List<RentListItem> items = new ArrayList<>(
+                mongoTemplate.find(userListQuery(userId), RentListItem.class, COLLECTION));
+        items.addAll(bucketListItems("userId", userId));
+        return items;
+    }
+
+    @Override
+    public List<RentListItem> findListItemsByGameId(String gameId) {
+        List<RentListItem> items = new ArrayList<>(
+                mongoTemplate.find(gameListQuery(gameId), RentListItem.class, COLLECTION));
+        items.addAll(bucketListItems("rents.gameId", gameId));
+        return items;
+    }
+
+    @Override
+    public List<RentListItem> findActiveListItems() {
+        return mongoTemplate.find(activeListQuery(null), RentListItem.class, COLLECTION);
+    }
+
+    @Override
+    public List<RentListItem> findActiveListItemsDueBefore(LocalDateTime now) {
+        List<RentListItem> items = new ArrayList<>(mongoTemplate.find(activeListQuery(now), RentListItem.class, COLLECTION));
+        items.addAll(mongoTemplate.find(legacyDueBeforeQuery(now), RentListItem.class, COLLECTION));
+        return items;
+    }
+
+    @Override
+    public List<Rent> findActive() {
+        return mongoTemplate.find(activeQuery(null, 0), Rent.class);
+    }
+
+    @Override
+    public Stream<Rent> streamActive(String afterId, int limit) {
+        return mongoTemplate.stream(activeQuery(afterId, limit), Rent.class);
+    }
+
+    public static Query activeQuery(String afterId, int limit) {
+        Criteria criteria = Criteria.where("isReturned").is(false);
+        if (afterId != null) {
+            criteria = criteria.and("_id").gt(afterId);
+        }
+        Query query = new Query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .withHint(ACTIVE_ID_INDEX);
+        if (limit > 0) {
+            query.limit(limit);
+        }
+        return query;
+    }
+
+    // The list queries are public so tests can explain exactly what runs here.
+    // _id isn't in the indexes, leaving it out of the projection is what makes them covered.
+    public static Query userListQuery(String userId) {
+        Query query = byField("userId", userId).withHint(USER_LIST_INDEX);
+        query.fields().include(HISTORY_FIELDS).exclude("_id");
+        return query;
+    }
+
+    public static Query gameListQuery(String gameId) {
+        Query query = byField("gameId", gameId).withHint(GAME_LIST_INDEX);
+        query.fields().include(HISTORY_FIELDS).exclude("_id");
+        return query;
+    }
+
+    public static Query activeListQuery(LocalDateTime dueBefore) {
+        Criteria criteria = Criteria.where("isReturned").is(false);
+        if (dueBefore != null) {
+            criteria = criteria.and("dueDate").lt(dueBefore);
+        }
+        // Active rents have no returnDate, the partial index doesn't carry it
+        Query query = new Query(criteria).withHint(ACTIVE_LIST_INDEX);
+        query.fields().include("userId", "gameId", "isReturned", "rentDate", "dueDate").exclude("_id");
+        return query;
+    }
+
+    // Active rents stored before dueDate existed, until the backfill has run. Their due date is worked out
+    // on the server from rentDate + rentDays; these do fetch documents, but only the ones missing dueDate.
+    public static Query legacyDueBeforeQuery(LocalDateTime dueBefore) {
+        Query query = new Query(legacyDueBefore(dueBefore)).withHint(ACTIVE_LIST_INDEX);
+        query.fields().include("userId", "gameId", "isReturned", "rentDate").exclude("_id");
+        return query;
+    }
+
+    // Active rents without a dueDate whose rentDate + rentDays is before dueBefore, for other queries to combine
+    public static Criteria legacyDueBefore(LocalDateTime dueBefore) {
+        Document dueDate = new Document("$add", List.of("$rentDate",
+                new Document("$multiply", List.of("$rentDays", MILLIS_PER_DAY))));
+        // Raw $expr values aren't converted, so the date goes in as the Date LocalDateTime maps to
+        Date cutoff = Date.from(dueBefore.atZone(ZoneId.systemDefault()).toInstant());
+        return Criteria.where("isReturned").is(false).and("dueDate").exists(false)
+                .and("$expr").is(new Document("$lt", List.of(dueDate, cutoff)));
+    }
+
+    // Buckets only hold a few documents per user, so their entries are projected without an index
+    private List<RentListItem> bucketListItems(String field, String value) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(match(Criteria.where(field).is(value)));
+        operations.add(unwind("rents"));
+        if (field.startsWith("rents.")) {
+            operations.add(match(Criteria.where(field).is(value)));
+        }
+        operations.add(replaceRoot("rents"));
+        operations.add(project(HISTORY_FIELDS).andExclude("_id"));
+
+        return mongoTemplate.aggregate(newAggregation(operations), BUCKETS, RentListItem.class).getMappedResults();
+    }
+
+    // Individual documents come first, the compacted buckets continue where they end
+    private List<Rent> page(String field, String value, Pageable pageable) {
+        long offset = pageable.getOffset();
+        int size = pageable.getPageSize();
+
+        Query query = byField(field, value).with(Sort.by(Sort.Direction.DESC, "rentDate")).skip(offset).limit(size);
+        List<Rent> rents = new ArrayList<>(mongoTemplate.find(query, Rent.class));
+        if (rents.size() == size) {
+            return rents;
+        }
+
+        long documentsTotal = rents.isEmpty()
+                ? mongoTemplate.count(byField(field, value), Rent.class)
+                : offset + rents.size();
+        String bucketField = field.equals("userId") ? field : "rents." + field;
+        rents.addAll(bucketRents(bucketField, value, Math.max(0, offset - documentsTotal), size - rents.size()));
+        return rents;
+    }
+
+    private List<Rent> bucketRents(String field, String value, Long skip, int limit) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(match(Criteria.where(field).is(value)));
+        operations.add(unwind("rents"));
+        if (field.startsWith("rents.")) {
+            // A bucket matching on one entry still holds rents of other games
+            operations.add(match(Criteria.where(field).is(value)));
+        }
+        operations.add(sort(Sort.Direction.DESC, "rents.rentDate"));
+        if (skip != null) {
+            operations.add(skip(skip));
+            operations.add(limit(limit));
+        }
+        operations.add(replaceRoot("rents"));
+
+        return mongoTemplate.aggregate(newAggregation(operations), BUCKETS, Rent.class).getMappedResults();
+    }
+
+    private long bucketCount(String field, String value) {
+        Aggregation aggregation = field.startsWith("rents.")
+                ? newAggregation(
+                        match(Criteria.where(field).is(value)),
+                        unwind("rents"),
+                        match(Criteria.where(field).is(value)),
+                        count().as("total"))
+                : newAggregation(
+                        match(Criteria.where(field).is(value)),
+                        group().sum("count").as("total"));
+
+        Document result = mongoTemplate.aggregate(aggregation, BUCKETS, Document.class).getUniqueMappedResult();
+        return result == null ? 0 : ((Number) result.get("total")).longValue();
+    }
+
+    private static Query byField(String field, String value) {
+        return new Query(Criteria.where(field).is(value));
+    }
+}
@@ -0,0 +1,124 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+// Outbox entry written in the same transaction as the rent change it describes
+@Document(collection = "rental_events")
+public class RentalEvent {
+
+    public static final String RENTED = "RENTED";
+    public static final String RETURNED = "RETURNED";
+    public static final String EXTENDED = "EXTENDED";
+
+    @Id
+    private String id;
+
+    private String type;
+
+    private String rentId;
+
+    private String userId;
+
+    private String gameId;
+
+    private LocalDateTime occurredAt;
+
+    private boolean published;
+
+    // Position in the event feed, given in publishing order when the event is published
+    private Long seq;
+
+    // Default constructor
+    public RentalEvent() {
+    }
+
+    public RentalEvent(String type, Rent rent, LocalDateTime occurredAt) {
+        this.type = type;
+        this.rentId = rent.getId();
+        this.userId = rent.getUserId();
+        this.gameId = rent.getGameId();
+        this.occurredAt = occurredAt;
+        this.published = false;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getRentId() {
+        return rentId;
+    }
+
+    public void setRentId(String rentId) {
+        this.rentId = rentId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public LocalDateTime getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(LocalDateTime occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+
+    public boolean isPublished() {
+        return published;
+    }
+
+    public void setPublished(boolean published) {
+        this.published = published;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    @Override
+    public String toString() {
+        return "RentalEvent{" +
+                "id='" + id + '\'' +
+                ", type='" + type + '\'' +
+                ", rentId='" + rentId + '\'' +
+                ", userId='" + userId + '\'' +
+                ", gameId='" + gameId + '\'' +
+                ", occurredAt=" + occurredAt +
+                ", published=" + published +
+                ", seq=" + seq +
+                '}';
+    }
+}
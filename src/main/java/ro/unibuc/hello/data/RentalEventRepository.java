@@ -0,0 +1,18 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface RentalEventRepository extends MongoRepository<RentalEvent, String> {
+    // Served by the partial (published = false) index, oldest first
+    List<RentalEvent> findByPublishedFalseOrderByIdAsc(Pageable pageable);
+
+    // The feed, served by the seq index
+    List<RentalEvent> findBySeqGreaterThanOrderBySeqAsc(long seq, Pageable pageable);
+
+    List<RentalEvent> findBySeqNotNullOrderBySeqDesc(Pageable pageable);
+}
@@ -0,0 +1,15 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ReservationRepository extends MongoRepository<Reservation, String> {
+    // Bookings that still matter for a game's calendar
+    List<Reservation> findByGameIdAndEndDateAfter(String gameId, LocalDateTime now);
+
+    List<Reservation> findByUserIdOrderByStartDateAsc(String userId);
+}
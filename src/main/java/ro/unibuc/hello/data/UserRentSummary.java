@@ -0,0 +1,62 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Denormalized view of one user's rentals, keyed by userId and updated on every rent and return
+@Document(collection = "user_rent_summaries")
+public class UserRentSummary {
+
+    @Id
+    private String userId;
+
+    private List<String> activeGameIds = new ArrayList<>();
+
+    private long totalRentals;
+
+    private LocalDateTime lastRentDate;
+
+    // Default constructor
+    public UserRentSummary() {
+    }
+
+    public UserRentSummary(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public List<String> getActiveGameIds() {
+        return activeGameIds;
+    }
+
+    public void setActiveGameIds(List<String> activeGameIds) {
+        this.activeGameIds = activeGameIds;
+    }
+
+    public long getTotalRentals() {
+        return totalRentals;
+    }
+
+    public void setTotalRentals(long totalRentals) {
+        this.totalRentals = totalRentals;
+    }
+
+    public LocalDateTime getLastRentDate() {
+        return lastRentDate;
+    }
+
+    public void setLastRentDate(LocalDateTime lastRentDate) {
+        this.lastRentDate = lastRentDate;
+    }
+}
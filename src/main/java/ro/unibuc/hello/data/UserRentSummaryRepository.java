@@ -0,0 +1,8 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserRentSummaryRepository extends MongoRepository<UserRentSummary, String> {
+}
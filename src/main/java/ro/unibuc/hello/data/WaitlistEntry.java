@@ -0,0 +1,94 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+// A customer waiting for a copy of a sold-out game, removed once a copy has been allocated to them.
+// seq orders the waiters of one game, claimedAt is set while an instance is allocating a copy to them.
+@Document(collection = "waitlist")
+public class WaitlistEntry {
+
+    @Id
+    private String id;
+
+    private String gameId;
+
+    private String userId;
+
+    private int rentDays;
+
+    private LocalDateTime enqueuedAt;
+
+    private Long seq;
+
+    private LocalDateTime claimedAt;
+
+    // Default constructor
+    public WaitlistEntry() {
+    }
+
+    public WaitlistEntry(String gameId, String userId, int rentDays, LocalDateTime enqueuedAt) {
+        this.gameId = gameId;
+        this.userId = userId;
+        this.rentDays = rentDays;
+        this.enqueuedAt = enqueuedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public int getRentDays() {
+        return rentDays;
+    }
+
+    public void setRentDays(int rentDays) {
+        this.rentDays = rentDays;
+    }
+
+    public LocalDateTime getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    public void setEnqueuedAt(LocalDateTime enqueuedAt) {
+        this.enqueuedAt = enqueuedAt;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public LocalDateTime getClaimedAt() {
+        return claimedAt;
+    }
+
+    public void setClaimedAt(LocalDateTime claimedAt) {
+        this.claimedAt = claimedAt;
+    }
+}
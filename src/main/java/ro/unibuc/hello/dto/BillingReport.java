@@ -0,0 +1,19 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BillingReport {
+    private String runId;
+    private boolean dryRun;
+    private int partitions;
+    private long rentsScanned;
+    private long invoices;
+    private long amountCents;
+    private long durationMillis;
+    private double rentsPerSecond;
+}
@@ -0,0 +1,16 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class CounterRepair {
+    private String gameId;
+    // "available" on the game or "activeRentals" over its counter shards
+    private String counter;
+    private long stored;
+    private long expected;
+}
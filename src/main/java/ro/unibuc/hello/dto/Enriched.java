@@ -0,0 +1,19 @@
+package ro.unibuc.hello.dto;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// A report row returned with expand=names: the row's own fields plus the names behind its ids.
+// Names of deleted users or games are null.
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class Enriched<T> {
+    @JsonUnwrapped
+    private T item;
+    private String username;
+    private String gameName;
+    private String platform;
+}
@@ -0,0 +1,25 @@
+package ro.unibuc.hello.dto;
+
+import jakarta.validation.constraints.Positive;
+
+public class ExtendRentRequest {
+
+    @Positive(message = "Extra days can't be less than 1")
+    private int days;
+
+    // Default constructor
+    public ExtendRentRequest() {
+    }
+
+    public ExtendRentRequest(int days) {
+        this.days = days;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public void setDays(int days) {
+        this.days = days;
+    }
+}
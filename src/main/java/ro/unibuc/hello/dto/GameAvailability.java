@@ -0,0 +1,18 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class GameAvailability {
+    private String gameId;
+    private LocalDateTime startDate;
+    private LocalDateTime endDate;
+    // Copies free for the whole range
+    private int available;
+}
@@ -0,0 +1,16 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class GameRentalCount {
+    private String gameId;
+    // Null if the game has been deleted since
+    private String name;
+    private String platform;
+    private long rentals;
+}
@@ -0,0 +1,14 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class GameRentalStats {
+    private String gameId;
+    private long totalRentals;
+    private long activeRentals;
+}
@@ -0,0 +1,20 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+// Active rentals as counted from the change stream, current up to lastEventAt
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class LiveRentalCounts {
+    private long total;
+    private Map<String, Long> byGame;
+    private Map<String, Long> byPlatform;
+    private Map<String, Long> byGenre;
+    private LocalDateTime lastEventAt;
+}
@@ -0,0 +1,22 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReconcileReport {
+    private boolean dryRun;
+    private long rentsScanned;
+    private long gamesChecked;
+    // Repairs that were written, or would be on a dry run
+    private List<CounterRepair> repairs;
+    // Drift the scan found that wasn't repaired: the counter or the rents moved before the confirming
+    // read, or the counter moved again before the write
+    private long skipped;
+    private long durationMillis;
+}
@@ -0,0 +1,21 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// The fields list views need from a rent. Every one of them is a key of the rents list indexes,
+// so these rows are read from the index alone.
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class RentListItem {
+    private String userId;
+    private String gameId;
+    private boolean isReturned;
+    private LocalDateTime rentDate;
+    private LocalDateTime dueDate;
+    private LocalDateTime returnDate;
+}
@@ -0,0 +1,17 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// Over returned rents only, an active rent's duration isn't known yet
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class RentalDurationStats {
+    private long returnedRentals;
+    // From rentDate to returnDate
+    private double averageDays;
+    // The rentDays customers asked for
+    private double averageBookedDays;
+}
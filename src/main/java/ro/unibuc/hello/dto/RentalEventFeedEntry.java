@@ -0,0 +1,15 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import ro.unibuc.hello.data.RentalEvent;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class RentalEventFeedEntry {
+    // The event's stored feed position, pass it back as "after" to continue on any instance
+    private long seq;
+    private RentalEvent event;
+}
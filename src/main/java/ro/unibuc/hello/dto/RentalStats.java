@@ -0,0 +1,20 @@
+package ro.unibuc.hello.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Rental analytics over the rents made in `period`, as of `computedAt`
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class RentalStats {
+    private String period;
+    private LocalDateTime computedAt;
+    private List<GameRentalCount> topGames;
+    private List<GenrePlatformCount> byGenreAndPlatform;
+    private RentalDurationStats duration;
+}
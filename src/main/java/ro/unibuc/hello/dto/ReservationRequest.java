@@ -0,0 +1,66 @@
+package ro.unibuc.hello.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+import java.time.LocalDateTime;
+
+public class ReservationRequest {
+
+    @NotBlank(message = "User ID is required")
+    private String userId;
+
+    @NotBlank(message = "Game ID is required")
+    private String gameId;
+
+    @NotNull(message = "Start date is required")
+    private LocalDateTime startDate;
+
+    @NotNull(message = "End date is required")
+    private LocalDateTime endDate;
+
+    // Default constructor
+    public ReservationRequest() {
+    }
+
+    // Constructor with fields
+    public ReservationRequest(String userId, String gameId, LocalDateTime startDate, LocalDateTime endDate) {
+        this.userId = userId;
+        this.gameId = gameId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    // Getters and Setters
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public LocalDateTime getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(LocalDateTime startDate) {
+        this.startDate = startDate;
+    }
+
+    public LocalDateTime getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(LocalDateTime endDate) {
+        this.endDate = endDate;
+    }
+}
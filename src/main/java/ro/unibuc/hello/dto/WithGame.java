@@ -0,0 +1,17 @@
+package ro.unibuc.hello.dto;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import ro.unibuc.hello.data.Game;
+
+// A list row returned with expand=game: the row's own fields plus the embedded game
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class WithGame<T> {
+    @JsonUnwrapped
+    private T item;
+    private Game game;
+}
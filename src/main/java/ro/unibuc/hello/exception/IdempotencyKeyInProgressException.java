@@ -0,0 +1,8 @@
+package ro.unibuc.hello.exception;
+
+public class IdempotencyKeyInProgressException extends RuntimeException {
+
+    public IdempotencyKeyInProgressException() {
+        super("A request with this Idempotency-Key is still being processed, please retry");
+    }
+}
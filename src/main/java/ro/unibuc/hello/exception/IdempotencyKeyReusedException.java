@@ -0,0 +1,8 @@
+package ro.unibuc.hello.exception;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException() {
+        super("This Idempotency-Key was already used for a different request");
+    }
+}
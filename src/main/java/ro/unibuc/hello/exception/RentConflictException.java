@@ -0,0 +1,10 @@
+package ro.unibuc.hello.exception;
+
+public class RentConflictException extends RuntimeException {
+
+    private static final String conflictTemplate = "Rent %s was changed concurrently, please retry";
+
+    public RentConflictException(String id) {
+        super(String.format(conflictTemplate, id));
+    }
+}
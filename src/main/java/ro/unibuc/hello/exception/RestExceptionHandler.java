@@ -19,6 +19,26 @@ public class RestExceptionHandler {
     return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
   }
 
+  @ExceptionHandler(WaitlistedException.class)
+  public ResponseEntity<Object> handleWaitlisted(WaitlistedException ex) {
+    return new ResponseEntity<>(ex.getMessage(), HttpStatus.ACCEPTED);
+  }
+
+  @ExceptionHandler(RentConflictException.class)
+  public ResponseEntity<Object> handleRentConflict(RentConflictException ex) {
+    return new ResponseEntity<>(ex.getMessage(), HttpStatus.CONFLICT);
+  }
+
+  @ExceptionHandler(IdempotencyKeyReusedException.class)
+  public ResponseEntity<Object> handleIdempotencyKeyReused(IdempotencyKeyReusedException ex) {
+    return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+  }
+
+  @ExceptionHandler(IdempotencyKeyInProgressException.class)
+  public ResponseEntity<Object> handleIdempotencyKeyInProgress(IdempotencyKeyInProgressException ex) {
+    return new ResponseEntity<>(ex.getMessage(), HttpStatus.CONFLICT);
+  }
+
   @ExceptionHandler(IllegalStateException.class)
   public ResponseEntity<Object> handleIllegalState(IllegalStateException ex) {
     return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
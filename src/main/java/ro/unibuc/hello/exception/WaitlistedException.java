@@ -0,0 +1,10 @@
+package ro.unibuc.hello.exception;
+
+public class WaitlistedException extends RuntimeException {
+
+    private static final String waitlistedTemplate = "No copies are available, you are number %d on the waitlist";
+
+    public WaitlistedException(long position) {
+        super(String.format(waitlistedTemplate, position));
+    }
+}
@@ -0,0 +1,286 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.MongoIndexes;
+import ro.unibuc.hello.data.Rent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Counting Bloom filter over active (userId, gameId) pairs. A "no" is definite, so rentGame can skip
+// the active-rent lookup; a "maybe" still goes to Mongo. Counters are 4 bits, packed 16 to a long and
+// updated with CAS. A counter that reaches 15 sticks there, which can only cost false positives.
+// A return only takes away what this instance counted for that rent, so returns of rents loaded from
+// Mongo or made through other instances never zero a counter another pair still needs; their counts stay
+// until the filter is rebuilt, which happens every rebuild-interval-ms and also picks up rents made
+// through other instances. Until then those rents are caught by the unique active (userId, gameId) index.
+// Without that index (duplicate active rents left from before it) the filter never answers "no".
+@Component
+public class ActiveRentFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveRentFilter.class);
+
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final long MAX_COUNT = 15;
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final int wordCount;
+    private final long size;
+    private final int hashes;
+    private final Counter negatives;
+    private final Counter positives;
+    private final Counter falsePositives;
+
+    // Until the filter has seen every active rent it can't answer "no"
+    private volatile boolean ready;
+    private volatile AtomicLongArray words;
+    // Non-zero counters in words, kept up to date so the estimated fpp gauge doesn't walk the array
+    private volatile AtomicLong occupied = new AtomicLong();
+    // Rents this instance counted in words since it was built, only those are ever decremented
+    private volatile Set<String> counted = ConcurrentHashMap.newKeySet();
+    // While a rebuild streams, adds and returns also go to the filter being built
+    private AtomicLongArray building;
+    private AtomicLong buildingOccupied;
+    private Set<String> countedWhileBuilding;
+    private final ReadWriteLock generationLock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public ActiveRentFilter(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                            @Value("${rent.active-filter.enabled:true}") boolean enabled,
+                            @Value("${rent.active-filter.expected-pairs:1000000}") long expectedPairs,
+                            @Value("${rent.active-filter.fpp:0.01}") double fpp,
+                            @Value("${rent.active-filter.max-memory-kb:4096}") long maxMemoryKb) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+
+        // Standard Bloom sizing, capped by the memory budget (two counters per byte)
+        long wanted = (long) Math.ceil(-expectedPairs * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        long counters = Math.max(COUNTERS_PER_WORD, Math.min(wanted, maxMemoryKb * 1024 * 2));
+        this.wordCount = enabled ? (int) ((counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD) : 0;
+        this.words = new AtomicLongArray(wordCount);
+        this.size = Math.max(1, (long) wordCount * COUNTERS_PER_WORD);
+        this.hashes = Math.max(1, (int) Math.round((double) size / expectedPairs * Math.log(2)));
+
+        this.negatives = metricsRegistry.counter("rent_active_filter_checks", "result", "negative");
+        this.positives = metricsRegistry.counter("rent_active_filter_checks", "result", "maybe");
+        this.falsePositives = metricsRegistry.counter("rent_active_filter_false_positives");
+        metricsRegistry.gauge("rent_active_filter_memory_bytes", this, filter -> filter.wordCount * (double) Long.BYTES);
+        Gauge.builder("rent_active_filter_configured_fpp", () -> fpp).register(metricsRegistry);
+        metricsRegistry.gauge("rent_active_filter_estimated_fpp", this, ActiveRentFilter::estimatedFpp);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        if (!MongoIndexes.hasActivePairIndex(mongoTemplate)) {
+            // A "no" would let a second active rent of the same game through, nothing else would stop it
+            ready = false;
+            logger.warn("Active rent filter is off until the unique active rent index exists");
+            return;
+        }
+
+        // Built next to the live filter, which keeps answering meanwhile
+        AtomicLongArray fresh = new AtomicLongArray(wordCount);
+        AtomicLong freshOccupied = new AtomicLong();
+        generationLock.writeLock().lock();
+        try {
+            building = fresh;
+            buildingOccupied = freshOccupied;
+            countedWhileBuilding = ConcurrentHashMap.newKeySet();
+        } finally {
+            generationLock.writeLock().unlock();
+        }
+
+        Query query = new Query(Criteria.where("isReturned").is(false));
+        query.fields().include("userId", "gameId");
+
+        long loaded = 0;
+        try (Stream<Rent> rents = mongoTemplate.stream(query, Rent.class)) {
+            for (Rent rent : (Iterable<Rent>) rents::iterator) {
+                freshOccupied.addAndGet(update(fresh, rent.getUserId(), rent.getGameId(), 1));
+                loaded++;
+            }
+
+            generationLock.writeLock().lock();
+            try {
+                words = fresh;
+                occupied = freshOccupied;
+                counted = countedWhileBuilding;
+                ready = true;
+            } finally {
+                generationLock.writeLock().unlock();
+            }
+        } finally {
+            generationLock.writeLock().lock();
+            try {
+                building = null;
+                buildingOccupied = null;
+                countedWhileBuilding = null;
+            } finally {
+                generationLock.writeLock().unlock();
+            }
+        }
+        logger.info("Active rent filter loaded {} active rents into {} counters, {} hashes", loaded, size, hashes);
+    }
+
+    // Drops the counts left by returns this instance didn't count and takes in rents made elsewhere
+    @Scheduled(initialDelayString = "${rent.active-filter.rebuild-interval-ms:600000}",
+            fixedDelayString = "${rent.active-filter.rebuild-interval-ms:600000}")
+    public void refresh() {
+        if (enabled && ready) {
+            rebuild();
+        }
+    }
+
+    public boolean mightBeActive(String userId, String gameId) {
+        if (!enabled || !ready) {
+            return true;
+        }
+
+        AtomicLongArray current = words;
+        long hash1 = hash(userId, gameId);
+        long hash2 = mix(hash1);
+        for (int i = 0; i < hashes; i++) {
+            if (count(current, index(hash1, hash2, i)) == 0) {
+                negatives.increment();
+                return false;
+            }
+        }
+        positives.increment();
+        return true;
+    }
+
+    public void add(Rent rent) {
+        if (!enabled) {
+            return;
+        }
+
+        generationLock.readLock().lock();
+        try {
+            if (counted.add(rent.getId())) {
+                occupied.addAndGet(update(words, rent.getUserId(), rent.getGameId(), 1));
+            }
+            if (building != null && countedWhileBuilding.add(rent.getId())) {
+                buildingOccupied.addAndGet(update(building, rent.getUserId(), rent.getGameId(), 1));
+            }
+        } finally {
+            generationLock.readLock().unlock();
+        }
+    }
+
+    public void remove(Rent rent) {
+        if (!enabled) {
+            return;
+        }
+
+        // A rent this instance didn't count would take away a count that belongs to another pair
+        generationLock.readLock().lock();
+        try {
+            if (counted.remove(rent.getId())) {
+                occupied.addAndGet(update(words, rent.getUserId(), rent.getGameId(), -1));
+            }
+            if (building != null && countedWhileBuilding.remove(rent.getId())) {
+                buildingOccupied.addAndGet(update(building, rent.getUserId(), rent.getGameId(), -1));
+            }
+        } finally {
+            generationLock.readLock().unlock();
+        }
+    }
+
+    // Called when a "maybe" turned out to have no active rent behind it
+    public void recordFalsePositive() {
+        if (enabled && ready) {
+            falsePositives.increment();
+        }
+    }
+
+    double estimatedFpp() {
+        if (wordCount == 0) {
+            return 0;
+        }
+        return Math.pow((double) occupied.get() / size, hashes);
+    }
+
+    private long count(AtomicLongArray counters, long index) {
+        long word = counters.get((int) (index / COUNTERS_PER_WORD));
+        return (word >>> shift(index)) & MAX_COUNT;
+    }
+
+    // Returns how many counters went from zero to non-zero, less how many went back to zero
+    private int update(AtomicLongArray counters, String userId, String gameId, int delta) {
+        long hash1 = hash(userId, gameId);
+        long hash2 = mix(hash1);
+        int occupiedChange = 0;
+        for (int i = 0; i < hashes; i++) {
+            occupiedChange += update(counters, index(hash1, hash2, i), delta);
+        }
+        return occupiedChange;
+    }
+
+    private int update(AtomicLongArray counters, long index, int delta) {
+        int word = (int) (index / COUNTERS_PER_WORD);
+        int shift = shift(index);
+        while (true) {
+            long current = counters.get(word);
+            long count = (current >>> shift) & MAX_COUNT;
+            // Saturated counters no longer know their real count, so they never go down again
+            if (count == MAX_COUNT || (delta < 0 && count == 0)) {
+                return 0;
+            }
+            long next = delta > 0 ? current + (1L << shift) : current - (1L << shift);
+            if (counters.compareAndSet(word, current, next)) {
+                if (delta > 0) {
+                    return count == 0 ? 1 : 0;
+                }
+                return count == 1 ? -1 : 0;
+            }
+        }
+    }
+
+    private int shift(long index) {
+        return (int) (index % COUNTERS_PER_WORD) * 4;
+    }
+
+    private long index(long hash1, long hash2, int i) {
+        return Math.floorMod(hash1 + i * hash2, size);
+    }
+
+    // FNV-1a over both ids, with a separator so ("ab", "c") and ("a", "bc") differ
+    private long hash(String userId, String gameId) {
+        long hash = 0xcbf29ce484222325L;
+        String key = userId + '\u0000' + gameId;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // SplitMix64 finalizer, also used to derive the second hash for double hashing
+    private long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
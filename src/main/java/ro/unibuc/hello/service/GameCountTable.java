@@ -0,0 +1,82 @@
+package ro.unibuc.hello.service;
+
+// String -> int counts in open addressing with linear probing, for tallying one counter per game over a
+// scan of millions of rents without an Integer box or map entry per key. Keys and counts sit in two
+// parallel arrays kept at most half full. Not thread-safe.
+final class GameCountTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] keys;
+    private int[] counts;
+    private int size;
+
+    GameCountTable() {
+        this(MIN_CAPACITY);
+    }
+
+    GameCountTable(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedKeys * 2 - 1)) << 1;
+        keys = new String[capacity];
+        counts = new int[capacity];
+    }
+
+    void increment(String key) {
+        int slot = slot(keys, key);
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                resize();
+                slot = slot(keys, key);
+            }
+        }
+        counts[slot]++;
+    }
+
+    int get(String key) {
+        int slot = slot(keys, key);
+        return keys[slot] == null ? 0 : counts[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                visitor.visit(keys[i], counts[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new String[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    // The key's slot, or the empty slot where it belongs
+    private static int slot(String[] keys, String key) {
+        int mask = keys.length - 1;
+        int h = key.hashCode();
+        // Spread the high bits, ids that only differ at the end still land apart
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    interface Visitor {
+        void visit(String key, int count);
+    }
+}
@@ -0,0 +1,221 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.GameCounterShard;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.GameRentalStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+// Per-game rental counters without a hot document. Rents and returns only bump in-process LongAdders;
+// a periodic flush moves the accumulated deltas into one of N shard documents per game with a single
+// $inc each, and reads sum the shards. Every flush has an id that its $inc records on the shard (the last
+// RECENT_FLUSHES of them) and only applies if the shard doesn't list it yet. A flush that failed
+// in a way that leaves its outcome unknown, a socket timeout say, is sent again with the same id before
+// anything else, so it lands exactly once. Deltas a flush is known not to have written go back into the
+// adders. The stored totals are exact once a flush has gone through.
+// activeRentals is seeded from the active rents the first time the counters are used, so returns of rents
+// made before the counters existed don't take it below zero.
+@Component
+public class GameRentalCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(GameRentalCounters.class);
+    // Retries happen on the very next flush, by then a shard has seen a handful of other flushes at most
+    static final int RECENT_FLUSHES = 16;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final int shards;
+    private final Map<String, Cells> pending = new ConcurrentHashMap<>();
+    // Each flush moves on to the next shard, and instances start at a random one, so concurrent
+    // instances rarely write the same shard document
+    private final AtomicInteger nextShard;
+    private final String instanceId = UUID.randomUUID().toString();
+    private long flushSequence;
+    // Only touched by flush, which is synchronized
+    private Batch inDoubt;
+
+    @Autowired
+    public GameRentalCounters(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                              @Value("${rent.counters.shards:16}") int shards) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.shards = shards;
+        this.nextShard = new AtomicInteger(ThreadLocalRandom.current().nextInt(shards));
+    }
+
+    public void recordRent(String gameId) {
+        Cells cells = cells(gameId);
+        cells.total.increment();
+        cells.active.increment();
+    }
+
+    public void recordReturn(String gameId) {
+        cells(gameId).active.decrement();
+    }
+
+    public GameRentalStats getStats(String gameId) {
+        Aggregation aggregation = newAggregation(
+                match(Criteria.where("gameId").is(gameId)),
+                group("gameId").sum("totalRentals").as("totalRentals").sum("activeRentals").as("activeRentals"));
+        Document sums = mongoTemplate.aggregate(aggregation, GameCounterShard.class, Document.class)
+                .getUniqueMappedResult();
+        if (sums == null) {
+            return new GameRentalStats(gameId, 0, 0);
+        }
+        return new GameRentalStats(gameId, ((Number) sums.get("totalRentals")).longValue(),
+                ((Number) sums.get("activeRentals")).longValue());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        if (mongoTemplate.exists(new Query(), GameCounterShard.class)) {
+            return;
+        }
+
+        Aggregation aggregation = newAggregation(
+                match(Criteria.where("isReturned").is(false)),
+                group("gameId").count().as("active"));
+        List<Document> activeByGame = mongoTemplate.aggregate(aggregation, Rent.class, Document.class).getMappedResults();
+        if (activeByGame.isEmpty()) {
+            return;
+        }
+
+        // Set on insert only: an instance that got to a shard first, seeding or flushing, wins, and
+        // the reconciler takes care of what that leaves over
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GameCounterShard.class);
+        for (Document active : activeByGame) {
+            String gameId = active.getString("_id");
+            long count = ((Number) active.get("active")).longValue();
+            bulk.upsert(new Query(Criteria.where("_id").is(shardId(gameId, 0))), new Update()
+                    .setOnInsert("gameId", gameId)
+                    .setOnInsert("shard", 0)
+                    .setOnInsert("totalRentals", count)
+                    .setOnInsert("activeRentals", count));
+        }
+        bulk.execute();
+        logger.info("Seeded rental counters for {} games from their active rents", activeByGame.size());
+    }
+
+    @Scheduled(fixedDelayString = "${rent.counters.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized void flush() {
+        // New deltas wait in the adders until the earlier flush is settled
+        if (inDoubt != null && !write(inDoubt)) {
+            return;
+        }
+
+        List<String> gameIds = new ArrayList<>();
+        List<long[]> deltas = new ArrayList<>();
+        for (Map.Entry<String, Cells> entry : pending.entrySet()) {
+            // sumThenReset swaps every cell to zero, increments racing with it land in the next flush
+            long total = entry.getValue().total.sumThenReset();
+            long active = entry.getValue().active.sumThenReset();
+            if (total != 0 || active != 0) {
+                gameIds.add(entry.getKey());
+                deltas.add(new long[]{total, active});
+            }
+        }
+        if (gameIds.isEmpty()) {
+            return;
+        }
+
+        int shard = Math.floorMod(nextShard.getAndIncrement(), shards);
+        write(new Batch(instanceId + ":" + ++flushSequence, shard, gameIds, deltas));
+    }
+
+    // Returns false if it can't tell whether the batch was applied, it has to be sent again as it is
+    private boolean write(Batch batch) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GameCounterShard.class);
+        for (int i = 0; i < batch.gameIds().size(); i++) {
+            String gameId = batch.gameIds().get(i);
+            bulk.upsert(new Query(Criteria.where("_id").is(shardId(gameId, batch.shard())).and("flushes").ne(batch.id())),
+                    new Update()
+                            .setOnInsert("gameId", gameId)
+                            .setOnInsert("shard", batch.shard())
+                            .inc("totalRentals", batch.deltas().get(i)[0])
+                            .inc("activeRentals", batch.deltas().get(i)[1])
+                            .push("flushes").slice(-RECENT_FLUSHES).each(batch.id()));
+        }
+
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            // Unordered, so only the reported upserts are missing. A duplicate key means the shard exists
+            // but didn't match: either it already lists this flush, or a first insert raced with another's.
+            int missing = 0;
+            for (BulkWriteError error : e.getErrors()) {
+                String gameId = batch.gameIds().get(error.getIndex());
+                if (error.getCode() != DUPLICATE_KEY || !applied(gameId, batch)) {
+                    restore(gameId, batch.deltas().get(error.getIndex()));
+                    missing++;
+                }
+            }
+            if (missing > 0) {
+                logger.warn("Could not flush {} rental counters, retrying on the next flush", missing);
+            }
+        } catch (RuntimeException e) {
+            inDoubt = batch;
+            logger.warn("Could not flush rental counters, sending flush {} again next time", batch.id(), e);
+            return false;
+        }
+        inDoubt = null;
+        metricsRegistry.counter("rent_counters_flushed").increment(batch.gameIds().size());
+        return true;
+    }
+
+    private boolean applied(String gameId, Batch batch) {
+        return mongoTemplate.exists(new Query(Criteria.where("_id").is(shardId(gameId, batch.shard()))
+                .and("flushes").is(batch.id())), GameCounterShard.class);
+    }
+
+    private static String shardId(String gameId, int shard) {
+        return gameId + ":" + shard;
+    }
+
+    private void restore(String gameId, long[] delta) {
+        Cells cells = cells(gameId);
+        cells.total.add(delta[0]);
+        cells.active.add(delta[1]);
+    }
+
+    private Cells cells(String gameId) {
+        return pending.computeIfAbsent(gameId, id -> new Cells());
+    }
+
+    private record Batch(String id, int shard, List<String> gameIds, List<long[]> deltas) {
+    }
+
+    private static final class Cells {
+        private final LongAdder total = new LongAdder();
+        private final LongAdder active = new LongAdder();
+    }
+}
@@ -5,9 +5,16 @@ import ro.unibuc.hello.data.GameRepository;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import ro.unibuc.hello.dto.WithGame;
 import ro.unibuc.hello.exception.EntityNotFoundException;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Service
@@ -48,11 +55,35 @@ public class GameService {
         return game;
     }
 
+    // Resolves the games of a whole list with one $in query instead of one lookup per row.
+    // A row whose game has been deleted gets a null game.
+    public <T> List<WithGame<T>> expandGames(List<T> items, Function<T, String> gameIdOf) {
+        metricsRegistry.counter("game_service_calls", "method", "expandGames").increment();
+
+        long startTime = System.nanoTime();
+        Set<String> gameIds = items.stream().map(gameIdOf).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, Game> games = new HashMap<>();
+        gameRepository.findAllById(gameIds).forEach(game -> games.put(game.getId(), game));
+
+        List<WithGame<T>> expanded = items.stream()
+                .map(item -> new WithGame<>(item, games.get(gameIdOf.apply(item))))
+                .collect(Collectors.toList());
+        long duration = System.nanoTime() - startTime;
+
+        metricsRegistry.timer("game_service_time", "method", "expandGames").record(duration, java.util.concurrent.TimeUnit.NANOSECONDS);
+
+        return expanded;
+    }
+
     public Game createGame(Game game) {
         metricsRegistry.counter("game_service_calls", "method", "createGame").increment();
     
         long startTime = System.nanoTime();
         try {
+            // A new inventory-tracked title starts with every copy on the shelf
+            if (game.getCopies() != null && game.getAvailable() == null) {
+                game.setAvailable(game.getCopies());
+            }
             Game savedGame = gameRepository.save(game);
             long duration = System.nanoTime() - startTime;
             metricsRegistry.timer("game_service_time", "method", "createGame").record(duration, java.util.concurrent.TimeUnit.NANOSECONDS);
@@ -79,7 +110,10 @@ public class GameService {
         game.setGenre(gameDetails.getGenre());
         game.setReleasedYear(gameDetails.getReleasedYear());
 
-        Game updatedGame = gameRepository.save(game);
+        // Only the descriptive fields are written back, saving the whole document
+        // would overwrite concurrent changes to the available copies
+        gameRepository.updateDetails(id, game.getName(), game.getPlatform(), game.getGenre(), game.getReleasedYear());
+        Game updatedGame = game;
         long duration = System.nanoTime() - startTime;
         
         metricsRegistry.timer("game_service_time", "method", "updateGame").record(duration, java.util.concurrent.TimeUnit.NANOSECONDS);
@@ -87,6 +121,31 @@ public class GameService {
         return updatedGame;
     }
 
+    public boolean takeCopy(String id) {
+        metricsRegistry.counter("game_service_calls", "method", "takeCopy").increment();
+
+        long startTime = System.nanoTime();
+        boolean taken = gameRepository.takeCopy(id) > 0;
+        long duration = System.nanoTime() - startTime;
+
+        metricsRegistry.timer("game_service_time", "method", "takeCopy").record(duration, java.util.concurrent.TimeUnit.NANOSECONDS);
+        if (!taken) {
+            metricsRegistry.counter("game_service_sold_out").increment();
+        }
+
+        return taken;
+    }
+
+    public void releaseCopy(String id) {
+        metricsRegistry.counter("game_service_calls", "method", "releaseCopy").increment();
+
+        long startTime = System.nanoTime();
+        gameRepository.releaseCopy(id);
+        long duration = System.nanoTime() - startTime;
+
+        metricsRegistry.timer("game_service_time", "method", "releaseCopy").record(duration, java.util.concurrent.TimeUnit.NANOSECONDS);
+    }
+
     public void deleteGame(String id) {
         metricsRegistry.counter("game_service_calls", "method", "deleteGame").increment();
         
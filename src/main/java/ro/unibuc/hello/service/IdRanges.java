@@ -0,0 +1,71 @@
+package ro.unibuc.hello.service;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Splits a collection into _id ranges of roughly equal size, so a full scan can be spread over
+// several threads. Boundaries come from a random sample, which avoids sorting the whole collection.
+final class IdRanges {
+
+    private static final int SAMPLES_PER_RANGE = 10;
+
+    private IdRanges() {
+    }
+
+    static List<Criteria> split(MongoTemplate mongoTemplate, String collection, int ranges) {
+        return toRanges(bounds(mongoTemplate, collection, ranges));
+    }
+
+    // The boundaries alone, for jobs that have to store them and cut the same ranges again after a restart
+    static List<Object> bounds(MongoTemplate mongoTemplate, String collection, int ranges) {
+        if (ranges <= 1) {
+            return Collections.emptyList();
+        }
+
+        List<Document> sample = mongoTemplate.getCollection(collection).aggregate(Arrays.asList(
+                new Document("$sample", new Document("size", ranges * SAMPLES_PER_RANGE)),
+                new Document("$project", new Document("_id", 1)),
+                new Document("$sort", new Document("_id", 1)))).into(new ArrayList<>());
+
+        List<Object> bounds = new ArrayList<>();
+        for (int i = 1; i < ranges && !sample.isEmpty(); i++) {
+            Object bound = sample.get(i * sample.size() / ranges).get("_id");
+            // Small collections sample the same _id more than once
+            if (bounds.isEmpty() || !bounds.get(bounds.size() - 1).equals(bound)) {
+                bounds.add(bound);
+            }
+        }
+        return bounds;
+    }
+
+    static List<Criteria> toRanges(List<Object> bounds) {
+        List<Criteria> result = new ArrayList<>(bounds.size() + 1);
+        Object lower = null;
+        for (Object upper : bounds) {
+            result.add(range(lower, upper));
+            lower = upper;
+        }
+        result.add(range(lower, null));
+        return result;
+    }
+
+    static Criteria range(Object lower, Object upper) {
+        if (lower == null && upper == null) {
+            return new Criteria();
+        }
+        Criteria criteria = Criteria.where("_id");
+        if (lower != null) {
+            criteria = criteria.gte(lower);
+        }
+        if (upper != null) {
+            criteria = criteria.lt(upper);
+        }
+        return criteria;
+    }
+}
@@ -0,0 +1,214 @@
+package ro.unibuc.hello.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import ro.unibuc.hello.data.IdempotencyRecord;
+import ro.unibuc.hello.data.IdempotencyRecordRepository;
+import ro.unibuc.hello.exception.IdempotencyKeyInProgressException;
+import ro.unibuc.hello.exception.IdempotencyKeyReusedException;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+// Replays the stored response for a repeated Idempotency-Key instead of running the request again.
+// Before running a request its key is inserted in Mongo as pending, the unique _id lets exactly one attempt
+// on any instance claim it; duplicates wait for that attempt to complete the record with its response and
+// replay it. Completed responses live in Mongo (TTL-indexed) behind a small LRU cache. Only successful
+// responses are stored, a failed request drops its pending record so it can be retried, and a pending record
+// left by an instance that died mid-request is taken over once it is older than the pending timeout.
+// Keys belong to the caller that sent them, and a key reused with a different body is rejected instead of
+// answering with the response to another request.
+@Service
+public class IdempotencyService {
+
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final long pendingWaitMs;
+    private final Duration pendingTimeout;
+    private final Map<String, IdempotencyRecord> cache;
+
+    @Autowired
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository, MongoTemplate mongoTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${idempotency.ttl-hours:24}") long ttlHours,
+                              @Value("${idempotency.cache-size:10000}") int cacheSize,
+                              @Value("${idempotency.pending-wait-ms:5000}") long pendingWaitMs,
+                              @Value("${idempotency.pending-timeout-ms:60000}") long pendingTimeoutMs) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.pendingWaitMs = pendingWaitMs;
+        this.pendingTimeout = Duration.ofMillis(pendingTimeoutMs);
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, IdempotencyRecord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    // caller is the authenticated user, null for none; request is the body the key stands for
+    public <T> ResponseEntity<T> execute(String idempotencyKey, String scope, String caller, Object request,
+                                         Class<T> type, Supplier<ResponseEntity<T>> action) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+
+        // The same key sent to a different endpoint or by someone else is a different request.
+        // The caller is encoded so a name with a colon can't run into the key.
+        String key = scope + ":" + URLEncoder.encode(caller == null ? "" : caller, StandardCharsets.UTF_8)
+                + ":" + idempotencyKey;
+        String requestHash = requestHash(request);
+
+        IdempotencyRecord cached = cache.get(key);
+        if (cached != null && !isExpired(cached)) {
+            return replay(cached, requestHash, type);
+        }
+
+        String owner = UUID.randomUUID().toString();
+        long deadline = System.currentTimeMillis() + pendingWaitMs;
+        while (true) {
+            if (claim(key, requestHash, owner)) {
+                return run(key, requestHash, owner, type, action);
+            }
+
+            IdempotencyRecord stored = idempotencyRecordRepository.findById(key)
+                    .filter(record -> !isExpired(record))
+                    .orElse(null);
+            if (stored == null) {
+                // The attempt holding it failed, or it just expired; claim it again
+                continue;
+            }
+            if (!stored.getRequestHash().equals(requestHash)) {
+                throw new IdempotencyKeyReusedException();
+            }
+            if (!IdempotencyRecord.PENDING.equals(stored.getState())) {
+                cache.put(key, stored);
+                return replay(stored, requestHash, type);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IdempotencyKeyInProgressException();
+            }
+            pause();
+        }
+    }
+
+    // Inserts the pending record, or takes over one that is stale. False when another attempt holds the key
+    // or has completed it.
+    private boolean claim(String key, String requestHash, String owner) {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            idempotencyRecordRepository.insert(new IdempotencyRecord(key, requestHash, owner, now));
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Left pending by an attempt that never finished, or expired and not removed by the TTL monitor yet
+            Query stale = new Query(new Criteria().andOperator(Criteria.where("_id").is(key), new Criteria().orOperator(
+                    Criteria.where("state").is(IdempotencyRecord.PENDING).and("createdAt").lt(now.minus(pendingTimeout)),
+                    Criteria.where("createdAt").lt(now.minus(ttl)))));
+            Update takeOver = new Update()
+                    .set("state", IdempotencyRecord.PENDING)
+                    .set("owner", owner)
+                    .set("requestHash", requestHash)
+                    .set("createdAt", now)
+                    .unset("status")
+                    .unset("body");
+            return mongoTemplate.updateFirst(stale, takeOver, IdempotencyRecord.class).getModifiedCount() == 1;
+        }
+    }
+
+    private <T> ResponseEntity<T> run(String key, String requestHash, String owner, Class<T> type,
+                                      Supplier<ResponseEntity<T>> action) {
+        IdempotencyRecord completed;
+        try {
+            ResponseEntity<T> response = action.get();
+            completed = new IdempotencyRecord(key, requestHash, response.getStatusCode().value(),
+                    objectMapper.writeValueAsString(response.getBody()), LocalDateTime.now());
+        } catch (JsonProcessingException e) {
+            release(key, owner);
+            throw new IllegalStateException("Could not store response for idempotency key", e);
+        } catch (RuntimeException e) {
+            release(key, owner);
+            throw e;
+        }
+
+        // Unless the record was taken over as stale meanwhile, then the attempt that took it completes it
+        mongoTemplate.updateFirst(mine(key, owner), new Update()
+                .set("state", IdempotencyRecord.COMPLETED)
+                .unset("owner")
+                .set("status", completed.getStatus())
+                .set("body", completed.getBody())
+                .set("createdAt", completed.getCreatedAt()), IdempotencyRecord.class);
+        cache.put(key, completed);
+        return replay(completed, requestHash, type);
+    }
+
+    // Drops the pending record so the failed request can be retried with the same key
+    private void release(String key, String owner) {
+        mongoTemplate.remove(mine(key, owner), IdempotencyRecord.class);
+    }
+
+    private Query mine(String key, String owner) {
+        return new Query(Criteria.where("_id").is(key).and("owner").is(owner));
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(POLL_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyKeyInProgressException();
+        }
+    }
+
+    private boolean isExpired(IdempotencyRecord record) {
+        // The TTL monitor only runs once a minute, so expiry is checked here as well
+        return record.getCreatedAt().plus(ttl).isBefore(LocalDateTime.now());
+    }
+
+    // SHA-256 of the body as re-serialized, so formatting and field order of the original JSON don't matter
+    public String requestHash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not hash the request for its idempotency key", e);
+        }
+    }
+
+    private <T> ResponseEntity<T> replay(IdempotencyRecord record, String requestHash, Class<T> type) {
+        if (!record.getRequestHash().equals(requestHash)) {
+            throw new IdempotencyKeyReusedException();
+        }
+        try {
+            T body = objectMapper.readValue(record.getBody(), type);
+            return new ResponseEntity<>(body, HttpStatus.valueOf(record.getStatus()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not replay stored response", e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ro.unibuc.hello.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Half-open [start, end) ranges kept in a treap ordered by start, each node also knowing the latest end
+// in its subtree. An overlap query never enters a subtree that ends before the range or starts after it,
+// so it costs O(log n + k) for k overlapping ranges. Not thread-safe, callers lock around it.
+final class IntervalTree {
+
+    private static final Comparator<Interval> ORDER = Comparator.comparing(Interval::start)
+            .thenComparing(Interval::id);
+
+    private final Map<String, Interval> byId = new HashMap<>();
+    private Node root;
+
+    // Adds the range, replacing any range stored under the same id
+    void add(Interval interval) {
+        remove(interval.id());
+        root = insert(root, new Node(interval));
+        byId.put(interval.id(), interval);
+    }
+
+    Interval remove(String id) {
+        Interval interval = byId.remove(id);
+        if (interval != null) {
+            root = delete(root, interval);
+        }
+        return interval;
+    }
+
+    Interval get(String id) {
+        return byId.get(id);
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    List<Interval> overlapping(LocalDateTime start, LocalDateTime end) {
+        List<Interval> found = new ArrayList<>();
+        collect(root, start, end, found);
+        return found;
+    }
+
+    // Largest number of ranges covering the same instant inside [start, end)
+    int maxOverlap(LocalDateTime start, LocalDateTime end) {
+        List<Interval> found = overlapping(start, end);
+        if (found.size() < 2) {
+            return found.size();
+        }
+
+        List<LocalDateTime> starts = new ArrayList<>(found.size());
+        List<LocalDateTime> ends = new ArrayList<>(found.size());
+        for (Interval interval : found) {
+            starts.add(interval.start());
+            ends.add(interval.end());
+        }
+        starts.sort(null);
+        ends.sort(null);
+
+        // Sweep: a range ending at the instant another one starts doesn't overlap it
+        int open = 0;
+        int max = 0;
+        int e = 0;
+        for (LocalDateTime s : starts) {
+            while (!ends.get(e).isAfter(s)) {
+                open--;
+                e++;
+            }
+            max = Math.max(max, ++open);
+        }
+        return max;
+    }
+
+    // Ranges that are over by the cutoff
+    List<Interval> endedBy(LocalDateTime cutoff) {
+        List<Interval> ended = new ArrayList<>();
+        for (Interval interval : byId.values()) {
+            if (!interval.end().isAfter(cutoff)) {
+                ended.add(interval);
+            }
+        }
+        return ended;
+    }
+
+    private void collect(Node node, LocalDateTime start, LocalDateTime end, List<Interval> found) {
+        if (node == null || !node.maxEnd.isAfter(start)) {
+            return;
+        }
+        collect(node.left, start, end, found);
+        if (!node.interval.start().isBefore(end)) {
+            // Everything to the right starts even later
+            return;
+        }
+        if (node.interval.end().isAfter(start)) {
+            found.add(node.interval);
+        }
+        collect(node.right, start, end, found);
+    }
+
+    private Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (ORDER.compare(added.interval, node.interval) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node delete(Node node, Interval interval) {
+        if (node == null) {
+            return null;
+        }
+        int compare = ORDER.compare(interval, node.interval);
+        if (compare < 0) {
+            node.left = delete(node.left, interval);
+        } else if (compare > 0) {
+            node.right = delete(node.right, interval);
+        } else {
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            // Rotate the node down towards a leaf, keeping the heap order of the priorities
+            if (node.left.priority > node.right.priority) {
+                node = rotateRight(node);
+                node.right = delete(node.right, interval);
+            } else {
+                node = rotateLeft(node);
+                node.left = delete(node.left, interval);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private void update(Node node) {
+        LocalDateTime maxEnd = node.interval.end();
+        if (node.left != null && node.left.maxEnd.isAfter(maxEnd)) {
+            maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd.isAfter(maxEnd)) {
+            maxEnd = node.right.maxEnd;
+        }
+        node.maxEnd = maxEnd;
+    }
+
+    record Interval(String id, LocalDateTime start, LocalDateTime end) {
+    }
+
+    private static final class Node {
+        private final Interval interval;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node left;
+        private Node right;
+        private LocalDateTime maxEnd;
+
+        private Node(Interval interval) {
+            this.interval = interval;
+            this.maxEnd = interval.end();
+        }
+    }
+}
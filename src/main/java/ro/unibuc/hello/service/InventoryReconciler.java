@@ -0,0 +1,441 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.GameCounterShard;
+import ro.unibuc.hello.data.ReconcileRun;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.CounterRepair;
+import ro.unibuc.hello.dto.ReconcileReport;
+import ro.unibuc.hello.exception.EntityNotFoundException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+// Checks the denormalized per-game counters against the rents. One pass over the active rents counts them
+// per game, then each tracked game's `available` is compared with copies - active and each game's
+// activeRentals over its counter shards with active. Reads and writes share a documents-per-second budget so
+// a run doesn't crowd out live traffic, which also means the scan can be minutes old by the time it ends.
+// The scan therefore only nominates games: after at least confirm-delay-ms each one is counted again and
+// only repaired if that second look sees the same stored and expected values. Drift from a rent whose
+// inventory write landed before its insert, or from deltas another instance hasn't flushed yet, doesn't
+// survive a few seconds; what does is real. `available` is then set only if it still holds the value
+// just read, counter shards get the difference as an $inc. Anything that moved is skipped for the next run.
+// A run takes at least the confirm delay and usually far longer, so one started on demand runs on its own
+// thread and is tracked in reconcile_runs, where the caller polls for the report.
+@Component
+public class InventoryReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryReconciler.class);
+    static final String AVAILABLE = "available";
+    static final String ACTIVE_RENTALS = "activeRentals";
+
+    private final MongoTemplate mongoTemplate;
+    private final GameRentalCounters gameRentalCounters;
+    private final MeterRegistry metricsRegistry;
+    private final int docsPerSecond;
+    private final int batchSize;
+    private final long confirmDelayMillis;
+    private final Executor runner;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public InventoryReconciler(MongoTemplate mongoTemplate, GameRentalCounters gameRentalCounters,
+                               MeterRegistry metricsRegistry,
+                               @Value("${rent.reconcile.docs-per-second:5000}") int docsPerSecond,
+                               @Value("${rent.reconcile.batch-size:500}") int batchSize,
+                               @Value("${rent.reconcile.confirm-delay-ms:5000}") long confirmDelayMillis) {
+        this(mongoTemplate, gameRentalCounters, metricsRegistry, docsPerSecond, batchSize, confirmDelayMillis,
+                Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "inventory-reconcile");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    InventoryReconciler(MongoTemplate mongoTemplate, GameRentalCounters gameRentalCounters,
+                        MeterRegistry metricsRegistry, int docsPerSecond, int batchSize, long confirmDelayMillis,
+                        Executor runner) {
+        this.mongoTemplate = mongoTemplate;
+        this.gameRentalCounters = gameRentalCounters;
+        this.metricsRegistry = metricsRegistry;
+        this.docsPerSecond = docsPerSecond;
+        this.batchSize = batchSize;
+        this.confirmDelayMillis = confirmDelayMillis;
+        this.runner = runner;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (runner instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    // Off unless rent.reconcile.cron is set
+    @Scheduled(cron = "${rent.reconcile.cron:-}")
+    public void scheduledRun() {
+        reconcile(false);
+    }
+
+    // Starts a run in the background and returns it while it is RUNNING, getRun() has the report once it is done
+    public ReconcileRun start(boolean dryRun) {
+        acquire();
+        try {
+            ReconcileRun run = mongoTemplate.insert(new ReconcileRun(dryRun, LocalDateTime.now()));
+            runner.execute(() -> complete(run));
+            return run;
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    public ReconcileRun getRun(String id) {
+        ReconcileRun run = mongoTemplate.findById(id, ReconcileRun.class);
+        if (run == null) {
+            throw new EntityNotFoundException("Reconciliation not found with id: " + id);
+        }
+        return run;
+    }
+
+    public ReconcileReport reconcile(boolean dryRun) {
+        acquire();
+        try {
+            return run(dryRun);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void complete(ReconcileRun run) {
+        try {
+            run.setReport(run(run.isDryRun()));
+            run.setStatus(ReconcileRun.COMPLETED);
+        } catch (RuntimeException e) {
+            logger.warn("Reconciliation {} failed", run.getId(), e);
+            run.setStatus(ReconcileRun.FAILED);
+            run.setError(e.getMessage());
+        } finally {
+            running.set(false);
+        }
+        run.setCompletedAt(LocalDateTime.now());
+        mongoTemplate.save(run);
+    }
+
+    private void acquire() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A reconciliation is already in progress");
+        }
+    }
+
+    private ReconcileReport run(boolean dryRun) {
+        long startTime = System.nanoTime();
+        // Deltas still waiting in this instance's adders would otherwise show up as drift
+        gameRentalCounters.flush();
+
+        IoBudget budget = new IoBudget(docsPerSecond);
+        GameCountTable active = new GameCountTable();
+        long rentsScanned = countActive(active, budget);
+
+        long[] gamesChecked = new long[1];
+        List<CounterRepair> availableDrift = findAvailableDrift(active, gamesChecked, budget);
+        List<CounterRepair> shardDrift = findShardDrift(active, budget);
+
+        awaitConfirmation(startTime);
+        gameRentalCounters.flush();
+        List<CounterRepair> repairs = new ArrayList<>();
+        long skipped = repairAvailable(availableDrift, repairs, dryRun, budget)
+                + repairActiveRentals(shardDrift, repairs, dryRun, budget);
+
+        long duration = System.nanoTime() - startTime;
+        metricsRegistry.timer("rent_reconcile_run_time", "dry_run", String.valueOf(dryRun))
+                .record(duration, TimeUnit.NANOSECONDS);
+        if (!dryRun) {
+            for (CounterRepair repair : repairs) {
+                metricsRegistry.counter("rent_reconcile_repaired", "counter", repair.getCounter()).increment();
+            }
+        }
+
+        ReconcileReport report = new ReconcileReport(dryRun, rentsScanned, gamesChecked[0], repairs, skipped,
+                TimeUnit.NANOSECONDS.toMillis(duration));
+        logger.info("Reconciliation{} finished: {} active rents over {} tracked games, {} counters {}, {} skipped",
+                dryRun ? " (dry run)" : "", rentsScanned, gamesChecked[0], repairs.size(),
+                dryRun ? "off" : "repaired", skipped);
+        return report;
+    }
+
+    private long countActive(GameCountTable active, IoBudget budget) {
+        Query query = new Query(Criteria.where("isReturned").is(false));
+        query.fields().include("gameId");
+
+        long scanned = 0;
+        try (Stream<Rent> rents = mongoTemplate.stream(query, Rent.class)) {
+            for (Rent rent : (Iterable<Rent>) rents::iterator) {
+                budget.acquire(1);
+                scanned++;
+                if (rent.getGameId() != null) {
+                    active.increment(rent.getGameId());
+                }
+            }
+        }
+        return scanned;
+    }
+
+    private List<CounterRepair> findAvailableDrift(GameCountTable active, long[] gamesChecked, IoBudget budget) {
+        Query query = new Query(Criteria.where("copies").ne(null));
+        query.fields().include("copies", "available");
+
+        List<CounterRepair> drift = new ArrayList<>();
+        try (Stream<Game> games = mongoTemplate.stream(query, Game.class)) {
+            for (Game game : (Iterable<Game>) games::iterator) {
+                budget.acquire(1);
+                gamesChecked[0]++;
+                CounterRepair repair = availableRepair(game, active.get(game.getId()));
+                if (repair != null) {
+                    drift.add(repair);
+                }
+            }
+        }
+        return drift;
+    }
+
+    private List<CounterRepair> findShardDrift(GameCountTable active, IoBudget budget) {
+        Aggregation aggregation = newAggregation(
+                group("gameId").sum(ACTIVE_RENTALS).as(ACTIVE_RENTALS));
+
+        List<CounterRepair> drift = new ArrayList<>();
+        Set<String> counted = new HashSet<>();
+        try (Stream<Document> sums = mongoTemplate.aggregateStream(aggregation, GameCounterShard.class, Document.class)) {
+            for (Document sum : (Iterable<Document>) sums::iterator) {
+                budget.acquire(1);
+                String gameId = sum.getString("_id");
+                counted.add(gameId);
+                long stored = ((Number) sum.get(ACTIVE_RENTALS)).longValue();
+                long expected = active.get(gameId);
+                if (stored != expected) {
+                    drift.add(new CounterRepair(gameId, ACTIVE_RENTALS, stored, expected));
+                }
+            }
+        }
+        // Games with active rents but no shard yet, e.g. rented before the counters existed
+        active.forEach((gameId, count) -> {
+            if (!counted.contains(gameId)) {
+                drift.add(new CounterRepair(gameId, ACTIVE_RENTALS, 0, count));
+            }
+        });
+        return drift;
+    }
+
+    // Returns how many nominated games weren't repaired because their numbers moved
+    private long repairAvailable(List<CounterRepair> drift, List<CounterRepair> repairs, boolean dryRun,
+                                 IoBudget budget) {
+        long skipped = 0;
+        for (List<CounterRepair> batch : batches(drift)) {
+            List<String> gameIds = gameIds(batch);
+            budget.acquire(batch.size());
+            Map<String, Long> activeNow = activeCounts(gameIds);
+            Query query = new Query(Criteria.where("_id").in(gameIds));
+            query.fields().include("copies", "available");
+            Map<String, Game> gamesNow = new HashMap<>();
+            for (Game game : mongoTemplate.find(query, Game.class)) {
+                gamesNow.put(game.getId(), game);
+            }
+
+            List<CounterRepair> confirmed = new ArrayList<>();
+            for (CounterRepair repair : batch) {
+                Game game = gamesNow.get(repair.getGameId());
+                CounterRepair again = game == null || game.getCopies() == null
+                        ? null
+                        : availableRepair(game, activeNow.getOrDefault(repair.getGameId(), 0L));
+                if (sameDrift(repair, again)) {
+                    confirmed.add(repair);
+                } else {
+                    skipped++;
+                }
+            }
+            repairs.addAll(confirmed);
+            if (!dryRun && !confirmed.isEmpty()) {
+                skipped += writeAvailable(confirmed, budget);
+            }
+        }
+        return skipped;
+    }
+
+    private long writeAvailable(List<CounterRepair> batch, IoBudget budget) {
+        budget.acquire(batch.size());
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Game.class);
+        for (CounterRepair repair : batch) {
+            // Only if nothing rented or returned the game since the confirming read
+            Criteria unchanged = repair.getStored() == 0
+                    ? new Criteria().orOperator(Criteria.where(AVAILABLE).is(0), Criteria.where(AVAILABLE).is(null))
+                    : Criteria.where(AVAILABLE).is(repair.getStored());
+            bulk.updateOne(new Query(new Criteria().andOperator(Criteria.where("_id").is(repair.getGameId()), unchanged)),
+                    new Update().set(AVAILABLE, repair.getExpected()));
+        }
+        BulkWriteResult result = bulk.execute();
+        return batch.size() - result.getMatchedCount();
+    }
+
+    private long repairActiveRentals(List<CounterRepair> drift, List<CounterRepair> repairs, boolean dryRun,
+                                     IoBudget budget) {
+        long skipped = 0;
+        for (List<CounterRepair> batch : batches(drift)) {
+            List<String> gameIds = gameIds(batch);
+            budget.acquire(batch.size());
+            Map<String, Long> activeNow = activeCounts(gameIds);
+            Map<String, Long> storedNow = shardSums(gameIds);
+
+            List<CounterRepair> confirmed = new ArrayList<>();
+            for (CounterRepair repair : batch) {
+                CounterRepair again = new CounterRepair(repair.getGameId(), ACTIVE_RENTALS,
+                        storedNow.getOrDefault(repair.getGameId(), 0L), activeNow.getOrDefault(repair.getGameId(), 0L));
+                if (sameDrift(repair, again)) {
+                    confirmed.add(repair);
+                } else {
+                    skipped++;
+                }
+            }
+            repairs.addAll(confirmed);
+            if (dryRun || confirmed.isEmpty()) {
+                continue;
+            }
+
+            budget.acquire(confirmed.size());
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GameCounterShard.class);
+            for (CounterRepair repair : confirmed) {
+                // The correction goes into shard 0, only the sum over the shards means anything
+                bulk.upsert(new Query(Criteria.where("_id").is(repair.getGameId() + ":0")), new Update()
+                        .setOnInsert("gameId", repair.getGameId())
+                        .setOnInsert("shard", 0)
+                        .inc(ACTIVE_RENTALS, repair.getExpected() - repair.getStored()));
+            }
+            bulk.execute();
+        }
+        return skipped;
+    }
+
+    private CounterRepair availableRepair(Game game, long activeRents) {
+        int expected = (int) Math.max(0, game.getCopies() - activeRents);
+        Integer stored = game.getAvailable();
+        if (stored != null && stored == expected) {
+            return null;
+        }
+        return new CounterRepair(game.getId(), AVAILABLE, stored == null ? 0 : stored, expected);
+    }
+
+    private static boolean sameDrift(CounterRepair first, CounterRepair again) {
+        return again != null && again.getStored() == first.getStored() && again.getExpected() == first.getExpected();
+    }
+
+    // Active rents of a batch of games, counted from the (gameId, ...) history index
+    private Map<String, Long> activeCounts(List<String> gameIds) {
+        Aggregation aggregation = newAggregation(
+                match(Criteria.where("gameId").in(gameIds).and("isReturned").is(false)),
+                group("gameId").count().as("active"));
+        Map<String, Long> counts = new HashMap<>();
+        for (Document count : mongoTemplate.aggregate(aggregation, Rent.class, Document.class).getMappedResults()) {
+            counts.put(count.getString("_id"), ((Number) count.get("active")).longValue());
+        }
+        return counts;
+    }
+
+    private Map<String, Long> shardSums(List<String> gameIds) {
+        Aggregation aggregation = newAggregation(
+                match(Criteria.where("gameId").in(gameIds)),
+                group("gameId").sum(ACTIVE_RENTALS).as(ACTIVE_RENTALS));
+        Map<String, Long> sums = new HashMap<>();
+        for (Document sum : mongoTemplate.aggregate(aggregation, GameCounterShard.class, Document.class)
+                .getMappedResults()) {
+            sums.put(sum.getString("_id"), ((Number) sum.get(ACTIVE_RENTALS)).longValue());
+        }
+        return sums;
+    }
+
+    // The confirming reads happen at least confirmDelayMillis after the run started, however fast the scan was
+    private void awaitConfirmation(long startNanos) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(confirmDelayMillis) - (System.nanoTime() - startNanos);
+        if (remaining <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reconciliation was interrupted", e);
+        }
+    }
+
+    private List<List<CounterRepair>> batches(List<CounterRepair> repairs) {
+        List<List<CounterRepair>> batches = new ArrayList<>();
+        for (int from = 0; from < repairs.size(); from += batchSize) {
+            batches.add(repairs.subList(from, Math.min(repairs.size(), from + batchSize)));
+        }
+        return batches;
+    }
+
+    private static List<String> gameIds(List<CounterRepair> repairs) {
+        List<String> gameIds = new ArrayList<>(repairs.size());
+        for (CounterRepair repair : repairs) {
+            gameIds.add(repair.getGameId());
+        }
+        return gameIds;
+    }
+
+    // Paces a run to `docsPerSecond` documents read or written since it started; 0 means no limit
+    private static final class IoBudget {
+        private final int docsPerSecond;
+        private final long startTime = System.nanoTime();
+        private long used;
+
+        private IoBudget(int docsPerSecond) {
+            this.docsPerSecond = docsPerSecond;
+        }
+
+        private void acquire(int docs) {
+            if (docsPerSecond <= 0) {
+                return;
+            }
+            used += docs;
+            long aheadNanos = used * 1_000_000_000L / docsPerSecond - (System.nanoTime() - startTime);
+            // Sleeping for less than a few milliseconds costs more than it saves
+            if (aheadNanos < TimeUnit.MILLISECONDS.toNanos(5)) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Reconciliation was interrupted", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.BillingCheckpoint;
+import ro.unibuc.hello.data.BillingRun;
+import ro.unibuc.hello.data.Invoice;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentRepositoryCustomImpl;
+import ro.unibuc.hello.dto.BillingReport;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Late-fee billing over the rents collection. A run cuts the collection into _id ranges that are billed in
+// parallel on a fixed pool; each range writes its invoices with bulk upserts and checkpoints after every batch.
+// A run cut short by a crash is resumed where its partitions stopped, and since invoices are keyed by rent,
+// a batch billed twice just writes the same invoices again. Overdue means still out past the due date,
+// or returned late since the previous run. A dry run computes the same report without writing anything.
+// Only the rents collection is read: RentArchiver and RentBucketCompactor keep a returned rent there until a
+// completed run's cut-off has passed its return, see billedThrough.
+@Component
+public class LateFeeBilling {
+
+    private static final Logger logger = LoggerFactory.getLogger(LateFeeBilling.class);
+    private static final long MINUTES_PER_DAY = TimeUnit.DAYS.toMinutes(1);
+    private static final DateTimeFormatter RUN_ID = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final int threads;
+    private final int partitions;
+    private final int batchSize;
+    private final long dailyFeeCents;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public LateFeeBilling(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                          @Value("${rent.billing.threads:4}") int threads,
+                          @Value("${rent.billing.partitions:16}") int partitions,
+                          @Value("${rent.billing.batch-size:1000}") int batchSize,
+                          @Value("${rent.billing.daily-fee-cents:100}") long dailyFeeCents) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.threads = threads;
+        this.partitions = partitions;
+        this.batchSize = batchSize;
+        this.dailyFeeCents = dailyFeeCents;
+    }
+
+    // Off unless rent.billing.cron is set
+    @Scheduled(cron = "${rent.billing.cron:-}")
+    public void scheduledRun() {
+        run(false);
+    }
+
+    public BillingReport run(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A billing run is already in progress");
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            BillingRun billingRun = dryRun ? plan(LocalDateTime.now()) : resumeOrStart();
+            LongAdder scannedNow = new LongAdder();
+            List<BillingCheckpoint> results = billPartitions(billingRun, dryRun, scannedNow);
+
+            if (!dryRun) {
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(billingRun.getId())),
+                        new Update().set("completed", true).set("completedAt", LocalDateTime.now()), BillingRun.class);
+            }
+
+            long duration = System.nanoTime() - startTime;
+            metricsRegistry.timer("rent_billing_run_time", "dry_run", String.valueOf(dryRun))
+                    .record(duration, TimeUnit.NANOSECONDS);
+
+            // Totals cover the whole run, partitions finished before a resume included.
+            // Throughput only counts what this process scanned.
+            BillingReport report = new BillingReport(billingRun.getId(), dryRun, results.size(),
+                    results.stream().mapToLong(BillingCheckpoint::getScanned).sum(),
+                    results.stream().mapToLong(BillingCheckpoint::getInvoiced).sum(),
+                    results.stream().mapToLong(BillingCheckpoint::getAmountCents).sum(),
+                    TimeUnit.NANOSECONDS.toMillis(duration),
+                    scannedNow.sum() / Math.max(duration / 1_000_000_000.0, 0.001));
+            logger.info("Billing run {}{} finished: {} rents scanned, {} invoices, {} cents in {} ms ({} rents/s)",
+                    report.getRunId(), dryRun ? " (dry run)" : "", report.getRentsScanned(), report.getInvoices(),
+                    report.getAmountCents(), report.getDurationMillis(), Math.round(report.getRentsPerSecond()));
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<BillingCheckpoint> billPartitions(BillingRun billingRun, boolean dryRun, LongAdder scannedNow) {
+        List<Object> bounds = billingRun.getBounds();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BillingCheckpoint>> futures = new ArrayList<>();
+            for (int i = 0; i <= bounds.size(); i++) {
+                int partition = i;
+                Object lower = i == 0 ? null : bounds.get(i - 1);
+                Object upper = i < bounds.size() ? bounds.get(i) : null;
+                futures.add(executor.submit(() -> billPartition(billingRun, partition, lower, upper, dryRun, scannedNow)));
+            }
+
+            List<BillingCheckpoint> results = new ArrayList<>(futures.size());
+            for (Future<BillingCheckpoint> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Billing run was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Billing run failed, it resumes from its checkpoints next time", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BillingCheckpoint billPartition(BillingRun billingRun, int partition, Object lower, Object upper,
+                                            boolean dryRun, LongAdder scannedNow) {
+        BillingCheckpoint checkpoint = dryRun ? null
+                : mongoTemplate.findById(billingRun.getId() + ":" + partition, BillingCheckpoint.class);
+        if (checkpoint == null) {
+            checkpoint = new BillingCheckpoint(billingRun.getId(), partition);
+        }
+        if (checkpoint.isDone()) {
+            return checkpoint;
+        }
+
+        while (true) {
+            long batchStart = System.nanoTime();
+            Query query = new Query(overdue(billingRun, checkpoint.getLastRentId(), lower, upper))
+                    .with(Sort.by(Sort.Direction.ASC, "_id"))
+                    .limit(batchSize);
+            query.fields().include("userId", "gameId", "rentDate", "rentDays", "isReturned", "returnDate");
+
+            List<Rent> batch = mongoTemplate.find(query, Rent.class);
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            BulkOperations bulk = dryRun ? null : mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class);
+            long invoiced = 0;
+            long amountCents = 0;
+            for (Rent rent : batch) {
+                Invoice invoice = invoice(rent, billingRun);
+                if (invoice == null) {
+                    continue;
+                }
+                invoiced++;
+                amountCents += invoice.getAmountCents();
+                if (bulk != null) {
+                    bulk.upsert(new Query(Criteria.where("_id").is(invoice.getId())), new Update()
+                            .set("userId", invoice.getUserId())
+                            .set("gameId", invoice.getGameId())
+                            .set("dueDate", invoice.getDueDate())
+                            .set("billedUntil", invoice.getBilledUntil())
+                            .set("lateDays", invoice.getLateDays())
+                            .set("amountCents", invoice.getAmountCents())
+                            .set("finalAmount", invoice.isFinalAmount())
+                            .set("runId", invoice.getRunId())
+                            .set("updatedAt", invoice.getUpdatedAt()));
+                }
+            }
+            if (bulk != null && invoiced > 0) {
+                bulk.execute();
+            }
+
+            // Invoices first, then the checkpoint: a crash in between only bills this batch again
+            checkpoint.setLastRentId(batch.get(batch.size() - 1).getId());
+            checkpoint.setScanned(checkpoint.getScanned() + batch.size());
+            checkpoint.setInvoiced(checkpoint.getInvoiced() + invoiced);
+            checkpoint.setAmountCents(checkpoint.getAmountCents() + amountCents);
+            if (!dryRun) {
+                mongoTemplate.save(checkpoint);
+            }
+
+            scannedNow.add(batch.size());
+            metricsRegistry.counter("rent_billing_scanned").increment(batch.size());
+            metricsRegistry.counter("rent_billing_invoiced").increment(invoiced);
+            metricsRegistry.timer("rent_billing_batch_time").record(System.nanoTime() - batchStart, TimeUnit.NANOSECONDS);
+
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+
+        checkpoint.setDone(true);
+        if (!dryRun) {
+            mongoTemplate.save(checkpoint);
+        }
+        return checkpoint;
+    }
+
+    Criteria overdue(BillingRun billingRun, String lastRentId, Object lower, Object upper) {
+        List<Criteria> parts = new ArrayList<>();
+        // A resumed partition continues after the last rent it billed
+        if (lastRentId != null) {
+            parts.add(Criteria.where("_id").gt(lastRentId));
+        } else if (lower != null) {
+            parts.add(Criteria.where("_id").gte(lower));
+        }
+        if (upper != null) {
+            parts.add(Criteria.where("_id").lt(upper));
+        }
+
+        Criteria stillOut = Criteria.where("isReturned").is(false).and("dueDate").lt(billingRun.getAsOf());
+        // Rents stored before dueDate existed are still out too, until the backfill has given them one
+        Criteria stillOutLegacy = RentRepositoryCustomImpl.legacyDueBefore(billingRun.getAsOf());
+        // Rents returned before `since` already got their final invoice from an earlier run
+        Criteria returned = Criteria.where("isReturned").is(true).and("returnDate").lt(billingRun.getAsOf());
+        if (billingRun.getSince() != null) {
+            returned.gte(billingRun.getSince());
+        }
+        parts.add(new Criteria().orOperator(stillOut, stillOutLegacy, returned));
+        return new Criteria().andOperator(parts);
+    }
+
+    // The fee for every started day past rentDate + rentDays, up to the return or the run's cut-off
+    Invoice invoice(Rent rent, BillingRun billingRun) {
+        if (rent.getRentDate() == null) {
+            return null;
+        }
+        LocalDateTime dueDate = rent.getRentDate().plusDays(rent.getRentDays());
+        LocalDateTime billedUntil = rent.isReturned() ? rent.getReturnDate() : billingRun.getAsOf();
+        if (billedUntil == null || !billedUntil.isAfter(dueDate)) {
+            return null;
+        }
+
+        long lateDays = (Duration.between(dueDate, billedUntil).toMinutes() + MINUTES_PER_DAY - 1) / MINUTES_PER_DAY;
+        if (lateDays == 0) {
+            return null;
+        }
+
+        Invoice invoice = new Invoice();
+        invoice.setId(rent.getId());
+        invoice.setUserId(rent.getUserId());
+        invoice.setGameId(rent.getGameId());
+        invoice.setDueDate(dueDate);
+        invoice.setBilledUntil(billedUntil);
+        invoice.setLateDays(lateDays);
+        invoice.setAmountCents(lateDays * dailyFeeCents);
+        invoice.setFinalAmount(rent.isReturned());
+        invoice.setRunId(billingRun.getId());
+        invoice.setUpdatedAt(LocalDateTime.now());
+        return invoice;
+    }
+
+    private BillingRun resumeOrStart() {
+        BillingRun unfinished = mongoTemplate.findOne(new Query(Criteria.where("completed").is(false))
+                .with(Sort.by(Sort.Direction.DESC, "asOf")), BillingRun.class);
+        if (unfinished != null) {
+            logger.info("Resuming billing run {}", unfinished.getId());
+            return unfinished;
+        }
+
+        BillingRun billingRun = plan(LocalDateTime.now());
+        mongoTemplate.insert(billingRun);
+        return billingRun;
+    }
+
+    // Rents returned before this have had their final invoice, null if no run has completed yet.
+    // Jobs moving returned rents out of the rents collection must not move anything returned later.
+    public static LocalDateTime billedThrough(MongoTemplate mongoTemplate) {
+        BillingRun last = mongoTemplate.findOne(new Query(Criteria.where("completed").is(true))
+                .with(Sort.by(Sort.Direction.DESC, "asOf")), BillingRun.class);
+        return last == null ? null : last.getAsOf();
+    }
+
+    private BillingRun plan(LocalDateTime asOf) {
+        BillingRun billingRun = new BillingRun();
+        billingRun.setId(RUN_ID.format(asOf));
+        billingRun.setAsOf(asOf);
+        billingRun.setSince(billedThrough(mongoTemplate));
+        // Stored with the run, a resume has to cut the same ranges the checkpoints refer to
+        billingRun.setBounds(IdRanges.bounds(mongoTemplate, "rents", partitions));
+        billingRun.setStartedAt(LocalDateTime.now());
+        return billingRun;
+    }
+}
@@ -0,0 +1,73 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Lease;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Leases in Mongo for background jobs that every instance schedules but only one may run at a time.
+// The holder renews its lease on every run; one that stops renewing (it died or hangs) loses it once it
+// expires, and the next instance to try takes it over. Expiry is checked against each instance's clock,
+// so a lease should last well beyond the clock skew between instances and the job's longest step.
+@Component
+public class Leases {
+
+    private static final Logger logger = LoggerFactory.getLogger(Leases.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    // Tells this instance's leases apart from those of every other instance, and of its own previous runs
+    private final String owner = UUID.randomUUID().toString();
+    private final Map<String, Boolean> held = new ConcurrentHashMap<>();
+
+    @Autowired
+    public Leases(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    // Takes or renews the lease for `ttl`, false while another instance holds it
+    public boolean tryAcquire(String name, Duration ttl) {
+        LocalDateTime now = LocalDateTime.now();
+        Query claimable = new Query(new Criteria().andOperator(
+                Criteria.where("_id").is(name),
+                new Criteria().orOperator(Criteria.where("owner").is(owner), Criteria.where("expiresAt").lt(now))));
+        boolean acquired;
+        try {
+            // Held by someone else the query matches nothing, and the upsert collides with the lease on _id
+            mongoTemplate.upsert(claimable, new Update().set("owner", owner).set("expiresAt", now.plus(ttl)), Lease.class);
+            acquired = true;
+        } catch (DuplicateKeyException e) {
+            acquired = false;
+        }
+
+        Boolean before = held.put(name, acquired);
+        if (before == null || before != acquired) {
+            logger.info("{} the {} lease", acquired ? "Holding" : "Another instance holds", name);
+            if (acquired) {
+                metricsRegistry.counter("lease_acquired", "lease", name).increment();
+            }
+        }
+        return acquired;
+    }
+
+    // Gives the lease up so another instance takes over without waiting for it to expire
+    public void release(String name) {
+        if (Boolean.TRUE.equals(held.remove(name))) {
+            mongoTemplate.remove(new Query(Criteria.where("_id").is(name).and("owner").is(owner)), Lease.class);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.LiveCounterCheckpoint;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.LiveRentalCounts;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Active rentals per game, platform and genre, kept current by a change stream on the rents collection
+// instead of being counted per query: a new active rent adds one, the update that marks it returned takes
+// one away. A single worker thread applies the events and every few seconds checkpoints the per-game counts
+// together with the stream's resume token, so a restart picks up exactly where the saved counts end.
+// Without a usable checkpoint the counts are taken from an aggregation read as a snapshot at one cluster
+// time, and the stream starts right after that time, so every change is counted exactly once.
+// Platform and genre are the game's at the time of the event. Needs a replica set, so like the outbox
+// it is off unless rent.live-counters.enabled=true.
+@Component
+public class LiveRentalCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveRentalCounters.class);
+    private static final String CHECKPOINT_ID = "active_rentals";
+    // The resume token fell off the oplog, or the stream can't be resumed at all
+    private static final Set<Integer> NOT_RESUMABLE = Set.of(280, 286);
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final boolean enabled;
+    private final long checkpointMillis;
+    private final Map<String, AtomicLong> byGame = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> byPlatform = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> byGenre = new ConcurrentHashMap<>();
+    private final AtomicLong total = new AtomicLong();
+    // Platform and genre per game, only touched by the worker
+    private final Map<String, GameInfo> games = new HashMap<>();
+    private volatile LocalDateTime lastEventAt;
+    private volatile boolean running;
+    private Thread worker;
+
+    // Worker state
+    private BsonDocument resumeToken;
+    private BsonTimestamp startAt;
+    private long lastCheckpoint;
+
+    @Autowired
+    public LiveRentalCounters(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                              @Value("${rent.live-counters.enabled:false}") boolean enabled,
+                              @Value("${rent.live-counters.checkpoint-interval-ms:10000}") long checkpointMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.enabled = enabled;
+        this.checkpointMillis = checkpointMillis;
+        metricsRegistry.gauge("rent_live_active_total", total, AtomicLong::get);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "rent-live-counters");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            // The stream waits at most a second for events, then the worker saves a last checkpoint
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+            worker.interrupt();
+        }
+    }
+
+    public LiveRentalCounts getCounts() {
+        if (!enabled) {
+            throw new IllegalStateException("Live rental counters are off, set rent.live-counters.enabled=true");
+        }
+        return new LiveRentalCounts(total.get(), snapshot(byGame), snapshot(byPlatform), snapshot(byGenre), lastEventAt);
+    }
+
+    private void run() {
+        boolean loaded = false;
+        boolean fromCheckpoint = true;
+        while (running) {
+            try {
+                if (!loaded) {
+                    if (!fromCheckpoint || !loadCheckpoint()) {
+                        coldStart();
+                    }
+                    loaded = true;
+                }
+                follow();
+            } catch (RuntimeException e) {
+                if (!running) {
+                    break;
+                }
+                if (e instanceof MongoCommandException command && NOT_RESUMABLE.contains(command.getErrorCode())) {
+                    // The saved position is gone too, only a recount helps
+                    logger.warn("Rents change stream can't be resumed, counting the active rents again", e);
+                    metricsRegistry.counter("rent_live_counters_restarts", "reason", "history_lost").increment();
+                    loaded = false;
+                    fromCheckpoint = false;
+                } else {
+                    retryLater(e);
+                }
+            }
+        }
+        if (loaded) {
+            checkpoint();
+        }
+    }
+
+    private void follow() {
+        // New active rents, and updates that mark a rent returned. The update only carries the changed
+        // fields, the looked-up document supplies the game.
+        List<Bson> pipeline = List.of(Aggregates.match(Filters.or(
+                Filters.and(Filters.eq("operationType", "insert"), Filters.eq("fullDocument.isReturned", false)),
+                Filters.and(Filters.eq("operationType", "update"),
+                        Filters.eq("updateDescription.updatedFields.isReturned", true)))));
+        ChangeStreamIterable<Document> stream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Rent.class))
+                .watch(pipeline)
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        stream = resumeToken != null ? stream.resumeAfter(resumeToken) : stream.startAtOperationTime(startAt);
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            while (running) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null) {
+                    apply(change);
+                }
+                // Also moves on while nothing changes, so the token doesn't age out of the oplog
+                BsonDocument token = cursor.getResumeToken();
+                if (token != null) {
+                    resumeToken = token;
+                }
+                if (System.currentTimeMillis() - lastCheckpoint >= checkpointMillis) {
+                    checkpoint();
+                }
+            }
+        }
+    }
+
+    private void apply(ChangeStreamDocument<Document> change) {
+        Document rent = change.getFullDocument();
+        if (rent == null || rent.getString("gameId") == null) {
+            // A returned rent already archived by the time its update was looked up
+            metricsRegistry.counter("rent_live_counters_missed").increment();
+            return;
+        }
+        add(rent.getString("gameId"), change.getOperationType() == OperationType.INSERT ? 1 : -1);
+        lastEventAt = LocalDateTime.now();
+        metricsRegistry.counter("rent_live_counters_events", "type", change.getOperationType().getValue()).increment();
+    }
+
+    private void add(String gameId, long delta) {
+        counter(byGame, gameId).addAndGet(delta);
+        total.addAndGet(delta);
+        GameInfo game = games.get(gameId);
+        if (game == null) {
+            resolveGames(Set.of(gameId));
+            game = games.get(gameId);
+        }
+        if (game.platform() != null) {
+            counter(byPlatform, game.platform(), "rent_live_active_by_platform", "platform").addAndGet(delta);
+        }
+        if (game.genre() != null) {
+            counter(byGenre, game.genre(), "rent_live_active_by_genre", "genre").addAndGet(delta);
+        }
+    }
+
+    private boolean loadCheckpoint() {
+        LiveCounterCheckpoint checkpoint = mongoTemplate.findById(CHECKPOINT_ID, LiveCounterCheckpoint.class);
+        if (checkpoint == null || checkpoint.getResumeToken() == null) {
+            return false;
+        }
+        reset();
+        resumeToken = BsonDocument.parse(checkpoint.getResumeToken());
+        resolveGames(checkpoint.getGames().keySet());
+        checkpoint.getGames().forEach(this::add);
+        lastCheckpoint = System.currentTimeMillis();
+        logger.info("Live rental counters resumed from the checkpoint of {}, {} active rents",
+                checkpoint.getSavedAt(), total.get());
+        return true;
+    }
+
+    private void coldStart() {
+        reset();
+        resumeToken = null;
+        BsonTimestamp countedAt = mongoTemplate.executeCommand(new Document("hello", 1))
+                .get("operationTime", BsonTimestamp.class);
+        // Changes up to and including countedAt are in the counts, the stream takes the ones after it
+        startAt = new BsonTimestamp(countedAt.getTime(), countedAt.getInc() + 1);
+
+        List<Document> counts = activeByGame(countedAt);
+        Set<String> gameIds = new HashSet<>();
+        counts.forEach(count -> gameIds.add(count.getString("_id")));
+        gameIds.remove(null);
+        resolveGames(gameIds);
+        for (Document count : counts) {
+            if (count.getString("_id") != null) {
+                add(count.getString("_id"), count.get("active", Number.class).longValue());
+            }
+        }
+        checkpoint();
+        logger.info("Live rental counters counted {} active rents over {} games", total.get(), gameIds.size());
+    }
+
+    // Active rents per game as of clusterTime. A snapshot read, so rents written while the aggregation
+    // runs are left to the stream instead of being counted by both.
+    private List<Document> activeByGame(BsonTimestamp clusterTime) {
+        String collection = mongoTemplate.getCollectionName(Rent.class);
+        Document result = mongoTemplate.executeCommand(new Document("aggregate", collection)
+                .append("pipeline", List.of(
+                        new Document("$match", new Document("isReturned", false)),
+                        new Document("$group", new Document("_id", "$gameId").append("active", new Document("$sum", 1)))))
+                .append("cursor", new Document())
+                .append("readConcern", new Document("level", "snapshot").append("atClusterTime", clusterTime)));
+
+        Document cursor = result.get("cursor", Document.class);
+        List<Document> counts = new ArrayList<>(cursor.getList("firstBatch", Document.class));
+        long cursorId = cursor.get("id", Number.class).longValue();
+        // One document per game, more games than fit the first batch are read on the same snapshot
+        while (cursorId != 0) {
+            cursor = mongoTemplate.executeCommand(new Document("getMore", cursorId).append("collection", collection))
+                    .get("cursor", Document.class);
+            counts.addAll(cursor.getList("nextBatch", Document.class));
+            cursorId = cursor.get("id", Number.class).longValue();
+        }
+        return counts;
+    }
+
+    private void checkpoint() {
+        lastCheckpoint = System.currentTimeMillis();
+        if (resumeToken == null) {
+            // Nothing read from the stream yet, a restart counts again
+            return;
+        }
+        try {
+            mongoTemplate.save(new LiveCounterCheckpoint(CHECKPOINT_ID, resumeToken.toJson(), snapshot(byGame),
+                    LocalDateTime.now()));
+        } catch (RuntimeException e) {
+            logger.warn("Could not checkpoint the live rental counters", e);
+        }
+    }
+
+    // One $in query for the games not seen yet
+    private void resolveGames(Collection<String> gameIds) {
+        Set<String> missing = new HashSet<>(gameIds);
+        missing.removeAll(games.keySet());
+        if (missing.isEmpty()) {
+            return;
+        }
+        Query query = new Query(Criteria.where("_id").in(missing));
+        query.fields().include("platform", "genre");
+        for (Game game : mongoTemplate.find(query, Game.class)) {
+            games.put(game.getId(), new GameInfo(game.getPlatform(), game.getGenre()));
+        }
+        // Deleted games are only counted per game
+        missing.forEach(gameId -> games.putIfAbsent(gameId, new GameInfo(null, null)));
+    }
+
+    private void reset() {
+        // Zeroed rather than removed, the gauges keep reading the same counters
+        byGame.values().forEach(counter -> counter.set(0));
+        byPlatform.values().forEach(counter -> counter.set(0));
+        byGenre.values().forEach(counter -> counter.set(0));
+        total.set(0);
+        games.clear();
+    }
+
+    private void retryLater(RuntimeException e) {
+        logger.warn("Live rental counters failed, resuming in a second", e);
+        metricsRegistry.counter("rent_live_counters_restarts", "reason", "error").increment();
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    // Per game counts are only exposed through the endpoint, a gauge per game would be too many series
+    private AtomicLong counter(Map<String, AtomicLong> counters, String key) {
+        return counters.computeIfAbsent(key, k -> new AtomicLong());
+    }
+
+    private AtomicLong counter(Map<String, AtomicLong> counters, String key, String gauge, String tag) {
+        return counters.computeIfAbsent(key, k -> {
+            AtomicLong counter = new AtomicLong();
+            metricsRegistry.gauge(gauge, Tags.of(tag, k), counter, AtomicLong::get);
+            return counter;
+        });
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counters) {
+        Map<String, Long> snapshot = new HashMap<>();
+        counters.forEach((key, counter) -> {
+            long count = counter.get();
+            if (count != 0) {
+                snapshot.put(key, count);
+            }
+        });
+        return snapshot;
+    }
+
+    private record GameInfo(String platform, String genre) {
+    }
+}
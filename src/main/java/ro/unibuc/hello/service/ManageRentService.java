@@ -4,33 +4,52 @@ import org.springframework.stereotype.Service;
 import ro.unibuc.hello.data.Rent;
 import ro.unibuc.hello.data.RentRepository;
 import ro.unibuc.hello.dto.LateRent;
+import ro.unibuc.hello.dto.RentListItem;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ManageRentService {
+    static final DateTimeFormatter RENT_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
     private final RentRepository rentRepository;
+    private final OverdueTracker overdueTracker;
 
     @Autowired
-    public ManageRentService(RentRepository rentRepository) {
+    public ManageRentService(RentRepository rentRepository, OverdueTracker overdueTracker) {
         this.rentRepository = rentRepository;
+        this.overdueTracker = overdueTracker;
     }
 
+    // Read through the partial index on active rents, the returned history is never touched
     public List<Rent> getAllActiveRents() {
-        return rentRepository.findAll().stream()
-                .filter(rent -> !rent.isReturned())
-                .collect(Collectors.toList());
+        return rentRepository.findActive();
+    }
+
+    // One page of active rents in _id order, read from an open cursor; the caller closes the stream
+    public Stream<Rent> streamActiveRents(String afterId, int limit) {
+        return rentRepository.streamActive(afterId, limit);
+    }
+
+    // Only the fields list views show, read from the index without touching the rent documents
+    public List<RentListItem> getAllActiveRentItems() {
+        return rentRepository.findActiveListItems();
     }
 
     public List<LateRent> getLateRents() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        // The tracker already knows which rents are late, the query is only needed until it has loaded
+        if (overdueTracker.isReady()) {
+            return overdueTracker.lateRents();
+        }
 
-        return rentRepository.findAll().stream()
-                .filter(r -> !r.isReturned() && r.getRentDate().isBefore(LocalDateTime.now().minusDays(r.getRentDays())))
-                .map(r -> new LateRent(r.getUserId(), r.getGameId(), r.getRentDate().format(formatter)))
+        // Late means an active rent whose dueDate has passed, a covered range scan on dueDate.
+        // Only the late rents come back, each formatted once.
+        return rentRepository.findActiveListItemsDueBefore(LocalDateTime.now()).stream()
+                .map(r -> new LateRent(r.getUserId(), r.getGameId(), r.getRentDate().format(RENT_DATE_FORMAT)))
                 .collect(Collectors.toList());
     }
 }
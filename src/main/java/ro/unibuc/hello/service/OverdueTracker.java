@@ -0,0 +1,193 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.dto.LateRent;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Keeps the late rents in memory, so GET /manage/late doesn't query at all. Every active rent waits in a
+// timer wheel until its due date and then moves to the late set, where it stays until it is returned or
+// extended. Loaded from the active rents at startup; until then callers fall back to the database.
+// Rents, returns and extensions made through this instance are seen right away. Those made through other
+// instances are picked up by a periodic re-sync against the active rents, so with several instances
+// the late set can be up to one resync-interval-ms behind.
+@Component
+public class OverdueTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverdueTracker.class);
+
+    private final RentRepository rentRepository;
+    private final boolean enabled;
+    private final TimerWheel<String> wheel;
+    private final Map<String, Tracked> tracked = new HashMap<>();
+    // Read without the lock by lateRents()
+    private final Map<String, LateRent> late = new ConcurrentHashMap<>();
+    // Returns seen while a scan is still streaming, the cursor may still hand those rents out
+    private final Set<String> returnedWhileScanning = new HashSet<>();
+    private boolean scanning;
+    private volatile boolean ready;
+
+    @Autowired
+    public OverdueTracker(RentRepository rentRepository, MeterRegistry metricsRegistry,
+                          @Value("${rent.overdue-tracker.enabled:true}") boolean enabled,
+                          @Value("${rent.overdue-tracker.tick-ms:1000}") long tickMillis) {
+        this.rentRepository = rentRepository;
+        this.enabled = enabled;
+        this.wheel = new TimerWheel<>(tickMillis, System.currentTimeMillis());
+        metricsRegistry.gauge("rent_overdue_late", late, Map::size);
+        metricsRegistry.gauge("rent_overdue_tracked", this, OverdueTracker::trackedCount);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+
+        long loaded = sync();
+        synchronized (this) {
+            ready = true;
+        }
+        logger.info("Overdue tracker loaded {} active rents, {} already late", loaded, late.size());
+    }
+
+    // Catches up with rents, returns and extensions made through other instances
+    @Scheduled(initialDelayString = "${rent.overdue-tracker.resync-interval-ms:60000}",
+            fixedDelayString = "${rent.overdue-tracker.resync-interval-ms:60000}")
+    public void resync() {
+        if (enabled && ready) {
+            sync();
+        }
+    }
+
+    // One pass over the active rents from the active_id index, returns how many it read
+    private long sync() {
+        Set<String> trackedBefore;
+        synchronized (this) {
+            scanning = true;
+            trackedBefore = new HashSet<>(tracked.keySet());
+        }
+
+        long read = 0;
+        Set<String> active = new HashSet<>();
+        try (Stream<Rent> rents = rentRepository.streamActive(null, 0)) {
+            for (Rent rent : (Iterable<Rent>) rents::iterator) {
+                synchronized (this) {
+                    active.add(rent.getId());
+                    // Rents tracked meanwhile are newer than what the cursor read, unless it read a later extension
+                    Tracked current = tracked.get(rent.getId());
+                    if (!returnedWhileScanning.contains(rent.getId())
+                            && (current == null || current.version() < rent.getVersion())) {
+                        add(rent);
+                    }
+                }
+                read++;
+            }
+        } finally {
+            synchronized (this) {
+                returnedWhileScanning.clear();
+                scanning = false;
+            }
+        }
+
+        synchronized (this) {
+            // Tracked before the scan started but no longer active: returned through another instance
+            for (String rentId : trackedBefore) {
+                if (!active.contains(rentId)) {
+                    remove(rentId);
+                }
+            }
+        }
+        return read;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // A new rent, or an extended one with its new due date
+    public synchronized void track(Rent rent) {
+        if (enabled) {
+            add(rent);
+        }
+    }
+
+    public synchronized void untrack(String rentId) {
+        if (!enabled) {
+            return;
+        }
+        if (scanning) {
+            returnedWhileScanning.add(rentId);
+        }
+        remove(rentId);
+    }
+
+    @Scheduled(fixedDelayString = "${rent.overdue-tracker.tick-ms:1000}")
+    public void tick() {
+        advance(System.currentTimeMillis());
+    }
+
+    synchronized void advance(long nowMillis) {
+        wheel.advance(nowMillis, this::markLate);
+    }
+
+    // A copy of the late set, no database access
+    public List<LateRent> lateRents() {
+        return new ArrayList<>(late.values());
+    }
+
+    private void add(Rent rent) {
+        if (rent.getRentDate() == null) {
+            return;
+        }
+        // Rents stored before dueDate existed may not have it yet
+        LocalDateTime dueDate = rent.getDueDate() != null
+                ? rent.getDueDate()
+                : rent.getRentDate().plusDays(rent.getRentDays());
+        tracked.put(rent.getId(), new Tracked(rent.getUserId(), rent.getGameId(), rent.getRentDate(), rent.getVersion()));
+        late.remove(rent.getId());
+        if (!wheel.add(rent.getId(), dueDate.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())) {
+            markLate(rent.getId());
+        }
+    }
+
+    private void remove(String rentId) {
+        tracked.remove(rentId);
+        wheel.remove(rentId);
+        late.remove(rentId);
+    }
+
+    private void markLate(String rentId) {
+        Tracked rent = tracked.get(rentId);
+        if (rent != null) {
+            // Formatted once, when the rent turns late
+            late.put(rentId, new LateRent(rent.userId(), rent.gameId(), rent.rentDate().format(ManageRentService.RENT_DATE_FORMAT)));
+        }
+    }
+
+    private synchronized int trackedCount() {
+        return tracked.size();
+    }
+
+    private record Tracked(String userId, String gameId, LocalDateTime rentDate, long version) {
+    }
+}
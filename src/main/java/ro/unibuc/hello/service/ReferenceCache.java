@@ -0,0 +1,146 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.User;
+import ro.unibuc.hello.dto.Enriched;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Usernames and game names for report rows. The ids that aren't cached are resolved with $in queries of
+// at most LOOKUP_BATCH ids per collection, so a report with every active rent stays far from the command
+// size limit, and the answers are kept for a short TTL so dashboards polling the same reports mostly don't
+// query at all. Ids that resolve to nothing are cached too, as missing.
+@Component
+public class ReferenceCache {
+
+    static final int LOOKUP_BATCH = 1000;
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final long ttlMillis;
+    private final Map<String, Cached<String>> usernames = new ConcurrentHashMap<>();
+    private final Map<String, Cached<GameNames>> games = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ReferenceCache(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                          @Value("${rent.report.reference-ttl-ms:30000}") long ttlMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.ttlMillis = ttlMillis;
+        metricsRegistry.gauge("reference_cache_size", this, cache -> cache.usernames.size() + cache.games.size());
+    }
+
+    public <T> List<Enriched<T>> enrich(List<T> items, Function<T, String> userIdOf, Function<T, String> gameIdOf) {
+        Map<String, String> users = resolve(usernames, ids(items, userIdOf), "users", this::loadUsernames);
+        Map<String, GameNames> gameNames = resolve(games, ids(items, gameIdOf), "games", this::loadGames);
+
+        List<Enriched<T>> enriched = new ArrayList<>(items.size());
+        for (T item : items) {
+            GameNames game = gameNames.get(gameIdOf.apply(item));
+            enriched.add(new Enriched<>(item, users.get(userIdOf.apply(item)),
+                    game == null ? null : game.name(), game == null ? null : game.platform()));
+        }
+        return enriched;
+    }
+
+    // Expired entries are only skipped on reads, this keeps them from piling up
+    @Scheduled(fixedDelayString = "${rent.report.reference-ttl-ms:30000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        usernames.values().removeIf(cached -> cached.expiresAt() <= now);
+        games.values().removeIf(cached -> cached.expiresAt() <= now);
+    }
+
+    private <V> Map<String, V> resolve(Map<String, Cached<V>> cache, Set<String> ids, String collection,
+                                       Function<Set<String>, Map<String, V>> load) {
+        long now = System.currentTimeMillis();
+        Map<String, V> resolved = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (String id : ids) {
+            Cached<V> cached = cache.get(id);
+            if (cached != null && cached.expiresAt() > now) {
+                resolved.put(id, cached.value());
+            } else {
+                missing.add(id);
+            }
+        }
+        metricsRegistry.counter("reference_cache_lookups", "collection", collection, "result", "hit")
+                .increment(ids.size() - missing.size());
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+
+        metricsRegistry.counter("reference_cache_lookups", "collection", collection, "result", "miss")
+                .increment(missing.size());
+        Map<String, V> loaded = load.apply(missing);
+        long expiresAt = now + ttlMillis;
+        for (String id : missing) {
+            V value = loaded.get(id);
+            cache.put(id, new Cached<>(value, expiresAt));
+            resolved.put(id, value);
+        }
+        return resolved;
+    }
+
+    // Only the username, the rest of the user document (password hash included) stays in Mongo
+    private Map<String, String> loadUsernames(Set<String> ids) {
+        Map<String, String> loaded = new HashMap<>();
+        for (List<String> batch : batches(ids)) {
+            Query query = new Query(Criteria.where("_id").in(batch));
+            query.fields().include("username");
+            for (User user : mongoTemplate.find(query, User.class)) {
+                loaded.put(user.getId(), user.getUsername());
+            }
+        }
+        return loaded;
+    }
+
+    private Map<String, GameNames> loadGames(Set<String> ids) {
+        Map<String, GameNames> loaded = new HashMap<>();
+        for (List<String> batch : batches(ids)) {
+            Query query = new Query(Criteria.where("_id").in(batch));
+            query.fields().include("name", "platform");
+            for (Game game : mongoTemplate.find(query, Game.class)) {
+                loaded.put(game.getId(), new GameNames(game.getName(), game.getPlatform()));
+            }
+        }
+        return loaded;
+    }
+
+    private static <T> Set<String> ids(List<T> items, Function<T, String> idOf) {
+        return items.stream().map(idOf).filter(Objects::nonNull).collect(Collectors.toSet());
+    }
+
+    private static List<List<String>> batches(Set<String> ids) {
+        List<String> all = new ArrayList<>(ids);
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += LOOKUP_BATCH) {
+            batches.add(all.subList(from, Math.min(from + LOOKUP_BATCH, all.size())));
+        }
+        return batches;
+    }
+
+    // A null value is a cached miss
+    private record Cached<V>(V value, long expiresAt) {
+    }
+
+    private record GameNames(String name, String platform) {
+    }
+}
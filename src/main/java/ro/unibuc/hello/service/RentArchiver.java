@@ -0,0 +1,116 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.RentArchiveRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Moves rents returned more than N days ago from the hot rents collection to rents_archive.
+// Each batch is copied with idempotent upserts before it is deleted, so a run cut short
+// by a crash just copies the same batch again on the next run. When rent.buckets.enabled is on,
+// RentBucketCompactor takes returned rents at the same age instead and this job leaves them alone.
+@Component
+@ConditionalOnProperty(name = "rent.archive.enabled", havingValue = "true", matchIfMissing = true)
+public class RentArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentArchiver.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final int afterDays;
+    private final int batchSize;
+    private final int maxBatches;
+    private final boolean bucketsEnabled;
+
+    @Autowired
+    public RentArchiver(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                        @Value("${rent.archive.after-days:30}") int afterDays,
+                        @Value("${rent.archive.batch-size:1000}") int batchSize,
+                        @Value("${rent.archive.max-batches-per-run:100}") int maxBatches,
+                        @Value("${rent.buckets.enabled:false}") boolean bucketsEnabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.afterDays = afterDays;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.bucketsEnabled = bucketsEnabled;
+    }
+
+    @Scheduled(initialDelayString = "${rent.archive.initial-delay-ms:60000}",
+            fixedDelayString = "${rent.archive.interval-ms:3600000}")
+    public void archive() {
+        if (bucketsEnabled) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(afterDays);
+        // Billing only reads the rents collection, late returns wait there for their final invoice
+        LocalDateTime billedThrough = LateFeeBilling.billedThrough(mongoTemplate);
+        if (billedThrough != null && billedThrough.isBefore(cutoff)) {
+            cutoff = billedThrough;
+        }
+
+        long moved = archiveReturnedBefore(cutoff);
+        if (moved > 0) {
+            logger.info("Archived {} returned rents", moved);
+        }
+    }
+
+    public long archiveReturnedBefore(LocalDateTime cutoff) {
+        long moved = 0;
+
+        // A bounded number of batches per run keeps a large backlog from hogging the database
+        for (int i = 0; i < maxBatches; i++) {
+            long startTime = System.nanoTime();
+
+            Query query = new Query(Criteria.where("isReturned").is(true).and("returnDate").lt(cutoff))
+                    .with(Sort.by(Sort.Direction.ASC, "_id"))
+                    .limit(batchSize);
+            List<Document> batch = mongoTemplate.find(query, Document.class, "rents");
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            List<WriteModel<Document>> copies = new ArrayList<>(batch.size());
+            List<Object> ids = new ArrayList<>(batch.size());
+            for (Document rent : batch) {
+                copies.add(new ReplaceOneModel<>(new Document("_id", rent.get("_id")), rent,
+                        new ReplaceOptions().upsert(true)));
+                ids.add(rent.get("_id"));
+            }
+            mongoTemplate.getCollection(RentArchiveRepository.COLLECTION)
+                    .bulkWrite(copies, new BulkWriteOptions().ordered(false));
+
+            // Only delete what is safely in the archive and still returned
+            mongoTemplate.remove(new Query(Criteria.where("_id").in(ids).and("isReturned").is(true)), "rents");
+
+            moved += batch.size();
+            metricsRegistry.counter("rent_archiver_moved").increment(batch.size());
+            metricsRegistry.timer("rent_archiver_batch_time").record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+
+        return moved;
+    }
+}
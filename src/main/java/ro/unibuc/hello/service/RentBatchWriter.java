@@ -0,0 +1,200 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Rent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Optional group commit for rent inserts: concurrent requests are collected for a short window
+// (or until the batch is full) and written with a single bulk insert. Each waiting request gets
+// its own result, or the error Mongo reported for its document.
+@Component
+public class RentBatchWriter {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>();
+    private final DistributionSummary batchSizes;
+    private final Timer queueDelay;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    @Autowired
+    public RentBatchWriter(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                           @Value("${rent.group-commit.enabled:false}") boolean enabled,
+                           @Value("${rent.group-commit.window-us:300}") long windowMicros,
+                           @Value("${rent.group-commit.max-batch:64}") int maxBatch) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+        this.batchSizes = DistributionSummary.builder("rent_group_commit_batch_size")
+                .publishPercentileHistogram()
+                .register(metricsRegistry);
+        this.queueDelay = Timer.builder("rent_group_commit_queue_delay")
+                .publishPercentileHistogram()
+                .register(metricsRegistry);
+        metricsRegistry.gauge("rent_group_commit_queue_depth", queue, BlockingQueue::size);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "rent-group-commit");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            // The batch being written is left to finish: interrupting the driver mid-write closes the
+            // connection and fails inserts that may already be applied
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+            if (worker.isAlive()) {
+                worker.interrupt();
+                worker.join(TimeUnit.SECONDS.toMillis(1));
+            }
+        }
+
+        List<PendingInsert> leftovers = new ArrayList<>();
+        queue.drainTo(leftovers);
+        leftovers.forEach(pending -> pending.result.completeExceptionally(
+                new IllegalStateException("Rent writer is shutting down")));
+    }
+
+    // Blocks the calling request until its batch has been written
+    public Rent insert(Rent rent) {
+        if (!running) {
+            throw new IllegalStateException("Group commit is not running");
+        }
+
+        PendingInsert pending = new PendingInsert(rent, new CompletableFuture<>(), System.nanoTime());
+        queue.add(pending);
+        // stop() may have drained the queue between the check above and the add. If the insert is still
+        // queued nobody will pick it up, otherwise the worker or stop() has it and completes it.
+        if (!running && queue.remove(pending)) {
+            throw new IllegalStateException("Rent writer is shutting down");
+        }
+        try {
+            return pending.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                PendingInsert first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingInsert> batch = new ArrayList<>(maxBatch);
+                batch.add(first);
+
+                // Keep collecting until the window that opened with the first request closes
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingInsert next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // Whatever queued up meanwhile rides along, there is no reason to make it wait another window
+                queue.drainTo(batch, maxBatch - batch.size());
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    void flush(List<PendingInsert> batch) {
+        long flushStart = System.nanoTime();
+        List<Rent> rents = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch) {
+            // Ids are assigned up front so every request can be handed back its own document
+            if (pending.rent.getId() == null) {
+                pending.rent.setId(new ObjectId().toHexString());
+            }
+            rents.add(pending.rent);
+            queueDelay.record(flushStart - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+        batchSizes.record(batch.size());
+
+        Map<Integer, RuntimeException> failures = new HashMap<>();
+        try {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Rent.class);
+            bulk.insert(rents);
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            // Unordered inserts keep going past a bad document, so only the reported ones failed
+            for (BulkWriteError error : e.getErrors()) {
+                failures.put(error.getIndex(), error.getCode() == DUPLICATE_KEY
+                        ? new DuplicateKeyException(error.getMessage())
+                        : new DataIntegrityViolationException(error.getMessage()));
+            }
+        } catch (RuntimeException e) {
+            // No per-document answer, so every insert may or may not have been applied
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingInsert pending = batch.get(i);
+            RuntimeException failure = failures.get(i);
+            if (failure != null) {
+                pending.result.completeExceptionally(failure);
+            } else {
+                pending.result.complete(pending.rent);
+            }
+        }
+    }
+
+    record PendingInsert(Rent rent, CompletableFuture<Rent> result, long enqueuedAt) {
+    }
+}
@@ -0,0 +1,167 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentBucket;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Compacts returned rents into per-user, per-month rent_buckets documents holding at most
+// `capacity` rents each. Active rents stay individual documents. Every run picks up where the
+// last one stopped: rents are pushed only if no bucket holds them yet and deleted afterwards,
+// so a run cut short just redoes the deletes on the next run.
+// Rents are only compacted once they were returned rent.archive.after-days ago, the same age at which
+// RentArchiver would move them. With buckets on the archiver stands down, so the buckets own cold rents.
+// Only one instance compacts at a time, the one holding the compactor lease: two runs bucketing the same
+// batch would each push a rent into whichever bucket still had room, and store it twice.
+@Component
+@ConditionalOnProperty(name = "rent.buckets.enabled", havingValue = "true")
+public class RentBucketCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentBucketCompactor.class);
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+    static final String LEASE = "rent_bucket_compactor";
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final Leases leases;
+    private final Duration leaseTtl;
+    private final int afterDays;
+    private final int capacity;
+    private final int batchSize;
+    private final int maxBatches;
+
+    @Autowired
+    public RentBucketCompactor(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry, Leases leases,
+                               @Value("${rent.archive.after-days:30}") int afterDays,
+                               @Value("${rent.buckets.capacity:100}") int capacity,
+                               @Value("${rent.buckets.batch-size:1000}") int batchSize,
+                               @Value("${rent.buckets.max-batches-per-run:100}") int maxBatches,
+                               @Value("${rent.buckets.lease-ms:60000}") long leaseMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.leases = leases;
+        this.leaseTtl = Duration.ofMillis(leaseMillis);
+        this.afterDays = afterDays;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+    }
+
+    @Scheduled(initialDelayString = "${rent.buckets.initial-delay-ms:60000}",
+            fixedDelayString = "${rent.buckets.interval-ms:600000}")
+    public void compact() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(afterDays);
+        // Billing only reads the rents collection, late returns wait there for their final invoice
+        LocalDateTime billedThrough = LateFeeBilling.billedThrough(mongoTemplate);
+        if (billedThrough != null && billedThrough.isBefore(cutoff)) {
+            cutoff = billedThrough;
+        }
+
+        long compacted = compactReturnedBefore(cutoff);
+        if (compacted > 0) {
+            logger.info("Compacted {} returned rents into buckets", compacted);
+        }
+    }
+
+    public long compactReturnedBefore(LocalDateTime cutoff) {
+        long compacted = 0;
+
+        try {
+            for (int i = 0; i < maxBatches; i++) {
+                // Renewed per batch, so a long run keeps the lease as long as every batch finishes in time
+                if (!leases.tryAcquire(LEASE, leaseTtl)) {
+                    break;
+                }
+                long startTime = System.nanoTime();
+
+                // Rents without a rentDate have no month to go in, they stay where they are
+                Query query = new Query(Criteria.where("isReturned").is(true).and("returnDate").lt(cutoff)
+                        .and("rentDate").ne(null))
+                        .with(Sort.by(Sort.Direction.ASC, "_id"))
+                        .limit(batchSize);
+                List<Rent> batch = mongoTemplate.find(query, Rent.class);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                Map<String, List<Rent>> byBucket = new LinkedHashMap<>();
+                for (Rent rent : batch) {
+                    byBucket.computeIfAbsent(rent.getUserId() + "|" + rent.getRentDate().format(MONTH),
+                            key -> new ArrayList<>()).add(rent);
+                }
+
+                // Ordered, so each upsert sees the count left by the one before and opens a new bucket when full
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, RentBucket.class);
+                int pushes = 0;
+                for (List<Rent> rents : byBucket.values()) {
+                    String userId = rents.get(0).getUserId();
+                    String month = rents.get(0).getRentDate().format(MONTH);
+                    Set<String> bucketed = bucketedRentIds(userId, month);
+
+                    for (Rent rent : rents) {
+                        if (bucketed.contains(rent.getId())) {
+                            continue;
+                        }
+                        bulk.upsert(
+                                new Query(Criteria.where("userId").is(userId).and("month").is(month).and("count").lt(capacity)),
+                                new Update().push("rents", rent).inc("count", 1));
+                        pushes++;
+                    }
+                }
+                if (pushes > 0) {
+                    bulk.execute();
+                }
+
+                List<String> ids = batch.stream().map(Rent::getId).toList();
+                mongoTemplate.remove(new Query(Criteria.where("_id").in(ids).and("isReturned").is(true)), Rent.class);
+
+                compacted += batch.size();
+                metricsRegistry.counter("rent_bucket_compacted").increment(batch.size());
+                metricsRegistry.timer("rent_bucket_batch_time").record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+        } finally {
+            // The next run can go to any instance
+            leases.release(LEASE);
+        }
+
+        return compacted;
+    }
+
+    private Set<String> bucketedRentIds(String userId, String month) {
+        Query query = new Query(Criteria.where("userId").is(userId).and("month").is(month));
+        query.fields().include("rents.id");
+
+        Set<String> ids = new HashSet<>();
+        for (RentBucket bucket : mongoTemplate.find(query, RentBucket.class)) {
+            bucket.getRents().forEach(rent -> ids.add(rent.getId()));
+        }
+        return ids;
+    }
+}
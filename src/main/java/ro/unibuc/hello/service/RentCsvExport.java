@@ -0,0 +1,185 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.client.MongoCursor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentArchiveRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// CSV dump of the rents in a rentDate range, across rents, rents_archive and the rent_buckets entries.
+// Rows go from the aggregation cursor to the response as raw documents, without mapping them to Rent,
+// and the writer is flushed once per cursor batch: memory stays at one batch however many rows there are,
+// and the first rows reach the client as soon as the first batch does. Rows come in storage order, sorting
+// tens of millions of them would hold the download back until the sort is done.
+@Component
+public class RentCsvExport {
+
+    static final String HEADER = "id,userId,gameId,rentDate,rentDays,dueDate,returnDate,returned";
+    private static final DateTimeFormatter BUCKET_MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    public enum Status {
+        ACTIVE, RETURNED, ALL;
+
+        public static Status parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Unknown status " + value + ", expected active, returned or all");
+            }
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final int batchSize;
+
+    @Autowired
+    public RentCsvExport(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                         @Value("${rent.export.batch-size:1000}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.batchSize = batchSize;
+    }
+
+    // Writes the header and every matching rent, from inclusive and to exclusive, either may be null.
+    // Returns the number of rows written. A client that goes away fails the next flush, which closes the cursor.
+    public long write(LocalDateTime from, LocalDateTime to, Status status, OutputStream out) throws IOException {
+        long startTime = System.nanoTime();
+        long rows = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write('\n');
+        writer.flush();
+
+        try (MongoCursor<Document> cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Rent.class))
+                .aggregate(pipeline(from, to, status))
+                .batchSize(batchSize)
+                .cursor()) {
+            while (cursor.hasNext()) {
+                writeRow(writer, cursor.next());
+                rows++;
+                if (rows % batchSize == 0) {
+                    writer.flush();
+                }
+            }
+        } finally {
+            metricsRegistry.counter("rent_export_rows").increment(rows);
+        }
+        writer.flush();
+
+        metricsRegistry.timer("rent_export_time", "status", status.name().toLowerCase(Locale.ROOT))
+                .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        return rows;
+    }
+
+    // Plain stages like the stats pipeline. Archived and bucketed rents are all returned, so an active
+    // export reads only the rents collection.
+    List<Document> pipeline(LocalDateTime from, LocalDateTime to, Status status) {
+        Document range = new Document();
+        // Raw stages aren't run through the converter, so the dates go in as the Date LocalDateTime maps to
+        if (from != null) {
+            range.append("$gte", toDate(from));
+        }
+        if (to != null) {
+            range.append("$lt", toDate(to));
+        }
+        Document rentDateMatch = range.isEmpty() ? null : new Document("$match", new Document("rentDate", range));
+
+        List<Document> stages = new ArrayList<>();
+        Document rentsMatch = new Document();
+        if (rentDateMatch != null) {
+            rentsMatch.append("rentDate", range);
+        }
+        if (status != Status.ALL) {
+            rentsMatch.append("isReturned", status == Status.RETURNED);
+        }
+        if (!rentsMatch.isEmpty()) {
+            stages.add(new Document("$match", rentsMatch));
+        }
+
+        if (status != Status.ACTIVE) {
+            List<Document> archive = new ArrayList<>();
+            List<Document> buckets = new ArrayList<>();
+            if (rentDateMatch != null) {
+                archive.add(rentDateMatch);
+                // Whole buckets outside the range are skipped before they are unwound
+                Document months = new Document();
+                if (from != null) {
+                    months.append("$gte", from.format(BUCKET_MONTH));
+                }
+                if (to != null) {
+                    months.append("$lte", to.format(BUCKET_MONTH));
+                }
+                buckets.add(new Document("$match", new Document("month", months)));
+            }
+            buckets.add(new Document("$unwind", "$rents"));
+            buckets.add(new Document("$replaceRoot", new Document("newRoot", "$rents")));
+            if (rentDateMatch != null) {
+                buckets.add(rentDateMatch);
+            }
+            stages.add(new Document("$unionWith", new Document("coll", RentArchiveRepository.COLLECTION).append("pipeline", archive)));
+            stages.add(new Document("$unionWith", new Document("coll", "rent_buckets").append("pipeline", buckets)));
+        }
+
+        stages.add(new Document("$project", new Document("userId", 1).append("gameId", 1).append("rentDate", 1)
+                .append("rentDays", 1).append("dueDate", 1).append("returnDate", 1).append("isReturned", 1)));
+        return stages;
+    }
+
+    private static void writeRow(Writer writer, Document rent) throws IOException {
+        writer.write(field(rent.get("_id")));
+        writer.write(',');
+        writer.write(field(rent.get("userId")));
+        writer.write(',');
+        writer.write(field(rent.get("gameId")));
+        writer.write(',');
+        writer.write(field(rent.get("rentDate")));
+        writer.write(',');
+        writer.write(field(rent.get("rentDays")));
+        writer.write(',');
+        writer.write(field(rent.get("dueDate")));
+        writer.write(',');
+        writer.write(field(rent.get("returnDate")));
+        writer.write(',');
+        writer.write(field(rent.get("isReturned")));
+        writer.write('\n');
+    }
+
+    // RFC 4180: a field with a comma, quote or line break is quoted and its quotes doubled.
+    // Dates are written as the local date-time the rest of the API shows.
+    static String field(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value instanceof Date date
+                ? LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()).toString()
+                : value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    private static Date toDate(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,81 @@
+package ro.unibuc.hello.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Rent;
+
+import java.util.List;
+
+// One-off job filling in dueDate for rents stored before the field existed.
+// Works in bounded batches and only touches documents still missing the field, so it can be re-run safely.
+// Batches walk the _id index from where the previous one stopped, so the collection is read once in total
+// instead of every batch scanning past the documents already filled in.
+@Component
+@ConditionalOnProperty(name = "rent.backfill.due-date.enabled", havingValue = "true")
+public class RentDueDateBackfill implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentDueDateBackfill.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final int batchSize;
+
+    @Autowired
+    public RentDueDateBackfill(MongoTemplate mongoTemplate,
+                               @Value("${rent.backfill.due-date.batch-size:500}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long updated = backfill();
+        logger.info("dueDate backfill finished, {} rents updated", updated);
+    }
+
+    public long backfill() {
+        long updated = 0;
+        String lastId = null;
+
+        while (true) {
+            // Rents without a rentDate can't get a dueDate
+            Criteria criteria = Criteria.where("dueDate").exists(false).and("rentDate").ne(null);
+            if (lastId != null) {
+                criteria = criteria.and("_id").gt(lastId);
+            }
+            Query query = new Query(criteria)
+                    .with(Sort.by(Sort.Direction.ASC, "_id"))
+                    .limit(batchSize);
+            query.fields().include("rentDate", "rentDays");
+
+            List<Rent> batch = mongoTemplate.find(query, Rent.class);
+            if (batch.isEmpty()) {
+                return updated;
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Rent.class);
+            for (Rent rent : batch) {
+                bulk.updateOne(
+                        new Query(Criteria.where("_id").is(rent.getId()).and("dueDate").exists(false)),
+                        new Update().set("dueDate", rent.getRentDate().plusDays(rent.getRentDays())));
+            }
+            updated += bulk.execute().getModifiedCount();
+
+            if (batch.size() < batchSize) {
+                return updated;
+            }
+        }
+    }
+}
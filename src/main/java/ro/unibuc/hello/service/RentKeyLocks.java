@@ -0,0 +1,67 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Striped locks serializing rent/return calls for the same (userId, gameId).
+// Duplicate submits queue up here instead of racing each other in Mongo,
+// keys on different stripes never wait for each other.
+@Component
+public class RentKeyLocks {
+
+    private final ReentrantLock[] stripes;
+    private final Timer[] waitTimers;
+    private final int mask;
+
+    @Autowired
+    public RentKeyLocks(MeterRegistry metricsRegistry, @Value("${rent.locks.stripes:64}") int stripeCount) {
+        // Round up to a power of two so the stripe can be picked with a mask
+        int size = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        this.waitTimers = new Timer[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            // Fair locks hand the stripe over in arrival order, so duplicates run in submit order
+            ReentrantLock lock = new ReentrantLock(true);
+            stripes[i] = lock;
+            waitTimers[i] = metricsRegistry.timer("rent_lock_wait", "stripe", String.valueOf(i));
+            Gauge.builder("rent_lock_queue_depth", lock, ReentrantLock::getQueueLength)
+                    .tag("stripe", String.valueOf(i))
+                    .register(metricsRegistry);
+        }
+    }
+
+    public <T> T withLock(String userId, String gameId, Supplier<T> action) {
+        int stripe = stripeFor(userId, gameId);
+        ReentrantLock lock = stripes[stripe];
+
+        long startTime = System.nanoTime();
+        lock.lock();
+        try {
+            waitTimers[stripe].record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int stripeFor(String userId, String gameId) {
+        int hash = 31 * userId.hashCode() + gameId.hashCode();
+        // Spread the high bits down, String hash codes differ mostly in the low ones
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+}
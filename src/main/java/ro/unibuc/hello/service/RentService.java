@@ -2,51 +2,205 @@ package ro.unibuc.hello.service;
 
 import ro.unibuc.hello.data.Game;
 import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentArchiveRepository;
 import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.UserRentSummary;
+import ro.unibuc.hello.data.WaitlistEntry;
+import ro.unibuc.hello.dto.RentListItem;
 import ro.unibuc.hello.exception.EntityNotFoundException;
+import ro.unibuc.hello.exception.RentConflictException;
+import ro.unibuc.hello.exception.WaitlistedException;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
 
 @Service
 public class RentService {
 
+    private static final Logger logger = LoggerFactory.getLogger(RentService.class);
+    // Extensions only lose to another extension or a return, a few re-reads settle any realistic race
+    private static final int MAX_EXTEND_ATTEMPTS = 5;
+
     private final RentRepository rentRepository;
     private final GameService gameService;
+    private final RentKeyLocks rentKeyLocks;
+    private final RentArchiveRepository rentArchiveRepository;
+    private final RentBatchWriter rentBatchWriter;
+    private final RentalOutbox rentalOutbox;
+    private final UserRentSummaryService userRentSummaryService;
+    private final ActiveRentFilter activeRentFilter;
+    private final WaitlistService waitlistService;
+    private final GameRentalCounters gameRentalCounters;
+    private final ReservationCalendar reservationCalendar;
+    private final OverdueTracker overdueTracker;
 
     @Autowired
-    public RentService(RentRepository rentRepository, GameService gameService) {
+    public RentService(RentRepository rentRepository, GameService gameService, RentKeyLocks rentKeyLocks,
+                       RentArchiveRepository rentArchiveRepository, RentBatchWriter rentBatchWriter,
+                       RentalOutbox rentalOutbox, UserRentSummaryService userRentSummaryService,
+                       ActiveRentFilter activeRentFilter, WaitlistService waitlistService,
+                       GameRentalCounters gameRentalCounters, ReservationCalendar reservationCalendar,
+                       OverdueTracker overdueTracker) {
         this.rentRepository = rentRepository;
         this.gameService = gameService;
+        this.rentKeyLocks = rentKeyLocks;
+        this.rentArchiveRepository = rentArchiveRepository;
+        this.rentBatchWriter = rentBatchWriter;
+        this.rentalOutbox = rentalOutbox;
+        this.userRentSummaryService = userRentSummaryService;
+        this.activeRentFilter = activeRentFilter;
+        this.waitlistService = waitlistService;
+        this.gameRentalCounters = gameRentalCounters;
+        this.reservationCalendar = reservationCalendar;
+        this.overdueTracker = overdueTracker;
     }
 
+    // Rents returned long enough ago live in the archive or the buckets, they are still rents
     public List<Rent> getAllRents() {
-        return rentRepository.findAll();
+        List<Rent> rents = new ArrayList<>(rentRepository.findAll());
+        rents.addAll(rentRepository.findAllCompacted());
+        rents.addAll(rentArchiveRepository.findAll());
+        return rents;
     }
 
     public Rent getRentById(String id) {
         return rentRepository.findById(id)
+                .or(() -> rentRepository.findCompactedById(id))
+                .or(() -> rentArchiveRepository.findById(id))
                 .orElseThrow(() -> new EntityNotFoundException("Rent not found with id: " + id));
     }
 
     public List<Rent> getRentsByUserId(String userId) {
-        return rentRepository.findByUserId(userId);
+        List<Rent> rents = new ArrayList<>(rentRepository.findByUserId(userId));
+        rents.addAll(rentArchiveRepository.findByUserId(userId));
+        return rents;
     }
 
     public List<Rent> getRentsByGameId(String gameId) {
-        return rentRepository.findByGameId(gameId);
+        List<Rent> rents = new ArrayList<>(rentRepository.findByGameId(gameId));
+        rents.addAll(rentArchiveRepository.findByGameId(gameId));
+        return rents;
+    }
+
+    public void leaveWaitlist(String userId, String gameId) {
+        if (!waitlistService.cancel(userId, gameId)) {
+            throw new EntityNotFoundException("User " + userId + " is not on the waitlist for game " + gameId);
+        }
+    }
+
+    // One primary-key read, no matter how many rents the user has
+    public UserRentSummary getUserSummary(String userId) {
+        return userRentSummaryService.getSummary(userId);
+    }
+
+    // Compact list rows, answered from the list indexes without reading the rent documents
+    public List<RentListItem> getRentItemsByUserId(String userId) {
+        List<RentListItem> items = new ArrayList<>(rentRepository.findListItemsByUserId(userId));
+        items.addAll(rentArchiveRepository.findListItemsByUserId(userId));
+        return items;
+    }
+
+    public List<RentListItem> getRentItemsByGameId(String gameId) {
+        List<RentListItem> items = new ArrayList<>(rentRepository.findListItemsByGameId(gameId));
+        items.addAll(rentArchiveRepository.findListItemsByGameId(gameId));
+        return items;
+    }
+
+    // History pages list the hot collection first and continue into the archive,
+    // so the archive is only queried once a page runs past the hot rents
+    public List<Rent> getRentsByUserId(String userId, int page, int size) {
+        return historyPage(
+                rentRepository.findByUserIdOrderByRentDateDesc(userId, PageRequest.of(page, size)),
+                page, size,
+                () -> rentRepository.countByUserId(userId),
+                (skip, limit) -> rentArchiveRepository.findByUserId(userId, skip, limit));
+    }
+
+    public List<Rent> getRentsByGameId(String gameId, int page, int size) {
+        return historyPage(
+                rentRepository.findByGameIdOrderByRentDateDesc(gameId, PageRequest.of(page, size)),
+                page, size,
+                () -> rentRepository.countByGameId(gameId),
+                (skip, limit) -> rentArchiveRepository.findByGameId(gameId, skip, limit));
+    }
+
+    private List<Rent> historyPage(List<Rent> hotPage, int page, int size, LongSupplier hotCount,
+                                   BiFunction<Long, Integer, List<Rent>> archivePage) {
+        if (hotPage.size() == size) {
+            return hotPage;
+        }
+
+        long offset = (long) page * size;
+        // A partly filled hot page tells us where the hot rents end, an empty one needs a count
+        long hotTotal = hotPage.isEmpty() ? hotCount.getAsLong() : offset + hotPage.size();
+
+        List<Rent> rents = new ArrayList<>(hotPage);
+        rents.addAll(archivePage.apply(Math.max(0, offset - hotTotal), size - hotPage.size()));
+        return rents;
     }
 
     public Rent rentGame(String userId, String gameId, int rentDays) {
+        try {
+            // Duplicate submits for the same user and game wait here instead of racing in Mongo
+            return rentKeyLocks.withLock(userId, gameId, () -> doRentGame(userId, gameId, rentDays));
+        } catch (EnqueuedException e) {
+            // A return between the sold-out check and the enqueue saw nobody waiting and put its copy back
+            // on the shelf. Taken again here it goes to the head of the queue, which may be this customer.
+            // Runs after the lock is released, like the hand-over on return.
+            if (gameService.takeCopy(gameId)) {
+                Rent allocated = handOverCopy(gameId);
+                if (allocated != null && allocated.getUserId().equals(userId)) {
+                    return allocated;
+                }
+            }
+            throw e;
+        }
+    }
+
+    public Rent returnGame(String userId, String gameId) {
+        Returned returned = rentKeyLocks.withLock(userId, gameId, () -> doReturnGame(userId, gameId));
+        // Allocation takes the waiter's lock, so it runs after the returning user's lock is released
+        if (returned.copyHeld()) {
+            handOverCopy(gameId);
+        }
+        return returned.rent();
+    }
+
+    private Rent doRentGame(String userId, String gameId, int rentDays) {
         // Verify that the game exists
         Game game = gameService.getGameById(gameId);
 
-        // Check if the game is already rented by this user and not returned
-        List<Rent> activeRents = rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(userId, gameId);
-        if (!activeRents.isEmpty()) {
-            throw new IllegalStateException("This game is already rented by this user");
+        // Check if the game is already rented by this user and not returned.
+        // Most pairs have never been rented, the filter answers those without a query.
+        if (activeRentFilter.mightBeActive(userId, gameId)) {
+            List<Rent> activeRents = rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(userId, gameId);
+            if (!activeRents.isEmpty()) {
+                throw new IllegalStateException("This game is already rented by this user");
+            }
+            activeRentFilter.recordFalsePositive();
+        }
+
+        // Retries of a waiting customer only get their position back
+        long position = waitlistService.position(userId, gameId);
+        if (position > 0) {
+            throw new WaitlistedException(position);
+        }
+
+        // Walk-ins don't get ahead of the queue, a copy on the shelf while customers wait belongs to them
+        if (game.getCopies() != null && waitlistService.hasWaiters(gameId)) {
+            throw new EnqueuedException(waitlistService.enqueue(userId, gameId, rentDays));
         }
 
         // Create new rent
@@ -54,10 +208,184 @@ public class RentService {
         rent.setRentDate(LocalDateTime.now());
         rent.setReturned(false);
 
-        return rentRepository.save(rent);
+        Rent saved;
+        try {
+            saved = game.getCopies() == null ? storeRent(rent, false) : storeBooked(rent, game.getCopies(), true);
+        } catch (SoldOutException e) {
+            throw new EnqueuedException(waitlistService.enqueue(userId, gameId, rentDays));
+        } catch (DuplicateKeyException e) {
+            // The unique index on active (userId, gameId) caught a rent stored by another instance meanwhile
+            throw new IllegalStateException("This game is already rented by this user");
+        }
+
+        activeRentFilter.add(saved);
+        gameRentalCounters.recordRent(gameId);
+        overdueTracker.track(saved);
+        return saved;
     }
 
-    public Rent returnGame(String userId, String gameId) {
+    // Inventory-tracked games take future reservations, so their rents are booked in the calendar first
+    private Rent storeBooked(Rent rent, int copies, boolean takeCopy) {
+        // The booking needs the rent's id before the rent is stored
+        rent.setId(new ObjectId().toHexString());
+        ReservationCalendar.Booking booking = reservationCalendar.bookRent(rent, copies);
+        if (booking == null) {
+            throw new SoldOutException();
+        }
+
+        Rent saved;
+        try {
+            saved = storeRent(rent, takeCopy);
+        } catch (RuntimeException e) {
+            reservationCalendar.cancel(booking);
+            throw e;
+        }
+        reservationCalendar.confirm(booking);
+        return saved;
+    }
+
+    private Rent storeRent(Rent rent, boolean tracked) {
+        String gameId = rent.getGameId();
+        if (transactional()) {
+            // Inventory, rent, summary and event commit or roll back together, so nothing needs compensating
+            return rentalOutbox.inTransaction(() -> {
+                takeCopy(gameId, tracked);
+                Rent saved = rentRepository.save(rent);
+                userRentSummaryService.recordRent(saved);
+                rentalOutbox.record(RentalEvent.RENTED, saved);
+                return saved;
+            });
+        }
+
+        takeCopy(gameId, tracked);
+        Rent saved;
+        try {
+            // Under group commit the insert shares one bulk write with concurrent rents
+            saved = rentBatchWriter.isEnabled() ? rentBatchWriter.insert(rent) : rentRepository.save(rent);
+        } catch (RuntimeException e) {
+            // Give the copy back so a failed insert doesn't leak inventory, but only when the rent surely
+            // wasn't stored. A copy released for a stored rent would be rented out twice, while one held for
+            // a rent that wasn't stored is put back by the inventory reconciler.
+            if (tracked && notStored(e)) {
+                gameService.releaseCopy(gameId);
+            } else if (tracked) {
+                logger.warn("Rent of game {} may or may not be stored, its copy stays taken", gameId, e);
+            }
+            throw e;
+        }
+
+        updateSummary(() -> userRentSummaryService.recordRent(saved));
+        return saved;
+    }
+
+    // Mongo rejected the document, or the group commit writer never sent it. Anything else (a lost
+    // connection, an interrupted or timed out write) may have happened after the insert was applied.
+    private static boolean notStored(RuntimeException e) {
+        return e instanceof DataIntegrityViolationException || e instanceof IllegalStateException;
+    }
+
+    private void takeCopy(String gameId, boolean tracked) {
+        // The conditional $inc makes overselling impossible
+        if (tracked && !gameService.takeCopy(gameId)) {
+            throw new SoldOutException();
+        }
+    }
+
+    // A held copy goes straight to the first waiter who can take it and is put back on the shelf if nobody can.
+    // Waiters the allocation failed for (a reservation in the way of their days, a failed write) keep their
+    // place at the head of the queue, only those who already hold the game leave it. Returns the new rent.
+    private Rent handOverCopy(String gameId) {
+        List<WaitlistEntry> skipped = new ArrayList<>();
+        try {
+            WaitlistEntry entry;
+            while ((entry = waitlistService.poll(gameId)) != null) {
+                WaitlistEntry waiter = entry;
+                try {
+                    Rent rent = rentKeyLocks.withLock(waiter.getUserId(), gameId, () -> allocate(waiter));
+                    waitlistService.remove(waiter);
+                    if (rent != null) {
+                        return rent;
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Could not allocate game {} to waiting user {}", gameId, waiter.getUserId(), e);
+                    skipped.add(waiter);
+                }
+            }
+            gameService.releaseCopy(gameId);
+            return null;
+        } finally {
+            waitlistService.requeue(gameId, skipped);
+        }
+    }
+
+    // Null when the waiter already rents the game, got some other way meanwhile
+    private Rent allocate(WaitlistEntry waiter) {
+        String userId = waiter.getUserId();
+        String gameId = waiter.getGameId();
+        if (!rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(userId, gameId).isEmpty()) {
+            return null;
+        }
+
+        Rent rent = new Rent(userId, gameId, waiter.getRentDays());
+        rent.setRentDate(LocalDateTime.now());
+        rent.setReturned(false);
+
+        // The copy is already taken, inventory must not move again
+        Integer copies = gameService.getGameById(gameId).getCopies();
+        Rent saved = copies == null ? storeRent(rent, false) : storeBooked(rent, copies, false);
+        activeRentFilter.add(saved);
+        gameRentalCounters.recordRent(gameId);
+        overdueTracker.track(saved);
+        return saved;
+    }
+
+    // Adds days to an active rent in place, the customer keeps the copy and the history keeps one rent.
+    // No rent lock is taken: the update is a compare-and-set on version and isReturned, so a concurrent
+    // return or extension makes it fail and the rent is read again. For tracked games the calendar
+    // also checks the extra days against reservations.
+    public Rent extendRent(String id, int extraDays) {
+        Game game = null;
+        for (int attempt = 0; attempt < MAX_EXTEND_ATTEMPTS; attempt++) {
+            Rent rent = getRentById(id);
+            if (rent.isReturned()) {
+                throw new IllegalStateException("This rent has already been returned");
+            }
+            if (game == null) {
+                game = gameService.getGameById(rent.getGameId());
+            }
+
+            int rentDays = rent.getRentDays() + extraDays;
+            LocalDateTime dueDate = rent.getRentDate().plusDays(rentDays);
+            // The extra days of a tracked game must not run into someone's reservation
+            boolean extended = game.getCopies() == null
+                    ? tryExtend(rent, rentDays, dueDate)
+                    : reservationCalendar.tryExtendRent(rent, game.getCopies(), dueDate,
+                            () -> tryExtend(rent, rentDays, dueDate));
+            if (extended) {
+                rent.setRentDays(rentDays);
+                rent.setDueDate(dueDate);
+                rent.setVersion(rent.getVersion() + 1);
+                overdueTracker.track(rent);
+                return rent;
+            }
+        }
+        throw new RentConflictException(id);
+    }
+
+    private boolean tryExtend(Rent rent, int rentDays, LocalDateTime dueDate) {
+        if (rentalOutbox.isEnabled()) {
+            return rentalOutbox.inTransaction(() -> {
+                if (rentRepository.extend(rent.getId(), rent.getVersion(), rentDays, dueDate) == 0) {
+                    return false;
+                }
+                rentalOutbox.record(RentalEvent.EXTENDED, rent);
+                return true;
+            });
+        }
+        return rentRepository.extend(rent.getId(), rent.getVersion(), rentDays, dueDate) == 1;
+    }
+
+    private Returned doReturnGame(String userId, String gameId) {
         // Find active rent for this user and game
         List<Rent> activeRents = rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(userId, gameId);
 
@@ -67,11 +395,80 @@ public class RentService {
 
         // Get the most recent active rent (should be only one, but just in case)
         Rent rent = activeRents.get(0);
+        LocalDateTime returnDate = LocalDateTime.now();
+        // With customers waiting the copy is kept for them instead of going back on the shelf
+        boolean holdCopy = waitlistService.hasWaiters(gameId);
+
+        if (transactional()) {
+            rentalOutbox.inTransaction(() -> {
+                markReturned(rent, returnDate, holdCopy);
+                userRentSummaryService.recordReturn(rent);
+                rentalOutbox.record(RentalEvent.RETURNED, rent);
+                return rent;
+            });
+            activeRentFilter.remove(rent);
+            gameRentalCounters.recordReturn(gameId);
+            reservationCalendar.releaseRent(gameId, rent.getId());
+            overdueTracker.untrack(rent.getId());
+            return new Returned(rent, holdCopy);
+        }
+
+        markReturned(rent, returnDate, holdCopy);
+        updateSummary(() -> userRentSummaryService.recordReturn(rent));
+        activeRentFilter.remove(rent);
+        gameRentalCounters.recordReturn(gameId);
+        reservationCalendar.releaseRent(gameId, rent.getId());
+        overdueTracker.untrack(rent.getId());
+        return new Returned(rent, holdCopy);
+    }
+
+    // Rent and summary are written in one transaction wherever Mongo has them. The one exception is group
+    // commit with the outbox off: one bulk write can't be split back into per-request transactions, so
+    // there the summary is written after the rent, and group commit is skipped whenever the outbox is on.
+    private boolean transactional() {
+        return rentalOutbox.isEnabled() || (!rentBatchWriter.isEnabled() && rentalOutbox.transactionsAvailable());
+    }
+
+    private void updateSummary(Runnable update) {
+        // Only reached without a transaction (standalone Mongo, or group commit). The rent is already stored
+        // at this point, failing the request would make the client retry a rent that succeeded. A summary
+        // left behind is fixed by the rebuild job (rent.summary.rebuild.enabled).
+        try {
+            update.run();
+        } catch (RuntimeException e) {
+            logger.warn("Could not update the user rent summary", e);
+        }
+    }
+
+    private void markReturned(Rent rent, LocalDateTime returnDate, boolean holdCopy) {
+        // Only the request that actually flips isReturned gives the copy back
+        if (rentRepository.markReturned(rent.getId(), returnDate) == 0) {
+            throw new EntityNotFoundException("No active rental found for this user and game");
+        }
+        if (!holdCopy) {
+            gameService.releaseCopy(rent.getGameId());
+        }
 
         // Set return information
-        rent.setReturnDate(LocalDateTime.now());
+        rent.setReturnDate(returnDate);
         rent.setReturned(true);
+        rent.setVersion(rent.getVersion() + 1);
+    }
 
-        return rentRepository.save(rent);
+    private record Returned(Rent rent, boolean copyHeld) {
+    }
+
+    // Thrown by the request that just queued the customer, rentGame then checks for a copy it may have missed
+    private static class EnqueuedException extends WaitlistedException {
+        EnqueuedException(long position) {
+            super(position);
+        }
+    }
+
+    // Internal signal from takeCopy, turned into a waitlist entry by doRentGame
+    private static class SoldOutException extends RuntimeException {
+        SoldOutException() {
+            super("No copies of this game are available");
+        }
     }
-}
\ No newline at end of file
+}
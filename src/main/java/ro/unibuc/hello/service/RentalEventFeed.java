@@ -0,0 +1,152 @@
+package ro.unibuc.hello.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.RentalEventRepository;
+import ro.unibuc.hello.dto.RentalEventFeedEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+// Recently published rental events kept in memory for the long-poll endpoint. Positions are the events'
+// stored feed positions, so a cursor is valid on every instance and across restarts. Only one instance
+// relays, the others read what it published from Mongo every refresh interval; so does the relaying
+// instance, for events it didn't publish itself. A cursor older than the events kept here is served from Mongo.
+@Component
+public class RentalEventFeed {
+
+    private final RentalEventRepository rentalEventRepository;
+    private final int capacity;
+    private final boolean enabled;
+    private final Deque<RentalEventFeedEntry> entries = new ArrayDeque<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private long lastSeq;
+    private boolean loaded;
+
+    @Autowired
+    public RentalEventFeed(RentalEventRepository rentalEventRepository,
+                           @Value("${rent.outbox.feed-capacity:10000}") int capacity,
+                           @Value("${rent.outbox.enabled:false}") boolean enabled) {
+        this.rentalEventRepository = rentalEventRepository;
+        this.capacity = capacity;
+        this.enabled = enabled;
+    }
+
+    // Picks up events published by whichever instance holds the relay
+    @Scheduled(fixedDelayString = "${rent.outbox.feed-refresh-interval-ms:500}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        if (!loaded) {
+            // The latest events up to the capacity, a client behind them is served from Mongo
+            List<RentalEvent> latest = new ArrayList<>(
+                    rentalEventRepository.findBySeqNotNullOrderBySeqDesc(PageRequest.of(0, capacity)));
+            Collections.reverse(latest);
+            append(latest);
+            loaded = true;
+        }
+
+        List<RentalEvent> newer;
+        do {
+            newer = rentalEventRepository.findBySeqGreaterThanOrderBySeqAsc(lastSeq(), PageRequest.of(0, capacity));
+            append(newer);
+        } while (newer.size() == capacity);
+    }
+
+    // Events in feed order; those already in the feed are skipped
+    public void append(List<RentalEvent> events) {
+        List<Waiter> ready;
+        synchronized (this) {
+            boolean added = false;
+            for (RentalEvent event : events) {
+                if (event.getSeq() == null || event.getSeq() <= lastSeq) {
+                    continue;
+                }
+                lastSeq = event.getSeq();
+                entries.addLast(new RentalEventFeedEntry(lastSeq, event));
+                if (entries.size() > capacity) {
+                    entries.removeFirst();
+                }
+                added = true;
+            }
+            if (!added) {
+                return;
+            }
+            ready = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+
+        // Complete outside the lock, writing the responses can take a while
+        for (Waiter waiter : ready) {
+            waiter.result.setResult(since(waiter.after, waiter.limit));
+        }
+    }
+
+    public List<RentalEventFeedEntry> since(long after, int limit) {
+        synchronized (this) {
+            // Positions given to events that weren't published in the end leave gaps, so only a cursor
+            // before the oldest kept position needs Mongo
+            if (entries.isEmpty() || after >= entries.peekFirst().getSeq() - 1) {
+                List<RentalEventFeedEntry> result = new ArrayList<>();
+                for (RentalEventFeedEntry entry : entries) {
+                    if (entry.getSeq() > after) {
+                        result.add(entry);
+                        if (result.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+                if (!result.isEmpty() || loaded || !enabled) {
+                    return result;
+                }
+            }
+        }
+
+        List<RentalEventFeedEntry> result = new ArrayList<>();
+        for (RentalEvent event : rentalEventRepository.findBySeqGreaterThanOrderBySeqAsc(after, PageRequest.of(0, limit))) {
+            result.add(new RentalEventFeedEntry(event.getSeq(), event));
+        }
+        return result;
+    }
+
+    public DeferredResult<List<RentalEventFeedEntry>> poll(long after, int limit, long timeoutMs) {
+        DeferredResult<List<RentalEventFeedEntry>> result = new DeferredResult<>(timeoutMs, Collections.emptyList());
+
+        List<RentalEventFeedEntry> available = since(after, limit);
+        if (!available.isEmpty()) {
+            result.setResult(available);
+            return result;
+        }
+        synchronized (this) {
+            // Unless something arrived since the read above, the next append completes it
+            if (lastSeq <= after) {
+                Waiter waiter = new Waiter(after, limit, result);
+                waiters.add(waiter);
+                result.onCompletion(() -> removeWaiter(waiter));
+                return result;
+            }
+        }
+        result.setResult(since(after, limit));
+        return result;
+    }
+
+    private synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    private synchronized void removeWaiter(Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    private record Waiter(long after, int limit, DeferredResult<List<RentalEventFeedEntry>> result) {
+    }
+}
@@ -0,0 +1,134 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.RentalEventRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Tails the outbox oldest first and hands each batch to in-process @EventListener subscribers
+// and the long-poll feed before marking it published. Delivery is at least once: a crash between
+// publishing and marking repeats the batch. Every instance schedules the relay but only the one holding
+// the relay lease runs it, another takes over once a holder stops renewing. Marking an event published
+// also gives it its feed position, from a counter in Mongo, so positions keep growing across restarts and
+// changes of holder, and every instance's feed reads the same ones.
+@Component
+@ConditionalOnProperty(name = "rent.outbox.enabled", havingValue = "true")
+public class RentalEventRelay {
+
+    static final String LEASE = "rental_event_relay";
+    static final String SEQUENCE = "rental_event_sequence";
+
+    private final RentalEventRepository rentalEventRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RentalEventFeed rentalEventFeed;
+    private final Leases leases;
+    private final MeterRegistry metricsRegistry;
+    private final Timer relayLag;
+    private final int batchSize;
+    private final Duration leaseTtl;
+
+    @Autowired
+    public RentalEventRelay(RentalEventRepository rentalEventRepository, MongoTemplate mongoTemplate,
+                            ApplicationEventPublisher eventPublisher, RentalEventFeed rentalEventFeed, Leases leases,
+                            MeterRegistry metricsRegistry,
+                            @Value("${rent.outbox.batch-size:500}") int batchSize,
+                            @Value("${rent.outbox.lease-ms:10000}") long leaseMillis) {
+        this.rentalEventRepository = rentalEventRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+        this.rentalEventFeed = rentalEventFeed;
+        this.leases = leases;
+        this.metricsRegistry = metricsRegistry;
+        this.relayLag = Timer.builder("rental_outbox_relay_lag")
+                .description("Time from the rent change to the event being published")
+                .publishPercentileHistogram()
+                .register(metricsRegistry);
+        this.batchSize = batchSize;
+        this.leaseTtl = Duration.ofMillis(leaseMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        leases.release(LEASE);
+    }
+
+    @Scheduled(fixedDelayString = "${rent.outbox.relay-interval-ms:200}")
+    public void relay() {
+        // Drain everything pending, a full batch means there is probably more behind it
+        int relayed;
+        do {
+            relayed = relayBatch();
+        } while (relayed == batchSize);
+    }
+
+    int relayBatch() {
+        // Renewed per batch, a long drain keeps the lease as long as it makes progress
+        if (!leases.tryAcquire(LEASE, leaseTtl)) {
+            return 0;
+        }
+        List<RentalEvent> batch = rentalEventRepository.findByPublishedFalseOrderByIdAsc(PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        for (RentalEvent event : batch) {
+            eventPublisher.publishEvent(event);
+            relayLag.record(Duration.between(event.getOccurredAt(), now).toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        List<RentalEvent> published = markPublished(batch);
+        rentalEventFeed.append(published);
+        metricsRegistry.counter("rental_outbox_published").increment(batch.size());
+        metricsRegistry.summary("rental_outbox_batch_size").record(batch.size());
+
+        return batch.size();
+    }
+
+    // Gives the batch the next feed positions, in outbox order. Only events still unpublished are marked, so
+    // a holder that lost its lease mid-batch can't give an event a second position; its positions are skipped.
+    private List<RentalEvent> markPublished(List<RentalEvent> batch) {
+        Document sequence = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(SEQUENCE)),
+                new Update().inc("seq", (long) batch.size()), FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Document.class, SEQUENCE);
+        long first = sequence.get("seq", Number.class).longValue() - batch.size() + 1;
+
+        // Ordered, so a feed reading concurrently never sees a position before the ones ahead of it
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, RentalEvent.class);
+        for (int i = 0; i < batch.size(); i++) {
+            RentalEvent event = batch.get(i);
+            event.setSeq(first + i);
+            event.setPublished(true);
+            bulk.updateOne(new Query(Criteria.where("_id").is(event.getId()).and("published").is(false)),
+                    new Update().set("published", true).set("seq", event.getSeq()));
+        }
+        int marked = bulk.execute().getModifiedCount();
+        if (marked < batch.size()) {
+            // Another holder published some of them first, the feed reads those with their own positions
+            metricsRegistry.counter("rental_outbox_already_published").increment(batch.size() - marked);
+            return List.of();
+        }
+        return batch;
+    }
+}
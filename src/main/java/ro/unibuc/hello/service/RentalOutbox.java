@@ -0,0 +1,99 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.MongoException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.RentalEventRepository;
+
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+// Writes rental events to the outbox collection inside the same transaction as the rent change.
+// Needs a replica set, so it is off unless rent.outbox.enabled=true. The transactions themselves are also
+// used without the events wherever Mongo supports them, to keep the rent and the user's summary together.
+// Transactions on a popular game's document lose write conflicts under load, the server labels those
+// TransientTransactionError and the whole transaction can simply run again.
+@Component
+public class RentalOutbox {
+
+    // Each attempt only loses to another writer that committed, a few attempts settle any realistic burst
+    static final int MAX_TRANSACTION_ATTEMPTS = 5;
+    private static final int WRITE_CONFLICT = 112;
+
+    private final RentalEventRepository rentalEventRepository;
+    private final MongoTemplate mongoTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final boolean enabled;
+    private volatile Boolean transactionsAvailable;
+
+    @Autowired
+    public RentalOutbox(RentalEventRepository rentalEventRepository, MongoTemplate mongoTemplate,
+                        MongoTransactionManager transactionManager, MeterRegistry metricsRegistry,
+                        @Value("${rent.outbox.enabled:false}") boolean enabled) {
+        this.rentalEventRepository = rentalEventRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.metricsRegistry = metricsRegistry;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Multi-document transactions need a replica set or a sharded cluster, the server is asked once
+    public boolean transactionsAvailable() {
+        Boolean available = transactionsAvailable;
+        if (available == null) {
+            Document hello = mongoTemplate.executeCommand(new Document("hello", 1));
+            available = hello.containsKey("setName") || "isdbgrid".equals(hello.getString("msg"));
+            transactionsAvailable = available;
+        }
+        return available;
+    }
+
+    // The work runs again from the start after a transient failure, so it must only change state inside
+    // the transaction, anything it wrote was rolled back with it
+    public <T> T inTransaction(Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> work.get());
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_TRANSACTION_ATTEMPTS || !isTransient(e)) {
+                    throw e;
+                }
+                metricsRegistry.counter("rent_outbox_transaction_retries").increment();
+            }
+        }
+    }
+
+    // Spring wraps the driver's exception (MongoTransactionException, UncategorizedMongoDbException, ...),
+    // the label or the WriteConflict code is on the MongoException underneath
+    static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException mongoException
+                    && (mongoException.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL)
+                    || mongoException.getCode() == WRITE_CONFLICT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Nothing is recorded while the outbox is off, the transaction then only keeps rent and summary together
+    public void record(String type, Rent rent) {
+        if (!enabled) {
+            return;
+        }
+        rentalEventRepository.save(new RentalEvent(type, rent, LocalDateTime.now()));
+    }
+}
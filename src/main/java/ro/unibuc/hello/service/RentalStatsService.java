@@ -0,0 +1,303 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.stereotype.Service;
+import ro.unibuc.hello.data.RentArchiveRepository;
+import ro.unibuc.hello.dto.GameRentalCount;
+import ro.unibuc.hello.dto.GenrePlatformCount;
+import ro.unibuc.hello.dto.RentalDurationStats;
+import ro.unibuc.hello.dto.RentalStats;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+
+// Rental analytics over every rent collection (rents, rents_archive and the rent_buckets entries), joined
+// to games, computed by one $facet pipeline per period. Results are served stale-while-revalidate: the first
+// request of a period computes it, later ones get the cached stats at once, and the first request after
+// the refresh interval also starts one background refresh. So however busy the dashboards are, each period
+// runs at most one aggregation per refresh interval.
+@Service
+public class RentalStatsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentalStatsService.class);
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+    private static final DateTimeFormatter BUCKET_MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    public enum Period {
+        WEEK(7), MONTH(30), YEAR(365), ALL(0);
+
+        private final int days;
+
+        Period(int days) {
+            this.days = days;
+        }
+
+        public static Period parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Unknown period " + value + ", expected week, month, year or all");
+            }
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final long refreshMillis;
+    private final int topGames;
+    private final Executor refresher;
+    private final Map<Period, CompletableFuture<Entry>> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RentalStatsService(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry,
+                              @Value("${rent.stats.refresh-interval-ms:300000}") long refreshMillis,
+                              @Value("${rent.stats.top-games:10}") int topGames) {
+        this(mongoTemplate, metricsRegistry, refreshMillis, topGames, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rental-stats-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    RentalStatsService(MongoTemplate mongoTemplate, MeterRegistry metricsRegistry, long refreshMillis, int topGames,
+                       Executor refresher) {
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.refreshMillis = refreshMillis;
+        this.topGames = topGames;
+        this.refresher = refresher;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refresher instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    public RentalStats getStats(Period period) {
+        // Concurrent first requests of a period wait for the one computation instead of starting their own.
+        // It runs on the caller's thread outside the map, a failed one is dropped so the next request retries.
+        CompletableFuture<Entry> pending = cache.get(period);
+        if (pending == null) {
+            CompletableFuture<Entry> created = new CompletableFuture<>();
+            pending = cache.putIfAbsent(period, created);
+            if (pending == null) {
+                metricsRegistry.counter("rental_stats_requests", "result", "miss").increment();
+                try {
+                    Entry computed = new Entry(compute(period));
+                    created.complete(computed);
+                    return computed.stats;
+                } catch (RuntimeException e) {
+                    cache.remove(period, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+
+        Entry entry = await(pending);
+        if (System.currentTimeMillis() - entry.computedAt < refreshMillis) {
+            metricsRegistry.counter("rental_stats_requests", "result", "fresh").increment();
+            return entry.stats;
+        }
+        metricsRegistry.counter("rental_stats_requests", "result", "stale").increment();
+        if (entry.refreshing.compareAndSet(false, true)) {
+            Entry stale = entry;
+            try {
+                refresher.execute(() -> refresh(period, stale));
+            } catch (RejectedExecutionException e) {
+                stale.refreshing.set(false);
+            }
+        }
+        return entry.stats;
+    }
+
+    private static Entry await(CompletableFuture<Entry> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void refresh(Period period, Entry entry) {
+        try {
+            entry.update(compute(period));
+        } catch (RuntimeException e) {
+            // The stale stats keep being served, the next request past the interval tries again
+            logger.warn("Could not refresh the {} rental stats", period, e);
+        } finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private RentalStats compute(Period period) {
+        long startTime = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime since = period.days == 0 ? null : now.minusDays(period.days);
+
+        Aggregation aggregation = newAggregation(pipeline(since))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        Document facets = mongoTemplate.aggregate(aggregation, "rents", Document.class).getUniqueMappedResult();
+
+        List<GameRentalCount> games = new ArrayList<>();
+        List<GenrePlatformCount> genres = new ArrayList<>();
+        RentalDurationStats duration = new RentalDurationStats(0, 0, 0);
+        if (facets != null) {
+            for (Document game : facets.getList("topGames", Document.class, List.of())) {
+                games.add(new GameRentalCount(game.getString("gameId"), game.getString("name"),
+                        game.getString("platform"), count(game, "rentals")));
+            }
+            for (Document genre : facets.getList("byGenreAndPlatform", Document.class, List.of())) {
+                genres.add(new GenrePlatformCount(genre.getString("genre"), genre.getString("platform"),
+                        count(genre, "rentals")));
+            }
+            List<Document> durations = facets.getList("duration", Document.class, List.of());
+            if (!durations.isEmpty()) {
+                Document stats = durations.get(0);
+                duration = new RentalDurationStats(count(stats, "returnedRentals"),
+                        average(stats, "averageDays"), average(stats, "averageBookedDays"));
+            }
+        }
+
+        metricsRegistry.timer("rental_stats_compute_time", "period", period.name().toLowerCase(Locale.ROOT))
+                .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        return new RentalStats(period.name().toLowerCase(Locale.ROOT), now, games, genres, duration);
+    }
+
+    // Written as plain stages: $unionWith sub-pipelines and $facet branches read more clearly this way
+    private List<AggregationOperation> pipeline(LocalDateTime since) {
+        // Raw stages aren't run through the converter, so the date goes in as the Date LocalDateTime maps to
+        Document sinceMatch = since == null ? null : new Document("$match", new Document("rentDate",
+                new Document("$gte", Date.from(since.atZone(ZoneId.systemDefault()).toInstant()))));
+
+        List<Document> archive = new ArrayList<>();
+        List<Document> buckets = new ArrayList<>();
+        if (sinceMatch != null) {
+            archive.add(sinceMatch);
+            // Whole buckets from before the period are skipped before they are unwound
+            buckets.add(new Document("$match", new Document("month", new Document("$gte", since.format(BUCKET_MONTH)))));
+        }
+        buckets.add(new Document("$unwind", "$rents"));
+        buckets.add(new Document("$replaceRoot", new Document("newRoot", "$rents")));
+        if (sinceMatch != null) {
+            buckets.add(sinceMatch);
+        }
+
+        List<Document> stages = new ArrayList<>();
+        if (sinceMatch != null) {
+            stages.add(sinceMatch);
+        }
+        stages.add(new Document("$unionWith", new Document("coll", RentArchiveRepository.COLLECTION).append("pipeline", archive)));
+        stages.add(new Document("$unionWith", new Document("coll", "rent_buckets").append("pipeline", buckets)));
+        stages.add(new Document("$project", new Document("gameId", 1).append("rentDate", 1).append("rentDays", 1)
+                .append("isReturned", 1).append("returnDate", 1)));
+
+        List<Document> topGames = new ArrayList<>();
+        topGames.add(rentalsPerGame());
+        topGames.add(new Document("$sort", new Document("rentals", -1).append("_id", 1)));
+        topGames.add(new Document("$limit", this.topGames));
+        topGames.addAll(joinGames());
+        topGames.add(new Document("$project", new Document("_id", 0).append("gameId", "$_id").append("rentals", 1)
+                .append("name", "$game.name").append("platform", "$game.platform")));
+
+        // Counted per game first, so the join runs once per game rather than once per rent
+        List<Document> byGenreAndPlatform = new ArrayList<>();
+        byGenreAndPlatform.add(rentalsPerGame());
+        byGenreAndPlatform.addAll(joinGames());
+        byGenreAndPlatform.add(new Document("$group", new Document("_id",
+                new Document("genre", "$game.genre").append("platform", "$game.platform"))
+                .append("rentals", new Document("$sum", "$rentals"))));
+        byGenreAndPlatform.add(new Document("$sort", new Document("rentals", -1)));
+        byGenreAndPlatform.add(new Document("$project", new Document("_id", 0).append("genre", "$_id.genre")
+                .append("platform", "$_id.platform").append("rentals", 1)));
+
+        List<Document> duration = new ArrayList<>();
+        duration.add(new Document("$match", new Document("isReturned", true).append("returnDate", new Document("$ne", null))));
+        duration.add(new Document("$group", new Document("_id", null)
+                .append("returnedRentals", new Document("$sum", 1))
+                .append("averageDays", new Document("$avg", new Document("$divide", List.of(
+                        new Document("$subtract", List.of("$returnDate", "$rentDate")), MILLIS_PER_DAY))))
+                .append("averageBookedDays", new Document("$avg", "$rentDays"))));
+
+        stages.add(new Document("$facet", new Document("topGames", topGames)
+                .append("byGenreAndPlatform", byGenreAndPlatform)
+                .append("duration", duration)));
+
+        List<AggregationOperation> operations = new ArrayList<>();
+        for (Document stage : stages) {
+            operations.add(context -> stage);
+        }
+        return operations;
+    }
+
+    private static Document rentalsPerGame() {
+        return new Document("$group", new Document("_id", "$gameId").append("rentals", new Document("$sum", 1)));
+    }
+
+    // Rents hold the game id as a string while games are keyed by ObjectId, ids that aren't one are kept as is
+    private static List<Document> joinGames() {
+        return List.of(
+                new Document("$addFields", new Document("gameKey", new Document("$convert",
+                        new Document("input", "$_id").append("to", "objectId").append("onError", "$_id")))),
+                new Document("$lookup", new Document("from", "games").append("localField", "gameKey")
+                        .append("foreignField", "_id").append("as", "game")),
+                new Document("$unwind", new Document("path", "$game").append("preserveNullAndEmptyArrays", true)));
+    }
+
+    private static long count(Document document, String key) {
+        Number value = document.get(key, Number.class);
+        return value == null ? 0 : value.longValue();
+    }
+
+    private static double average(Document document, String key) {
+        Number value = document.get(key, Number.class);
+        return value == null ? 0 : value.doubleValue();
+    }
+
+    private static final class Entry {
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile RentalStats stats;
+        private volatile long computedAt;
+
+        private Entry(RentalStats stats) {
+            update(stats);
+        }
+
+        private void update(RentalStats stats) {
+            this.stats = stats;
+            this.computedAt = System.currentTimeMillis();
+        }
+    }
+}
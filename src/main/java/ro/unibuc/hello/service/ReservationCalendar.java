@@ -0,0 +1,513 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.CalendarState;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.Reservation;
+import ro.unibuc.hello.data.ReservationRepository;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// Booked ranges per inventory-tracked game: active rents from rentDate to dueDate and reservations from
+// startDate to endDate, in an interval tree. A range is only booked while no more than `copies` ranges
+// overlap it at every instant, so walk-ins, extensions and reservations can't promise the same copy twice.
+// Each instance keeps the calendar in memory and checks against it under the game's lock, but the lock is
+// never held across a Mongo call. A booking is placed in memory, then made visible to the other instances
+// with a compare-and-set on the game's version in reservation_calendars, which also leaves a hold for the
+// range until the rent or reservation is stored. When the CAS fails another instance booked or released
+// something: the calendar is read again and the booking checked against it, and it is rolled back if it no
+// longer fits. A rejection against a calendar whose version moved is checked once more after reading it.
+// A rent keeps its copy until it is returned, so a late rent is treated as running until a little past now:
+// loading and every prune push its end to two prune intervals ahead, and only a return removes it.
+@Component
+public class ReservationCalendar {
+
+    private final MongoTemplate mongoTemplate;
+    private final ReservationRepository reservationRepository;
+    private final MeterRegistry metricsRegistry;
+    private final long pruneIntervalMillis;
+    private final long holdTimeoutMillis;
+    private final Map<String, GameCalendar> calendars = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ReservationCalendar(MongoTemplate mongoTemplate, ReservationRepository reservationRepository,
+                               MeterRegistry metricsRegistry,
+                               @Value("${reservation.calendar.prune-interval-ms:3600000}") long pruneIntervalMillis,
+                               @Value("${reservation.calendar.hold-timeout-ms:60000}") long holdTimeoutMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.reservationRepository = reservationRepository;
+        this.metricsRegistry = metricsRegistry;
+        this.pruneIntervalMillis = pruneIntervalMillis;
+        this.holdTimeoutMillis = holdTimeoutMillis;
+        metricsRegistry.gauge("reservation_calendar_games", calendars, Map::size);
+    }
+
+    // Books a new rent. The customer's own reservation covering the rent date is given up for it,
+    // so picking up a booked copy never competes with the booking itself. Returns null when every copy
+    // is already taken at the rent date, which is just sold out, and throws when a later booking is in the way.
+    // The booking is settled with confirm() once the rent is stored, or cancel() if it wasn't.
+    public Booking bookRent(Rent rent, int copies) {
+        GameCalendar calendar = calendar(rent.getGameId());
+        Reservation claimed;
+        synchronized (calendar) {
+            claimed = calendar.claimable(rent.getUserId(), rent.getRentDate());
+            if (claimed != null) {
+                calendar.withdrawReservation(claimed.getId());
+            }
+        }
+
+        if (!book(rent.getGameId(), calendar, interval(rent), null, copies, "rent")) {
+            synchronized (calendar) {
+                if (claimed != null) {
+                    calendar.restoreReservation(claimed);
+                }
+                if (!calendar.fits(rent.getRentDate(), rent.getRentDate().plusNanos(1), copies)) {
+                    return null;
+                }
+            }
+            throw new IllegalStateException("All copies of this game are reserved for that period");
+        }
+        return new Booking(rent.getGameId(), rent.getId(), claimed);
+    }
+
+    // The rent is stored, a claimed reservation is done with
+    public void confirm(Booking booking) {
+        GameCalendar calendar = calendar(booking.gameId());
+        if (booking.claimed() != null) {
+            reservationRepository.deleteById(booking.claimed().getId());
+            synchronized (calendar) {
+                calendar.withdrawn.remove(booking.claimed().getId());
+            }
+        }
+        settle(booking.gameId(), calendar, booking.rentId(), null, true);
+    }
+
+    // The rent could not be stored, its range is freed and a claimed reservation is back
+    public void cancel(Booking booking) {
+        GameCalendar calendar = calendar(booking.gameId());
+        if (booking.claimed() != null) {
+            synchronized (calendar) {
+                calendar.restoreReservation(booking.claimed());
+            }
+        }
+        settle(booking.gameId(), calendar, booking.rentId(), null, false);
+    }
+
+    public void releaseRent(String gameId, String rentId) {
+        GameCalendar calendar = calendars.get(gameId);
+        // A calendar that isn't loaded yet reads the returned rent from Mongo when it is
+        if (calendar != null) {
+            synchronized (calendar) {
+                calendar.tree.remove(rentId);
+            }
+        }
+        // Other instances see a copy was freed the next time one of their checks fails
+        bump(gameId, calendar, new Update());
+    }
+
+    // Books the extra days, runs the extension's write and keeps them only if the write went through.
+    // Concurrent extensions and bookings on any instance are checked against each other's ranges, but
+    // none of them waits for this write. Returns the write's result.
+    public boolean tryExtendRent(Rent rent, int copies, LocalDateTime newDueDate, BooleanSupplier write) {
+        GameCalendar calendar = calendar(rent.getGameId());
+        IntervalTree.Interval current;
+        synchronized (calendar) {
+            current = calendar.tree.get(rent.getId());
+        }
+        if (current == null) {
+            // Not booked any more, the rent was returned and the write will fail on that
+            return write.getAsBoolean();
+        }
+
+        // A late rent extended to a due date still in the past keeps running past now
+        LocalDateTime end = newDueDate.isAfter(current.end()) ? newDueDate : current.end();
+        IntervalTree.Interval extended = new IntervalTree.Interval(rent.getId(), current.start(), end);
+        if (!book(rent.getGameId(), calendar, extended, current, copies, "extend")) {
+            throw new IllegalStateException("This game is reserved by another customer for the extra days");
+        }
+
+        boolean written = false;
+        try {
+            written = write.getAsBoolean();
+        } finally {
+            settle(rent.getGameId(), calendar, rent.getId(), current, written);
+        }
+        return written;
+    }
+
+    // Stores the reservation if a copy is free for its whole range
+    public Reservation reserve(Reservation reservation, int copies) {
+        // The booking needs the reservation's id before it is stored
+        if (reservation.getId() == null) {
+            reservation.setId(new ObjectId().toHexString());
+        }
+        GameCalendar calendar = calendar(reservation.getGameId());
+        IntervalTree.Interval range = new IntervalTree.Interval(reservation.getId(), reservation.getStartDate(),
+                reservation.getEndDate());
+        if (!book(reservation.getGameId(), calendar, range, null, copies, "reservation")) {
+            throw new IllegalStateException("No copies of this game are free for the whole period");
+        }
+
+        Reservation stored = null;
+        try {
+            stored = reservationRepository.insert(reservation);
+            synchronized (calendar) {
+                calendar.reservations.put(stored.getId(), stored);
+            }
+        } finally {
+            settle(reservation.getGameId(), calendar, reservation.getId(), null, stored != null);
+        }
+        return stored;
+    }
+
+    public void cancelReservation(Reservation reservation) {
+        reservationRepository.deleteById(reservation.getId());
+        GameCalendar calendar = calendars.get(reservation.getGameId());
+        if (calendar != null) {
+            synchronized (calendar) {
+                calendar.removeReservation(reservation.getId());
+            }
+        }
+        bump(reservation.getGameId(), calendar, new Update());
+    }
+
+    // Copies that are free for the whole range
+    public int available(String gameId, int copies, LocalDateTime start, LocalDateTime end) {
+        GameCalendar calendar = calendar(gameId);
+        // Bookings and returns on other instances since the calendar was read count too
+        if (stale(gameId, calendar)) {
+            sync(gameId, calendar);
+        }
+        synchronized (calendar) {
+            return Math.max(0, copies - calendar.tree.maxOverlap(start, end));
+        }
+    }
+
+    // Reservations that are over can't overlap anything again, late rents are moved along.
+    // Holds left by an instance that died before storing its booking are dropped.
+    @Scheduled(fixedDelayString = "${reservation.calendar.prune-interval-ms:3600000}")
+    public void prune() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime lateUntil = lateUntil(now);
+        for (GameCalendar calendar : calendars.values()) {
+            synchronized (calendar) {
+                calendar.prune(now, lateUntil);
+            }
+        }
+
+        for (CalendarState state : mongoTemplate.find(new Query(Criteria.where("holds.until").lt(now)),
+                CalendarState.class)) {
+            for (CalendarState.Hold hold : state.getHolds()) {
+                if (hold.getUntil().isBefore(now)) {
+                    mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(state.getId())),
+                            new Update().pull("holds", new Document("bookingId", hold.getBookingId())),
+                            CalendarState.class);
+                }
+            }
+        }
+    }
+
+    // Places the range in the calendar (replacing `previous`, the range it had before, if any) and publishes
+    // it to the other instances. Returns false, with the calendar as it was, when the range doesn't fit.
+    private boolean book(String gameId, GameCalendar calendar, IntervalTree.Interval range,
+                         IntervalTree.Interval previous, int copies, String kind) {
+        boolean synced = false;
+        while (true) {
+            long version;
+            synchronized (calendar) {
+                calendar.place(range);
+                boolean fits = check(kind, () -> calendar.tree.maxOverlap(range.start(), range.end()) <= copies);
+                if (!fits) {
+                    calendar.withdraw(range.id(), previous);
+                }
+                version = fits ? calendar.version : -1;
+            }
+
+            if (version < 0) {
+                // The calendar may be missing a copy freed on another instance
+                if (synced || !stale(gameId, calendar)) {
+                    metricsRegistry.counter("reservation_calendar_rejected", "kind", kind).increment();
+                    return false;
+                }
+                sync(gameId, calendar);
+                synced = true;
+                continue;
+            }
+
+            boolean published;
+            try {
+                published = publish(gameId, version, range);
+            } catch (RuntimeException e) {
+                synchronized (calendar) {
+                    calendar.withdraw(range.id(), previous);
+                }
+                throw e;
+            }
+            if (published) {
+                synchronized (calendar) {
+                    // Unless a concurrent sync already read a later one
+                    if (calendar.version == version) {
+                        calendar.version = version + 1;
+                    }
+                }
+                return true;
+            }
+
+            // Another booking on this instance got there first, the calendar already has it.
+            // Otherwise another instance changed the calendar and it is read again.
+            metricsRegistry.counter("reservation_calendar_conflicts", "kind", kind).increment();
+            boolean movedHere;
+            synchronized (calendar) {
+                movedHere = calendar.version != version;
+            }
+            if (!movedHere) {
+                sync(gameId, calendar);
+            }
+        }
+    }
+
+    // Moves the game's version from `version` and holds the range, false if the version moved on
+    private boolean publish(String gameId, long version, IntervalTree.Interval range) {
+        LocalDateTime until = LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(holdTimeoutMillis));
+        Query current = new Query(Criteria.where("_id").is(gameId).and("version").is(version));
+        Update hold = new Update().inc("version", 1)
+                .push("holds", new CalendarState.Hold(range.id(), range.start(), range.end(), until));
+        try {
+            // The first booking of a game creates its state
+            return mongoTemplate.findAndModify(current, hold,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), CalendarState.class) != null;
+        } catch (DuplicateKeyException e) {
+            // The state exists at another version
+            return false;
+        }
+    }
+
+    // The write behind a booking is done. A stored booking stays and its hold goes, the stored document
+    // takes over. One that wasn't stored is taken out, or put back to `previous`, and the others are told.
+    private void settle(String gameId, GameCalendar calendar, String id, IntervalTree.Interval previous,
+                        boolean stored) {
+        synchronized (calendar) {
+            calendar.pending.remove(id);
+            if (!stored) {
+                calendar.withdraw(id, previous);
+            }
+        }
+        Update release = new Update().pull("holds", new Document("bookingId", id));
+        if (stored) {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(gameId)), release, CalendarState.class);
+        } else {
+            bump(gameId, calendar, release);
+        }
+    }
+
+    // Moves the version without a booking, after a range was freed
+    private void bump(String gameId, GameCalendar calendar, Update update) {
+        CalendarState state = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(gameId)),
+                update.inc("version", 1), FindAndModifyOptions.options().upsert(true).returnNew(true),
+                CalendarState.class);
+        if (calendar == null || state == null) {
+            return;
+        }
+        synchronized (calendar) {
+            // Nothing else happened in between, the calendar already has the change
+            if (state.getVersion() == calendar.version + 1) {
+                calendar.version = state.getVersion();
+            }
+        }
+    }
+
+    private boolean stale(String gameId, GameCalendar calendar) {
+        CalendarState state = mongoTemplate.findById(gameId, CalendarState.class);
+        long version = state == null ? 0 : state.getVersion();
+        synchronized (calendar) {
+            return version != calendar.version;
+        }
+    }
+
+    private boolean check(String kind, BooleanSupplier fits) {
+        long startTime = System.nanoTime();
+        boolean result = fits.getAsBoolean();
+        metricsRegistry.timer("reservation_calendar_check_time", "kind", kind)
+                .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private GameCalendar calendar(String gameId) {
+        GameCalendar calendar = calendars.computeIfAbsent(gameId, id -> new GameCalendar());
+        boolean loaded;
+        synchronized (calendar) {
+            loaded = calendar.version >= 0;
+        }
+        // Threads racing to load it each read it, the swap keeps the latest
+        if (!loaded) {
+            sync(gameId, calendar);
+        }
+        return calendar;
+    }
+
+    // Reads the game's calendar from Mongo and swaps it in, keeping the bookings of this instance that are
+    // still being written. Runs without the game's lock.
+    private void sync(String gameId, GameCalendar calendar) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime lateUntil = lateUntil(now);
+
+        // Read before the bookings: a hold gone by then belongs to a booking that is already stored
+        CalendarState state = mongoTemplate.findById(gameId, CalendarState.class);
+
+        IntervalTree tree = new IntervalTree();
+        Map<String, Reservation> reservations = new HashMap<>();
+        Query active = new Query(Criteria.where("gameId").is(gameId).and("isReturned").is(false));
+        active.fields().include("rentDate", "rentDays", "dueDate");
+        for (Rent rent : mongoTemplate.find(active, Rent.class)) {
+            if (rent.getRentDate() != null) {
+                IntervalTree.Interval interval = interval(rent);
+                // Late rents still hold their copy
+                tree.add(interval.end().isAfter(now)
+                        ? interval
+                        : new IntervalTree.Interval(interval.id(), interval.start(), lateUntil));
+            }
+        }
+
+        for (Reservation reservation : reservationRepository.findByGameIdAndEndDateAfter(gameId, now)) {
+            reservations.put(reservation.getId(), reservation);
+            tree.add(new IntervalTree.Interval(reservation.getId(), reservation.getStartDate(), reservation.getEndDate()));
+        }
+
+        long version = 0;
+        if (state != null) {
+            version = state.getVersion();
+            for (CalendarState.Hold hold : state.getHolds()) {
+                // An extension's hold replaces the rent's shorter range
+                if (hold.getUntil().isAfter(now)) {
+                    tree.add(new IntervalTree.Interval(hold.getBookingId(), hold.getStart(), hold.getEnd()));
+                }
+            }
+        }
+
+        synchronized (calendar) {
+            // A sync that read a later version finished first
+            if (version >= calendar.version) {
+                calendar.replace(tree, reservations, version);
+            }
+        }
+    }
+
+    // Until the prune after next, so a late rent never looks over between two prunes
+    private LocalDateTime lateUntil(LocalDateTime now) {
+        return now.plusNanos(TimeUnit.MILLISECONDS.toNanos(2 * pruneIntervalMillis));
+    }
+
+    private static IntervalTree.Interval interval(Rent rent) {
+        // Rents stored before dueDate existed may not have it yet
+        LocalDateTime dueDate = rent.getDueDate() != null
+                ? rent.getDueDate()
+                : rent.getRentDate().plusDays(rent.getRentDays());
+        return new IntervalTree.Interval(rent.getId(), rent.getRentDate(), dueDate);
+    }
+
+    // A booked rent range, plus the reservation it replaced if the customer picked up a booking
+    public record Booking(String gameId, String rentId, Reservation claimed) {
+    }
+
+    private static final class GameCalendar {
+        private IntervalTree tree = new IntervalTree();
+        // Reservations by id, to tell a customer's own booking apart from the rents in the tree
+        private Map<String, Reservation> reservations = new HashMap<>();
+        // Ranges booked here whose write hasn't finished, and reservations given up for a rent being
+        // stored, both kept when the calendar is read again
+        private final Map<String, IntervalTree.Interval> pending = new HashMap<>();
+        private final Set<String> withdrawn = new HashSet<>();
+        // Version of reservation_calendars the calendar is in sync with, -1 until it is loaded
+        private long version = -1;
+
+        private boolean fits(LocalDateTime start, LocalDateTime end, int copies) {
+            return tree.maxOverlap(start, end) < copies;
+        }
+
+        private Reservation claimable(String userId, LocalDateTime at) {
+            for (IntervalTree.Interval interval : tree.overlapping(at, at.plusNanos(1))) {
+                Reservation reservation = reservations.get(interval.id());
+                if (reservation != null && reservation.getUserId().equals(userId)) {
+                    return reservation;
+                }
+            }
+            return null;
+        }
+
+        private void place(IntervalTree.Interval range) {
+            pending.put(range.id(), range);
+            tree.add(range);
+        }
+
+        private void withdraw(String id, IntervalTree.Interval previous) {
+            pending.remove(id);
+            if (previous != null) {
+                tree.add(previous);
+            } else {
+                tree.remove(id);
+            }
+        }
+
+        private void withdrawReservation(String id) {
+            withdrawn.add(id);
+            removeReservation(id);
+        }
+
+        private void restoreReservation(Reservation reservation) {
+            withdrawn.remove(reservation.getId());
+            addReservation(reservation);
+        }
+
+        private void addReservation(Reservation reservation) {
+            reservations.put(reservation.getId(), reservation);
+            tree.add(new IntervalTree.Interval(reservation.getId(), reservation.getStartDate(), reservation.getEndDate()));
+        }
+
+        private void removeReservation(String id) {
+            reservations.remove(id);
+            tree.remove(id);
+        }
+
+        private void replace(IntervalTree tree, Map<String, Reservation> reservations, long version) {
+            this.tree = tree;
+            this.reservations = reservations;
+            this.version = version;
+            for (String id : withdrawn) {
+                removeReservation(id);
+            }
+            for (IntervalTree.Interval range : pending.values()) {
+                tree.add(range);
+            }
+        }
+
+        private void prune(LocalDateTime now, LocalDateTime lateUntil) {
+            for (IntervalTree.Interval ended : tree.endedBy(now)) {
+                if (reservations.remove(ended.id()) != null) {
+                    tree.remove(ended.id());
+                } else {
+                    // A rent that's over but not returned, it leaves through releaseRent only
+                    tree.add(new IntervalTree.Interval(ended.id(), ended.start(), lateUntil));
+                }
+            }
+        }
+    }
+}
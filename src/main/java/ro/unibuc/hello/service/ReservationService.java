@@ -0,0 +1,71 @@
+package ro.unibuc.hello.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.Reservation;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.dto.GameAvailability;
+import ro.unibuc.hello.exception.EntityNotFoundException;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Service
+public class ReservationService {
+
+    private final ReservationRepository reservationRepository;
+    private final ReservationCalendar reservationCalendar;
+    private final GameService gameService;
+
+    @Autowired
+    public ReservationService(ReservationRepository reservationRepository, ReservationCalendar reservationCalendar,
+                              GameService gameService) {
+        this.reservationRepository = reservationRepository;
+        this.reservationCalendar = reservationCalendar;
+        this.gameService = gameService;
+    }
+
+    public Reservation reserve(String userId, String gameId, LocalDateTime startDate, LocalDateTime endDate) {
+        checkRange(startDate, endDate);
+        if (startDate.isBefore(LocalDateTime.now())) {
+            throw new IllegalStateException("Reservations must start in the future");
+        }
+        int copies = trackedCopies(gameId);
+
+        Reservation reservation = new Reservation(gameId, userId, startDate, endDate, LocalDateTime.now());
+        return reservationCalendar.reserve(reservation, copies);
+    }
+
+    public void cancel(String id) {
+        Reservation reservation = reservationRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Reservation not found with id: " + id));
+        reservationCalendar.cancelReservation(reservation);
+    }
+
+    public List<Reservation> getReservationsByUserId(String userId) {
+        return reservationRepository.findByUserIdOrderByStartDateAsc(userId);
+    }
+
+    public GameAvailability getAvailability(String gameId, LocalDateTime startDate, LocalDateTime endDate) {
+        checkRange(startDate, endDate);
+        int copies = trackedCopies(gameId);
+        return new GameAvailability(gameId, startDate, endDate,
+                reservationCalendar.available(gameId, copies, startDate, endDate));
+    }
+
+    private int trackedCopies(String gameId) {
+        Game game = gameService.getGameById(gameId);
+        // Without a copy count there is nothing to book against
+        if (game.getCopies() == null) {
+            throw new IllegalStateException("Only games with tracked copies can be reserved");
+        }
+        return game.getCopies();
+    }
+
+    private void checkRange(LocalDateTime startDate, LocalDateTime endDate) {
+        if (!endDate.isAfter(startDate)) {
+            throw new IllegalStateException("The end date must be after the start date");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ro.unibuc.hello.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Hierarchical timer wheel: LEVELS wheels of 64 slots, each slot of a level spanning a whole turn of the
+// level below. A timer sits in the lowest level whose turn reaches its deadline and is moved down a level
+// each time the wheel above comes round to its slot, so adding, removing and expiring a timer cost O(1)
+// and a tick only touches the timers that are actually due. Deadlines are rounded up to whole ticks.
+// Not thread-safe, callers lock around it.
+final class TimerWheel<K> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    // 64^7 ticks, over 100 years at one tick per millisecond
+    private static final int LEVELS = 7;
+
+    private final long tickMillis;
+    private final List<List<Set<K>>> wheels = new ArrayList<>(LEVELS);
+    private final Map<K, Timer> timers = new HashMap<>();
+    private long currentTick;
+
+    TimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+        for (int level = 0; level < LEVELS; level++) {
+            List<Set<K>> slots = new ArrayList<>(SLOTS);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots.add(new HashSet<>());
+            }
+            wheels.add(slots);
+        }
+    }
+
+    // Schedules the key, replacing its previous deadline. Returns false, without scheduling anything,
+    // if the deadline is not after the current tick: the caller treats the key as expired right away.
+    boolean add(K key, long deadlineMillis) {
+        remove(key);
+        // Rounded up, a key never expires before its deadline
+        long deadlineTick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+        return place(key, deadlineTick);
+    }
+
+    boolean remove(K key) {
+        Timer timer = timers.remove(key);
+        if (timer == null) {
+            return false;
+        }
+        wheels.get(timer.level).get(timer.slot).remove(key);
+        return true;
+    }
+
+    boolean contains(K key) {
+        return timers.containsKey(key);
+    }
+
+    int size() {
+        return timers.size();
+    }
+
+    // Moves the wheel up to nowMillis, handing every key whose deadline passed to `expired`
+    void advance(long nowMillis, Consumer<K> expired) {
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Higher levels first, so timers they hand down land in slots that are still ahead
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, expired);
+                }
+            }
+            Set<K> due = wheels.get(0).get((int) (currentTick & MASK));
+            if (!due.isEmpty()) {
+                List<K> keys = new ArrayList<>(due);
+                due.clear();
+                for (K key : keys) {
+                    timers.remove(key);
+                    expired.accept(key);
+                }
+            }
+        }
+    }
+
+    private void cascade(int level, Consumer<K> expired) {
+        Set<K> slot = wheels.get(level).get((int) ((currentTick >>> (BITS * level)) & MASK));
+        if (slot.isEmpty()) {
+            return;
+        }
+        List<K> keys = new ArrayList<>(slot);
+        slot.clear();
+        for (K key : keys) {
+            Timer timer = timers.remove(key);
+            if (!place(key, timer.deadlineTick)) {
+                expired.accept(key);
+            }
+        }
+    }
+
+    private boolean place(K key, long deadlineTick) {
+        if (deadlineTick <= currentTick) {
+            return false;
+        }
+        // The lowest level where the deadline is less than a full turn of slots ahead
+        int level = 0;
+        while (level < LEVELS - 1 && (deadlineTick >>> (BITS * level)) - (currentTick >>> (BITS * level)) >= SLOTS) {
+            level++;
+        }
+        int slot = (int) ((deadlineTick >>> (BITS * level)) & MASK);
+        wheels.get(level).get(slot).add(key);
+        timers.put(key, new Timer(deadlineTick, level, slot));
+        return true;
+    }
+
+    private record Timer(long deadlineTick, int level, int slot) {
+    }
+}
@@ -0,0 +1,158 @@
+package ro.unibuc.hello.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentArchiveRepository;
+import ro.unibuc.hello.data.UserRentSummary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+// Regenerates every user_rent_summaries document from the rents, rents_archive and rent_buckets
+// collections. The rent collections are split into _id ranges scanned in parallel, each range builds
+// partial summaries that are merged at the end. Writes made while it runs may be overwritten by
+// the snapshot, so run it while rentals are quiet.
+@Component
+@ConditionalOnProperty(name = "rent.summary.rebuild.enabled", havingValue = "true")
+public class UserRentSummaryRebuild implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserRentSummaryRebuild.class);
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final MongoTemplate mongoTemplate;
+    private final int threads;
+    private final int batchSize;
+
+    @Autowired
+    public UserRentSummaryRebuild(MongoTemplate mongoTemplate,
+                                  @Value("${rent.summary.rebuild.threads:4}") int threads,
+                                  @Value("${rent.summary.rebuild.batch-size:1000}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long rebuilt = rebuild();
+        logger.info("User rent summary rebuild finished, {} summaries written", rebuilt);
+    }
+
+    public long rebuild() {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Map<String, UserRentSummary>>> scans = new ArrayList<>();
+            for (String collection : Arrays.asList("rents", RentArchiveRepository.COLLECTION)) {
+                // More ranges than threads, so one dense range doesn't leave the other threads idle
+                for (Criteria range : IdRanges.split(mongoTemplate, collection, threads * RANGES_PER_THREAD)) {
+                    scans.add(executor.submit(() -> scan(collection, range)));
+                }
+            }
+
+            Map<String, UserRentSummary> summaries = new HashMap<>();
+            for (Future<Map<String, UserRentSummary>> scan : scans) {
+                scan.get().values().forEach(partial -> merge(summaries, partial));
+            }
+            bucketTotals().forEach(partial -> merge(summaries, partial));
+
+            write(summaries.values());
+            return summaries.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("User rent summary rebuild was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("User rent summary rebuild failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<String, UserRentSummary> scan(String collection, Criteria range) {
+        Query query = new Query(range);
+        query.fields().include("userId", "gameId", "rentDate", "isReturned");
+
+        Map<String, UserRentSummary> partials = new HashMap<>();
+        try (Stream<Rent> rents = mongoTemplate.stream(query, Rent.class, collection)) {
+            rents.forEach(rent -> {
+                UserRentSummary partial = partials.computeIfAbsent(rent.getUserId(), UserRentSummary::new);
+                partial.setTotalRentals(partial.getTotalRentals() + 1);
+                if (rent.getRentDate() != null && (partial.getLastRentDate() == null
+                        || rent.getRentDate().isAfter(partial.getLastRentDate()))) {
+                    partial.setLastRentDate(rent.getRentDate());
+                }
+                if (!rent.isReturned() && !partial.getActiveGameIds().contains(rent.getGameId())) {
+                    partial.getActiveGameIds().add(rent.getGameId());
+                }
+            });
+        }
+        return partials;
+    }
+
+    // Bucketed rents are all returned, so they only add to the totals
+    private List<UserRentSummary> bucketTotals() {
+        Aggregation aggregation = newAggregation(
+                unwind("rents"),
+                group("userId").count().as("totalRentals").max("rents.rentDate").as("lastRentDate"));
+        return mongoTemplate.aggregate(aggregation, "rent_buckets", UserRentSummary.class).getMappedResults();
+    }
+
+    private void merge(Map<String, UserRentSummary> summaries, UserRentSummary partial) {
+        UserRentSummary summary = summaries.putIfAbsent(partial.getUserId(), partial);
+        if (summary == null) {
+            return;
+        }
+
+        summary.setTotalRentals(summary.getTotalRentals() + partial.getTotalRentals());
+        if (partial.getLastRentDate() != null && (summary.getLastRentDate() == null
+                || partial.getLastRentDate().isAfter(summary.getLastRentDate()))) {
+            summary.setLastRentDate(partial.getLastRentDate());
+        }
+        for (String gameId : partial.getActiveGameIds()) {
+            if (!summary.getActiveGameIds().contains(gameId)) {
+                summary.getActiveGameIds().add(gameId);
+            }
+        }
+    }
+
+    private void write(Iterable<UserRentSummary> summaries) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserRentSummary.class);
+        int pending = 0;
+        for (UserRentSummary summary : summaries) {
+            bulk.upsert(new Query(Criteria.where("_id").is(summary.getUserId())), new Update()
+                    .set("activeGameIds", summary.getActiveGameIds())
+                    .set("totalRentals", summary.getTotalRentals())
+                    .set("lastRentDate", summary.getLastRentDate()));
+            if (++pending == batchSize) {
+                bulk.execute();
+                bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserRentSummary.class);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            bulk.execute();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ro.unibuc.hello.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.UserRentSummary;
+import ro.unibuc.hello.data.UserRentSummaryRepository;
+
+// Keeps user_rent_summaries in step with rents. Each change is a single-document upsert,
+// so concurrent rents and returns of the same user never overwrite each other.
+@Service
+public class UserRentSummaryService {
+
+    private final UserRentSummaryRepository userRentSummaryRepository;
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public UserRentSummaryService(UserRentSummaryRepository userRentSummaryRepository, MongoTemplate mongoTemplate) {
+        this.userRentSummaryRepository = userRentSummaryRepository;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // A user who never rented anything gets an empty summary rather than a 404
+    public UserRentSummary getSummary(String userId) {
+        return userRentSummaryRepository.findById(userId).orElseGet(() -> new UserRentSummary(userId));
+    }
+
+    public void recordRent(Rent rent) {
+        Update update = new Update()
+                .addToSet("activeGameIds", rent.getGameId())
+                .inc("totalRentals", 1)
+                .max("lastRentDate", rent.getRentDate());
+        mongoTemplate.upsert(byUser(rent.getUserId()), update, UserRentSummary.class);
+    }
+
+    public void recordReturn(Rent rent) {
+        mongoTemplate.updateFirst(byUser(rent.getUserId()),
+                new Update().pull("activeGameIds", rent.getGameId()), UserRentSummary.class);
+    }
+
+    private Query byUser(String userId) {
+        return new Query(Criteria.where("_id").is(userId));
+    }
+}
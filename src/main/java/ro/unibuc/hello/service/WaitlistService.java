@@ -0,0 +1,160 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import ro.unibuc.hello.data.WaitlistEntry;
+import ro.unibuc.hello.data.WaitlistEntryRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-game FIFO of customers waiting for a sold-out game. The queue lives in the waitlist collection, so
+// every instance serves the same one: a copy returned anywhere goes to the first waiter, however they queued.
+// Waiters are ordered by a per-game sequence taken when they join. The next one is claimed with a
+// findAndModify, so two instances handing over copies at once never pick the same customer, and a claim
+// that is neither settled nor released within claim-timeout-ms (the instance died mid-allocation) lapses,
+// putting the waiter back at their place in line.
+@Service
+public class WaitlistService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WaitlistService.class);
+    static final String SEQUENCES = "waitlist_sequences";
+
+    private final WaitlistEntryRepository waitlistEntryRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry metricsRegistry;
+    private final long claimTimeoutMillis;
+
+    @Autowired
+    public WaitlistService(WaitlistEntryRepository waitlistEntryRepository, MongoTemplate mongoTemplate,
+                           MeterRegistry metricsRegistry,
+                           @Value("${rent.waitlist.claim-timeout-ms:60000}") long claimTimeoutMillis) {
+        this.waitlistEntryRepository = waitlistEntryRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.metricsRegistry = metricsRegistry;
+        this.claimTimeoutMillis = claimTimeoutMillis;
+        // Read from the collection metadata, a scrape doesn't scan the waitlist
+        metricsRegistry.gauge("rent_waitlist_size", mongoTemplate,
+                template -> template.estimatedCount(WaitlistEntry.class));
+    }
+
+    // Entries stored before the sequence existed get one, in the order they were queued. Only the first
+    // instance to reach an entry numbers it, the others skip it.
+    @EventListener(ApplicationReadyEvent.class)
+    public void assignSequences() {
+        Query legacy = new Query(Criteria.where("seq").exists(false)).with(Sort.by("enqueuedAt", "_id"));
+        long assigned = 0;
+        for (WaitlistEntry entry : mongoTemplate.find(legacy, WaitlistEntry.class)) {
+            Query unnumbered = new Query(Criteria.where("_id").is(entry.getId()).and("seq").exists(false));
+            assigned += mongoTemplate.updateFirst(unnumbered, Update.update("seq", nextSeq(entry.getGameId())),
+                    WaitlistEntry.class).getModifiedCount();
+        }
+        if (assigned > 0) {
+            logger.info("Numbered {} waitlist entries stored before the waitlist sequence", assigned);
+        }
+    }
+
+    public boolean hasWaiters(String gameId) {
+        return mongoTemplate.exists(new Query(waiting(gameId, LocalDateTime.now())), WaitlistEntry.class);
+    }
+
+    // Position of the user in the game's waitlist, 0 if they are not waiting
+    public long position(String userId, String gameId) {
+        WaitlistEntry entry = mongoTemplate.findOne(byUser(userId, gameId), WaitlistEntry.class);
+        if (entry == null) {
+            return 0;
+        }
+        // Not numbered yet, such entries sort first
+        if (entry.getSeq() == null) {
+            return 1;
+        }
+        return mongoTemplate.count(new Query(Criteria.where("gameId").is(gameId).and("seq").lte(entry.getSeq())),
+                WaitlistEntry.class);
+    }
+
+    // Called with the (userId, gameId) lock held; the unique (gameId, userId) index covers other instances
+    public long enqueue(String userId, String gameId, int rentDays) {
+        while (true) {
+            long position = position(userId, gameId);
+            if (position > 0) {
+                return position;
+            }
+
+            WaitlistEntry entry = new WaitlistEntry(gameId, userId, rentDays, LocalDateTime.now());
+            entry.setSeq(nextSeq(gameId));
+            try {
+                waitlistEntryRepository.insert(entry);
+            } catch (DuplicateKeyException e) {
+                // Queued through another instance meanwhile, their entry holds the place
+                continue;
+            }
+            metricsRegistry.counter("rent_waitlist_enqueued").increment();
+            return position(userId, gameId);
+        }
+    }
+
+    // Claims the next waiter. The stored entry stays until remove(), so a waiter isn't lost if the
+    // allocation is cut short; requeue() releases the claim.
+    public WaitlistEntry poll(String gameId) {
+        LocalDateTime now = LocalDateTime.now();
+        return mongoTemplate.findAndModify(new Query(waiting(gameId, now)).with(Sort.by("seq")),
+                Update.update("claimedAt", now), FindAndModifyOptions.options().returnNew(true), WaitlistEntry.class);
+    }
+
+    // Waiters claimed but not served keep their sequence, so releasing the claim puts them back in front
+    // of everyone queued after them, in their original order
+    public void requeue(String gameId, List<WaitlistEntry> entries) {
+        for (WaitlistEntry entry : entries) {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(entry.getId()).and("gameId").is(gameId)),
+                    new Update().unset("claimedAt"), WaitlistEntry.class);
+        }
+    }
+
+    public void remove(WaitlistEntry entry) {
+        waitlistEntryRepository.deleteById(entry.getId());
+    }
+
+    // The customer leaves the queue, false if they weren't in it. A copy being handed to them at this
+    // very moment still reaches them as a rent, which they can return.
+    public boolean cancel(String userId, String gameId) {
+        boolean removed = mongoTemplate.remove(byUser(userId, gameId), WaitlistEntry.class).getDeletedCount() > 0;
+        if (removed) {
+            metricsRegistry.counter("rent_waitlist_cancelled").increment();
+        }
+        return removed;
+    }
+
+    // Not claimed, or claimed by an allocation that never finished
+    private Criteria waiting(String gameId, LocalDateTime now) {
+        LocalDateTime lapsed = now.minusNanos(TimeUnit.MILLISECONDS.toNanos(claimTimeoutMillis));
+        return Criteria.where("gameId").is(gameId).orOperator(
+                Criteria.where("claimedAt").is(null),
+                Criteria.where("claimedAt").lt(lapsed));
+    }
+
+    private Query byUser(String userId, String gameId) {
+        return new Query(Criteria.where("gameId").is(gameId).and("userId").is(userId));
+    }
+
+    private long nextSeq(String gameId) {
+        Document sequence = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(gameId)),
+                new Update().inc("seq", 1L), FindAndModifyOptions.options().returnNew(true).upsert(true),
+                Document.class, SEQUENCES);
+        return sequence.get("seq", Number.class).longValue();
+    }
+}
@@ -17,6 +17,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import ro.unibuc.hello.data.Game;
 import ro.unibuc.hello.exception.EntityNotFoundException;
 import ro.unibuc.hello.exception.RestExceptionHandler;
+import ro.unibuc.hello.dto.GameRentalStats;
+import ro.unibuc.hello.service.GameRentalCounters;
 import ro.unibuc.hello.service.GameService;
 
 import java.util.Arrays;
@@ -35,6 +37,9 @@ class GameControllerTest {
     @Mock
     private GameService gameService;
 
+    @Mock
+    private GameRentalCounters gameRentalCounters;
+
     @InjectMocks
     private GameController gameController;
 
@@ -106,6 +111,20 @@ class GameControllerTest {
         verify(gameService, times(1)).getGameById(GAME_ID);
     }
 
+    @Test
+    void testGetRentalStats() throws Exception {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(gameRentalCounters.getStats(GAME_ID)).thenReturn(new GameRentalStats(GAME_ID, 120, 7));
+
+        // Act & Assert
+        mockMvc.perform(get("/games/{id}/rental-stats", GAME_ID))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.gameId").value(GAME_ID))
+                .andExpect(jsonPath("$.totalRentals").value(120))
+                .andExpect(jsonPath("$.activeRentals").value(7));
+    }
+
     @Test
     void testGetGameById_NotFound() throws Exception {
         // Arrange
@@ -0,0 +1,63 @@
+package ro.unibuc.hello.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ro.unibuc.hello.dto.LiveRentalCounts;
+import ro.unibuc.hello.exception.RestExceptionHandler;
+import ro.unibuc.hello.service.LiveRentalCounters;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class LiveRentalCountersControllerTest {
+
+    @Mock
+    private LiveRentalCounters liveRentalCounters;
+
+    @InjectMocks
+    private LiveRentalCountersController liveRentalCountersController;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(liveRentalCountersController)
+                .setControllerAdvice(new RestExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void testGetCounts() throws Exception {
+        // Arrange
+        when(liveRentalCounters.getCounts()).thenReturn(new LiveRentalCounts(3, Map.of("game1", 3L),
+                Map.of("PC", 3L), Map.of("Platformer", 3L), LocalDateTime.of(2025, 3, 10, 12, 0)));
+
+        // Act & Assert
+        mockMvc.perform(get("/manage/live-counters"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(3))
+                .andExpect(jsonPath("$.byGame.game1").value(3))
+                .andExpect(jsonPath("$.byPlatform.PC").value(3));
+    }
+
+    @Test
+    void testGetCountsWhenOff() throws Exception {
+        // Arrange
+        when(liveRentalCounters.getCounts()).thenThrow(new IllegalStateException("Live rental counters are off"));
+
+        // Act & Assert
+        mockMvc.perform(get("/manage/live-counters"))
+                .andExpect(status().isBadRequest());
+    }
+}
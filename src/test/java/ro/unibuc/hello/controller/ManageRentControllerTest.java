@@ -5,16 +5,43 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.ReconcileRun;
 import ro.unibuc.hello.data.Rent;
 import ro.unibuc.hello.dto.LateRent;
+import ro.unibuc.hello.dto.WithGame;
+import ro.unibuc.hello.dto.BillingReport;
+import ro.unibuc.hello.dto.CounterRepair;
+import ro.unibuc.hello.dto.Enriched;
+import ro.unibuc.hello.dto.ReconcileReport;
+import ro.unibuc.hello.service.GameService;
+import ro.unibuc.hello.service.InventoryReconciler;
+import ro.unibuc.hello.service.LateFeeBilling;
 import ro.unibuc.hello.service.ManageRentService;
+import ro.unibuc.hello.service.ReferenceCache;
+import ro.unibuc.hello.service.RentCsvExport;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 class ManageRentControllerTest {
@@ -22,6 +49,25 @@ class ManageRentControllerTest {
     @Mock
     private ManageRentService manageRentService;
 
+    @Mock
+    private GameService gameService;
+
+    @Mock
+    private LateFeeBilling lateFeeBilling;
+
+    @Mock
+    private InventoryReconciler inventoryReconciler;
+
+    @Mock
+    private ReferenceCache referenceCache;
+
+    @Mock
+    private RentCsvExport rentCsvExport;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
     @InjectMocks
     private ManageRentController manageRentController;
 
@@ -45,6 +91,17 @@ class ManageRentControllerTest {
                 .andExpect(jsonPath("$[0].gameId").value("game1"));
     }
 
+    @Test
+    void testGetAllActiveRents_AnyAcceptGetsJson() throws Exception {
+        Rent rent = new Rent("user1", "game1", 7);
+        when(manageRentService.getAllActiveRents()).thenReturn(Arrays.asList(rent));
+
+        mockMvc.perform(get("/manage/rented").accept("*/*"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/json"))
+                .andExpect(jsonPath("$.length()").value(1));
+    }
+
     @Test
     void testGetLateRenters() throws Exception {
         LateRent lateRent = new LateRent("user1", "game1", "2024-03-01 10:00");
@@ -56,4 +113,123 @@ class ManageRentControllerTest {
                 .andExpect(jsonPath("$[0].userId").value("user1"))
                 .andExpect(jsonPath("$[0].gameId").value("game1"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetAllActiveRents_ExpandGame() throws Exception {
+        Rent rent = new Rent("user1", "game1", 7);
+        List<Rent> rents = Arrays.asList(rent);
+        Game game = new Game("Test Game", "PC", "Action", 2023);
+        game.setId("game1");
+        when(manageRentService.getAllActiveRents()).thenReturn(rents);
+        when(gameService.expandGames(eq(rents), any())).thenReturn(Arrays.asList(new WithGame<>(rent, game)));
+
+        mockMvc.perform(get("/manage/rented").param("expand", "game"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].userId").value("user1"))
+                .andExpect(jsonPath("$[0].game.name").value("Test Game"));
+    }
+
+    @Test
+    void testRunBillingDryRun() throws Exception {
+        BillingReport report = new BillingReport("20250310T120000", true, 16, 1000, 12, 1800, 250, 4000.0);
+        when(lateFeeBilling.run(true)).thenReturn(report);
+
+        mockMvc.perform(post("/manage/billing/run").param("dryRun", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.dryRun").value(true))
+                .andExpect(jsonPath("$.invoices").value(12))
+                .andExpect(jsonPath("$.amountCents").value(1800));
+    }
+
+    @Test
+    void testReconcileStartsARun() throws Exception {
+        ReconcileRun run = new ReconcileRun(true, LocalDateTime.now());
+        run.setId("run1");
+        when(inventoryReconciler.start(true)).thenReturn(run);
+
+        mockMvc.perform(post("/manage/reconcile").param("dryRun", "true"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/manage/reconcile/run1"))
+                .andExpect(jsonPath("$.id").value("run1"))
+                .andExpect(jsonPath("$.status").value("RUNNING"));
+    }
+
+    @Test
+    void testGetReconcileRun() throws Exception {
+        ReconcileRun run = new ReconcileRun(false, LocalDateTime.now());
+        run.setId("run1");
+        run.setStatus(ReconcileRun.COMPLETED);
+        run.setReport(new ReconcileReport(false, 40, 3,
+                List.of(new CounterRepair("game1", "available", 2, 1)), 0, 15));
+        when(inventoryReconciler.getRun("run1")).thenReturn(run);
+
+        mockMvc.perform(get("/manage/reconcile/{id}", "run1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.report.rentsScanned").value(40))
+                .andExpect(jsonPath("$.report.repairs[0].gameId").value("game1"))
+                .andExpect(jsonPath("$.report.repairs[0].expected").value(1));
+    }
+
+    @Test
+    void testExportRentsAsCsv() throws Exception {
+        when(rentCsvExport.write(eq(LocalDateTime.of(2025, 1, 1, 0, 0)), isNull(), eq(RentCsvExport.Status.RETURNED), any()))
+                .thenAnswer(invocation -> {
+                    OutputStream out = invocation.getArgument(3);
+                    out.write("id,userId\nrent1,user1\n".getBytes(StandardCharsets.UTF_8));
+                    return 1L;
+                });
+
+        MvcResult result = mockMvc.perform(get("/manage/rents.csv")
+                        .param("from", "2025-01-01T00:00:00")
+                        .param("status", "returned"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"rents.csv\""))
+                .andExpect(content().string("id,userId\nrent1,user1\n"));
+    }
+
+    @Test
+    void testStreamActiveRentsAsNdjson() throws Exception {
+        Rent rent1 = new Rent("user1", "game1", 7);
+        rent1.setId("id1");
+        Rent rent2 = new Rent("user2", "game2", 3);
+        rent2.setId("id2");
+        when(manageRentService.streamActiveRents("id0", 2)).thenReturn(Stream.of(rent1, rent2));
+
+        MvcResult result = mockMvc.perform(get("/manage/rented")
+                        .param("format", "ndjson")
+                        .param("after", "id0")
+                        .param("limit", "2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("id1", objectMapper.readTree(lines[0]).get("id").asText());
+        assertEquals("user2", objectMapper.readTree(lines[1]).get("userId").asText());
+    }
+
+    @Test
+    void testGetLateRentersWithNames() throws Exception {
+        LateRent lateRent = new LateRent("user1", "game1", "2025-03-01 10:00");
+        when(manageRentService.getLateRents()).thenReturn(Arrays.asList(lateRent));
+        when(referenceCache.enrich(any(), any(), any()))
+                .thenReturn(List.of(new Enriched<>(lateRent, "alice", "Celeste", "PC")));
+
+        mockMvc.perform(get("/manage/late").param("expand", "names"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].userId").value("user1"))
+                .andExpect(jsonPath("$[0].username").value("alice"))
+                .andExpect(jsonPath("$[0].gameName").value("Celeste"))
+                .andExpect(jsonPath("$[0].platform").value("PC"));
+    }
+}
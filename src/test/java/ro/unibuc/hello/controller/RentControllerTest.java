@@ -5,6 +5,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -14,20 +19,33 @@ import org.springframework.web.servlet.view.json.MappingJackson2JsonView;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mongodb.client.result.UpdateResult;
 
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.IdempotencyRecord;
+import ro.unibuc.hello.data.IdempotencyRecordRepository;
 import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.UserRentSummary;
+import ro.unibuc.hello.dto.ExtendRentRequest;
 import ro.unibuc.hello.dto.RentRequest;
+import ro.unibuc.hello.dto.WithGame;
 import ro.unibuc.hello.exception.EntityNotFoundException;
+import ro.unibuc.hello.exception.RentConflictException;
 import ro.unibuc.hello.exception.RestExceptionHandler;
+import ro.unibuc.hello.service.GameService;
+import ro.unibuc.hello.service.IdempotencyService;
 import ro.unibuc.hello.service.RentService;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -38,6 +56,16 @@ class RentControllerTest {
     @Mock
     private RentService rentService;
 
+    @Mock
+    private GameService gameService;
+
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private MongoTemplate mongoTemplate;
+
+    @Spy
+    private IdempotencyService idempotencyService;
+
     @InjectMocks
     private RentController rentController;
 
@@ -50,6 +78,15 @@ class RentControllerTest {
 
     @BeforeEach
     void setUp() {
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // For LocalDateTime serialization
+
+        idempotencyRecordRepository = mock(IdempotencyRecordRepository.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        idempotencyService = new IdempotencyService(idempotencyRecordRepository, mongoTemplate, objectMapper,
+                24, 100, 1000, 60000);
         MockitoAnnotations.openMocks(this);
 
         // Setup mockMvc with exception handler
@@ -63,9 +100,6 @@ class RentControllerTest {
                     }
                 })
                 .build();
-
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule()); // For LocalDateTime serialization
     }
 
     @Test
@@ -127,6 +161,44 @@ class RentControllerTest {
         verify(rentService, times(1)).getRentsByUserId(USER_ID);
     }
 
+    @Test
+    void testGetRentsByUserId_ExpandGame() throws Exception {
+        // Arrange
+        Rent rent = createRent(RENT_ID, USER_ID, GAME_ID);
+        List<Rent> rents = Arrays.asList(rent);
+        Game game = new Game("Test Game", "PC", "Action", 2023);
+        game.setId(GAME_ID);
+
+        when(rentService.getRentsByUserId(USER_ID)).thenReturn(rents);
+        when(gameService.expandGames(eq(rents), any())).thenReturn(Arrays.asList(new WithGame<>(rent, game)));
+
+        // Act & Assert
+        mockMvc.perform(get("/rent/user/{userId}", USER_ID).param("expand", "game"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(RENT_ID))
+                .andExpect(jsonPath("$[0].gameId").value(GAME_ID))
+                .andExpect(jsonPath("$[0].game.name").value("Test Game"));
+    }
+
+    @Test
+    void testGetUserSummary() throws Exception {
+        // Arrange
+        UserRentSummary summary = new UserRentSummary(USER_ID);
+        summary.setActiveGameIds(Arrays.asList(GAME_ID));
+        summary.setTotalRentals(12);
+        when(rentService.getUserSummary(USER_ID)).thenReturn(summary);
+
+        // Act & Assert
+        mockMvc.perform(get("/rent/user/{userId}/summary", USER_ID))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.userId").value(USER_ID))
+                .andExpect(jsonPath("$.activeGameIds[0]").value(GAME_ID))
+                .andExpect(jsonPath("$.totalRentals").value(12));
+
+        verify(rentService, times(1)).getUserSummary(USER_ID);
+    }
+
     @Test
     void testGetRentsByGameId() throws Exception {
         // Arrange
@@ -148,6 +220,17 @@ class RentControllerTest {
         verify(rentService, times(1)).getRentsByGameId(GAME_ID);
     }
 
+    @Test
+    void testGetRentsByGameId_CompactViewIsNotPaged() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/rent/game/{gameId}", GAME_ID).param("view", "compact").param("page", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/rent/user/{userId}", USER_ID).param("view", "compact").param("page", "0"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(rentService);
+    }
+
 //    @Test
     void testRentGame() throws Exception {
         // Arrange
@@ -241,6 +324,167 @@ class RentControllerTest {
         verify(rentService, times(1)).returnGame(eq(USER_ID), eq(GAME_ID));
     }
 
+    @Test
+    void testReturnGame_IdempotentReplay() throws Exception {
+        // Arrange
+        Rent rent = createRent(RENT_ID, USER_ID, GAME_ID);
+        rent.setReturned(true);
+        RentRequest request = new RentRequest(USER_ID, GAME_ID, 3);
+
+        // The first attempt went through, its response is stored under the key
+        IdempotencyRecord stored = new IdempotencyRecord("return::key-1", idempotencyService.requestHash(request),
+                200, objectMapper.writeValueAsString(rent), LocalDateTime.now());
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException("key-1"));
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        when(idempotencyRecordRepository.findById("return::key-1")).thenReturn(Optional.of(stored));
+
+        // Act & Assert
+        mockMvc.perform(post("/rent/return")
+                        .header("Idempotency-Key", "key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(RENT_ID))
+                .andExpect(jsonPath("$.returned").value(true));
+
+        verify(rentService, never()).returnGame(anyString(), anyString());
+    }
+
+    @Test
+    void testReturnGame_IdempotencyKeyStoresResponse() throws Exception {
+        // Arrange
+        Rent rent = createRent(RENT_ID, USER_ID, GAME_ID);
+        rent.setReturned(true);
+        RentRequest request = new RentRequest(USER_ID, GAME_ID, 3);
+
+        when(rentService.returnGame(anyString(), anyString())).thenReturn(rent);
+
+        // Act & Assert
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/rent/return")
+                            .header("Idempotency-Key", "key-2")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.id").value(RENT_ID));
+        }
+
+        // The retry is answered from the cache
+        verify(rentService, times(1)).returnGame(eq(USER_ID), eq(GAME_ID));
+        verify(idempotencyRecordRepository, times(1)).insert(any(IdempotencyRecord.class));
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void testReturnGame_IdempotencyKeyReusedWithDifferentBody() throws Exception {
+        // Arrange
+        Rent rent = createRent(RENT_ID, USER_ID, GAME_ID);
+        when(rentService.returnGame(anyString(), anyString())).thenReturn(rent);
+        mockMvc.perform(post("/rent/return")
+                        .header("Idempotency-Key", "key-3")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new RentRequest(USER_ID, GAME_ID, 3))))
+                .andExpect(status().isOk());
+
+        // Act & Assert
+        mockMvc.perform(post("/rent/return")
+                        .header("Idempotency-Key", "key-3")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new RentRequest(USER_ID, "game999", 3))))
+                .andExpect(status().isUnprocessableEntity());
+
+        verify(rentService, times(1)).returnGame(anyString(), anyString());
+    }
+
+    @Test
+    void testReturnGame_IdempotencyKeyIsScopedToTheCaller() throws Exception {
+        // Arrange
+        Rent rent = createRent(RENT_ID, USER_ID, GAME_ID);
+        RentRequest request = new RentRequest(USER_ID, GAME_ID, 3);
+        when(rentService.returnGame(anyString(), anyString())).thenReturn(rent);
+
+        // Act
+        for (String caller : List.of("alice", "bob")) {
+            mockMvc.perform(post("/rent/return")
+                            .principal(() -> caller)
+                            .header("Idempotency-Key", "key-4")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request)))
+                    .andExpect(status().isOk());
+        }
+
+        // Assert
+        // Two callers picking the same key are two requests
+        verify(rentService, times(2)).returnGame(eq(USER_ID), eq(GAME_ID));
+        verify(idempotencyRecordRepository).insert(argThat((IdempotencyRecord r) -> r.getKey().equals("return:alice:key-4")));
+        verify(idempotencyRecordRepository).insert(argThat((IdempotencyRecord r) -> r.getKey().equals("return:bob:key-4")));
+    }
+
+    @Test
+    void testExtendRent() throws Exception {
+        // Arrange
+        Rent rent = createRent(RENT_ID, USER_ID, GAME_ID);
+        rent.setRentDays(5);
+        rent.setVersion(1);
+
+        when(rentService.extendRent(RENT_ID, 2)).thenReturn(rent);
+
+        // Act & Assert
+        mockMvc.perform(put("/rent/{id}/extend", RENT_ID)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ExtendRentRequest(2))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(RENT_ID))
+                .andExpect(jsonPath("$.rentDays").value(5))
+                .andExpect(jsonPath("$.version").value(1));
+
+        verify(rentService, times(1)).extendRent(RENT_ID, 2);
+    }
+
+    @Test
+    void testExtendRent_Conflict() throws Exception {
+        // Arrange
+        when(rentService.extendRent(RENT_ID, 2)).thenThrow(new RentConflictException(RENT_ID));
+
+        // Act & Assert
+        mockMvc.perform(put("/rent/{id}/extend", RENT_ID)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ExtendRentRequest(2))))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void testExtendRent_InvalidDays() throws Exception {
+        // Act & Assert
+        mockMvc.perform(put("/rent/{id}/extend", RENT_ID)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ExtendRentRequest(0))))
+                .andExpect(status().isBadRequest());
+
+        verify(rentService, never()).extendRent(anyString(), anyInt());
+    }
+
+    @Test
+    void testLeaveWaitlist() throws Exception {
+        // Act & Assert
+        mockMvc.perform(delete("/rent/waitlist/{gameId}/user/{userId}", GAME_ID, USER_ID))
+                .andExpect(status().isNoContent());
+
+        verify(rentService, times(1)).leaveWaitlist(USER_ID, GAME_ID);
+    }
+
+    @Test
+    void testLeaveWaitlist_NotWaiting() throws Exception {
+        // Arrange
+        doThrow(new EntityNotFoundException("User " + USER_ID + " is not on the waitlist for game " + GAME_ID))
+                .when(rentService).leaveWaitlist(USER_ID, GAME_ID);
+
+        // Act & Assert
+        mockMvc.perform(delete("/rent/waitlist/{gameId}/user/{userId}", GAME_ID, USER_ID))
+                .andExpect(status().isNotFound());
+    }
+
     // Helper method to create a rent object
     private Rent createRent(String id, String userId, String gameId) {
         Rent rent = new Rent(userId, gameId, 3);
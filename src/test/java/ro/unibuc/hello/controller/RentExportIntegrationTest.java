@@ -0,0 +1,113 @@
+package ro.unibuc.hello.controller;
+
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ro.unibuc.hello.data.UserRepository;
+import ro.unibuc.hello.dto.LoginRequest;
+import ro.unibuc.hello.dto.RegisterRequest;
+import ro.unibuc.hello.service.AuthenticationService;
+import ro.unibuc.hello.service.RentCsvExport;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+// A download that outlasts the servlet container's async timeout still reaches the client whole.
+// spring.mvc.async.request-timeout stands in for a short container default here.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.mvc.async.request-timeout=1000", "rent.download.timeout-ms=60000"})
+@Testcontainers
+@Tag("IntegrationTest")
+public class RentExportIntegrationTest {
+
+    private static final int ROWS = 30;
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017)
+            .withSharding();
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT);
+    }
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private AuthenticationService authenticationService;
+
+    @MockitoBean
+    private RentCsvExport rentCsvExport;
+
+    private String token;
+
+    @BeforeEach
+    public void login() {
+        userRepository.deleteAll();
+        authenticationService.register(new RegisterRequest("exportUser", "password123"));
+        token = authenticationService.login(new LoginRequest("exportUser", "password123")).getToken();
+    }
+
+    @Test
+    public void testSlowExportIsNotCutOff() throws Exception {
+        // Arrange
+        // Three seconds of rows, three times the async timeout set above
+        when(rentCsvExport.write(isNull(), isNull(), any(), any())).thenAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(3);
+            out.write("id\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < ROWS; i++) {
+                Thread.sleep(100);
+                out.write(("rent" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            return (long) ROWS;
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+
+        // Act
+        ResponseEntity<String> response = restTemplate.exchange("/manage/rents.csv", HttpMethod.GET,
+                new HttpEntity<>(headers), String.class);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(ROWS + 1, lines.length);
+        assertEquals("rent" + (ROWS - 1), lines[ROWS]);
+    }
+}
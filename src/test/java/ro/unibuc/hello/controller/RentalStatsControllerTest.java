@@ -0,0 +1,81 @@
+package ro.unibuc.hello.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ro.unibuc.hello.dto.GameRentalCount;
+import ro.unibuc.hello.dto.GenrePlatformCount;
+import ro.unibuc.hello.dto.RentalDurationStats;
+import ro.unibuc.hello.dto.RentalStats;
+import ro.unibuc.hello.exception.RestExceptionHandler;
+import ro.unibuc.hello.service.RentalStatsService;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class RentalStatsControllerTest {
+
+    @Mock
+    private RentalStatsService rentalStatsService;
+
+    @InjectMocks
+    private RentalStatsController rentalStatsController;
+
+    private MockMvc mockMvc;
+
+    private final RentalStats stats = new RentalStats("week", LocalDateTime.of(2025, 3, 10, 12, 0),
+            List.of(new GameRentalCount("game1", "Celeste", "PC", 42)),
+            List.of(new GenrePlatformCount("Platformer", "PC", 42)),
+            new RentalDurationStats(30, 4.5, 5.0));
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(rentalStatsController)
+                .setControllerAdvice(new RestExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void testTopGames() throws Exception {
+        // Arrange
+        when(rentalStatsService.getStats(RentalStatsService.Period.WEEK)).thenReturn(stats);
+
+        // Act & Assert
+        mockMvc.perform(get("/manage/stats/top-games").param("period", "week"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Celeste"))
+                .andExpect(jsonPath("$[0].rentals").value(42));
+    }
+
+    @Test
+    void testGenresAndDuration() throws Exception {
+        // Arrange
+        when(rentalStatsService.getStats(RentalStatsService.Period.MONTH)).thenReturn(stats);
+
+        // Act & Assert
+        mockMvc.perform(get("/manage/stats/genres"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].genre").value("Platformer"));
+        mockMvc.perform(get("/manage/stats/duration"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.averageDays").value(4.5));
+    }
+
+    @Test
+    void testUnknownPeriod() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/manage/stats").param("period", "decade"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(rentalStatsService);
+    }
+}
@@ -0,0 +1,103 @@
+package ro.unibuc.hello.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ro.unibuc.hello.data.Reservation;
+import ro.unibuc.hello.dto.GameAvailability;
+import ro.unibuc.hello.dto.ReservationRequest;
+import ro.unibuc.hello.exception.RestExceptionHandler;
+import ro.unibuc.hello.service.ReservationService;
+
+import java.time.LocalDateTime;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class ReservationControllerTest {
+
+    @Mock
+    private ReservationService reservationService;
+
+    @InjectMocks
+    private ReservationController reservationController;
+
+    private MockMvc mockMvc;
+    private ObjectMapper objectMapper;
+
+    private static final LocalDateTime START = LocalDateTime.of(2030, 5, 1, 10, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2030, 5, 4, 10, 0);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(reservationController)
+                .setControllerAdvice(new RestExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void testReserve() throws Exception {
+        // Arrange
+        Reservation reservation = new Reservation("game1", "user1", START, END, LocalDateTime.now());
+        reservation.setId("reservation1");
+        when(reservationService.reserve("user1", "game1", START, END)).thenReturn(reservation);
+
+        // Act & Assert
+        mockMvc.perform(post("/reservations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ReservationRequest("user1", "game1", START, END))))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value("reservation1"))
+                .andExpect(jsonPath("$.gameId").value("game1"));
+    }
+
+    @Test
+    void testReserve_FullyBooked() throws Exception {
+        // Arrange
+        when(reservationService.reserve(any(), any(), any(), any()))
+                .thenThrow(new IllegalStateException("No copies of this game are free for the whole period"));
+
+        // Act & Assert
+        mockMvc.perform(post("/reservations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ReservationRequest("user1", "game1", START, END))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        // Act & Assert
+        mockMvc.perform(delete("/reservations/{id}", "reservation1"))
+                .andExpect(status().isNoContent());
+
+        verify(reservationService, times(1)).cancel("reservation1");
+    }
+
+    @Test
+    void testGetAvailability() throws Exception {
+        // Arrange
+        when(reservationService.getAvailability(eq("game1"), eq(START), eq(END)))
+                .thenReturn(new GameAvailability("game1", START, END, 2));
+
+        // Act & Assert
+        mockMvc.perform(get("/reservations/availability/{gameId}", "game1")
+                        .param("start", "2030-05-01T10:00:00")
+                        .param("end", "2030-05-04T10:00:00"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.available").value(2));
+    }
+}
@@ -0,0 +1,182 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import ro.unibuc.hello.data.MongoIndexes;
+import ro.unibuc.hello.data.Rent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ActiveRentFilterTest {
+
+    private MongoTemplate mongoTemplate;
+    private SimpleMeterRegistry registry;
+    private IndexOperations indexOperations;
+    private ActiveRentFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        indexOperations = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(Rent.class)).thenReturn(indexOperations);
+        when(indexOperations.getIndexInfo()).thenReturn(List.of(
+                new IndexInfo(Collections.emptyList(), MongoIndexes.ACTIVE_PAIR_INDEX, true, false, null)));
+        registry = new SimpleMeterRegistry();
+        filter = new ActiveRentFilter(mongoTemplate, registry, true, 10_000, 0.01, 64);
+    }
+
+    @Test
+    void testEverythingMightBeActiveBeforeRebuild() {
+        assertTrue(filter.mightBeActive("user1", "game1"));
+    }
+
+    @Test
+    void testRebuildLoadsActiveRents() {
+        // Arrange
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class)))
+                .thenReturn(Stream.of(new Rent("user1", "game1", 3), new Rent("user2", "game2", 3)));
+
+        // Act
+        filter.rebuild();
+
+        // Assert
+        assertTrue(filter.mightBeActive("user1", "game1"));
+        assertTrue(filter.mightBeActive("user2", "game2"));
+        assertFalse(filter.mightBeActive("user1", "game2"));
+    }
+
+    @Test
+    void testAddAndRemove() {
+        // Arrange
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class))).thenReturn(Stream.empty());
+        filter.rebuild();
+
+        Rent rent = rent("rent1", "user1", "game1");
+
+        // Act & Assert
+        filter.add(rent);
+        assertTrue(filter.mightBeActive("user1", "game1"));
+
+        filter.remove(rent);
+        assertFalse(filter.mightBeActive("user1", "game1"));
+    }
+
+    @Test
+    void testReturnOfRentNotCountedHereKeepsOtherCounts() {
+        // Arrange
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class)))
+                .thenReturn(Stream.of(rent("loaded", "user1", "game1")));
+        filter.rebuild();
+
+        // Act
+        // Made through another instance after the rebuild, then returned here
+        filter.remove(rent("elsewhere", "user1", "game1"));
+        filter.remove(rent("elsewhere", "user1", "game1"));
+
+        // Assert
+        assertTrue(filter.mightBeActive("user1", "game1"));
+    }
+
+    @Test
+    void testRefreshDropsStaleCountsAndPicksUpOtherInstances() {
+        // Arrange
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class)))
+                .thenReturn(Stream.of(rent("returned", "user1", "game1")))
+                .thenReturn(Stream.of(rent("elsewhere", "user2", "game2")));
+        filter.rebuild();
+        // Returned through another instance, this one still counts it
+        assertTrue(filter.mightBeActive("user1", "game1"));
+
+        // Act
+        filter.refresh();
+
+        // Assert
+        assertFalse(filter.mightBeActive("user1", "game1"));
+        assertTrue(filter.mightBeActive("user2", "game2"));
+    }
+
+    @Test
+    void testFalsePositiveRateStaysNearConfigured() {
+        // Arrange
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class))).thenReturn(Stream.empty());
+        filter.rebuild();
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(rent("rent" + i, "user" + i, "game" + i));
+        }
+
+        // Act
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightBeActive("other" + i, "game" + i)) {
+                falsePositives++;
+            }
+        }
+
+        // Assert
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+        assertTrue(filter.estimatedFpp() < 0.03);
+        assertEquals(filter.estimatedFpp(), registry.get("rent_active_filter_estimated_fpp").gauge().value());
+        assertEquals(0.01, registry.get("rent_active_filter_configured_fpp").gauge().value());
+        assertTrue(registry.get("rent_active_filter_memory_bytes").gauge().value() > 0);
+    }
+
+    @Test
+    void testOccupiedCountFollowsAddsAndRemoves() {
+        // Arrange
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class))).thenReturn(Stream.empty());
+        filter.rebuild();
+        Rent rent = rent("rent1", "user1", "game1");
+
+        // Act & Assert
+        assertEquals(0, filter.estimatedFpp());
+        filter.add(rent);
+        assertTrue(filter.estimatedFpp() > 0);
+        filter.remove(rent);
+        assertEquals(0, filter.estimatedFpp());
+    }
+
+    @Test
+    void testFilterStaysOffWithoutTheUniqueIndex() {
+        // Arrange
+        // Duplicate active rents kept MongoIndexes from building it
+        when(indexOperations.getIndexInfo()).thenReturn(Collections.emptyList());
+
+        // Act
+        filter.rebuild();
+
+        // Assert
+        assertTrue(filter.mightBeActive("user1", "game1"));
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Rent.class));
+    }
+
+    @Test
+    void testDisabledFilterNeverSaysNo() {
+        // Arrange
+        filter = new ActiveRentFilter(mongoTemplate, registry, false, 10_000, 0.01, 64);
+
+        // Act
+        filter.rebuild();
+
+        // Assert
+        assertTrue(filter.mightBeActive("user1", "game1"));
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Rent.class));
+    }
+
+    private Rent rent(String id, String userId, String gameId) {
+        Rent rent = new Rent(userId, gameId, 3);
+        rent.setId(id);
+        return rent;
+    }
+}
@@ -0,0 +1,51 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameCountTableTest {
+
+    @Test
+    void testCountsPerKey() {
+        // Arrange
+        GameCountTable table = new GameCountTable();
+
+        // Act
+        table.increment("game1");
+        table.increment("game2");
+        table.increment("game1");
+
+        // Assert
+        assertEquals(2, table.get("game1"));
+        assertEquals(1, table.get("game2"));
+        assertEquals(0, table.get("game3"));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void testMatchesHashMapAcrossResizes() {
+        // Arrange
+        Random random = new Random(42);
+        GameCountTable table = new GameCountTable(4);
+        Map<String, Integer> expected = new HashMap<>();
+
+        // Act
+        for (int i = 0; i < 50_000; i++) {
+            String key = "65f0c0ffee" + random.nextInt(3_000);
+            table.increment(key);
+            expected.merge(key, 1, Integer::sum);
+        }
+
+        // Assert
+        assertEquals(expected.size(), table.size());
+        expected.forEach((key, count) -> assertEquals(count, table.get(key)));
+        Map<String, Integer> visited = new HashMap<>();
+        table.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,123 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import ro.unibuc.hello.data.GameCounterShard;
+import ro.unibuc.hello.dto.GameRentalStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Update throughput of 64 concurrent writers: $inc on a single counter document
+// against the sharded counters, which only touch Mongo on flush
+@SpringBootTest
+@Testcontainers
+@Tag("IntegrationTest")
+public class GameRentalCountersBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(GameRentalCountersBenchmarkTest.class);
+
+    private static final int WRITERS = 64;
+    private static final int UPDATES_PER_WRITER = 500;
+    private static final String GAME_ID = "blockbuster";
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017)
+            .withSharding();
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT);
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private GameRentalCounters gameRentalCounters;
+
+    @BeforeEach
+    public void cleanUp() {
+        mongoTemplate.remove(new Query(), GameCounterShard.class);
+        mongoTemplate.dropCollection("single_counter_benchmark");
+    }
+
+    @Test
+    public void compareWithSingleDocumentCounter() throws Exception {
+        Query single = new Query(Criteria.where("_id").is(GAME_ID));
+        double singleRate = run(() -> mongoTemplate.upsert(single,
+                new Update().inc("totalRentals", 1).inc("activeRentals", 1), "single_counter_benchmark"));
+
+        double shardedRate = run(() -> gameRentalCounters.recordRent(GAME_ID));
+        gameRentalCounters.flush();
+
+        logger.info("single document: {} updates/s, sharded counters: {} updates/s ({} writers)",
+                Math.round(singleRate), Math.round(shardedRate), WRITERS);
+
+        // Exact once flushed, even with the scheduled flush running alongside the writers
+        GameRentalStats stats = gameRentalCounters.getStats(GAME_ID);
+        assertEquals((long) WRITERS * UPDATES_PER_WRITER, stats.getTotalRentals());
+        assertEquals((long) WRITERS * UPDATES_PER_WRITER, stats.getActiveRentals());
+        assertTrue(shardedRate > singleRate);
+    }
+
+    private double run(Runnable update) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < UPDATES_PER_WRITER; j++) {
+                    update.run();
+                }
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(120, TimeUnit.SECONDS);
+        }
+        long duration = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        return WRITERS * UPDATES_PER_WRITER / (duration / 1_000_000_000.0);
+    }
+}
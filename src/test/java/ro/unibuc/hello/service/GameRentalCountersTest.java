@@ -0,0 +1,160 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import ro.unibuc.hello.data.GameCounterShard;
+import ro.unibuc.hello.data.Rent;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class GameRentalCountersTest {
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private GameRentalCounters counters;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        bulkOperations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GameCounterShard.class)).thenReturn(bulkOperations);
+
+        counters = new GameRentalCounters(mongoTemplate, new SimpleMeterRegistry(), 4);
+    }
+
+    @Test
+    void testFlushWritesOneIncrementPerGame() {
+        // Arrange
+        for (int i = 0; i < 1000; i++) {
+            counters.recordRent("game1");
+        }
+        counters.recordReturn("game1");
+        counters.recordRent("game2");
+
+        // Act
+        counters.flush();
+
+        // Assert
+        verify(bulkOperations, times(2)).upsert(any(Query.class), any(Update.class));
+        verify(bulkOperations, times(1)).execute();
+    }
+
+    @Test
+    void testNothingToFlush() {
+        // Act
+        counters.flush();
+
+        // Assert
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), any(Class.class));
+    }
+
+    @Test
+    void testFailedFlushIsRetried() {
+        // Arrange
+        counters.recordRent("game1");
+        BulkOperationException failure = mock(BulkOperationException.class);
+        when(failure.getErrors()).thenReturn(Collections.singletonList(
+                new BulkWriteError(91, "shutdown in progress", new BsonDocument(), 0)));
+        when(bulkOperations.execute()).thenThrow(failure).thenReturn(null);
+
+        // Act
+        counters.flush();
+        counters.flush();
+
+        // Assert
+        // The delta from the failed flush is written by the next one
+        verify(bulkOperations, times(2)).upsert(any(Query.class), any(Update.class));
+        verify(bulkOperations, times(2)).execute();
+    }
+
+    @Test
+    void testFlushWithUnknownOutcomeIsSentAgainWithTheSameId() {
+        // Arrange
+        counters.recordRent("game1");
+        when(bulkOperations.execute()).thenThrow(new DataAccessResourceFailureException("socket timeout"))
+                .thenReturn(null);
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+
+        // Act
+        counters.flush();
+        counters.recordRent("game2");
+        counters.flush();
+        counters.flush();
+
+        // Assert
+        // The retry repeats the first flush as it was, game2 waits for the flush after it
+        verify(bulkOperations, times(3)).upsert(queries.capture(), any(Update.class));
+        List<Query> sent = queries.getAllValues();
+        assertEquals(sent.get(0).getQueryObject(), sent.get(1).getQueryObject());
+        assertTrue(sent.get(2).getQueryObject().getString("_id").startsWith("game2:"));
+    }
+
+    @Test
+    void testDuplicateKeyForAnAppliedFlushIsNotCountedAgain() {
+        // Arrange
+        counters.recordRent("game1");
+        BulkOperationException failure = mock(BulkOperationException.class);
+        when(failure.getErrors()).thenReturn(Collections.singletonList(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0)));
+        when(bulkOperations.execute()).thenThrow(failure);
+        // The shard already lists this flush
+        when(mongoTemplate.exists(any(Query.class), eq(GameCounterShard.class))).thenReturn(true);
+
+        // Act
+        counters.flush();
+        counters.flush();
+
+        // Assert
+        verify(bulkOperations, times(1)).upsert(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void testSeedSetsActiveRentalsFromActiveRents() {
+        // Arrange
+        when(mongoTemplate.exists(any(Query.class), eq(GameCounterShard.class))).thenReturn(false);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Rent.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(new Document("_id", "game1").append("active", 3)),
+                        new Document()));
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+
+        // Act
+        counters.seed();
+
+        // Assert
+        verify(bulkOperations).upsert(any(Query.class), update.capture());
+        Document setOnInsert = update.getValue().getUpdateObject().get("$setOnInsert", Document.class);
+        assertEquals(3L, setOnInsert.get("activeRentals"));
+        verify(bulkOperations).execute();
+    }
+
+    @Test
+    void testNoSeedOnceCountersExist() {
+        // Arrange
+        when(mongoTemplate.exists(any(Query.class), eq(GameCounterShard.class))).thenReturn(true);
+
+        // Act
+        counters.seed();
+
+        // Assert
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), eq(Rent.class), eq(Document.class));
+    }
+}
@@ -0,0 +1,129 @@
+package ro.unibuc.hello.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.http.ResponseEntity;
+import ro.unibuc.hello.data.IdempotencyRecord;
+import ro.unibuc.hello.data.IdempotencyRecordRepository;
+import ro.unibuc.hello.exception.IdempotencyKeyInProgressException;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class IdempotencyServiceTest {
+
+    private static final String KEY = "return::key-1";
+
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+    private MongoTemplate mongoTemplate;
+    private IdempotencyService idempotencyService;
+    private String requestHash;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyRecordRepository = mock(IdempotencyRecordRepository.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        idempotencyService = new IdempotencyService(idempotencyRecordRepository, mongoTemplate, new ObjectMapper(),
+                24, 100, 300, 60000);
+        requestHash = idempotencyService.requestHash("body");
+    }
+
+    @Test
+    void testKeyIsClaimedBeforeTheRequestRuns() {
+        // Arrange
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // Act
+        ResponseEntity<String> response = idempotencyService.execute("key-1", "return", null, "body", String.class,
+                () -> {
+                    verify(idempotencyRecordRepository).insert(argThat((IdempotencyRecord r) ->
+                            r.getKey().equals(KEY) && IdempotencyRecord.PENDING.equals(r.getState())));
+                    return ResponseEntity.ok("done");
+                });
+
+        // Assert
+        assertEquals("done", response.getBody());
+        verify(mongoTemplate).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void testDuplicateOnAnotherInstanceWaitsForTheResponse() {
+        // Arrange
+        // The first attempt holds the key, and completes it while the duplicate waits
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException(KEY));
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        when(idempotencyRecordRepository.findById(KEY))
+                .thenReturn(Optional.of(new IdempotencyRecord(KEY, requestHash, "other", LocalDateTime.now())))
+                .thenReturn(Optional.of(new IdempotencyRecord(KEY, requestHash, 200, "\"done\"", LocalDateTime.now())));
+        AtomicInteger runs = new AtomicInteger();
+
+        // Act
+        ResponseEntity<String> response = idempotencyService.execute("key-1", "return", null, "body", String.class,
+                () -> {
+                    runs.incrementAndGet();
+                    return ResponseEntity.ok("again");
+                });
+
+        // Assert
+        assertEquals("done", response.getBody());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void testDuplicateGivesUpWhileTheFirstStillRuns() {
+        // Arrange
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException(KEY));
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        when(idempotencyRecordRepository.findById(KEY))
+                .thenReturn(Optional.of(new IdempotencyRecord(KEY, requestHash, "other", LocalDateTime.now())));
+
+        // Act & Assert
+        assertThrows(IdempotencyKeyInProgressException.class, () -> idempotencyService.execute("key-1", "return", null,
+                "body", String.class, () -> ResponseEntity.ok("again")));
+    }
+
+    @Test
+    void testStalePendingKeyIsTakenOver() {
+        // Arrange
+        // Left pending by an instance that died, the conditional update takes it over
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException(KEY));
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // Act
+        ResponseEntity<String> response = idempotencyService.execute("key-1", "return", null, "body", String.class,
+                () -> ResponseEntity.ok("done"));
+
+        // Assert
+        assertEquals("done", response.getBody());
+        verify(idempotencyRecordRepository, never()).findById(KEY);
+    }
+
+    @Test
+    void testFailedRequestReleasesTheKey() {
+        // Act
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("key-1", "return", null, "body",
+                String.class, () -> {
+                    throw new IllegalStateException("No copies left");
+                }));
+
+        // Assert
+        verify(mongoTemplate).remove(any(Query.class), eq(IdempotencyRecord.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+    }
+}
@@ -0,0 +1,120 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntervalTreeTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    @Test
+    void testOverlapIsHalfOpen() {
+        // Arrange
+        IntervalTree tree = new IntervalTree();
+        tree.add(interval("a", 0, 5));
+        tree.add(interval("b", 5, 10));
+
+        // Act & Assert
+        // Back-to-back ranges never need two copies
+        assertEquals(1, tree.maxOverlap(day(0), day(10)));
+        assertEquals(1, tree.overlapping(day(4), day(5)).size());
+        assertTrue(tree.overlapping(day(10), day(12)).isEmpty());
+    }
+
+    @Test
+    void testMaxOverlapCountsPeakNotTotal() {
+        // Arrange
+        IntervalTree tree = new IntervalTree();
+        tree.add(interval("a", 0, 3));
+        tree.add(interval("b", 2, 6));
+        tree.add(interval("c", 4, 8));
+        tree.add(interval("d", 5, 9));
+
+        // Act & Assert
+        assertEquals(4, tree.overlapping(day(0), day(10)).size());
+        assertEquals(3, tree.maxOverlap(day(0), day(10)));
+        assertEquals(2, tree.maxOverlap(day(0), day(4)));
+    }
+
+    @Test
+    void testAddReplacesAndRemoveDrops() {
+        // Arrange
+        IntervalTree tree = new IntervalTree();
+        tree.add(interval("a", 0, 3));
+        tree.add(interval("a", 0, 10));
+
+        // Act & Assert
+        assertEquals(1, tree.size());
+        assertEquals(1, tree.overlapping(day(8), day(9)).size());
+        assertNotNull(tree.remove("a"));
+        assertNull(tree.remove("a"));
+        assertTrue(tree.overlapping(day(0), day(10)).isEmpty());
+    }
+
+    @Test
+    void testEndedBy() {
+        // Arrange
+        IntervalTree tree = new IntervalTree();
+        tree.add(interval("old", 0, 2));
+        tree.add(interval("current", 1, 8));
+
+        // Act
+        List<IntervalTree.Interval> ended = tree.endedBy(day(2));
+
+        // Assert
+        assertEquals(1, ended.size());
+        assertEquals("old", ended.get(0).id());
+    }
+
+    @Test
+    void testMatchesBruteForce() {
+        // Arrange
+        Random random = new Random(42);
+        IntervalTree tree = new IntervalTree();
+        List<IntervalTree.Interval> all = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(365);
+            IntervalTree.Interval interval = interval("r" + i, start, start + 1 + random.nextInt(30));
+            tree.add(interval);
+            all.add(interval);
+        }
+        // Removals have to keep the subtree ends right
+        for (int i = 0; i < 500; i++) {
+            IntervalTree.Interval removed = all.remove(random.nextInt(all.size()));
+            tree.remove(removed.id());
+        }
+
+        // Act & Assert
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(400);
+            LocalDateTime from = day(start);
+            LocalDateTime to = day(start + 1 + random.nextInt(20));
+
+            List<String> expected = all.stream()
+                    .filter(interval -> interval.start().isBefore(to) && interval.end().isAfter(from))
+                    .map(IntervalTree.Interval::id)
+                    .sorted()
+                    .toList();
+            List<String> actual = tree.overlapping(from, to).stream()
+                    .map(IntervalTree.Interval::id)
+                    .sorted(Comparator.naturalOrder())
+                    .toList();
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static IntervalTree.Interval interval(String id, int startDay, int endDay) {
+        return new IntervalTree.Interval(id, day(startDay), day(endDay));
+    }
+
+    private static LocalDateTime day(int day) {
+        return BASE.plusDays(day);
+    }
+}
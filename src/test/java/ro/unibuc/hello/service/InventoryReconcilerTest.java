@@ -0,0 +1,214 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.GameCounterShard;
+import ro.unibuc.hello.data.ReconcileRun;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.CounterRepair;
+import ro.unibuc.hello.dto.ReconcileReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InventoryReconcilerTest {
+
+    private MongoTemplate mongoTemplate;
+    private GameRentalCounters gameRentalCounters;
+    private BulkOperations gameBulk;
+    private BulkOperations counterBulk;
+    private SimpleMeterRegistry registry;
+    private InventoryReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        gameRentalCounters = mock(GameRentalCounters.class);
+        gameBulk = mock(BulkOperations.class);
+        counterBulk = mock(BulkOperations.class);
+        registry = new SimpleMeterRegistry();
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Game.class)).thenReturn(gameBulk);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GameCounterShard.class)).thenReturn(counterBulk);
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getMatchedCount()).thenReturn(1);
+        when(gameBulk.execute()).thenReturn(result);
+        reconciler = new InventoryReconciler(mongoTemplate, gameRentalCounters, registry, 0, 500, 0);
+
+        // game1 has two active rents, game2 one
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class))).thenAnswer(invocation -> Stream.of(
+                new Rent("user1", "game1", 3), new Rent("user2", "game1", 3), new Rent("user1", "game2", 3)));
+        // game1 is right, game2 lost a decrement
+        when(mongoTemplate.stream(any(Query.class), eq(Game.class))).thenAnswer(invocation -> Stream.of(
+                game("game1", 3, 1), game("game2", 2, 2)));
+        // game1 is right, game3 has a return that was never counted, game2 has no shard at all
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), eq(GameCounterShard.class), eq(Document.class)))
+                .thenAnswer(invocation -> Stream.of(
+                        new Document("_id", "game1").append("activeRentals", 2L),
+                        new Document("_id", "game3").append("activeRentals", 1L)));
+
+        // The confirming reads see the same numbers unless a test says otherwise
+        when(mongoTemplate.find(any(Query.class), eq(Game.class))).thenAnswer(invocation -> List.of(
+                game("game1", 3, 1), game("game2", 2, 2)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Rent.class), eq(Document.class)))
+                .thenAnswer(invocation -> results(
+                        new Document("_id", "game1").append("active", 2),
+                        new Document("_id", "game2").append("active", 1)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(GameCounterShard.class), eq(Document.class)))
+                .thenAnswer(invocation -> results(
+                        new Document("_id", "game1").append("activeRentals", 2L),
+                        new Document("_id", "game3").append("activeRentals", 1L)));
+    }
+
+    @Test
+    void testReportsAndRepairsDrift() {
+        // Act
+        ReconcileReport report = reconciler.reconcile(false);
+
+        // Assert
+        assertEquals(3, report.getRentsScanned());
+        assertEquals(2, report.getGamesChecked());
+        assertEquals(3, report.getRepairs().size());
+        assertRepair(report, "game2", InventoryReconciler.AVAILABLE, 2, 1);
+        assertRepair(report, "game3", InventoryReconciler.ACTIVE_RENTALS, 1, 0);
+        assertRepair(report, "game2", InventoryReconciler.ACTIVE_RENTALS, 0, 1);
+        assertEquals(0, report.getSkipped());
+
+        // Once before the scan, once before the confirming reads
+        verify(gameRentalCounters, times(2)).flush();
+        verify(gameBulk, times(1)).updateOne(any(Query.class), any(Update.class));
+        verify(counterBulk, times(2)).upsert(any(Query.class), any(Update.class));
+        verify(counterBulk, times(1)).execute();
+        assertEquals(2.0, registry.get("rent_reconcile_repaired").tag("counter", "activeRentals").counter().count());
+    }
+
+    @Test
+    void testDryRunOnlyReports() {
+        // Act
+        ReconcileReport report = reconciler.reconcile(true);
+
+        // Assert
+        assertTrue(report.isDryRun());
+        assertEquals(3, report.getRepairs().size());
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Game.class));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(GameCounterShard.class));
+    }
+
+    @Test
+    void testConcurrentChangeIsSkipped() {
+        // Arrange
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getMatchedCount()).thenReturn(0);
+        when(gameBulk.execute()).thenReturn(result);
+
+        // Act
+        ReconcileReport report = reconciler.reconcile(false);
+
+        // Assert
+        assertEquals(1, report.getSkipped());
+    }
+
+    @Test
+    void testDriftThatMovesBeforeConfirmationIsSkipped() {
+        // Arrange
+        // game2 was in the middle of a rent at scan time: by the second look its rent is stored too
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Rent.class), eq(Document.class)))
+                .thenAnswer(invocation -> results(
+                        new Document("_id", "game1").append("active", 2),
+                        new Document("_id", "game2").append("active", 2)));
+
+        // Act
+        ReconcileReport report = reconciler.reconcile(false);
+
+        // Assert
+        // The available repair and the shard repair of game2 both saw different numbers the second time
+        assertEquals(2, report.getSkipped());
+        assertEquals(1, report.getRepairs().size());
+        assertRepair(report, "game3", InventoryReconciler.ACTIVE_RENTALS, 1, 0);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Game.class));
+        verify(counterBulk, times(1)).upsert(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void testStartedRunReportsWhenDone() {
+        // Arrange
+        List<Runnable> queued = new ArrayList<>();
+        reconciler = new InventoryReconciler(mongoTemplate, gameRentalCounters, registry, 0, 500, 0, queued::add);
+        when(mongoTemplate.insert(any(ReconcileRun.class))).thenAnswer(invocation -> {
+            ReconcileRun run = invocation.getArgument(0);
+            run.setId("run1");
+            return run;
+        });
+
+        // Act
+        ReconcileRun run = reconciler.start(true);
+
+        // Assert
+        // Returned before any counting, and a second run waits for the first to finish
+        assertEquals(ReconcileRun.RUNNING, run.getStatus());
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Rent.class));
+        assertThrows(IllegalStateException.class, () -> reconciler.start(false));
+
+        queued.get(0).run();
+        ArgumentCaptor<ReconcileRun> saved = ArgumentCaptor.forClass(ReconcileRun.class);
+        verify(mongoTemplate).save(saved.capture());
+        assertEquals(ReconcileRun.COMPLETED, saved.getValue().getStatus());
+        assertEquals(3, saved.getValue().getReport().getRepairs().size());
+        assertNotNull(saved.getValue().getCompletedAt());
+        assertNotNull(reconciler.reconcile(true));
+    }
+
+    @Test
+    void testFailedRunIsRecorded() {
+        // Arrange
+        reconciler = new InventoryReconciler(mongoTemplate, gameRentalCounters, registry, 0, 500, 0, Runnable::run);
+        when(mongoTemplate.insert(any(ReconcileRun.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.stream(any(Query.class), eq(Rent.class))).thenThrow(new IllegalStateException("scan failed"));
+
+        // Act
+        reconciler.start(false);
+
+        // Assert
+        ArgumentCaptor<ReconcileRun> saved = ArgumentCaptor.forClass(ReconcileRun.class);
+        verify(mongoTemplate).save(saved.capture());
+        assertEquals(ReconcileRun.FAILED, saved.getValue().getStatus());
+        assertEquals("scan failed", saved.getValue().getError());
+    }
+
+    private static AggregationResults<Document> results(Document... documents) {
+        return new AggregationResults<>(List.of(documents), new Document());
+    }
+
+    private void assertRepair(ReconcileReport report, String gameId, String counter, long stored, long expected) {
+        CounterRepair repair = report.getRepairs().stream()
+                .filter(r -> r.getGameId().equals(gameId) && r.getCounter().equals(counter))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + counter + " repair for " + gameId));
+        assertEquals(stored, repair.getStored());
+        assertEquals(expected, repair.getExpected());
+    }
+
+    private Game game(String id, int copies, int available) {
+        Game game = new Game("Name", "PC", "Action", 2020);
+        game.setId(id);
+        game.setCopies(copies);
+        game.setAvailable(available);
+        return game;
+    }
+}
@@ -0,0 +1,183 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import ro.unibuc.hello.data.BillingCheckpoint;
+import ro.unibuc.hello.data.BillingRun;
+import ro.unibuc.hello.data.Invoice;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.BillingReport;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class LateFeeBillingTest {
+
+    private static final LocalDateTime AS_OF = LocalDateTime.of(2025, 3, 10, 12, 0);
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private SimpleMeterRegistry registry;
+    private LateFeeBilling lateFeeBilling;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        bulkOperations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class)).thenReturn(bulkOperations);
+        registry = new SimpleMeterRegistry();
+        // One partition, so no _id sampling is needed
+        lateFeeBilling = new LateFeeBilling(mongoTemplate, registry, 2, 1, 10, 150);
+    }
+
+    @Test
+    void testFeeForEveryStartedDayLate() {
+        // Arrange
+        Rent rent = rent("rent1", AS_OF.minusDays(10), 3);
+        rent.setReturned(true);
+        // Due seven days before the cut-off, returned 2 days and 1 hour after that
+        rent.setReturnDate(AS_OF.minusDays(7).plusDays(2).plusHours(1));
+
+        // Act
+        Invoice invoice = lateFeeBilling.invoice(rent, billingRun());
+
+        // Assert
+        assertEquals(3, invoice.getLateDays());
+        assertEquals(450, invoice.getAmountCents());
+        assertTrue(invoice.isFinalAmount());
+        assertEquals("rent1", invoice.getId());
+    }
+
+    @Test
+    void testActiveRentBilledUpToCutOff() {
+        // Arrange
+        Rent rent = rent("rent1", AS_OF.minusDays(5), 3);
+
+        // Act
+        Invoice invoice = lateFeeBilling.invoice(rent, billingRun());
+
+        // Assert
+        assertEquals(2, invoice.getLateDays());
+        assertEquals(AS_OF, invoice.getBilledUntil());
+        assertFalse(invoice.isFinalAmount());
+    }
+
+    @Test
+    void testReturnedOnTimeIsNotBilled() {
+        // Arrange
+        Rent rent = rent("rent1", AS_OF.minusDays(10), 3);
+        rent.setReturned(true);
+        rent.setReturnDate(AS_OF.minusDays(8));
+
+        // Act & Assert
+        assertNull(lateFeeBilling.invoice(rent, billingRun()));
+    }
+
+    @Test
+    void testRunWritesInvoicesAndCheckpoints() {
+        // Arrange
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Arrays.asList(
+                rent("rent1", LocalDateTime.now().minusDays(10), 3),
+                rent("rent2", LocalDateTime.now().minusDays(6), 3)));
+
+        // Act
+        BillingReport report = lateFeeBilling.run(false);
+
+        // Assert
+        assertFalse(report.isDryRun());
+        assertEquals(1, report.getPartitions());
+        assertEquals(2, report.getRentsScanned());
+        assertEquals(2, report.getInvoices());
+        verify(mongoTemplate, times(1)).insert(any(BillingRun.class));
+        verify(bulkOperations, times(2)).upsert(any(Query.class), any(Update.class));
+        verify(bulkOperations, times(1)).execute();
+        verify(mongoTemplate, atLeastOnce()).save(argThat((BillingCheckpoint checkpoint) ->
+                checkpoint.getLastRentId().equals("rent2")));
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(Update.class), eq(BillingRun.class));
+        assertEquals(2.0, registry.get("rent_billing_invoiced").counter().count());
+    }
+
+    @Test
+    void testDryRunWritesNothing() {
+        // Arrange
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Collections.singletonList(
+                rent("rent1", LocalDateTime.now().minusDays(10), 3)));
+
+        // Act
+        BillingReport report = lateFeeBilling.run(true);
+
+        // Assert
+        assertTrue(report.isDryRun());
+        assertEquals(1, report.getInvoices());
+        assertTrue(report.getAmountCents() > 0);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Invoice.class));
+        verify(mongoTemplate, never()).insert(any(BillingRun.class));
+        verify(mongoTemplate, never()).save(any(BillingCheckpoint.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(BillingRun.class));
+    }
+
+    @Test
+    void testResumedRunSkipsFinishedPartitions() {
+        // Arrange
+        BillingRun unfinished = billingRun();
+        when(mongoTemplate.findOne(any(Query.class), eq(BillingRun.class))).thenReturn(unfinished);
+        BillingCheckpoint done = new BillingCheckpoint(unfinished.getId(), 0);
+        done.setDone(true);
+        done.setInvoiced(42);
+        when(mongoTemplate.findById(anyString(), eq(BillingCheckpoint.class))).thenReturn(done);
+
+        // Act
+        BillingReport report = lateFeeBilling.run(false);
+
+        // Assert
+        assertEquals(unfinished.getId(), report.getRunId());
+        assertEquals(42, report.getInvoices());
+        verify(mongoTemplate, never()).insert(any(BillingRun.class));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Rent.class));
+    }
+
+    @Test
+    void testRentsWithoutDueDateAreStillBilled() {
+        // Act
+        Document criteria = lateFeeBilling.overdue(billingRun(), null, null, null).getCriteriaObject();
+
+        // Assert
+        // Still out with a dueDate, still out from before dueDate existed, or returned
+        List<Document> branches = criteria.getList("$and", Document.class).get(0).getList("$or", Document.class);
+        assertEquals(3, branches.size());
+        Document legacy = branches.get(1);
+        assertEquals(false, legacy.get("isReturned"));
+        assertEquals(new Document("$exists", false), legacy.get("dueDate"));
+        assertNotNull(legacy.get("$expr"));
+    }
+
+    private BillingRun billingRun() {
+        BillingRun billingRun = new BillingRun();
+        billingRun.setId("run1");
+        billingRun.setAsOf(AS_OF);
+        billingRun.setBounds(Collections.emptyList());
+        return billingRun;
+    }
+
+    private Rent rent(String id, LocalDateTime rentDate, int rentDays) {
+        Rent rent = new Rent("user1", "game1", rentDays);
+        rent.setId(id);
+        rent.setRentDate(rentDate);
+        return rent;
+    }
+}
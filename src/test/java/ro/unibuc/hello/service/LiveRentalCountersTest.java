@@ -0,0 +1,166 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.LiveCounterCheckpoint;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.dto.LiveRentalCounts;
+
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against a single node replica set, which is what MongoDBContainer starts without sharding.
+// Every test uses its own games, platform and genre, the counters see the whole collection.
+@SpringBootTest
+@Testcontainers
+@Tag("IntegrationTest")
+public class LiveRentalCountersTest {
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017);
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT + "/?directConnection=true");
+        registry.add("rent.live-counters.enabled", () -> "true");
+        registry.add("rent.live-counters.checkpoint-interval-ms", () -> "200");
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private LiveRentalCounters liveRentalCounters;
+
+    @Autowired
+    private MeterRegistry metricsRegistry;
+
+    @Test
+    public void testRentsAndReturnsAreCounted() throws InterruptedException {
+        // Arrange
+        Game celeste = mongoTemplate.insert(new Game("Celeste", "Switch", "Platformer", 2018));
+        Game hades = mongoTemplate.insert(new Game("Hades", "Switch", "Roguelike", 2020));
+
+        // Act
+        Rent first = mongoTemplate.insert(new Rent("user1", celeste.getId(), 3));
+        mongoTemplate.insert(new Rent("user2", celeste.getId(), 3));
+        mongoTemplate.insert(new Rent("user3", hades.getId(), 3));
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(first.getId())),
+                new Update().set("isReturned", true), Rent.class);
+
+        // Assert
+        LiveRentalCounts counts = await(liveRentalCounters,
+                c -> active(c, hades.getId()) == 1 && active(c, celeste.getId()) == 1);
+        assertEquals(2, counts.getByPlatform().get("Switch"));
+        assertEquals(1, counts.getByGenre().get("Platformer"));
+        assertEquals(1, counts.getByGenre().get("Roguelike"));
+        assertNotNull(counts.getLastEventAt());
+        assertEquals(1, metricsRegistry.get("rent_live_active_by_genre").tag("genre", "Roguelike").gauge().value());
+    }
+
+    @Test
+    public void testRestartResumesFromTheCheckpoint() throws InterruptedException {
+        // Arrange
+        Game outerWilds = mongoTemplate.insert(new Game("Outer Wilds", "PS5", "Exploration", 2019));
+        mongoTemplate.insert(new Rent("user1", outerWilds.getId(), 3));
+        await(liveRentalCounters, c -> active(c, outerWilds.getId()) == 1);
+        liveRentalCounters.stop();
+        LiveCounterCheckpoint checkpoint = mongoTemplate.findById("active_rentals", LiveCounterCheckpoint.class);
+
+        // Act
+        // Changed while nothing was listening, the resumed stream still has to see it
+        mongoTemplate.insert(new Rent("user2", outerWilds.getId(), 3));
+        LiveRentalCounters restarted = new LiveRentalCounters(mongoTemplate, new SimpleMeterRegistry(), true, 200);
+        restarted.start();
+
+        // Assert
+        assertNotNull(checkpoint);
+        assertEquals(1, checkpoint.getGames().get(outerWilds.getId()));
+        try {
+            LiveRentalCounts counts = await(restarted, c -> active(c, outerWilds.getId()) == 2);
+            assertEquals(2, counts.getByGenre().get("Exploration"));
+        } finally {
+            restarted.stop();
+            liveRentalCounters.start();
+        }
+    }
+
+    @Test
+    public void testColdStartCountsRentsWrittenMeanwhileOnce() throws Exception {
+        // Arrange
+        Game tunic = mongoTemplate.insert(new Game("Tunic", "PC", "Adventure", 2022));
+        for (int i = 0; i < 50; i++) {
+            mongoTemplate.insert(new Rent("before" + i, tunic.getId(), 3));
+        }
+        liveRentalCounters.stop();
+        mongoTemplate.remove(new Query(Criteria.where("_id").is("active_rentals")), LiveCounterCheckpoint.class);
+        LiveRentalCounters restarted = new LiveRentalCounters(mongoTemplate, new SimpleMeterRegistry(), true, 200);
+
+        // Act
+        // Rents keep arriving while the counters count from scratch
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                mongoTemplate.insert(new Rent("during" + i, tunic.getId(), 3));
+            }
+        });
+        writer.start();
+        restarted.start();
+        writer.join();
+
+        // Assert
+        try {
+            LiveRentalCounts counts = await(restarted, c -> active(c, tunic.getId()) >= 250);
+            Thread.sleep(500);
+            assertEquals(250, active(restarted.getCounts(), tunic.getId()));
+            assertEquals(250, counts.getByGenre().get("Adventure"));
+        } finally {
+            restarted.stop();
+            liveRentalCounters.start();
+        }
+    }
+
+    private static long active(LiveRentalCounts counts, String gameId) {
+        return counts.getByGame().getOrDefault(gameId, 0L);
+    }
+
+    private static LiveRentalCounts await(LiveRentalCounters counters, Predicate<LiveRentalCounts> done)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        LiveRentalCounts counts = counters.getCounts();
+        while (!done.test(counts)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Counters did not catch up");
+            Thread.sleep(50);
+            counts = counters.getCounts();
+        }
+        return counts;
+    }
+}
@@ -5,56 +5,100 @@ import org.junit.jupiter.api.Test;
 import ro.unibuc.hello.data.Rent;
 import ro.unibuc.hello.data.RentRepository;
 import ro.unibuc.hello.dto.LateRent;
+import ro.unibuc.hello.dto.RentListItem;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 class ManageRentServiceTest {
 
     private RentRepository rentRepository;
+    private OverdueTracker overdueTracker;
     private ManageRentService manageRentService;
 
     @BeforeEach
     void setUp() {
         rentRepository = mock(RentRepository.class);
-        manageRentService = new ManageRentService(rentRepository);
+        overdueTracker = mock(OverdueTracker.class);
+        manageRentService = new ManageRentService(rentRepository, overdueTracker);
     }
 
     @Test
     void testGetAllActiveRents() {
         Rent rent1 = new Rent("user1", "game1", 7);
-        Rent rent2 = new Rent("user2", "game2", 5);
-        rent2.setReturned(true);
 
-        when(rentRepository.findAll()).thenReturn(Arrays.asList(rent1, rent2));
+        when(rentRepository.findActive()).thenReturn(Arrays.asList(rent1));
 
         List<Rent> result = manageRentService.getAllActiveRents();
 
         assertEquals(1, result.size());
         assertEquals("user1", result.get(0).getUserId());
+        verify(rentRepository, never()).findAll();
     }
 
     @Test
-    void testGetLateRents() {
-        Rent lateRent = new Rent("user1", "game1", 7);
-        lateRent.setRentDate(LocalDateTime.now().minusDays(10));
+    void testStreamActiveRents() {
+        Rent rent = new Rent("user1", "game1", 7);
+        when(rentRepository.streamActive("last", 100)).thenReturn(Stream.of(rent));
+
+        try (Stream<Rent> result = manageRentService.streamActiveRents("last", 100)) {
+            assertEquals(1, result.count());
+        }
+    }
 
-        Rent onTimeRent = new Rent("user2", "game2", 5);
-        onTimeRent.setRentDate(LocalDateTime.now().minusDays(2));
+    @Test
+    void testGetAllActiveRentItems() {
+        RentListItem item = new RentListItem("user1", "game1", false, LocalDateTime.now(), LocalDateTime.now().plusDays(7), null);
+        when(rentRepository.findActiveListItems()).thenReturn(Arrays.asList(item));
 
-        Rent returnedRent = new Rent("user3", "game3", 3);
-        returnedRent.setRentDate(LocalDateTime.now().minusDays(10));
-        returnedRent.setReturned(true);
+        List<RentListItem> result = manageRentService.getAllActiveRentItems();
 
-        when(rentRepository.findAll()).thenReturn(Arrays.asList(lateRent, onTimeRent, returnedRent));
+        assertEquals(1, result.size());
+        assertEquals("game1", result.get(0).getGameId());
+        verify(rentRepository, never()).findAll();
+    }
+
+    @Test
+    void testGetLateRents() {
+        LocalDateTime rentDate = LocalDateTime.now().minusDays(10);
+        RentListItem lateRent = new RentListItem("user1", "game1", false, rentDate, rentDate.plusDays(7), null);
+
+        when(rentRepository.findActiveListItemsDueBefore(any(LocalDateTime.class)))
+                .thenReturn(Arrays.asList(lateRent));
 
         List<LateRent> result = manageRentService.getLateRents();
 
         assertEquals(1, result.size());
         assertEquals("user1", result.get(0).getUserId());
+        verify(rentRepository, never()).findAll();
+    }
+
+    @Test
+    void testGetLateRentsFromTracker() {
+        when(overdueTracker.isReady()).thenReturn(true);
+        when(overdueTracker.lateRents()).thenReturn(Arrays.asList(new LateRent("user1", "game1", "2025-03-01 10:00")));
+
+        List<LateRent> result = manageRentService.getLateRents();
+
+        assertEquals(1, result.size());
+        verifyNoInteractions(rentRepository);
+    }
+
+    @Test
+    void testDueDateFollowsRentDateAndDays() {
+        Rent rent = new Rent("user1", "game1", 7);
+        LocalDateTime rentDate = LocalDateTime.now().minusDays(10);
+        rent.setRentDate(rentDate);
+
+        assertEquals(rentDate.plusDays(7), rent.getDueDate());
+
+        rent.setRentDays(3);
+        assertEquals(rentDate.plusDays(3), rent.getDueDate());
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.dto.LateRent;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class OverdueTrackerTest {
+
+    private RentRepository rentRepository;
+    private SimpleMeterRegistry registry;
+    private OverdueTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        rentRepository = mock(RentRepository.class);
+        registry = new SimpleMeterRegistry();
+        tracker = new OverdueTracker(rentRepository, registry, true, 1000);
+    }
+
+    @Test
+    void testRebuildFindsLateRents() {
+        // Arrange
+        when(rentRepository.streamActive(null, 0)).thenReturn(Stream.of(
+                rent("late", LocalDateTime.now().minusDays(5), 3),
+                rent("onTime", LocalDateTime.now().minusDays(1), 3)));
+
+        // Act
+        tracker.rebuild();
+
+        // Assert
+        assertTrue(tracker.isReady());
+        List<LateRent> late = tracker.lateRents();
+        assertEquals(1, late.size());
+        assertEquals("late-user", late.get(0).getUserId());
+        assertEquals(1.0, registry.get("rent_overdue_late").gauge().value());
+    }
+
+    @Test
+    void testRentTurnsLateWhenDue() {
+        // Arrange
+        when(rentRepository.streamActive(null, 0)).thenReturn(Stream.empty());
+        tracker.rebuild();
+        Rent rent = rent("rent1", LocalDateTime.now().minusDays(3).plusHours(1), 3);
+        tracker.track(rent);
+
+        // Act & Assert
+        tracker.advance(System.currentTimeMillis());
+        assertTrue(tracker.lateRents().isEmpty());
+        tracker.advance(millis(rent.getDueDate()) + 1000);
+        assertEquals(1, tracker.lateRents().size());
+    }
+
+    @Test
+    void testReturnAndExtendLeaveTheLateSet() {
+        // Arrange
+        Rent returned = rent("returned", LocalDateTime.now().minusDays(5), 3);
+        Rent extended = rent("extended", LocalDateTime.now().minusDays(5), 3);
+        when(rentRepository.streamActive(null, 0)).thenReturn(Stream.of(returned, extended));
+        tracker.rebuild();
+        assertEquals(2, tracker.lateRents().size());
+
+        // Act
+        tracker.untrack("returned");
+        extended.setRentDays(10);
+        tracker.track(extended);
+
+        // Assert
+        assertTrue(tracker.lateRents().isEmpty());
+        tracker.advance(millis(extended.getDueDate()) + 1000);
+        assertEquals("extended-user", tracker.lateRents().get(0).getUserId());
+    }
+
+    @Test
+    void testReturnDuringRebuildIsNotLoadedAgain() {
+        // Arrange
+        Rent rent = rent("rent1", LocalDateTime.now().minusDays(5), 3);
+        // The cursor was opened before the return and still hands the rent out
+        when(rentRepository.streamActive(null, 0)).thenAnswer(invocation -> {
+            tracker.untrack("rent1");
+            return Stream.of(rent);
+        });
+
+        // Act
+        tracker.rebuild();
+
+        // Assert
+        assertTrue(tracker.lateRents().isEmpty());
+    }
+
+    @Test
+    void testResyncCatchesUpWithOtherInstances() {
+        // Arrange
+        Rent returnedElsewhere = rent("returned", LocalDateTime.now().minusDays(5), 3);
+        Rent extendedElsewhere = rent("extended", LocalDateTime.now().minusDays(5), 3);
+        Rent rentedElsewhere = rent("rented", LocalDateTime.now().minusDays(6), 3);
+        when(rentRepository.streamActive(null, 0))
+                .thenReturn(Stream.of(returnedElsewhere, extendedElsewhere))
+                .thenAnswer(invocation -> {
+                    Rent extended = rent("extended", LocalDateTime.now().minusDays(5), 10);
+                    extended.setVersion(1);
+                    return Stream.of(extended, rentedElsewhere);
+                });
+        tracker.rebuild();
+        assertEquals(2, tracker.lateRents().size());
+
+        // Act
+        tracker.resync();
+
+        // Assert
+        List<LateRent> late = tracker.lateRents();
+        assertEquals(1, late.size());
+        assertEquals("rented-user", late.get(0).getUserId());
+    }
+
+    @Test
+    void testDisabledTrackerNeverGetsReady() {
+        // Arrange
+        OverdueTracker disabled = new OverdueTracker(rentRepository, registry, false, 1000);
+
+        // Act
+        disabled.rebuild();
+
+        // Assert
+        assertFalse(disabled.isReady());
+        verifyNoInteractions(rentRepository);
+    }
+
+    private Rent rent(String id, LocalDateTime rentDate, int rentDays) {
+        Rent rent = new Rent(id + "-user", "game1", rentDays);
+        rent.setId(id);
+        rent.setRentDate(rentDate);
+        return rent;
+    }
+
+    private long millis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
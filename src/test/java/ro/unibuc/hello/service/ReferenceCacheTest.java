@@ -0,0 +1,120 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.User;
+import ro.unibuc.hello.dto.Enriched;
+import ro.unibuc.hello.dto.LateRent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReferenceCacheTest {
+
+    private MongoTemplate mongoTemplate;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        registry = new SimpleMeterRegistry();
+
+        User user = new User();
+        user.setId("user1");
+        user.setUsername("alice");
+        Game game = new Game("Celeste", "PC", "Platformer", 2018);
+        game.setId("game1");
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(Collections.singletonList(user));
+        when(mongoTemplate.find(any(Query.class), eq(Game.class))).thenReturn(Collections.singletonList(game));
+    }
+
+    @Test
+    void testOneQueryPerCollectionPerPage() {
+        // Arrange
+        ReferenceCache cache = new ReferenceCache(mongoTemplate, registry, 60_000);
+        List<LateRent> rows = Arrays.asList(
+                new LateRent("user1", "game1", "2025-03-01 10:00"),
+                new LateRent("user1", "game1", "2025-03-02 10:00"),
+                new LateRent("user2", "game2", "2025-03-03 10:00"));
+
+        // Act
+        List<Enriched<LateRent>> enriched = cache.enrich(rows, LateRent::getUserId, LateRent::getGameId);
+
+        // Assert
+        assertEquals(3, enriched.size());
+        assertEquals("alice", enriched.get(0).getUsername());
+        assertEquals("Celeste", enriched.get(1).getGameName());
+        assertEquals("PC", enriched.get(1).getPlatform());
+        // Deleted references just come back empty
+        assertNull(enriched.get(2).getUsername());
+        assertNull(enriched.get(2).getGameName());
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(User.class));
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Game.class));
+    }
+
+    @Test
+    void testLargeReportsAreLookedUpInBatches() {
+        // Arrange
+        ReferenceCache cache = new ReferenceCache(mongoTemplate, registry, 60_000);
+        List<LateRent> rows = new ArrayList<>();
+        for (int i = 0; i < ReferenceCache.LOOKUP_BATCH * 2 + 1; i++) {
+            rows.add(new LateRent("user" + i, "game1", "2025-03-01 10:00"));
+        }
+
+        // Act
+        cache.enrich(rows, LateRent::getUserId, LateRent::getGameId);
+
+        // Assert
+        // Three $in queries for the users, the single game needs one
+        verify(mongoTemplate, times(3)).find(any(Query.class), eq(User.class));
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Game.class));
+    }
+
+    @Test
+    void testCachedAcrossRequests() {
+        // Arrange
+        ReferenceCache cache = new ReferenceCache(mongoTemplate, registry, 60_000);
+        List<LateRent> rows = Arrays.asList(
+                new LateRent("user1", "game1", "2025-03-01 10:00"),
+                new LateRent("user2", "game2", "2025-03-03 10:00"));
+        cache.enrich(rows, LateRent::getUserId, LateRent::getGameId);
+
+        // Act
+        List<Enriched<LateRent>> enriched = cache.enrich(rows, LateRent::getUserId, LateRent::getGameId);
+
+        // Assert
+        assertEquals("alice", enriched.get(0).getUsername());
+        // Misses are cached too
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(User.class));
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Game.class));
+        assertEquals(4.0, registry.get("reference_cache_lookups").tag("result", "hit").counters().stream()
+                .mapToDouble(counter -> counter.count()).sum());
+    }
+
+    @Test
+    void testExpiredEntriesAreLoadedAgain() {
+        // Arrange
+        ReferenceCache cache = new ReferenceCache(mongoTemplate, registry, 0);
+        List<LateRent> rows = Collections.singletonList(new LateRent("user1", "game1", "2025-03-01 10:00"));
+        cache.enrich(rows, LateRent::getUserId, LateRent::getGameId);
+
+        // Act
+        cache.enrich(rows, LateRent::getUserId, LateRent::getGameId);
+        cache.evictExpired();
+
+        // Assert
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(User.class));
+        assertEquals(0.0, registry.get("reference_cache_size").gauge().value());
+    }
+}
@@ -0,0 +1,98 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import ro.unibuc.hello.data.BillingRun;
+import ro.unibuc.hello.data.RentArchiveRepository;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RentArchiverTest {
+
+    private MongoTemplate mongoTemplate;
+    private MongoCollection<Document> archiveCollection;
+    private RentArchiver rentArchiver;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        archiveCollection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection(RentArchiveRepository.COLLECTION)).thenReturn(archiveCollection);
+
+        rentArchiver = new RentArchiver(mongoTemplate, new SimpleMeterRegistry(), 30, 2, 10, false);
+    }
+
+    @Test
+    void testArchiveCopiesThenDeletesInBatches() {
+        Document rent1 = new Document("_id", new ObjectId()).append("isReturned", true);
+        Document rent2 = new Document("_id", new ObjectId()).append("isReturned", true);
+        Document rent3 = new Document("_id", new ObjectId()).append("isReturned", true);
+
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("rents")))
+                .thenReturn(Arrays.asList(rent1, rent2))
+                .thenReturn(Collections.singletonList(rent3));
+
+        long moved = rentArchiver.archiveReturnedBefore(LocalDateTime.now().minusDays(30));
+
+        assertEquals(3, moved);
+        // The last batch was smaller than the batch size, so there is no extra empty query
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Document.class), eq("rents"));
+        verify(archiveCollection, times(2)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+        verify(mongoTemplate, times(2)).remove(any(Query.class), eq("rents"));
+    }
+
+    @Test
+    void testNothingToArchive() {
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("rents")))
+                .thenReturn(Collections.emptyList());
+
+        long moved = rentArchiver.archiveReturnedBefore(LocalDateTime.now().minusDays(30));
+
+        assertEquals(0, moved);
+        verifyNoInteractions(archiveCollection);
+        verify(mongoTemplate, never()).remove(any(Query.class), anyString());
+    }
+
+    @Test
+    void testRentsReturnedAfterTheLastBillingRunStay() {
+        LocalDateTime billedThrough = LocalDateTime.now().minusDays(40);
+        BillingRun lastRun = new BillingRun();
+        lastRun.setAsOf(billedThrough);
+        when(mongoTemplate.findOne(any(Query.class), eq(BillingRun.class))).thenReturn(lastRun);
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("rents")))
+                .thenReturn(Collections.emptyList());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+
+        rentArchiver.archive();
+
+        verify(mongoTemplate).find(query.capture(), eq(Document.class), eq("rents"));
+        assertEquals(billedThrough, query.getValue().getQueryObject().get("returnDate", Document.class).get("$lt"));
+    }
+
+    @Test
+    void testBucketsOwnReturnedRentsWhenEnabled() {
+        RentArchiver withBuckets = new RentArchiver(mongoTemplate, new SimpleMeterRegistry(), 30, 2, 10, true);
+
+        withBuckets.archive();
+
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), anyString());
+        verifyNoInteractions(archiveCollection);
+    }
+}
@@ -0,0 +1,160 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import ro.unibuc.hello.data.Rent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RentBatchWriterTest {
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private SimpleMeterRegistry registry;
+    private RentBatchWriter rentBatchWriter;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        bulkOperations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Rent.class)).thenReturn(bulkOperations);
+        when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (rentBatchWriter != null) {
+            rentBatchWriter.stop();
+        }
+    }
+
+    @Test
+    void testConcurrentInsertsShareOneBulkWrite() throws Exception {
+        // A long window and a batch size matching the number of requests gives one deterministic batch
+        rentBatchWriter = new RentBatchWriter(mongoTemplate, registry, true, 5_000_000, 8);
+        rentBatchWriter.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Rent>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Rent rent = new Rent("user" + i, "game1", 3);
+            futures.add(executor.submit(() -> rentBatchWriter.insert(rent)));
+        }
+        for (Future<Rent> future : futures) {
+            Rent saved = future.get(5, TimeUnit.SECONDS);
+            assertNotNull(saved.getId());
+        }
+        executor.shutdown();
+
+        verify(bulkOperations, times(1)).execute();
+        assertEquals(1, registry.get("rent_group_commit_batch_size").summary().count());
+        assertEquals(8.0, registry.get("rent_group_commit_batch_size").summary().totalAmount());
+        assertEquals(8, registry.get("rent_group_commit_queue_delay").timer().count());
+    }
+
+    @Test
+    void testFailedDocumentOnlyFailsItsOwnRequest() {
+        rentBatchWriter = new RentBatchWriter(mongoTemplate, registry, true, 300, 8);
+
+        BulkOperationException failure = mock(BulkOperationException.class);
+        when(failure.getErrors()).thenReturn(Collections.singletonList(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)));
+        when(bulkOperations.execute()).thenThrow(failure);
+
+        RentBatchWriter.PendingInsert first = pending(new Rent("user1", "game1", 3));
+        RentBatchWriter.PendingInsert second = pending(new Rent("user2", "game1", 3));
+        RentBatchWriter.PendingInsert third = pending(new Rent("user3", "game1", 3));
+
+        rentBatchWriter.flush(Arrays.asList(first, second, third));
+
+        assertEquals("user1", first.result().join().getUserId());
+        assertEquals("user3", third.result().join().getUserId());
+        assertTrue(second.result().isCompletedExceptionally());
+        Exception exception = assertThrows(Exception.class, () -> second.result().join());
+        assertInstanceOf(DuplicateKeyException.class, exception.getCause());
+    }
+
+    @Test
+    void testWholeBatchFailsOnConnectionError() {
+        rentBatchWriter = new RentBatchWriter(mongoTemplate, registry, true, 300, 8);
+        when(bulkOperations.execute()).thenThrow(new DataAccessResourceFailureException("connection lost"));
+
+        RentBatchWriter.PendingInsert first = pending(new Rent("user1", "game1", 3));
+        RentBatchWriter.PendingInsert second = pending(new Rent("user2", "game1", 3));
+
+        rentBatchWriter.flush(Arrays.asList(first, second));
+
+        assertTrue(first.result().isCompletedExceptionally());
+        assertTrue(second.result().isCompletedExceptionally());
+    }
+
+    @Test
+    void testInsertRejectedWhenDisabled() {
+        rentBatchWriter = new RentBatchWriter(mongoTemplate, registry, false, 300, 8);
+        rentBatchWriter.start();
+
+        assertFalse(rentBatchWriter.isEnabled());
+        assertThrows(IllegalStateException.class, () -> rentBatchWriter.insert(new Rent("user1", "game1", 3)));
+        verify(mongoTemplate, never()).bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Rent.class));
+    }
+
+    @Test
+    void testInsertAfterStopFailsInsteadOfWaiting() throws InterruptedException {
+        rentBatchWriter = new RentBatchWriter(mongoTemplate, registry, true, 300, 8);
+        rentBatchWriter.start();
+        rentBatchWriter.stop();
+
+        assertThrows(IllegalStateException.class, () -> rentBatchWriter.insert(new Rent("user1", "game1", 3)));
+        verify(mongoTemplate, never()).bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Rent.class));
+    }
+
+    @Test
+    void testStopLetsTheBatchBeingWrittenFinish() throws Exception {
+        rentBatchWriter = new RentBatchWriter(mongoTemplate, registry, true, 300, 8);
+        rentBatchWriter.start();
+        CountDownLatch writing = new CountDownLatch(1);
+        // An interrupt would end the sleep early with an exception, like the driver closing its connection
+        when(bulkOperations.execute()).thenAnswer(invocation -> {
+            writing.countDown();
+            Thread.sleep(300);
+            return null;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Rent> inserted = executor.submit(() -> rentBatchWriter.insert(new Rent("user1", "game1", 3)));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        rentBatchWriter.stop();
+
+        assertEquals("user1", inserted.get(5, TimeUnit.SECONDS).getUserId());
+        executor.shutdown();
+    }
+
+    private RentBatchWriter.PendingInsert pending(Rent rent) {
+        return new RentBatchWriter.PendingInsert(rent, new CompletableFuture<>(), System.nanoTime());
+    }
+}
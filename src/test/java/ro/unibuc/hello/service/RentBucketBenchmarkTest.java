@@ -0,0 +1,146 @@
+package ro.unibuc.hello.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentBucket;
+import ro.unibuc.hello.data.RentRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Compares the one-document-per-rent layout with rent_buckets: storage size, index size
+// and history query latency for the same data set, before and after compaction
+@SpringBootTest(properties = {"rent.buckets.enabled=true", "rent.archive.enabled=false"})
+@Testcontainers
+@Tag("IntegrationTest")
+public class RentBucketBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentBucketBenchmarkTest.class);
+
+    private static final int USERS = 50;
+    private static final int RENTS_PER_USER = 400;
+    private static final int QUERIES = 200;
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017)
+            .withSharding();
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT);
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private RentRepository rentRepository;
+
+    @Autowired
+    private RentBucketCompactor rentBucketCompactor;
+
+    @BeforeEach
+    public void cleanUpAndAddTestData() {
+        rentRepository.deleteAll();
+        mongoTemplate.remove(new Query(), RentBucket.class);
+
+        LocalDateTime start = LocalDateTime.now().minusYears(1);
+        for (int u = 0; u < USERS; u++) {
+            List<Rent> rents = new ArrayList<>(RENTS_PER_USER);
+            for (int i = 0; i < RENTS_PER_USER; i++) {
+                Rent rent = new Rent("user" + u, "game" + (i % 40), 3);
+                rent.setRentDate(start.plusHours(i * 20L));
+                rent.setReturned(true);
+                rent.setReturnDate(rent.getRentDate().plusDays(2));
+                rents.add(rent);
+            }
+            mongoTemplate.insert(rents, Rent.class);
+        }
+    }
+
+    @Test
+    public void compareLayouts() {
+        Document rentsBefore = collStats("rents");
+        long documentsBefore = rentsBefore.get("count", Number.class).longValue();
+        double latencyBefore = historyLatencyMicros();
+
+        long compacted = rentBucketCompactor.compactReturnedBefore(LocalDateTime.now());
+
+        Document rentsAfter = collStats("rents");
+        Document buckets = collStats("rent_buckets");
+        long documentsAfter = rentsAfter.get("count", Number.class).longValue()
+                + buckets.get("count", Number.class).longValue();
+        double latencyAfter = historyLatencyMicros();
+
+        logger.info("documents: {} -> {}", documentsBefore, documentsAfter);
+        logger.info("data size: {} -> {} bytes", size(rentsBefore, "size"),
+                size(rentsAfter, "size") + size(buckets, "size"));
+        logger.info("storage: {} -> {} bytes", size(rentsBefore, "storageSize"),
+                size(rentsAfter, "storageSize") + size(buckets, "storageSize"));
+        logger.info("index size: {} -> {} bytes", size(rentsBefore, "totalIndexSize"),
+                size(rentsAfter, "totalIndexSize") + size(buckets, "totalIndexSize"));
+        logger.info("history p50: {} -> {} us per page", latencyBefore, latencyAfter);
+
+        assertEquals((long) USERS * RENTS_PER_USER, compacted);
+        assertTrue(documentsAfter < documentsBefore / 10);
+
+        // The repository still sees every rent, in the same order
+        assertEquals(RENTS_PER_USER, rentRepository.countByUserId("user0"));
+        assertEquals(RENTS_PER_USER, rentRepository.findByUserId("user0").size());
+        List<Rent> firstPage = rentRepository.findByUserIdOrderByRentDateDesc("user0", PageRequest.of(0, 20));
+        assertEquals(20, firstPage.size());
+        assertTrue(firstPage.get(0).getRentDate().isAfter(firstPage.get(19).getRentDate()));
+    }
+
+    private double historyLatencyMicros() {
+        long[] samples = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            long startTime = System.nanoTime();
+            rentRepository.findByUserIdOrderByRentDateDesc("user" + (i % USERS), PageRequest.of(i % 5, 20));
+            samples[i] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(samples);
+        return TimeUnit.NANOSECONDS.toMicros(samples[QUERIES / 2]);
+    }
+
+    private Document collStats(String collection) {
+        return mongoTemplate.executeCommand(new Document("collStats", collection));
+    }
+
+    private long size(Document stats, String field) {
+        return stats.get(field, Number.class).longValue();
+    }
+}
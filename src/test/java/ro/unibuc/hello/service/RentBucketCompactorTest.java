@@ -0,0 +1,168 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentBucket;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RentBucketCompactorTest {
+
+    private static final LocalDateTime CUTOFF = LocalDateTime.of(2025, 6, 1, 0, 0);
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private Leases leases;
+    private RentBucketCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        bulkOperations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, RentBucket.class)).thenReturn(bulkOperations);
+        when(mongoTemplate.find(any(Query.class), eq(RentBucket.class))).thenReturn(Collections.emptyList());
+
+        leases = mock(Leases.class);
+        when(leases.tryAcquire(RentBucketCompactor.LEASE, Duration.ofMinutes(1))).thenReturn(true);
+
+        compactor = new RentBucketCompactor(mongoTemplate, new SimpleMeterRegistry(), leases, 30, 100, 10, 5, 60_000);
+    }
+
+    @Test
+    void testReturnedRentsArePushedThenDeleted() {
+        // Arrange
+        Rent march1 = returnedRent("rent1", "user1", LocalDateTime.of(2025, 3, 2, 10, 0));
+        Rent march2 = returnedRent("rent2", "user1", LocalDateTime.of(2025, 3, 20, 10, 0));
+        Rent april = returnedRent("rent3", "user1", LocalDateTime.of(2025, 4, 1, 10, 0));
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Arrays.asList(march1, march2, april));
+
+        // Act
+        long compacted = compactor.compactReturnedBefore(CUTOFF);
+
+        // Assert
+        assertEquals(3, compacted);
+        // One lookup of existing bucket entries per user and month
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(RentBucket.class));
+        verify(bulkOperations, times(3)).upsert(any(Query.class), any(Update.class));
+        verify(bulkOperations).execute();
+        verify(mongoTemplate).remove(any(Query.class), eq(Rent.class));
+    }
+
+    @Test
+    void testRentAlreadyInBucketIsOnlyDeleted() {
+        // Arrange
+        Rent rent = returnedRent("rent1", "user1", LocalDateTime.of(2025, 3, 2, 10, 0));
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Collections.singletonList(rent));
+
+        // A previous run pushed the rent but stopped before deleting it
+        RentBucket bucket = new RentBucket();
+        bucket.setRents(Collections.singletonList(rent));
+        when(mongoTemplate.find(any(Query.class), eq(RentBucket.class))).thenReturn(Collections.singletonList(bucket));
+
+        // Act
+        long compacted = compactor.compactReturnedBefore(CUTOFF);
+
+        // Assert
+        assertEquals(1, compacted);
+        verify(bulkOperations, never()).upsert(any(Query.class), any(Update.class));
+        verify(bulkOperations, never()).execute();
+        verify(mongoTemplate).remove(any(Query.class), eq(Rent.class));
+    }
+
+    @Test
+    void testOnlyRentsReturnedBeforeTheCutoffAreCompacted() {
+        // Arrange
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Collections.emptyList());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+
+        // Act
+        compactor.compactReturnedBefore(CUTOFF);
+
+        // Assert
+        verify(mongoTemplate).find(query.capture(), eq(Rent.class));
+        Document returnDate = query.getValue().getQueryObject().get("returnDate", Document.class);
+        assertEquals(CUTOFF, returnDate.get("$lt"));
+    }
+
+    @Test
+    void testNothingToCompact() {
+        // Arrange
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Collections.emptyList());
+
+        // Act
+        long compacted = compactor.compactReturnedBefore(CUTOFF);
+
+        // Assert
+        assertEquals(0, compacted);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(RentBucket.class));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(Rent.class));
+    }
+
+    @Test
+    void testOnlyTheLeaseHolderCompacts() {
+        // Arrange
+        // Another instance is compacting, the same batch would end up in two buckets
+        when(leases.tryAcquire(RentBucketCompactor.LEASE, Duration.ofMinutes(1))).thenReturn(false);
+
+        // Act
+        long compacted = compactor.compactReturnedBefore(CUTOFF);
+
+        // Assert
+        assertEquals(0, compacted);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Rent.class));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(RentBucket.class));
+    }
+
+    @Test
+    void testLeaseIsRenewedPerBatchAndReleasedAfterTheRun() {
+        // Arrange
+        // Two full batches, then nothing left
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class)))
+                .thenReturn(fullBatch("a"))
+                .thenReturn(fullBatch("b"))
+                .thenReturn(Collections.emptyList());
+
+        // Act
+        long compacted = compactor.compactReturnedBefore(CUTOFF);
+
+        // Assert
+        assertEquals(20, compacted);
+        verify(leases, times(3)).tryAcquire(RentBucketCompactor.LEASE, Duration.ofMinutes(1));
+        verify(leases).release(RentBucketCompactor.LEASE);
+    }
+
+    private List<Rent> fullBatch(String prefix) {
+        List<Rent> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(returnedRent(prefix + i, "user1", LocalDateTime.of(2025, 3, 2, 10, 0)));
+        }
+        return batch;
+    }
+
+    private Rent returnedRent(String id, String userId, LocalDateTime rentDate) {
+        Rent rent = new Rent(userId, "game1", 3);
+        rent.setId(id);
+        rent.setRentDate(rentDate);
+        rent.setReturned(true);
+        rent.setReturnDate(rentDate.plusDays(2));
+        return rent;
+    }
+}
@@ -0,0 +1,167 @@
+package ro.unibuc.hello.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.data.RentRepositoryCustomImpl;
+import ro.unibuc.hello.dto.RentListItem;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The list projections must be answered from an index alone: explain should show keys examined
+// but not a single document fetched
+@SpringBootTest
+@Testcontainers
+@Tag("IntegrationTest")
+public class RentCoveredQueryTest {
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017)
+            .withSharding();
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT);
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private RentRepository rentRepository;
+
+    @BeforeEach
+    public void cleanUpAndAddTestData() {
+        rentRepository.deleteAll();
+
+        List<Rent> rents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Rent rent = new Rent("user1", "game" + (i % 5), 3);
+            rent.setRentDate(LocalDateTime.now().minusDays(i));
+            boolean returned = i % 5 != 0;
+            rent.setReturned(returned);
+            if (returned) {
+                rent.setReturnDate(rent.getRentDate().plusDays(1));
+            }
+            rents.add(rent);
+        }
+        rentRepository.saveAll(rents);
+    }
+
+    @Test
+    public void testUserListIsCovered() {
+        assertCovered(RentRepositoryCustomImpl.userListQuery("user1"));
+
+        List<RentListItem> items = rentRepository.findListItemsByUserId("user1");
+        assertEquals(50, items.size());
+        assertNotNull(items.get(0).getRentDate());
+    }
+
+    @Test
+    public void testGameListIsCovered() {
+        assertCovered(RentRepositoryCustomImpl.gameListQuery("game1"));
+        assertEquals(10, rentRepository.findListItemsByGameId("game1").size());
+    }
+
+    @Test
+    public void testActiveListsAreCovered() {
+        assertCovered(RentRepositoryCustomImpl.activeListQuery(null));
+        assertCovered(RentRepositoryCustomImpl.activeListQuery(LocalDateTime.now()));
+
+        assertEquals(10, rentRepository.findActiveListItems().size());
+        // Rented 0, 5, ... 45 days ago for 3 days: all but today's rent are late
+        assertEquals(9, rentRepository.findActiveListItemsDueBefore(LocalDateTime.now()).size());
+    }
+
+    @Test
+    public void testActiveRentsSkipTheHistory() {
+        // Only the 10 active rents are fetched, none of the 40 returned ones
+        Document executionStats = explain(RentRepositoryCustomImpl.activeQuery(null, 0));
+        assertEquals(10, executionStats.get("totalDocsExamined", Number.class).longValue());
+        assertEquals(10, rentRepository.findActive().size());
+
+        List<Rent> firstPage;
+        try (Stream<Rent> page = rentRepository.streamActive(null, 4)) {
+            firstPage = page.toList();
+        }
+        List<Rent> rest;
+        try (Stream<Rent> page = rentRepository.streamActive(firstPage.get(3).getId(), 0)) {
+            rest = page.toList();
+        }
+        assertEquals(4, firstPage.size());
+        assertEquals(6, rest.size());
+        assertTrue(rest.stream().noneMatch(rent -> firstPage.stream().anyMatch(r -> r.getId().equals(rent.getId()))));
+    }
+
+    @Test
+    public void testLateRentsWithoutDueDateAreFound() {
+        // Arrange
+        Rent legacyLate = new Rent("user2", "game9", 3);
+        legacyLate.setRentDate(LocalDateTime.now().minusDays(4));
+        Rent legacyOnTime = new Rent("user3", "game9", 3);
+        legacyOnTime.setRentDate(LocalDateTime.now().minusDays(1));
+        rentRepository.saveAll(List.of(legacyLate, legacyOnTime));
+        mongoTemplate.updateMulti(new Query(Criteria.where("gameId").is("game9")),
+                new Update().unset("dueDate"), Rent.class);
+
+        // Act
+        List<RentListItem> late = rentRepository.findActiveListItemsDueBefore(LocalDateTime.now());
+
+        // Assert
+        assertEquals(10, late.size());
+        assertTrue(late.stream().anyMatch(item -> item.getUserId().equals("user2")));
+        assertFalse(late.stream().anyMatch(item -> item.getUserId().equals("user3")));
+    }
+
+    private void assertCovered(Query query) {
+        Document executionStats = explain(query);
+        assertTrue(executionStats.get("nReturned", Number.class).longValue() > 0);
+        assertTrue(executionStats.get("totalKeysExamined", Number.class).longValue() > 0);
+        assertEquals(0, executionStats.get("totalDocsExamined", Number.class).longValue());
+    }
+
+    private Document explain(Query query) {
+        QueryMapper queryMapper = new QueryMapper(mongoTemplate.getConverter());
+        Document find = new Document("find", "rents")
+                .append("filter", queryMapper.getMappedObject(query.getQueryObject(), null))
+                .append("projection", query.getFieldsObject())
+                .append("sort", query.getSortObject())
+                .append("hint", query.getHint());
+        Document explain = mongoTemplate.executeCommand(
+                new Document("explain", find).append("verbosity", "executionStats"));
+        return explain.get("executionStats", Document.class);
+    }
+}
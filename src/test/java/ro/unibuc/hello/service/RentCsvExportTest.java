@@ -0,0 +1,128 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import ro.unibuc.hello.data.Rent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class RentCsvExportTest {
+
+    private static final LocalDateTime RENT_DATE = LocalDateTime.of(2025, 3, 10, 12, 0);
+
+    private MongoTemplate mongoTemplate;
+    private AggregateIterable<Document> aggregate;
+    private RentCsvExport export;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        aggregate = mock(AggregateIterable.class);
+        when(mongoTemplate.getCollectionName(Rent.class)).thenReturn("rents");
+        when(mongoTemplate.getCollection("rents")).thenReturn(collection);
+        when(collection.aggregate(anyList())).thenReturn(aggregate);
+        when(aggregate.batchSize(anyInt())).thenReturn(aggregate);
+        export = new RentCsvExport(mongoTemplate, new SimpleMeterRegistry(), 2);
+    }
+
+    @Test
+    void testWritesOneRowPerDocument() throws IOException {
+        // Arrange
+        Date rentDate = Date.from(RENT_DATE.atZone(ZoneId.systemDefault()).toInstant());
+        MongoCursor<Document> cursor = cursor(List.of(
+                new Document("_id", "rent1").append("userId", "user1").append("gameId", "game1")
+                        .append("rentDate", rentDate).append("rentDays", 3).append("isReturned", false),
+                new Document("_id", "rent2").append("userId", "user2").append("gameId", "game2")
+                        .append("rentDate", rentDate).append("rentDays", 7).append("isReturned", true),
+                new Document("_id", "rent3").append("userId", "user3").append("gameId", "game3")
+                        .append("rentDays", 1).append("isReturned", true)));
+        when(aggregate.cursor()).thenReturn(cursor);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        long rows = export.write(null, null, RentCsvExport.Status.ALL, out);
+
+        // Assert
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, rows);
+        assertEquals(4, lines.length);
+        assertEquals(RentCsvExport.HEADER, lines[0]);
+        assertEquals("rent1,user1,game1,2025-03-10T12:00,3,,,false", lines[1]);
+        assertEquals("rent3,user3,game3,,1,,,true", lines[3]);
+        verify(cursor).close();
+    }
+
+    @Test
+    void testFieldsAreQuotedWhenNeeded() {
+        // Act & Assert
+        assertEquals("plain", RentCsvExport.field("plain"));
+        assertEquals("\"a,b\"", RentCsvExport.field("a,b"));
+        assertEquals("\"say \"\"hi\"\"\"", RentCsvExport.field("say \"hi\""));
+        assertEquals("\"two\nlines\"", RentCsvExport.field("two\nlines"));
+        assertEquals("", RentCsvExport.field(null));
+    }
+
+    @Test
+    void testActiveExportReadsOnlyRents() {
+        // Act
+        List<Document> stages = export.pipeline(RENT_DATE, RENT_DATE.plusMonths(1), RentCsvExport.Status.ACTIVE);
+
+        // Assert
+        assertEquals(2, stages.size());
+        Document match = stages.get(0).get("$match", Document.class);
+        assertEquals(false, match.get("isReturned"));
+        assertNotNull(match.get("rentDate", Document.class).get("$gte"));
+        assertNotNull(match.get("rentDate", Document.class).get("$lt"));
+        assertTrue(stages.stream().noneMatch(stage -> stage.containsKey("$unionWith")));
+    }
+
+    @Test
+    void testReturnedExportAlsoReadsArchiveAndBuckets() {
+        // Act
+        List<Document> stages = export.pipeline(RENT_DATE, null, RentCsvExport.Status.RETURNED);
+
+        // Assert
+        assertEquals(true, stages.get(0).get("$match", Document.class).get("isReturned"));
+        assertEquals(2, stages.stream().filter(stage -> stage.containsKey("$unionWith")).count());
+        Document buckets = stages.get(2).get("$unionWith", Document.class);
+        assertEquals("rent_buckets", buckets.getString("coll"));
+        Document months = buckets.getList("pipeline", Document.class).get(0).get("$match", Document.class);
+        assertEquals("2025-03", months.get("month", Document.class).get("$gte"));
+    }
+
+    @Test
+    void testUnknownStatusIsRejected() {
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> RentCsvExport.Status.parse("late"));
+        assertEquals(RentCsvExport.Status.ACTIVE, RentCsvExport.Status.parse("active"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<Document> cursor(List<Document> documents) {
+        Iterator<Document> iterator = documents.iterator();
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        return cursor;
+    }
+}
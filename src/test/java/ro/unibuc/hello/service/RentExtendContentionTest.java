@@ -0,0 +1,162 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.GameRepository;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.exception.RentConflictException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Races extensions against the return of the same rent and checks that every rent ends up
+// returned with exactly the days of the extensions that won, and nothing else
+@SpringBootTest
+@Testcontainers
+@Tag("IntegrationTest")
+public class RentExtendContentionTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentExtendContentionTest.class);
+
+    private static final int RENTS = 200;
+    private static final int EXTENDERS_PER_RENT = 8;
+    private static final int THREADS = 32;
+    private static final int RENT_DAYS = 3;
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017)
+            .withSharding();
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT);
+    }
+
+    @Autowired
+    private RentService rentService;
+
+    @Autowired
+    private GameService gameService;
+
+    @Autowired
+    private GameRepository gameRepository;
+
+    @Autowired
+    private RentRepository rentRepository;
+
+    private Game game;
+
+    @BeforeEach
+    public void cleanUpAndAddTestData() {
+        rentRepository.deleteAll();
+        gameService.deleteAllGames();
+
+        Game created = new Game("Long Campaign", "PC", "RPG", 2025);
+        created.setCopies(RENTS);
+        game = gameService.createGame(created);
+    }
+
+    @Test
+    public void testExtensionsRacingReturnsStayConsistent() throws Exception {
+        List<Rent> rents = new ArrayList<>();
+        for (int i = 0; i < RENTS; i++) {
+            rents.add(rentService.rentGame("renter" + i, game.getId(), RENT_DAYS));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        Map<String, AtomicInteger> extended = new ConcurrentHashMap<>();
+        AtomicInteger afterReturn = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (Rent rent : rents) {
+            extended.put(rent.getId(), new AtomicInteger());
+            for (int j = 0; j < EXTENDERS_PER_RENT; j++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        rentService.extendRent(rent.getId(), 1);
+                        extended.get(rent.getId()).incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        afterReturn.incrementAndGet();
+                    } catch (RentConflictException e) {
+                        conflicts.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                start.await();
+                rentService.returnGame(rent.getUserId(), rent.getGameId());
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        long duration = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        int operations = RENTS * (EXTENDERS_PER_RENT + 1);
+        int won = extended.values().stream().mapToInt(AtomicInteger::get).sum();
+        logger.info("extend vs return: {} operations on {} rents in {} ms ({} ops/s), "
+                        + "{} extended, {} rejected after return, {} gave up on conflicts",
+                operations, RENTS, TimeUnit.NANOSECONDS.toMillis(duration),
+                Math.round(operations / (duration / 1_000_000_000.0)), won, afterReturn.get(), conflicts.get());
+
+        // Every extension either won, came after the return or gave up, none disappeared
+        assertEquals(RENTS * EXTENDERS_PER_RENT, won + afterReturn.get() + conflicts.get());
+
+        for (Rent rent : rents) {
+            Rent stored = rentRepository.findById(rent.getId()).orElseThrow();
+            int wins = extended.get(rent.getId()).get();
+
+            // No extension got lost or applied twice, and none slipped in after the return
+            assertTrue(stored.isReturned());
+            assertEquals(RENT_DAYS + wins, stored.getRentDays());
+            assertEquals(stored.getRentDate().plusDays(stored.getRentDays()), stored.getDueDate());
+            assertEquals(wins + 1, stored.getVersion());
+        }
+        assertEquals(RENTS * EXTENDERS_PER_RENT, won + afterReturn.get() + conflicts.get());
+        assertEquals(RENTS, gameRepository.findById(game.getId()).orElseThrow().getAvailable());
+    }
+}
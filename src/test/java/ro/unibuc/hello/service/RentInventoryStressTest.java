@@ -0,0 +1,186 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.GameRepository;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.exception.WaitlistedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Hammers a single hot title from many threads and checks that inventory never goes below zero
+@SpringBootTest
+@Testcontainers
+@Tag("IntegrationTest")
+public class RentInventoryStressTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RentInventoryStressTest.class);
+
+    private static final int COPIES = 50;
+    private static final int THREADS = 64;
+    private static final int CUSTOMERS = 2000;
+
+    @Container
+    public static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:6.0.20")
+            .withExposedPorts(27017)
+            .withSharding();
+
+    @BeforeAll
+    public static void setUp() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        mongoDBContainer.stop();
+    }
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        final String MONGO_URL = "mongodb://host.docker.internal:";
+        final String PORT = String.valueOf(mongoDBContainer.getMappedPort(27017));
+
+        registry.add("mongodb.connection.url", () -> MONGO_URL + PORT);
+    }
+
+    @Autowired
+    private RentService rentService;
+
+    @Autowired
+    private GameService gameService;
+
+    @Autowired
+    private GameRepository gameRepository;
+
+    @Autowired
+    private RentRepository rentRepository;
+
+    private Game hotGame;
+
+    @BeforeEach
+    public void cleanUpAndAddTestData() {
+        rentRepository.deleteAll();
+        gameService.deleteAllGames();
+
+        Game game = new Game("Hot Release", "PC", "Action", 2025);
+        game.setCopies(COPIES);
+        hotGame = gameService.createGame(game);
+    }
+
+    @Test
+    public void testConcurrentCheckoutNeverOversells() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger rented = new AtomicInteger();
+        AtomicInteger soldOut = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            String userId = "user" + i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    rentService.rentGame(userId, hotGame.getId(), 3);
+                    rented.incrementAndGet();
+                } catch (WaitlistedException e) {
+                    soldOut.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        long duration = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        logger.info("checkout: {} threads, {} attempts, {} rented, {} sold out in {} ms ({} attempts/s)",
+                THREADS, CUSTOMERS, rented.get(), soldOut.get(), TimeUnit.NANOSECONDS.toMillis(duration),
+                Math.round(CUSTOMERS / (duration / 1_000_000_000.0)));
+
+        assertEquals(COPIES, rented.get());
+        assertEquals(CUSTOMERS - COPIES, soldOut.get());
+        assertEquals(0, gameRepository.findById(hotGame.getId()).orElseThrow().getAvailable());
+        assertEquals(COPIES, rentRepository.findByGameId(hotGame.getId()).size());
+    }
+
+    @Test
+    public void testRentReturnChurnKeepsInventoryConsistent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        AtomicInteger rentals = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String userId = "churner" + t;
+            futures.add(executor.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        rentService.rentGame(userId, hotGame.getId(), 1);
+                        rentals.incrementAndGet();
+                        rentService.returnGame(userId, hotGame.getId());
+                    } catch (WaitlistedException e) {
+                        // Sold out, try again
+                    } catch (IllegalStateException e) {
+                        // A return handed us a copy from the waitlist meanwhile
+                        rentService.returnGame(userId, hotGame.getId());
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Copies handed to churners still on the waitlist when the loop ended are returned here
+        List<Rent> stillActive;
+        while (!(stillActive = activeRents()).isEmpty()) {
+            for (Rent rent : stillActive) {
+                rentService.returnGame(rent.getUserId(), rent.getGameId());
+            }
+        }
+
+        logger.info("churn: {} threads on {} copies, {} rentals/s", THREADS, COPIES, Math.round(rentals.get() / 10.0));
+
+        long active = activeRents().size();
+        Game game = gameRepository.findById(hotGame.getId()).orElseThrow();
+
+        assertEquals(0, active);
+        assertEquals(COPIES, game.getAvailable());
+        assertTrue(rentals.get() > 0);
+        // Every counted rental was stored, waitlist handovers only add to them
+        assertTrue(rentRepository.countByGameId(hotGame.getId()) >= rentals.get());
+    }
+
+    private List<Rent> activeRents() {
+        return rentRepository.findByGameId(hotGame.getId()).stream()
+                .filter(rent -> !rent.isReturned())
+                .toList();
+    }
+}
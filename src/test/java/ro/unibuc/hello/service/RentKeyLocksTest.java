@@ -0,0 +1,88 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RentKeyLocksTest {
+
+    private SimpleMeterRegistry registry;
+    private RentKeyLocks rentKeyLocks;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        rentKeyLocks = new RentKeyLocks(registry, 10);
+    }
+
+    @Test
+    void testStripeCountRoundedToPowerOfTwo() {
+        assertEquals(16, rentKeyLocks.stripeCount());
+        assertEquals(16, registry.find("rent_lock_queue_depth").gauges().size());
+    }
+
+    @Test
+    void testSameKeyIsSerialized() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+
+        Future<?>[] futures = new Future<?>[64];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = executor.submit(() -> rentKeyLocks.withLock("user1", "game1", () -> {
+                maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                Thread.yield();
+                inside.decrementAndGet();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(1, maxInside.get());
+        int stripe = rentKeyLocks.stripeFor("user1", "game1");
+        assertEquals(64, registry.get("rent_lock_wait").tag("stripe", String.valueOf(stripe)).timer().count());
+    }
+
+    @Test
+    void testDifferentStripesDoNotBlock() throws Exception {
+        // Find a second key that lands on another stripe
+        String otherGame = "game2";
+        for (int i = 3; rentKeyLocks.stripeFor("user1", otherGame) == rentKeyLocks.stripeFor("user1", "game1"); i++) {
+            otherGame = "game" + i;
+        }
+        String otherKey = otherGame;
+
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> holder = executor.submit(() -> rentKeyLocks.withLock("user1", "game1", () -> {
+            holding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+        String result = rentKeyLocks.withLock("user1", otherKey, () -> "done");
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals("done", result);
+    }
+}
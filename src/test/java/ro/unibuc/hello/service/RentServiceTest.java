@@ -5,22 +5,42 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import ro.unibuc.hello.data.Game;
 import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentArchiveRepository;
 import ro.unibuc.hello.data.RentRepository;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.UserRentSummary;
+import ro.unibuc.hello.data.WaitlistEntry;
 import ro.unibuc.hello.exception.EntityNotFoundException;
+import ro.unibuc.hello.exception.RentConflictException;
+import ro.unibuc.hello.exception.WaitlistedException;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 
 @ExtendWith(MockitoExtension.class)
 class RentServiceTest {
@@ -31,6 +51,36 @@ class RentServiceTest {
     @Mock
     private GameService gameService;
 
+    @Mock
+    private RentArchiveRepository rentArchiveRepository;
+
+    @Mock
+    private RentBatchWriter rentBatchWriter;
+
+    @Mock
+    private RentalOutbox rentalOutbox;
+
+    @Mock
+    private UserRentSummaryService userRentSummaryService;
+
+    @Mock
+    private ActiveRentFilter activeRentFilter;
+
+    @Mock
+    private WaitlistService waitlistService;
+
+    @Mock
+    private GameRentalCounters gameRentalCounters;
+
+    @Mock
+    private ReservationCalendar reservationCalendar;
+
+    @Mock
+    private OverdueTracker overdueTracker;
+
+    @Spy
+    private RentKeyLocks rentKeyLocks = new RentKeyLocks(new SimpleMeterRegistry(), 16);
+
     @InjectMocks
     private RentService rentService;
 
@@ -51,6 +101,14 @@ class RentServiceTest {
 
         testGame = new Game("Test Game", "PC", "Action", 2023);
         testGame.setId(GAME_ID);
+
+        // The filter can't rule anything out unless a test says so
+        lenient().when(activeRentFilter.mightBeActive(anyString(), anyString())).thenReturn(true);
+
+        // Tracked games have room in the calendar unless a test says otherwise
+        lenient().when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        lenient().when(reservationCalendar.bookRent(any(Rent.class), anyInt())).thenAnswer(invocation ->
+                new ReservationCalendar.Booking(GAME_ID, ((Rent) invocation.getArgument(0)).getId(), null));
     }
 
     @Test
@@ -95,6 +153,58 @@ class RentServiceTest {
         verify(rentRepository, times(1)).findById(RENT_ID);
     }
 
+    @Test
+    void testGetRentById_ArchivedRent() {
+        // Arrange
+        testRent.setReturned(true);
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.empty());
+        when(rentArchiveRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+
+        // Act
+        Rent result = rentService.getRentById(RENT_ID);
+
+        // Assert
+        assertEquals(RENT_ID, result.getId());
+        assertTrue(result.isReturned());
+    }
+
+    @Test
+    void testGetRentById_CompactedRent() {
+        // Arrange
+        testRent.setReturned(true);
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.empty());
+        when(rentRepository.findCompactedById(RENT_ID)).thenReturn(Optional.of(testRent));
+
+        // Act
+        Rent result = rentService.getRentById(RENT_ID);
+
+        // Assert
+        assertEquals(RENT_ID, result.getId());
+        verify(rentArchiveRepository, never()).findById(anyString());
+    }
+
+    @Test
+    void testGetAllRents_IncludesArchivedRents() {
+        // Arrange
+        Rent archived = new Rent("user456", "game789", 3);
+        archived.setId("rent321");
+        archived.setReturned(true);
+        when(rentRepository.findAll()).thenReturn(List.of(testRent));
+        when(rentArchiveRepository.findAll()).thenReturn(List.of(archived));
+        Rent compacted = new Rent("user789", "game789", 2);
+        compacted.setId("rent654");
+        compacted.setReturned(true);
+        when(rentRepository.findAllCompacted()).thenReturn(List.of(compacted));
+
+        // Act
+        List<Rent> result = rentService.getAllRents();
+
+        // Assert
+        assertEquals(3, result.size());
+        assertEquals("rent654", result.get(1).getId());
+        assertEquals("rent321", result.get(2).getId());
+    }
+
     @Test
     void testGetRentById_NonExistingRent() {
         // Arrange
@@ -137,6 +247,76 @@ class RentServiceTest {
         verify(rentRepository, times(1)).findByUserId(USER_ID);
     }
 
+    @Test
+    void testGetRentsByUserId_IncludesArchive() {
+        // Arrange
+        Rent archived = new Rent(USER_ID, "game000", 3);
+        archived.setId("archived1");
+        archived.setReturned(true);
+
+        when(rentRepository.findByUserId(USER_ID)).thenReturn(Collections.singletonList(testRent));
+        when(rentArchiveRepository.findByUserId(USER_ID)).thenReturn(Collections.singletonList(archived));
+
+        // Act
+        List<Rent> result = rentService.getRentsByUserId(USER_ID);
+
+        // Assert
+        assertEquals(2, result.size());
+        assertEquals(RENT_ID, result.get(0).getId());
+        assertEquals("archived1", result.get(1).getId());
+    }
+
+    @Test
+    void testGetRentsByUserIdPaged_HotPageSkipsArchive() {
+        // Arrange
+        Rent rent2 = new Rent(USER_ID, "game789", 3);
+        when(rentRepository.findByUserIdOrderByRentDateDesc(USER_ID, PageRequest.of(0, 2)))
+                .thenReturn(Arrays.asList(testRent, rent2));
+
+        // Act
+        List<Rent> result = rentService.getRentsByUserId(USER_ID, 0, 2);
+
+        // Assert
+        assertEquals(2, result.size());
+        verifyNoInteractions(rentArchiveRepository);
+    }
+
+    @Test
+    void testGetRentsByUserIdPaged_CrossesIntoArchive() {
+        // Arrange
+        // Page 1 of size 3 starts at offset 3, holds the last hot rent and continues into the archive
+        Rent archived = new Rent(USER_ID, "game000", 3);
+        when(rentRepository.findByUserIdOrderByRentDateDesc(USER_ID, PageRequest.of(1, 3)))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentArchiveRepository.findByUserId(USER_ID, 0L, 2))
+                .thenReturn(Collections.singletonList(archived));
+
+        // Act
+        List<Rent> result = rentService.getRentsByUserId(USER_ID, 1, 3);
+
+        // Assert
+        assertEquals(2, result.size());
+        verify(rentRepository, never()).countByUserId(USER_ID);
+    }
+
+    @Test
+    void testGetRentsByUserIdPaged_PastHotRents() {
+        // Arrange
+        // Page 2 of size 3 starts at offset 6, only 4 hot rents exist
+        when(rentRepository.findByUserIdOrderByRentDateDesc(USER_ID, PageRequest.of(2, 3)))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.countByUserId(USER_ID)).thenReturn(4L);
+        when(rentArchiveRepository.findByUserId(USER_ID, 2L, 3))
+                .thenReturn(Collections.emptyList());
+
+        // Act
+        List<Rent> result = rentService.getRentsByUserId(USER_ID, 2, 3);
+
+        // Assert
+        assertTrue(result.isEmpty());
+        verify(rentArchiveRepository, times(1)).findByUserId(USER_ID, 2L, 3);
+    }
+
     @Test
     void testGetRentsByGameId() {
         // Arrange
@@ -226,14 +406,8 @@ class RentServiceTest {
         when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
                 .thenReturn(Collections.singletonList(testRent));
 
-        // Mock saving the returned rent
-        Rent returnedRent = new Rent(USER_ID, GAME_ID, 3);
-        returnedRent.setId(RENT_ID);
-        returnedRent.setRentDate(testRent.getRentDate());
-        returnedRent.setReturnDate(LocalDateTime.now());
-        returnedRent.setReturned(true);
-
-        when(rentRepository.save(any(Rent.class))).thenReturn(returnedRent);
+        // Mock the conditional update flipping the rent to returned
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
 
         // Act
         Rent result = rentService.returnGame(USER_ID, GAME_ID);
@@ -248,7 +422,582 @@ class RentServiceTest {
 
         // Verify the mocks were called
         verify(rentRepository, times(1)).findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID);
-        verify(rentRepository, times(1)).save(any(Rent.class));
+        verify(rentRepository, times(1)).markReturned(eq(RENT_ID), any(LocalDateTime.class));
+        verify(gameService, times(1)).releaseCopy(GAME_ID);
+        verify(reservationCalendar, times(1)).releaseRent(GAME_ID, RENT_ID);
+        verify(rentRepository, never()).save(any(Rent.class));
+    }
+
+    @Test
+    void testReturnGame_ConcurrentReturn() {
+        // Arrange
+        // Another request returned the rent between the lookup and the update
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(0L);
+
+        // Act & Assert
+        assertThrows(EntityNotFoundException.class, () -> rentService.returnGame(USER_ID, GAME_ID));
+
+        // The copy must not be given back twice
+        verify(gameService, never()).releaseCopy(anyString());
+    }
+
+    @Test
+    void testRentGame_TakesCopy() {
+        // Arrange
+        testGame.setCopies(3);
+        testGame.setAvailable(1);
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(gameService.takeCopy(GAME_ID)).thenReturn(true);
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        assertNotNull(result);
+        verify(gameService, times(1)).takeCopy(GAME_ID);
+        verify(gameService, never()).releaseCopy(anyString());
+    }
+
+    @Test
+    void testRentGame_UpdatesUserSummary() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        verify(userRentSummaryService, times(1)).recordRent(result);
+    }
+
+    @Test
+    void testRentGame_SummaryFailureKeepsRent() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        doThrow(new IllegalStateException("connection lost")).when(userRentSummaryService).recordRent(any(Rent.class));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        assertNotNull(result);
+        verify(gameService, never()).releaseCopy(anyString());
+    }
+
+    @Test
+    void testReturnGame_UpdatesUserSummary() {
+        // Arrange
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
+
+        // Act
+        rentService.returnGame(USER_ID, GAME_ID);
+
+        // Assert
+        verify(userRentSummaryService, times(1)).recordReturn(testRent);
+    }
+
+    @Test
+    void testRentGame_FilterSkipsActiveRentLookup() {
+        // Arrange
+        when(activeRentFilter.mightBeActive(USER_ID, GAME_ID)).thenReturn(false);
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        assertNotNull(result);
+        verify(rentRepository, never()).findByUserIdAndGameIdAndIsReturnedFalse(anyString(), anyString());
+        verify(activeRentFilter, times(1)).add(result);
+        verify(gameRentalCounters, times(1)).recordRent(GAME_ID);
+        verify(overdueTracker, times(1)).track(result);
+    }
+
+    @Test
+    void testRentGame_DuplicateKeyMeansAlreadyRented() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.save(any(Rent.class))).thenThrow(new DuplicateKeyException("userId_gameId_active"));
+
+        // Act & Assert
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+        assertTrue(exception.getMessage().contains("already rented"));
+        verify(activeRentFilter, never()).add(any(Rent.class));
+    }
+
+    @Test
+    void testReturnGame_RemovesFromFilter() {
+        // Arrange
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
+
+        // Act
+        rentService.returnGame(USER_ID, GAME_ID);
+
+        // Assert
+        verify(activeRentFilter, times(1)).remove(testRent);
+        verify(gameRentalCounters, times(1)).recordReturn(GAME_ID);
+        verify(overdueTracker, times(1)).untrack(RENT_ID);
+    }
+
+    @Test
+    void testGetUserSummary() {
+        // Arrange
+        UserRentSummary summary = new UserRentSummary(USER_ID);
+        summary.setTotalRentals(7);
+        when(userRentSummaryService.getSummary(USER_ID)).thenReturn(summary);
+
+        // Act
+        UserRentSummary result = rentService.getUserSummary(USER_ID);
+
+        // Assert
+        assertEquals(7, result.getTotalRentals());
+    }
+
+    @Test
+    void testRentGame_SoldOut() {
+        // Arrange
+        testGame.setCopies(3);
+        testGame.setAvailable(0);
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(gameService.takeCopy(GAME_ID)).thenReturn(false);
+        when(waitlistService.enqueue(USER_ID, GAME_ID, 3)).thenReturn(4L);
+
+        // Act & Assert
+        WaitlistedException exception = assertThrows(WaitlistedException.class, () -> {
+            rentService.rentGame(USER_ID, GAME_ID, 3);
+        });
+        assertTrue(exception.getMessage().contains("number 4 on the waitlist"));
+
+        verify(rentRepository, never()).save(any(Rent.class));
+    }
+
+    @Test
+    void testRentGame_RetryWhileWaitlisted() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(waitlistService.position(USER_ID, GAME_ID)).thenReturn(2L);
+
+        // Act & Assert
+        assertThrows(WaitlistedException.class, () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+        verify(waitlistService, never()).enqueue(anyString(), anyString(), anyInt());
+        verify(gameService, never()).takeCopy(anyString());
+    }
+
+    @Test
+    void testReturnGame_HandsCopyToNextWaiter() {
+        // Arrange
+        WaitlistEntry waiter = new WaitlistEntry(GAME_ID, "waiter1", 5, LocalDateTime.now());
+        waiter.setId("entry1");
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse("waiter1", GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(waitlistService.hasWaiters(GAME_ID)).thenReturn(true);
+        when(waitlistService.poll(GAME_ID)).thenReturn(waiter);
+
+        // Act
+        rentService.returnGame(USER_ID, GAME_ID);
+
+        // Assert
+        verify(rentRepository, times(1)).save(argThat(rent -> rent.getUserId().equals("waiter1")
+                && rent.getRentDays() == 5 && !rent.isReturned()));
+        verify(waitlistService, times(1)).remove(waiter);
+        // The copy moved straight to the waiter, inventory was never touched
+        verify(gameService, never()).releaseCopy(anyString());
+        verify(gameService, never()).takeCopy(anyString());
+    }
+
+    @Test
+    void testReturnGame_ReleasesCopyWhenNoWaiterCanTakeIt() {
+        // Arrange
+        WaitlistEntry waiter = new WaitlistEntry(GAME_ID, "waiter1", 5, LocalDateTime.now());
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        // The waiter got hold of a copy some other way in the meantime
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse("waiter1", GAME_ID))
+                .thenReturn(Collections.singletonList(new Rent("waiter1", GAME_ID, 5)));
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
+        when(waitlistService.hasWaiters(GAME_ID)).thenReturn(true);
+        when(waitlistService.poll(GAME_ID)).thenReturn(waiter).thenReturn(null);
+
+        // Act
+        rentService.returnGame(USER_ID, GAME_ID);
+
+        // Assert
+        verify(waitlistService, times(1)).remove(waiter);
+        verify(gameService, times(1)).releaseCopy(GAME_ID);
+    }
+
+    @Test
+    void testRentGame_CopyReturnedWhileQueueingGoesToTheQueue() {
+        // Arrange
+        testGame.setCopies(3);
+        WaitlistEntry entry = new WaitlistEntry(GAME_ID, USER_ID, 3, LocalDateTime.now());
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        // Sold out at first, then a return put a copy back on the shelf before this customer was queued
+        when(gameService.takeCopy(GAME_ID)).thenReturn(false).thenReturn(true);
+        when(waitlistService.enqueue(USER_ID, GAME_ID, 3)).thenReturn(1L);
+        when(waitlistService.poll(GAME_ID)).thenReturn(entry);
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        assertEquals(USER_ID, result.getUserId());
+        verify(waitlistService, times(1)).remove(entry);
+        verify(gameService, never()).releaseCopy(anyString());
+    }
+
+    @Test
+    void testRentGame_WalkInQueuesBehindWaiters() {
+        // Arrange
+        testGame.setCopies(3);
+        WaitlistEntry waiter = new WaitlistEntry(GAME_ID, "waiter1", 5, LocalDateTime.now());
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse("waiter1", GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(waitlistService.hasWaiters(GAME_ID)).thenReturn(true);
+        when(waitlistService.enqueue(USER_ID, GAME_ID, 3)).thenReturn(2L);
+        // A copy is on the shelf although someone is waiting
+        when(gameService.takeCopy(GAME_ID)).thenReturn(true);
+        when(waitlistService.poll(GAME_ID)).thenReturn(waiter);
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act & Assert
+        WaitlistedException exception = assertThrows(WaitlistedException.class,
+                () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+        assertTrue(exception.getMessage().contains("number 2 on the waitlist"));
+        verify(rentRepository, times(1)).save(argThat(rent -> rent.getUserId().equals("waiter1")));
+        verify(gameService, times(1)).takeCopy(GAME_ID);
+    }
+
+    @Test
+    void testReturnGame_FailedAllocationKeepsWaiterFirst() {
+        // Arrange
+        testGame.setCopies(3);
+        WaitlistEntry waiter = new WaitlistEntry(GAME_ID, "waiter1", 30, LocalDateTime.now());
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse("waiter1", GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
+        when(waitlistService.hasWaiters(GAME_ID)).thenReturn(true);
+        when(waitlistService.poll(GAME_ID)).thenReturn(waiter).thenReturn(null);
+        // The waiter's days run into a reservation
+        when(reservationCalendar.bookRent(any(Rent.class), eq(3)))
+                .thenThrow(new IllegalStateException("All copies of this game are reserved for that period"));
+
+        // Act
+        rentService.returnGame(USER_ID, GAME_ID);
+
+        // Assert
+        verify(waitlistService, never()).remove(waiter);
+        verify(waitlistService, times(1)).requeue(GAME_ID, List.of(waiter));
+        verify(gameService, times(1)).releaseCopy(GAME_ID);
+    }
+
+    @Test
+    void testRentGame_GroupCommit() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentBatchWriter.isEnabled()).thenReturn(true);
+        when(rentBatchWriter.insert(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        assertNotNull(result);
+        verify(rentBatchWriter, times(1)).insert(any(Rent.class));
+        verify(rentRepository, never()).save(any(Rent.class));
+    }
+
+    @Test
+    void testRentGame_WritesOutboxEventInTransaction() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(rentalOutbox.isEnabled()).thenReturn(true);
+        when(rentalOutbox.inTransaction(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        assertNotNull(result);
+        verify(rentalOutbox, times(1)).record(RentalEvent.RENTED, result);
+        verify(rentBatchWriter, never()).insert(any(Rent.class));
+    }
+
+    @Test
+    void testRentGame_SummaryInSameTransactionOnReplicaSet() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        // Outbox off, but Mongo runs as a replica set
+        when(rentalOutbox.transactionsAvailable()).thenReturn(true);
+        when(rentalOutbox.inTransaction(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        doThrow(new RuntimeException("summary write failed")).when(userRentSummaryService).recordRent(any(Rent.class));
+
+        // Act & Assert
+        // The failed summary write fails the transaction instead of being swallowed after the rent is stored
+        assertThrows(RuntimeException.class, () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+        verify(rentalOutbox, times(1)).inTransaction(any());
+    }
+
+    @Test
+    void testReturnGame_WritesOutboxEventInTransaction() {
+        // Arrange
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.singletonList(testRent));
+        when(rentRepository.markReturned(eq(RENT_ID), any(LocalDateTime.class))).thenReturn(1L);
+        when(rentalOutbox.isEnabled()).thenReturn(true);
+        when(rentalOutbox.inTransaction(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+
+        // Act
+        Rent result = rentService.returnGame(USER_ID, GAME_ID);
+
+        // Assert
+        assertTrue(result.isReturned());
+        verify(rentalOutbox, times(1)).record(RentalEvent.RETURNED, testRent);
+        verify(gameService, times(1)).releaseCopy(GAME_ID);
+    }
+
+    @Test
+    void testExtendRent_Success() {
+        // Arrange
+        testRent.setVersion(2);
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+        LocalDateTime expectedDueDate = testRent.getRentDate().plusDays(5);
+        when(rentRepository.extend(RENT_ID, 2L, 5, expectedDueDate)).thenReturn(1L);
+
+        // Act
+        Rent result = rentService.extendRent(RENT_ID, 2);
+
+        // Assert
+        assertEquals(5, result.getRentDays());
+        assertEquals(expectedDueDate, result.getDueDate());
+        assertEquals(3, result.getVersion());
+        verify(overdueTracker, times(1)).track(result);
+        verify(rentRepository, never()).save(any(Rent.class));
+        verify(gameService, never()).releaseCopy(anyString());
+    }
+
+    @Test
+    void testExtendRent_RetriesAfterConcurrentExtension() {
+        // Arrange
+        Rent stale = new Rent(USER_ID, GAME_ID, 3);
+        stale.setId(RENT_ID);
+        stale.setRentDate(testRent.getRentDate());
+
+        // Another extension added 4 days between the first read and the update
+        Rent fresh = new Rent(USER_ID, GAME_ID, 7);
+        fresh.setId(RENT_ID);
+        fresh.setRentDate(testRent.getRentDate());
+        fresh.setVersion(1);
+
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(stale), Optional.of(fresh));
+        when(rentRepository.extend(eq(RENT_ID), eq(0L), anyInt(), any(LocalDateTime.class))).thenReturn(0L);
+        when(rentRepository.extend(eq(RENT_ID), eq(1L), eq(9), any(LocalDateTime.class))).thenReturn(1L);
+
+        // Act
+        Rent result = rentService.extendRent(RENT_ID, 2);
+
+        // Assert
+        // Both extensions count, the retry builds on the newer rent
+        assertEquals(9, result.getRentDays());
+        assertEquals(2, result.getVersion());
+        verify(rentRepository, times(2)).findById(RENT_ID);
+    }
+
+    @Test
+    void testExtendRent_ReturnedRent() {
+        // Arrange
+        testRent.setReturned(true);
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> rentService.extendRent(RENT_ID, 2));
+        verify(rentRepository, never()).extend(anyString(), anyLong(), anyInt(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testExtendRent_GivesUpAfterRepeatedConflicts() {
+        // Arrange
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+        when(rentRepository.extend(eq(RENT_ID), anyLong(), anyInt(), any(LocalDateTime.class))).thenReturn(0L);
+
+        // Act & Assert
+        assertThrows(RentConflictException.class, () -> rentService.extendRent(RENT_ID, 2));
+        verify(rentRepository, times(5)).extend(eq(RENT_ID), anyLong(), anyInt(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testExtendRent_WritesOutboxEventInTransaction() {
+        // Arrange
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+        when(rentRepository.extend(eq(RENT_ID), eq(0L), eq(5), any(LocalDateTime.class))).thenReturn(1L);
+        when(rentalOutbox.isEnabled()).thenReturn(true);
+        when(rentalOutbox.inTransaction(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+
+        // Act
+        rentService.extendRent(RENT_ID, 2);
+
+        // Assert
+        verify(rentalOutbox, times(1)).record(RentalEvent.EXTENDED, testRent);
+    }
+
+    @Test
+    void testRentGame_SaveFailureReleasesCopy() {
+        // Arrange
+        testGame.setCopies(3);
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(gameService.takeCopy(GAME_ID)).thenReturn(true);
+        when(rentRepository.save(any(Rent.class)))
+                .thenThrow(new DataIntegrityViolationException("Document failed validation"));
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+
+        verify(gameService, times(1)).releaseCopy(GAME_ID);
+        verify(reservationCalendar, times(1)).cancel(any(ReservationCalendar.Booking.class));
+    }
+
+    @Test
+    void testRentGame_UnknownWriteOutcomeKeepsCopy() {
+        // Arrange
+        testGame.setCopies(3);
+        when(gameService.getGameById(GAME_ID)).thenReturn(testGame);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(gameService.takeCopy(GAME_ID)).thenReturn(true);
+        // The connection dropped after the insert was sent, it may have been applied
+        when(rentRepository.save(any(Rent.class)))
+                .thenThrow(new DataAccessResourceFailureException("Connection closed"));
+
+        // Act & Assert
+        assertThrows(DataAccessResourceFailureException.class, () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+
+        // Left for the inventory reconciler rather than handed out a second time
+        verify(gameService, never()).releaseCopy(anyString());
+    }
+
+    @Test
+    void testRentGame_FullyReserved() {
+        // Arrange
+        testGame.setCopies(3);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(reservationCalendar.bookRent(any(Rent.class), eq(3)))
+                .thenThrow(new IllegalStateException("All copies of this game are reserved for that period"));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+
+        // Nothing was taken, so nothing needs giving back
+        verify(gameService, never()).takeCopy(anyString());
+        verify(rentRepository, never()).save(any(Rent.class));
+    }
+
+    @Test
+    void testRentGame_EveryCopyBookedIsWaitlisted() {
+        // Arrange
+        testGame.setCopies(3);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(reservationCalendar.bookRent(any(Rent.class), eq(3))).thenReturn(null);
+        when(waitlistService.enqueue(USER_ID, GAME_ID, 3)).thenReturn(1L);
+
+        // Act & Assert
+        assertThrows(WaitlistedException.class, () -> rentService.rentGame(USER_ID, GAME_ID, 3));
+        // Nothing was taken, so nothing needs giving back
+        verify(gameService, never()).releaseCopy(anyString());
+        verify(rentRepository, never()).save(any(Rent.class));
+    }
+
+    @Test
+    void testRentGame_ConfirmsBooking() {
+        // Arrange
+        testGame.setCopies(3);
+        when(rentRepository.findByUserIdAndGameIdAndIsReturnedFalse(USER_ID, GAME_ID))
+                .thenReturn(Collections.emptyList());
+        when(gameService.takeCopy(GAME_ID)).thenReturn(true);
+        when(rentRepository.save(any(Rent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Rent result = rentService.rentGame(USER_ID, GAME_ID, 3);
+
+        // Assert
+        // The id is assigned up front so the calendar can hold the rent's range
+        assertNotNull(result.getId());
+        verify(reservationCalendar, times(1)).bookRent(result, 3);
+        verify(reservationCalendar, times(1)).confirm(any(ReservationCalendar.Booking.class));
+    }
+
+    @Test
+    void testExtendRent_TrackedGameChecksCalendar() {
+        // Arrange
+        testGame.setCopies(3);
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+        when(rentRepository.extend(eq(RENT_ID), eq(0L), eq(5), any(LocalDateTime.class))).thenReturn(1L);
+        when(reservationCalendar.tryExtendRent(eq(testRent), eq(3), any(LocalDateTime.class), any(BooleanSupplier.class)))
+                .thenAnswer(invocation -> ((BooleanSupplier) invocation.getArgument(3)).getAsBoolean());
+
+        // Act
+        Rent result = rentService.extendRent(RENT_ID, 2);
+
+        // Assert
+        assertEquals(5, result.getRentDays());
+        verify(rentRepository, times(1)).extend(eq(RENT_ID), eq(0L), eq(5), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testExtendRent_ExtraDaysReserved() {
+        // Arrange
+        testGame.setCopies(3);
+        when(rentRepository.findById(RENT_ID)).thenReturn(Optional.of(testRent));
+        when(reservationCalendar.tryExtendRent(eq(testRent), eq(3), any(LocalDateTime.class), any(BooleanSupplier.class)))
+                .thenThrow(new IllegalStateException("This game is reserved by another customer for the extra days"));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> rentService.extendRent(RENT_ID, 2));
+        verify(rentRepository, never()).extend(anyString(), anyLong(), anyInt(), any(LocalDateTime.class));
     }
 
     @Test
@@ -0,0 +1,134 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.web.context.request.async.DeferredResult;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.RentalEventRepository;
+import ro.unibuc.hello.dto.RentalEventFeedEntry;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RentalEventFeedTest {
+
+    private RentalEventRepository rentalEventRepository;
+    private RentalEventFeed rentalEventFeed;
+
+    @BeforeEach
+    void setUp() {
+        rentalEventRepository = mock(RentalEventRepository.class);
+        rentalEventFeed = new RentalEventFeed(rentalEventRepository, 3, true);
+    }
+
+    @Test
+    void testSinceReturnsEventsAfterCursor() {
+        rentalEventFeed.append(Arrays.asList(event(1, "user1"), event(2, "user2")));
+
+        List<RentalEventFeedEntry> entries = rentalEventFeed.since(1, 10);
+
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).getSeq());
+        assertEquals("user2", entries.get(0).getEvent().getUserId());
+    }
+
+    @Test
+    void testOldestEntriesDroppedPastCapacity() {
+        rentalEventFeed.append(Arrays.asList(event(1, "user1"), event(2, "user2"), event(3, "user3"), event(4, "user4")));
+
+        List<RentalEventFeedEntry> entries = rentalEventFeed.since(1, 10);
+
+        assertEquals(3, entries.size());
+        assertEquals(2, entries.get(0).getSeq());
+        verifyNoInteractions(rentalEventRepository);
+    }
+
+    @Test
+    void testCursorOlderThanTheFeedIsReadFromMongo() {
+        rentalEventFeed.append(Arrays.asList(event(5, "user5"), event(6, "user6")));
+        when(rentalEventRepository.findBySeqGreaterThanOrderBySeqAsc(eq(2L), any(Pageable.class)))
+                .thenReturn(List.of(event(3, "user3"), event(4, "user4")));
+
+        List<RentalEventFeedEntry> entries = rentalEventFeed.since(2, 2);
+
+        assertEquals(2, entries.size());
+        assertEquals(3, entries.get(0).getSeq());
+    }
+
+    @Test
+    void testAppendSkipsEventsAlreadyInTheFeed() {
+        rentalEventFeed.append(Arrays.asList(event(1, "user1"), event(2, "user2")));
+
+        // Read back from Mongo by the refresh after the relay on this instance appended them
+        rentalEventFeed.append(Arrays.asList(event(2, "user2"), event(3, "user3")));
+
+        List<RentalEventFeedEntry> entries = rentalEventFeed.since(0, 10);
+        assertEquals(List.of(1L, 2L, 3L), entries.stream().map(RentalEventFeedEntry::getSeq).toList());
+    }
+
+    @Test
+    void testCursorSurvivesARestart() {
+        // The restarted instance loads the latest events, positions are the stored ones
+        when(rentalEventRepository.findBySeqNotNullOrderBySeqDesc(any(Pageable.class)))
+                .thenReturn(List.of(event(42, "user3"), event(41, "user2")));
+        when(rentalEventRepository.findBySeqGreaterThanOrderBySeqAsc(anyLong(), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        rentalEventFeed.refresh();
+        List<RentalEventFeedEntry> entries = rentalEventFeed.since(41, 10);
+
+        assertEquals(1, entries.size());
+        assertEquals(42, entries.get(0).getSeq());
+        assertTrue(rentalEventFeed.since(42, 10).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testWaitingPollCompletedByAppend() {
+        DeferredResult<List<RentalEventFeedEntry>> result = rentalEventFeed.poll(0, 10, 30000);
+        assertFalse(result.hasResult());
+
+        rentalEventFeed.append(Collections.singletonList(event(1, "user1")));
+
+        assertTrue(result.hasResult());
+        List<RentalEventFeedEntry> entries = (List<RentalEventFeedEntry>) result.getResult();
+        assertEquals(1, entries.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testEventsRelayedElsewhereCompleteWaitingPolls() {
+        when(rentalEventRepository.findBySeqNotNullOrderBySeqDesc(any(Pageable.class)))
+                .thenReturn(List.of(event(7, "user1")));
+        when(rentalEventRepository.findBySeqGreaterThanOrderBySeqAsc(anyLong(), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        rentalEventFeed.refresh();
+        DeferredResult<List<RentalEventFeedEntry>> result = rentalEventFeed.poll(7, 10, 30000);
+        assertFalse(result.hasResult());
+
+        when(rentalEventRepository.findBySeqGreaterThanOrderBySeqAsc(eq(7L), any(Pageable.class)))
+                .thenReturn(List.of(event(8, "user2")));
+        rentalEventFeed.refresh();
+
+        assertTrue(result.hasResult());
+        List<RentalEventFeedEntry> entries = (List<RentalEventFeedEntry>) result.getResult();
+        assertEquals(8, entries.get(0).getSeq());
+    }
+
+    private RentalEvent event(long seq, String userId) {
+        RentalEvent event = new RentalEvent(RentalEvent.RENTED, new Rent(userId, "game1", 3), LocalDateTime.now());
+        event.setPublished(true);
+        event.setSeq(seq);
+        return event;
+    }
+}
@@ -0,0 +1,118 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.RentalEventRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RentalEventRelayTest {
+
+    private RentalEventRepository rentalEventRepository;
+    private MongoTemplate mongoTemplate;
+    private ApplicationEventPublisher eventPublisher;
+    private RentalEventFeed rentalEventFeed;
+    private Leases leases;
+    private BulkOperations bulk;
+    private RentalEventRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        rentalEventRepository = mock(RentalEventRepository.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        rentalEventFeed = mock(RentalEventFeed.class);
+        leases = mock(Leases.class);
+        bulk = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, RentalEvent.class)).thenReturn(bulk);
+        relay = new RentalEventRelay(rentalEventRepository, mongoTemplate, eventPublisher, rentalEventFeed, leases,
+                new SimpleMeterRegistry(), 500, 10_000);
+    }
+
+    @Test
+    void testOnlyTheLeaseHolderRelays() {
+        // Arrange
+        when(leases.tryAcquire(RentalEventRelay.LEASE, Duration.ofSeconds(10))).thenReturn(false);
+
+        // Act
+        int relayed = relay.relayBatch();
+
+        // Assert
+        assertEquals(0, relayed);
+        verifyNoInteractions(rentalEventRepository, eventPublisher, rentalEventFeed);
+    }
+
+    @Test
+    void testPublishedEventsGetTheNextFeedPositions() {
+        // Arrange
+        when(leases.tryAcquire(RentalEventRelay.LEASE, Duration.ofSeconds(10))).thenReturn(true);
+        List<RentalEvent> batch = List.of(event("e1"), event("e2"));
+        when(rentalEventRepository.findByPublishedFalseOrderByIdAsc(any(Pageable.class))).thenReturn(batch);
+        // Positions 1 to 40 went to earlier batches, possibly relayed by an instance that has since stopped
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq(RentalEventRelay.SEQUENCE))).thenReturn(new Document("seq", 42L));
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getModifiedCount()).thenReturn(2);
+        when(bulk.execute()).thenReturn(result);
+
+        // Act
+        int relayed = relay.relayBatch();
+
+        // Assert
+        assertEquals(2, relayed);
+        verify(eventPublisher, times(2)).publishEvent(any(RentalEvent.class));
+        assertEquals(41L, batch.get(0).getSeq());
+        assertEquals(42L, batch.get(1).getSeq());
+        ArgumentCaptor<Query> marked = ArgumentCaptor.forClass(Query.class);
+        verify(bulk, times(2)).updateOne(marked.capture(), any(Update.class));
+        // Never an event another holder published already
+        assertEquals(false, marked.getValue().getQueryObject().get("published"));
+        verify(rentalEventFeed).append(batch);
+    }
+
+    @Test
+    void testEventsPublishedByAnotherHolderAreLeftToTheFeedRefresh() {
+        // Arrange
+        when(leases.tryAcquire(RentalEventRelay.LEASE, Duration.ofSeconds(10))).thenReturn(true);
+        when(rentalEventRepository.findByPublishedFalseOrderByIdAsc(any(Pageable.class)))
+                .thenReturn(List.of(event("e1"), event("e2")));
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq(RentalEventRelay.SEQUENCE))).thenReturn(new Document("seq", 2L));
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getModifiedCount()).thenReturn(1);
+        when(bulk.execute()).thenReturn(result);
+
+        // Act
+        relay.relayBatch();
+
+        // Assert
+        verify(rentalEventFeed).append(List.of());
+    }
+
+    private RentalEvent event(String id) {
+        RentalEvent event = new RentalEvent(RentalEvent.RENTED, new Rent("user1", "game1", 3), LocalDateTime.now());
+        event.setId(id);
+        return event;
+    }
+}
@@ -0,0 +1,119 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.MongoException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.RentalEvent;
+import ro.unibuc.hello.data.RentalEventRepository;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RentalOutboxTest {
+
+    private SimpleMeterRegistry metricsRegistry;
+    private MongoTemplate mongoTemplate;
+    private RentalEventRepository rentalEventRepository;
+    private RentalOutbox rentalOutbox;
+
+    @BeforeEach
+    void setUp() {
+        metricsRegistry = new SimpleMeterRegistry();
+        mongoTemplate = mock(MongoTemplate.class);
+        rentalEventRepository = mock(RentalEventRepository.class);
+        rentalOutbox = new RentalOutbox(rentalEventRepository, mongoTemplate, mock(MongoTransactionManager.class),
+                metricsRegistry, true);
+    }
+
+    @Test
+    void testTransientFailureRunsTheTransactionAgain() {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+
+        // Act
+        String result = rentalOutbox.inTransaction(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw wrapped(transientError());
+            }
+            return "stored";
+        });
+
+        // Assert
+        assertEquals("stored", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, metricsRegistry.counter("rent_outbox_transaction_retries").count());
+    }
+
+    @Test
+    void testWriteConflictIsRetriedAndAttemptsAreBounded() {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        MongoException writeConflict = new MongoException(112, "WriteConflict");
+
+        // Act & Assert
+        assertThrows(UncategorizedMongoDbException.class, () -> rentalOutbox.inTransaction(() -> {
+            attempts.incrementAndGet();
+            throw wrapped(writeConflict);
+        }));
+        assertEquals(RentalOutbox.MAX_TRANSACTION_ATTEMPTS, attempts.get());
+    }
+
+    @Test
+    void testOtherFailuresAreNotRetried() {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> rentalOutbox.inTransaction(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Sold out");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void testTransactionsAvailableOnReplicaSets() {
+        // Arrange
+        when(mongoTemplate.executeCommand(any(Document.class)))
+                .thenReturn(new Document("isWritablePrimary", true).append("setName", "rs0"));
+
+        // Act & Assert
+        assertTrue(rentalOutbox.transactionsAvailable());
+        assertTrue(rentalOutbox.transactionsAvailable());
+        verify(mongoTemplate, times(1)).executeCommand(any(Document.class));
+    }
+
+    @Test
+    void testStandaloneHasNoTransactionsAndDisabledOutboxRecordsNothing() {
+        // Arrange
+        when(mongoTemplate.executeCommand(any(Document.class))).thenReturn(new Document("isWritablePrimary", true));
+        RentalOutbox disabled = new RentalOutbox(rentalEventRepository, mongoTemplate,
+                mock(MongoTransactionManager.class), metricsRegistry, false);
+
+        // Act
+        disabled.record(RentalEvent.RENTED, new Rent("user1", "game1", 3));
+
+        // Assert
+        assertFalse(disabled.transactionsAvailable());
+        verify(rentalEventRepository, never()).save(any(RentalEvent.class));
+    }
+
+    private static MongoException transientError() {
+        MongoException e = new MongoException(251, "NoSuchTransaction");
+        e.addLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL);
+        return e;
+    }
+
+    private static UncategorizedMongoDbException wrapped(MongoException cause) {
+        return new UncategorizedMongoDbException(cause.getMessage(), cause);
+    }
+}
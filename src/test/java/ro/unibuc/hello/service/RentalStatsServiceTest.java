@@ -0,0 +1,181 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import ro.unibuc.hello.dto.RentalStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RentalStatsServiceTest {
+
+    private MongoTemplate mongoTemplate;
+    // Refreshes wait here until the test runs them
+    private List<Runnable> queued;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        queued = new ArrayList<>();
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("rents"), eq(Document.class)))
+                .thenAnswer(invocation -> results(7))
+                .thenAnswer(invocation -> results(9));
+    }
+
+    @Test
+    void testComputesFromFacets() {
+        // Arrange
+        RentalStatsService service = service(60_000);
+
+        // Act
+        RentalStats stats = service.getStats(RentalStatsService.Period.MONTH);
+
+        // Assert
+        assertEquals("month", stats.getPeriod());
+        assertEquals(1, stats.getTopGames().size());
+        assertEquals("Celeste", stats.getTopGames().get(0).getName());
+        assertEquals(7, stats.getTopGames().get(0).getRentals());
+        assertEquals("Platformer", stats.getByGenreAndPlatform().get(0).getGenre());
+        assertEquals(3, stats.getDuration().getReturnedRentals());
+        assertEquals(2.5, stats.getDuration().getAverageDays());
+    }
+
+    @Test
+    void testFreshStatsAreServedFromCache() {
+        // Arrange
+        RentalStatsService service = service(60_000);
+        service.getStats(RentalStatsService.Period.WEEK);
+
+        // Act
+        for (int i = 0; i < 100; i++) {
+            service.getStats(RentalStatsService.Period.WEEK);
+        }
+
+        // Assert
+        verify(mongoTemplate, times(1)).aggregate(any(Aggregation.class), eq("rents"), eq(Document.class));
+        assertTrue(queued.isEmpty());
+    }
+
+    @Test
+    void testStaleStatsAreServedWhileOneRefreshRuns() {
+        // Arrange
+        RentalStatsService service = service(0);
+        service.getStats(RentalStatsService.Period.WEEK);
+
+        // Act
+        List<RentalStats> served = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            served.add(service.getStats(RentalStatsService.Period.WEEK));
+        }
+
+        // Assert
+        // Every request got the old stats right away and only one refresh was started
+        assertTrue(served.stream().allMatch(stats -> stats.getTopGames().get(0).getRentals() == 7));
+        assertEquals(1, queued.size());
+
+        queued.remove(0).run();
+        assertEquals(9, service.getStats(RentalStatsService.Period.WEEK).getTopGames().get(0).getRentals());
+        verify(mongoTemplate, times(2)).aggregate(any(Aggregation.class), eq("rents"), eq(Document.class));
+    }
+
+    @Test
+    void testFailedRefreshKeepsServingStaleStats() {
+        // Arrange
+        RentalStatsService service = service(0);
+        service.getStats(RentalStatsService.Period.YEAR);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("rents"), eq(Document.class)))
+                .thenThrow(new RuntimeException("Mongo is down"));
+
+        // Act
+        service.getStats(RentalStatsService.Period.YEAR);
+        queued.remove(0).run();
+        RentalStats stats = service.getStats(RentalStatsService.Period.YEAR);
+
+        // Assert
+        assertEquals(7, stats.getTopGames().get(0).getRentals());
+        // The failed refresh doesn't block the next one
+        assertEquals(1, queued.size());
+    }
+
+    @Test
+    void testFirstRequestsShareOneComputation() throws Exception {
+        // Arrange
+        RentalStatsService service = service(60_000);
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("rents"), eq(Document.class)))
+                .thenAnswer(invocation -> {
+                    computing.countDown();
+                    release.await();
+                    return results(7);
+                })
+                .thenAnswer(invocation -> results(9));
+
+        // Act
+        CompletableFuture<RentalStats> first = CompletableFuture.supplyAsync(
+                () -> service.getStats(RentalStatsService.Period.WEEK));
+        assertTrue(computing.await(5, TimeUnit.SECONDS));
+        CompletableFuture<RentalStats> second = CompletableFuture.supplyAsync(
+                () -> service.getStats(RentalStatsService.Period.WEEK));
+        // Another period isn't held up by the running computation
+        RentalStats month = service.getStats(RentalStatsService.Period.MONTH);
+        release.countDown();
+
+        // Assert
+        assertEquals(9, month.getTopGames().get(0).getRentals());
+        assertEquals(7, first.get(5, TimeUnit.SECONDS).getTopGames().get(0).getRentals());
+        assertEquals(7, second.get(5, TimeUnit.SECONDS).getTopGames().get(0).getRentals());
+        verify(mongoTemplate, times(2)).aggregate(any(Aggregation.class), eq("rents"), eq(Document.class));
+    }
+
+    @Test
+    void testFailedFirstComputationIsRetried() {
+        // Arrange
+        RentalStatsService service = service(60_000);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("rents"), eq(Document.class)))
+                .thenThrow(new RuntimeException("Mongo is down"))
+                .thenAnswer(invocation -> results(7));
+
+        // Act
+        assertThrows(RuntimeException.class, () -> service.getStats(RentalStatsService.Period.ALL));
+        RentalStats stats = service.getStats(RentalStatsService.Period.ALL);
+
+        // Assert
+        assertEquals(7, stats.getTopGames().get(0).getRentals());
+        verify(mongoTemplate, times(2)).aggregate(any(Aggregation.class), eq("rents"), eq(Document.class));
+    }
+
+    @Test
+    void testUnknownPeriod() {
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> RentalStatsService.Period.parse("decade"));
+        assertEquals(RentalStatsService.Period.ALL, RentalStatsService.Period.parse("all"));
+    }
+
+    private RentalStatsService service(long refreshMillis) {
+        return new RentalStatsService(mongoTemplate, new SimpleMeterRegistry(), refreshMillis, 10, queued::add);
+    }
+
+    private AggregationResults<Document> results(int rentals) {
+        Document facets = new Document("topGames", List.of(new Document("gameId", "game1").append("name", "Celeste")
+                .append("platform", "PC").append("rentals", rentals)))
+                .append("byGenreAndPlatform", List.of(new Document("genre", "Platformer").append("platform", "PC")
+                        .append("rentals", rentals)))
+                .append("duration", List.of(new Document("returnedRentals", 3).append("averageDays", 2.5)
+                        .append("averageBookedDays", 3.0)));
+        return new AggregationResults<>(List.of(facets), new Document());
+    }
+}
@@ -0,0 +1,272 @@
+package ro.unibuc.hello.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import ro.unibuc.hello.data.CalendarState;
+import ro.unibuc.hello.data.Rent;
+import ro.unibuc.hello.data.Reservation;
+import ro.unibuc.hello.data.ReservationRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReservationCalendarTest {
+
+    private static final String GAME_ID = "game1";
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    private MongoTemplate mongoTemplate;
+    private ReservationRepository reservationRepository;
+    private ReservationCalendar reservationCalendar;
+    // reservation_calendars as this instance alone moves it
+    private final AtomicLong version = new AtomicLong();
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        reservationRepository = mock(ReservationRepository.class);
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(Collections.emptyList());
+        when(reservationRepository.findByGameIdAndEndDateAfter(eq(GAME_ID), any(LocalDateTime.class)))
+                .thenReturn(Collections.emptyList());
+        when(reservationRepository.insert(any(Reservation.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        doAnswer(invocation -> new CalendarState(GAME_ID, version.incrementAndGet())).when(mongoTemplate)
+                .findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                        eq(CalendarState.class));
+        doAnswer(invocation -> new CalendarState(GAME_ID, version.get())).when(mongoTemplate)
+                .findById(GAME_ID, CalendarState.class);
+        reservationCalendar = new ReservationCalendar(mongoTemplate, reservationRepository, new SimpleMeterRegistry(),
+                3_600_000, 60_000);
+    }
+
+    @Test
+    void testWalkInCantTakeReservedCopy() {
+        // Arrange
+        reservationCalendar.reserve(reservation("booker", 2, 6), 1);
+
+        // Act & Assert
+        // A three day rent runs into the booking, a one day rent ends before it starts
+        assertThrows(IllegalStateException.class, () -> reservationCalendar.bookRent(rent("r1", "walkin", 3), 1));
+        assertNotNull(reservationCalendar.bookRent(rent("r2", "walkin", 1), 1));
+    }
+
+    @Test
+    void testNoBookingWhenEveryCopyIsOut() {
+        // Arrange
+        reservationCalendar.bookRent(rent("r1", "user1", 5), 1);
+
+        // Act & Assert
+        // Sold out right now rather than reserved later, the caller waitlists the customer
+        assertNull(reservationCalendar.bookRent(rent("r2", "user2", 1), 1));
+    }
+
+    @Test
+    void testReservationRejectedWhenFullyBooked() {
+        // Arrange
+        reservationCalendar.bookRent(rent("r1", "user1", 5), 2);
+        reservationCalendar.reserve(reservation("user2", 3, 8), 2);
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> reservationCalendar.reserve(reservation("user3", 4, 6), 2));
+        assertEquals(1, reservationCalendar.available(GAME_ID, 2, NOW.plusDays(6), NOW.plusDays(7)));
+        verify(reservationRepository, times(1)).insert(any(Reservation.class));
+    }
+
+    @Test
+    void testPickupClaimsOwnReservation() {
+        // Arrange
+        Reservation booked = reservationCalendar.reserve(reservation("booker", 0, 3), 1);
+
+        // Act
+        ReservationCalendar.Booking booking = reservationCalendar.bookRent(rent("r1", "booker", 3), 1);
+        reservationCalendar.confirm(booking);
+
+        // Assert
+        assertSame(booked, booking.claimed());
+        verify(reservationRepository, times(1)).deleteById(booked.getId());
+    }
+
+    @Test
+    void testCancelledBookingGivesReservationBack() {
+        // Arrange
+        reservationCalendar.reserve(reservation("booker", 0, 3), 1);
+        ReservationCalendar.Booking booking = reservationCalendar.bookRent(rent("r1", "booker", 3), 1);
+
+        // Act
+        reservationCalendar.cancel(booking);
+
+        // Assert
+        assertEquals(0, reservationCalendar.available(GAME_ID, 1, NOW.plusDays(1), NOW.plusDays(2)));
+        assertNull(reservationCalendar.bookRent(rent("r2", "other", 2), 1));
+    }
+
+    @Test
+    void testExtensionOnlyMovesAfterTheWrite() {
+        // Arrange
+        Rent rent = rent("r1", "user1", 2);
+        reservationCalendar.bookRent(rent, 1);
+        reservationCalendar.reserve(reservation("booker", 5, 8), 1);
+
+        // Act & Assert
+        // A lost write leaves the range alone
+        assertFalse(reservationCalendar.tryExtendRent(rent, 1, NOW.plusDays(4), () -> false));
+        assertEquals(1, reservationCalendar.available(GAME_ID, 1, NOW.plusDays(3), NOW.plusDays(4)));
+
+        assertTrue(reservationCalendar.tryExtendRent(rent, 1, NOW.plusDays(4), () -> true));
+        assertEquals(0, reservationCalendar.available(GAME_ID, 1, NOW.plusDays(3), NOW.plusDays(4)));
+
+        // The booking starts on day 5
+        assertThrows(IllegalStateException.class,
+                () -> reservationCalendar.tryExtendRent(rent, 1, NOW.plusDays(6), () -> true));
+    }
+
+    @Test
+    void testCalendarLoadsFromMongoOnce() {
+        // Arrange
+        Rent active = rent("r1", "user1", 5);
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(List.of(active));
+
+        // Act
+        int first = reservationCalendar.available(GAME_ID, 1, NOW.plusDays(1), NOW.plusDays(2));
+        reservationCalendar.releaseRent(GAME_ID, "r1");
+        int second = reservationCalendar.available(GAME_ID, 1, NOW.plusDays(1), NOW.plusDays(2));
+
+        // Assert
+        assertEquals(0, first);
+        assertEquals(1, second);
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Rent.class));
+        verify(reservationRepository, times(1)).findByGameIdAndEndDateAfter(anyString(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testLateRentKeepsItsCopyUntilReturned() {
+        // Arrange
+        // Rented ten days ago for three days and still out
+        Rent late = rent("r1", "user1", 3);
+        late.setRentDate(NOW.minusDays(10));
+        late.setDueDate(NOW.minusDays(7));
+        when(mongoTemplate.find(any(Query.class), eq(Rent.class))).thenReturn(List.of(late));
+
+        // Act
+        int beforePrune = reservationCalendar.available(GAME_ID, 1, NOW, NOW.plusMinutes(30));
+        reservationCalendar.prune();
+        int afterPrune = reservationCalendar.available(GAME_ID, 1, NOW, NOW.plusMinutes(30));
+        reservationCalendar.releaseRent(GAME_ID, "r1");
+        int afterReturn = reservationCalendar.available(GAME_ID, 1, NOW, NOW.plusMinutes(30));
+
+        // Assert
+        assertEquals(0, beforePrune);
+        assertEquals(0, afterPrune);
+        assertEquals(1, afterReturn);
+    }
+
+    @Test
+    void testBookingOnAnotherInstanceIsCheckedAgainstMongo() {
+        // Arrange
+        // Loaded empty, then another instance rents the only copy and moves the version
+        Rent remote = rent("r9", "user9", 5);
+        doReturn(Collections.emptyList()).doReturn(List.of(remote)).when(mongoTemplate)
+                .find(any(Query.class), eq(Rent.class));
+        assertEquals(1, reservationCalendar.available(GAME_ID, 1, NOW.plusDays(2), NOW.plusDays(4)));
+        doThrow(new DuplicateKeyException("version moved")).when(mongoTemplate)
+                .findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                        eq(CalendarState.class));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> reservationCalendar.reserve(reservation("booker", 2, 4), 1));
+        verify(reservationRepository, never()).insert(any(Reservation.class));
+        assertEquals(0, reservationCalendar.available(GAME_ID, 1, NOW.plusDays(2), NOW.plusDays(4)));
+    }
+
+    @Test
+    void testCopyFreedOnAnotherInstanceIsSeen() {
+        // Arrange
+        Rent rented = rent("r1", "user1", 5);
+        doReturn(List.of(rented)).doReturn(Collections.emptyList()).when(mongoTemplate)
+                .find(any(Query.class), eq(Rent.class));
+        assertEquals(0, reservationCalendar.available(GAME_ID, 1, NOW.plusDays(2), NOW.plusDays(4)));
+        // Returned through another instance
+        version.incrementAndGet();
+
+        // Act
+        Reservation stored = reservationCalendar.reserve(reservation("booker", 2, 4), 1);
+
+        // Assert
+        assertNotNull(stored);
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Rent.class));
+    }
+
+    @Test
+    void testSlowWriteDoesntHoldUpTheGame() throws Exception {
+        // Arrange
+        Rent rent = rent("r1", "user1", 2);
+        reservationCalendar.bookRent(rent, 1);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            // Act
+            Future<Boolean> extension = executor.submit(() -> reservationCalendar.tryExtendRent(rent, 1,
+                    NOW.plusDays(3), () -> {
+                        writing.countDown();
+                        return await(release);
+                    }));
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            // Assert
+            // The extension is still being written, a reservation after it goes through meanwhile
+            Reservation stored = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> reservationCalendar.reserve(reservation("booker", 5, 8), 1));
+            assertNotNull(stored);
+            // And one running into the extra days is refused without waiting for the write
+            assertThrows(IllegalStateException.class, () -> assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> reservationCalendar.reserve(reservation("other", 2, 4), 1)));
+
+            release.countDown();
+            assertTrue(extension.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Rent rent(String id, String userId, int days) {
+        Rent rent = new Rent(userId, GAME_ID, days);
+        rent.setId(id);
+        rent.setRentDate(NOW);
+        return rent;
+    }
+
+    private Reservation reservation(String userId, int startDay, int endDay) {
+        return new Reservation(GAME_ID, userId, NOW.plusDays(startDay), NOW.plusDays(endDay), NOW);
+    }
+}
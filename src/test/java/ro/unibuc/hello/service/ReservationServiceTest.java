@@ -0,0 +1,129 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ro.unibuc.hello.data.Game;
+import ro.unibuc.hello.data.Reservation;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.dto.GameAvailability;
+import ro.unibuc.hello.exception.EntityNotFoundException;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReservationServiceTest {
+
+    private static final String GAME_ID = "game1";
+    private static final String USER_ID = "user1";
+
+    @Mock
+    private ReservationRepository reservationRepository;
+
+    @Mock
+    private ReservationCalendar reservationCalendar;
+
+    @Mock
+    private GameService gameService;
+
+    @InjectMocks
+    private ReservationService reservationService;
+
+    @Test
+    void testReserve() {
+        // Arrange
+        when(gameService.getGameById(GAME_ID)).thenReturn(trackedGame(2));
+        when(reservationCalendar.reserve(any(Reservation.class), eq(2))).thenAnswer(invocation -> invocation.getArgument(0));
+        LocalDateTime start = LocalDateTime.now().plusDays(3);
+
+        // Act
+        Reservation result = reservationService.reserve(USER_ID, GAME_ID, start, start.plusDays(4));
+
+        // Assert
+        assertEquals(USER_ID, result.getUserId());
+        assertEquals(GAME_ID, result.getGameId());
+        assertEquals(start, result.getStartDate());
+    }
+
+    @Test
+    void testReserve_UntrackedGame() {
+        // Arrange
+        Game game = new Game("Untracked", "PC", "Action", 2020);
+        when(gameService.getGameById(GAME_ID)).thenReturn(game);
+        LocalDateTime start = LocalDateTime.now().plusDays(3);
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class,
+                () -> reservationService.reserve(USER_ID, GAME_ID, start, start.plusDays(4)));
+        verify(reservationCalendar, never()).reserve(any(Reservation.class), anyInt());
+    }
+
+    @Test
+    void testReserve_InvalidRange() {
+        // Arrange
+        LocalDateTime start = LocalDateTime.now().plusDays(3);
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class,
+                () -> reservationService.reserve(USER_ID, GAME_ID, start, start.minusDays(1)));
+        assertThrows(IllegalStateException.class,
+                () -> reservationService.reserve(USER_ID, GAME_ID, LocalDateTime.now().minusDays(1), start));
+        verifyNoInteractions(reservationCalendar);
+    }
+
+    @Test
+    void testCancel() {
+        // Arrange
+        Reservation reservation = new Reservation(GAME_ID, USER_ID, LocalDateTime.now(), LocalDateTime.now().plusDays(1),
+                LocalDateTime.now());
+        reservation.setId("reservation1");
+        when(reservationRepository.findById("reservation1")).thenReturn(Optional.of(reservation));
+
+        // Act
+        reservationService.cancel("reservation1");
+
+        // Assert
+        verify(reservationCalendar, times(1)).cancelReservation(reservation);
+    }
+
+    @Test
+    void testCancel_NotFound() {
+        // Arrange
+        when(reservationRepository.findById("missing")).thenReturn(Optional.empty());
+
+        // Act & Assert
+        assertThrows(EntityNotFoundException.class, () -> reservationService.cancel("missing"));
+    }
+
+    @Test
+    void testGetAvailability() {
+        // Arrange
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        LocalDateTime end = start.plusDays(2);
+        when(gameService.getGameById(GAME_ID)).thenReturn(trackedGame(3));
+        when(reservationCalendar.available(GAME_ID, 3, start, end)).thenReturn(1);
+
+        // Act
+        GameAvailability result = reservationService.getAvailability(GAME_ID, start, end);
+
+        // Assert
+        assertEquals(GAME_ID, result.getGameId());
+        assertEquals(1, result.getAvailable());
+    }
+
+    private Game trackedGame(int copies) {
+        Game game = new Game("Tracked", "PC", "Action", 2020);
+        game.setId(GAME_ID);
+        game.setCopies(copies);
+        return game;
+    }
+}
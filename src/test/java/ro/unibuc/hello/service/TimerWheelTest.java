@@ -0,0 +1,102 @@
+package ro.unibuc.hello.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    @Test
+    void testExpiresAtDeadline() {
+        // Arrange
+        TimerWheel<String> wheel = new TimerWheel<>(1, 0);
+        List<String> expired = new ArrayList<>();
+        wheel.add("a", 10);
+
+        // Act & Assert
+        wheel.advance(9, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(10, expired::add);
+        assertEquals(List.of("a"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testPastDeadlineIsNotScheduled() {
+        // Arrange
+        TimerWheel<String> wheel = new TimerWheel<>(1000, 5_000);
+
+        // Act & Assert
+        assertFalse(wheel.add("a", 4_000));
+        assertFalse(wheel.add("b", 5_000));
+        assertTrue(wheel.add("c", 5_001));
+        assertFalse(wheel.contains("a"));
+    }
+
+    @Test
+    void testRemovedAndRescheduledTimers() {
+        // Arrange
+        TimerWheel<String> wheel = new TimerWheel<>(1, 0);
+        List<String> expired = new ArrayList<>();
+        wheel.add("removed", 100);
+        wheel.add("moved", 100);
+
+        // Act
+        assertTrue(wheel.remove("removed"));
+        wheel.add("moved", 10_000);
+        wheel.advance(9_999, expired::add);
+
+        // Assert
+        assertTrue(expired.isEmpty());
+        wheel.advance(10_000, expired::add);
+        assertEquals(List.of("moved"), expired);
+    }
+
+    @Test
+    void testMatchesBruteForceAcrossLevels() {
+        // Arrange
+        Random random = new Random(7);
+        TimerWheel<Integer> wheel = new TimerWheel<>(1, 1_000);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        long now = 1_000;
+        int nextKey = 0;
+
+        for (int round = 0; round < 2_000; round++) {
+            // Act
+            for (int i = 0; i < 5; i++) {
+                // Spread over three levels of the wheel
+                long deadline = now + 1 + random.nextInt(300_000);
+                wheel.add(nextKey, deadline);
+                deadlines.put(nextKey++, deadline);
+            }
+            if (!deadlines.isEmpty() && random.nextInt(4) == 0) {
+                Integer key = deadlines.keySet().iterator().next();
+                wheel.remove(key);
+                deadlines.remove(key);
+            }
+            now += random.nextInt(500);
+            Set<Integer> expired = new HashSet<>();
+            wheel.advance(now, expired::add);
+
+            // Assert
+            Set<Integer> expected = new HashSet<>();
+            long cutoff = now;
+            deadlines.forEach((key, deadline) -> {
+                if (deadline <= cutoff) {
+                    expected.add(key);
+                }
+            });
+            assertEquals(expected, expired);
+            expected.forEach(deadlines::remove);
+            assertEquals(deadlines.size(), wheel.size());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ro.unibuc.hello.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import ro.unibuc.hello.data.WaitlistEntry;
+import ro.unibuc.hello.data.WaitlistEntryRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class WaitlistServiceTest {
+
+    private WaitlistEntryRepository waitlistEntryRepository;
+    private MongoTemplate mongoTemplate;
+    private WaitlistService waitlistService;
+
+    @BeforeEach
+    void setUp() {
+        waitlistEntryRepository = mock(WaitlistEntryRepository.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq(WaitlistService.SEQUENCES))).thenReturn(new Document("seq", 7L));
+        waitlistService = new WaitlistService(waitlistEntryRepository, mongoTemplate, new SimpleMeterRegistry(), 60_000);
+    }
+
+    @Test
+    void testPositionCountsEveryoneQueuedUpToTheWaiter() {
+        // Arrange
+        when(mongoTemplate.findOne(any(Query.class), eq(WaitlistEntry.class))).thenReturn(entry("user2", 5L));
+        when(mongoTemplate.count(any(Query.class), eq(WaitlistEntry.class))).thenReturn(3L);
+
+        // Act
+        long position = waitlistService.position("user2", "game1");
+
+        // Assert
+        ArgumentCaptor<Query> counted = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).count(counted.capture(), eq(WaitlistEntry.class));
+        assertEquals(3, position);
+        assertEquals(new Document("$lte", 5L), counted.getValue().getQueryObject().get("seq"));
+        assertEquals("game1", counted.getValue().getQueryObject().get("gameId"));
+    }
+
+    @Test
+    void testNotWaitingHasNoPosition() {
+        // Act & Assert
+        assertEquals(0, waitlistService.position("user1", "game1"));
+        verify(mongoTemplate, never()).count(any(Query.class), eq(WaitlistEntry.class));
+    }
+
+    @Test
+    void testEnqueueTakesTheNextSequence() {
+        // Arrange
+        when(mongoTemplate.findOne(any(Query.class), eq(WaitlistEntry.class)))
+                .thenReturn(null)
+                .thenReturn(entry("user1", 7L));
+        when(mongoTemplate.count(any(Query.class), eq(WaitlistEntry.class))).thenReturn(2L);
+
+        // Act
+        long position = waitlistService.enqueue("user1", "game1", 3);
+
+        // Assert
+        ArgumentCaptor<WaitlistEntry> inserted = ArgumentCaptor.forClass(WaitlistEntry.class);
+        verify(waitlistEntryRepository).insert(inserted.capture());
+        assertEquals(7L, inserted.getValue().getSeq());
+        assertEquals(2, position);
+    }
+
+    @Test
+    void testQueuedThroughAnotherInstanceGetsTheRealPosition() {
+        // Arrange
+        // Not there on the first look, then the other instance's insert wins the unique index
+        when(mongoTemplate.findOne(any(Query.class), eq(WaitlistEntry.class)))
+                .thenReturn(null)
+                .thenReturn(entry("user1", 4L));
+        when(waitlistEntryRepository.insert(any(WaitlistEntry.class))).thenThrow(new DuplicateKeyException("duplicate"));
+        when(mongoTemplate.count(any(Query.class), eq(WaitlistEntry.class))).thenReturn(4L);
+
+        // Act
+        long position = waitlistService.enqueue("user1", "game1", 3);
+
+        // Assert
+        assertEquals(4, position);
+        verify(waitlistEntryRepository, times(1)).insert(any(WaitlistEntry.class));
+    }
+
+    @Test
+    void testPollClaimsTheFirstUnclaimedWaiter() {
+        // Arrange
+        WaitlistEntry first = entry("user1", 1L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(WaitlistEntry.class))).thenReturn(first);
+
+        // Act
+        WaitlistEntry polled = waitlistService.poll("game1");
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(WaitlistEntry.class));
+        assertSame(first, polled);
+        assertEquals(new Document("seq", 1), query.getValue().getSortObject());
+        // Unclaimed, or claimed long enough ago that the allocation must have died
+        assertEquals(2, query.getValue().getQueryObject().getList("$or", Document.class).size());
+        assertNotNull(update.getValue().getUpdateObject().get("$set", Document.class).get("claimedAt"));
+    }
+
+    @Test
+    void testRequeueReleasesTheClaims() {
+        // Arrange
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(WaitlistEntry.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // Act
+        waitlistService.requeue("game1", List.of(entry("user1", 1L), entry("user2", 2L)));
+
+        // Assert
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, times(2)).updateFirst(any(Query.class), update.capture(), eq(WaitlistEntry.class));
+        assertTrue(update.getValue().getUpdateObject().get("$unset", Document.class).containsKey("claimedAt"));
+    }
+
+    @Test
+    void testCancelLeavesTheQueue() {
+        // Arrange
+        when(mongoTemplate.remove(any(Query.class), eq(WaitlistEntry.class)))
+                .thenReturn(DeleteResult.acknowledged(1))
+                .thenReturn(DeleteResult.acknowledged(0));
+
+        // Act & Assert
+        assertTrue(waitlistService.cancel("user1", "game1"));
+        assertFalse(waitlistService.cancel("user1", "game1"));
+    }
+
+    @Test
+    void testEntriesFromBeforeTheSequenceAreNumbered() {
+        // Arrange
+        WaitlistEntry legacy = new WaitlistEntry("game1", "user1", 3, LocalDateTime.now());
+        legacy.setId("entry1");
+        when(mongoTemplate.find(any(Query.class), eq(WaitlistEntry.class))).thenReturn(List.of(legacy));
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(WaitlistEntry.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // Act
+        waitlistService.assignSequences();
+
+        // Assert
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(WaitlistEntry.class));
+        assertEquals(7L, update.getValue().getUpdateObject().get("$set", Document.class).get("seq"));
+    }
+
+    private WaitlistEntry entry(String userId, Long seq) {
+        WaitlistEntry entry = new WaitlistEntry("game1", userId, 3, LocalDateTime.now());
+        entry.setId("game1-" + userId);
+        entry.setSeq(seq);
+        return entry;
+    }
+}